@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.IOPair;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-memory {@link IOPair} that hands out a fixed transcript in
+ * chunks of a given size, pausing briefly before each chunk.  The pause
+ * gives <code>Expect4j.expect</code> a chance to run its patterns
+ * between chunks, the way it would against a real device trickling
+ * output over the network.
+ */
+public class ChunkedPair implements IOPair {
+    Reader is;
+    Writer os;
+
+    /**
+     * Creates a <code>ChunkedPair</code> over the given transcript.
+     *
+     * @param transcript the data returned by the reader
+     * @param chunkSize the maximum number of characters per read
+     * @param pauseNanos how long to pause before each read
+     */
+    public ChunkedPair(final String transcript, final int chunkSize, final long pauseNanos) {
+        is = new Reader() {
+            int offset = 0;
+
+            public int read(char[] cbuf, int off, int len) {
+                if (offset >= transcript.length())
+                    return -1;
+
+                if (pauseNanos > 0)
+                    LockSupport.parkNanos(pauseNanos);
+
+                int count = Math.min(Math.min(len, chunkSize), transcript.length() - offset);
+                transcript.getChars(offset, offset + count, cbuf, off);
+                offset += count;
+                return count;
+            }
+
+            public void close() {
+                offset = transcript.length();
+            }
+        };
+        os = new StringWriter();
+    }
+
+    public Reader getReader() { return is; }
+    public Writer getWriter() { return os; }
+
+    public void reset() {
+    }
+
+    public void close() {
+        try { is.close(); } catch(Exception e) { }
+    }
+
+    /**
+     * Builds a transcript of roughly <code>size</code> characters of
+     * <code>show</code> style output followed by the given prompt.
+     *
+     * @param size the approximate number of characters before the prompt
+     * @param prompt the text that terminates the transcript
+     * @return the transcript
+     */
+    public static String transcript(int size, String prompt) {
+        String line = "GigabitEthernet0/1 is up, line protocol is up (connected)\r\n";
+        StringBuilder sb = new StringBuilder(size + prompt.length());
+        while (sb.length() < size)
+            sb.append(line);
+        sb.append(prompt);
+        return sb.toString();
+    }
+}
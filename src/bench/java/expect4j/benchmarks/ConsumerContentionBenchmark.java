@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.BufferSnapshot;
+import expect4j.ConcurrentSessionBuffer;
+import expect4j.SessionBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the handoff between the thread reading a session and the
+ * thread matching against it.  With the <code>monitor</code> handoff,
+ * which {@link expect4j.BlockingConsumer} uses, the reader appends under
+ * the same lock the matcher holds for the whole match, so the
+ * <code>read</code> throughput drops as matching gets more expensive.
+ * With the <code>lockfree</code> handoff of {@link
+ * expect4j.LockFreeConsumer}, the reader only publishes a write index
+ * and keeps its throughput.
+ * <p>
+ * <code>matchTokens</code> is the CPU spent on each match, in {@link
+ * Blackhole#consumeCPU(long)} tokens.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConsumerContentionBenchmark {
+
+    @Param({"monitor", "lockfree"})
+    String handoff;
+
+    @Param({"0", "1000", "10000"})
+    long matchTokens;
+
+    SessionBuffer buffer;
+    ConcurrentSessionBuffer concurrentBuffer;
+    final Object lock = new Object();
+    final char[] chunk = new char[256];
+
+    @Setup
+    public void setUp() {
+        if ("lockfree".equals(handoff)) {
+            concurrentBuffer = new ConcurrentSessionBuffer();
+        } else {
+            buffer = new SessionBuffer();
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public void read() {
+        if (concurrentBuffer != null) {
+            concurrentBuffer.append(chunk, 0, chunk.length);
+        } else {
+            synchronized(lock) {
+                buffer.append(chunk, 0, chunk.length);
+                lock.notify();
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public int match() {
+        BufferSnapshot snapshot;
+        if (concurrentBuffer != null) {
+            snapshot = concurrentBuffer.snapshot();
+            Blackhole.consumeCPU(matchTokens);
+            concurrentBuffer.consumeFrom(snapshot.getGeneration(), snapshot.length());
+        } else {
+            synchronized(lock) {
+                snapshot = buffer.snapshot();
+                Blackhole.consumeCPU(matchTokens);
+                buffer.consume(snapshot.length());
+            }
+        }
+        return snapshot.length();
+    }
+}
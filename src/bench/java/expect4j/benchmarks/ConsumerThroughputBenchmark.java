@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.BlockingConsumer;
+import expect4j.Expect4j;
+import expect4j.ExpectConsumer;
+import expect4j.IOPair;
+import expect4j.LockFreeConsumer;
+import expect4j.PollingBackoff;
+import expect4j.PollingConsumer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast a session takes in output end to end: a device
+ * thread writes a megabyte through a {@link MemoryPipe}, in writes of
+ * <code>chunkSize</code>, and <code>expect</code> waits for the prompt
+ * that ends it.  The result is the time per megabyte, for each kind of
+ * consumer; <code>byte</code> reads an <code>InputStream</code> and
+ * decodes it, the others read a <code>Reader</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConsumerThroughputBenchmark {
+
+    static final int OUTPUT_SIZE = 1024 * 1024;
+
+    static final String PROMPT = "\r\nswitch-01#";
+
+    @Param({"lockfree", "blocking", "polling", "byte"})
+    String consumer;
+
+    @Param({"64", "4096"})
+    int chunkSize;
+
+    byte[] transcript;
+    MemoryPipe pipe;
+    Expect4j expect;
+    Thread device;
+
+    @Setup
+    public void setUpTrial() {
+        transcript = ChunkedPair.transcript(OUTPUT_SIZE, PROMPT).getBytes(Charset.forName("ISO-8859-1"));
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        pipe = new MemoryPipe(65536);
+        if ("byte".equals(consumer)) {
+            expect = new Expect4j(pipe.getInputStream(), new ByteArrayOutputStream(), Charset.forName("ISO-8859-1"));
+        } else {
+            IOPair pair = new PipePair(pipe.getReader());
+            expect = new Expect4j(pair, createConsumer(consumer, pair), null);
+        }
+        expect.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        expect.setMatchLookback(256);
+
+        device = new Thread("pipe-device") {
+            public void run() {
+                try {
+                    for (int off = 0; off < transcript.length; off += chunkSize)
+                        pipe.write(transcript, off, Math.min(chunkSize, transcript.length - off));
+                } catch (IOException ioe) {
+                    // closed
+                }
+            }
+        };
+        device.setDaemon(true);
+    }
+
+    static ExpectConsumer createConsumer(String kind, IOPair pair) {
+        if ("blocking".equals(kind))
+            return new BlockingConsumer(pair);
+        if ("polling".equals(kind))
+            return new PollingConsumer(pair, PollingBackoff.DEFAULT);
+        return new LockFreeConsumer(pair);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws InterruptedException {
+        expect.close();
+        pipe.close();
+        device.join(1000);
+    }
+
+    @Benchmark
+    public int readMegabyte() throws Exception {
+        device.start();
+        return expect.expect("switch-01#");
+    }
+
+    /**
+     * A pair that reads from one end of a pipe, and discards what is
+     * sent.
+     */
+    static class PipePair implements IOPair {
+        final Reader is;
+        final Writer os = new StringWriter();
+
+        PipePair(Reader is) {
+            this.is = is;
+        }
+
+        public Reader getReader() { return is; }
+        public Writer getWriter() { return os; }
+
+        public void reset() {
+        }
+
+        public void close() {
+            try { is.close(); } catch(Exception e) { }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.Closure;
+import expect4j.Expect4j;
+import expect4j.ExpectState;
+import expect4j.matches.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures a single <code>expect</code> call that pages through long
+ * output, calling <code>exp_continue</code> on every
+ * <code>--More--</code> until the prompt shows up, the way scripts
+ * read the output of <code>show running-config</code>.  Each page
+ * starts the search over after the previous match.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExpContinueBenchmark {
+
+    @Param({"10", "100"})
+    int pages;
+
+    @Param({"256", "4096"})
+    int chunkSize;
+
+    String transcript;
+    List<Match> pairs;
+    Expect4j expect;
+    int pageCount;
+
+    @Setup
+    public void setUpTrial() throws Exception {
+        String page = ChunkedPair.transcript(24 * 60, " --More-- ");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pages; i++)
+            sb.append(page);
+        sb.append("\r\nswitch-01#");
+        transcript = sb.toString();
+
+        pairs = Arrays.<Match>asList(
+                new ExactMatch("--More--", new Closure() {
+                    public void run(ExpectState state) {
+                        pageCount++;
+                        state.exp_continue();
+                    }
+                }),
+                new ExactMatch("switch-01#", null));
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        expect = new Expect4j(new ChunkedPair(transcript, chunkSize, 0));
+        expect.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        pageCount = 0;
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        expect.close();
+    }
+
+    @Benchmark
+    public int pageThrough() throws Exception {
+        expect.expect(pairs);
+        return pageCount;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.Expect4j;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how long a single <code>expect</code> call takes to find a
+ * prompt at the end of a large output that arrives in 256 character
+ * chunks.  Every chunk wakes up the matcher, so with an unbounded
+ * lookback the time grows with the square of the output size, while a
+ * bounded lookback keeps it linear.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IncrementalMatchBenchmark {
+
+    @Param({"65536", "262144", "1048576"})
+    int outputSize;
+
+    @Param({"-1", "256"})
+    int lookback;
+
+    Expect4j expect;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        String transcript = ChunkedPair.transcript(outputSize, "\r\nswitch-01#");
+        expect = new Expect4j(new ChunkedPair(transcript, 256, 20 * 1000));
+        expect.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        expect.setMatchLookback(lookback);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        expect.close();
+    }
+
+    @Benchmark
+    public int expectPrompt() throws Exception {
+        return expect.expect("switch-01#");
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import java.io.*;
+
+/**
+ * An in-memory pipe between a simulated device and a session, which
+ * can be read as bytes or, decoded as ISO-8859-1, as characters.
+ * Unlike <code>PipedInputStream</code> and <code>PipedReader</code>,
+ * which poll once a second when the pipe is full or empty, each side
+ * wakes the other as soon as there is data or room, so the pipe itself
+ * doesn't limit the throughput being measured.
+ */
+public class MemoryPipe {
+    final byte[] buffer;
+    int head = 0;
+    int count = 0;
+    boolean closed = false;
+
+    /**
+     * Creates a pipe that holds up to the given number of bytes.
+     *
+     * @param capacity the size of the pipe's buffer
+     */
+    public MemoryPipe(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Writes bytes, waiting for room in the pipe.
+     *
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException if the pipe is closed
+     */
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (count == buffer.length && !closed)
+                await();
+            if (closed)
+                throw new IOException("Pipe closed");
+            int tail = (head + count) % buffer.length;
+            int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+            System.arraycopy(b, off, buffer, tail, n);
+            count += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads what is in the pipe, waiting until there is something.
+     *
+     * @return the number of bytes read, or <code>-1</code> once the
+     *         pipe is closed
+     */
+    synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (count == 0 && !closed)
+            await();
+        if (count == 0)
+            return -1;
+        int n = Math.min(len, Math.min(count, buffer.length - head));
+        System.arraycopy(buffer, head, b, off, n);
+        head = (head + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    synchronized int read(char[] c, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (count == 0 && !closed)
+            await();
+        if (count == 0)
+            return -1;
+        int n = Math.min(len, count);
+        for (int i = 0; i < n; i++) {
+            c[off + i] = (char) (buffer[head] & 0xff);
+            head = (head + 1) % buffer.length;
+        }
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    synchronized int available() {
+        return count;
+    }
+
+    void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Closes the pipe.  Readers see EOF once it is drained, and writers
+     * fail.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the device's end of the pipe.
+     *
+     * @return a stream that writes into the pipe
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            public void write(int b) throws IOException {
+                MemoryPipe.this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                MemoryPipe.this.write(b, off, len);
+            }
+
+            public void close() {
+                MemoryPipe.this.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the session's end of the pipe, as bytes.
+     *
+     * @return a stream that reads from the pipe
+     */
+    public InputStream getInputStream() {
+        return new InputStream() {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (MemoryPipe.this.read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                return MemoryPipe.this.read(b, off, len);
+            }
+
+            public int available() {
+                return MemoryPipe.this.available();
+            }
+
+            public void close() {
+                MemoryPipe.this.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the session's end of the pipe, as characters.
+     *
+     * @return a reader that reads from the pipe
+     */
+    public Reader getReader() {
+        return new Reader() {
+            public int read(char[] c, int off, int len) throws IOException {
+                return MemoryPipe.this.read(c, off, len);
+            }
+
+            public boolean ready() {
+                return MemoryPipe.this.available() > 0;
+            }
+
+            public void close() {
+                MemoryPipe.this.close();
+            }
+        };
+    }
+}
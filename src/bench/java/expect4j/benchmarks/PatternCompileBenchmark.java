@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.matches.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what building the patterns of an <code>expect</code> call
+ * costs: compiling each pattern, translating globs, and combining them
+ * into a {@link PatternSet}, with the shared {@link PatternCache} and
+ * without it.  Scripts build the same pattern lists on every call, so
+ * this is paid over and over unless the cache holds them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PatternCompileBenchmark {
+
+    @Param({"exact", "glob", "regexp"})
+    String kind;
+
+    @Param({"1", "8", "32"})
+    int patternCount;
+
+    @Param({"shared", "none"})
+    String cache;
+
+    PatternCache previous;
+
+    @Setup
+    public void setUp() {
+        previous = PatternCache.getShared();
+        if ("none".equals(cache))
+            PatternCache.setShared(new PatternCache(0));
+        else
+            PatternCache.setShared(new PatternCache(PatternCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        PatternCache.setShared(previous);
+    }
+
+    @Benchmark
+    public PatternSet compilePatterns() throws Exception {
+        List<PatternPair> pairs = PatternMatchBenchmark.createPatterns(kind, patternCount);
+        return new PatternSet(pairs);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.matches.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the search behind every <code>expect</code> call: finding
+ * the one pattern that matches, the prompt at the end of the output,
+ * among patterns that don't.  Shows how the cost grows with the number
+ * of patterns and the size of the buffer, for literal, glob and
+ * regular expression patterns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PatternMatchBenchmark {
+
+    @Param({"exact", "glob", "regexp"})
+    String kind;
+
+    @Param({"1", "8", "32"})
+    int patternCount;
+
+    @Param({"1024", "65536"})
+    int outputSize;
+
+    char[] text;
+
+    PatternSet patterns;
+
+    @Setup
+    public void setUp() throws Exception {
+        text = ChunkedPair.transcript(outputSize, "\r\nswitch-01#").toCharArray();
+        patterns = new PatternSet(createPatterns(kind, patternCount));
+    }
+
+    /**
+     * Creates patterns that aren't in the transcript, followed by one
+     * for its prompt.
+     */
+    static List<PatternPair> createPatterns(String kind, int count) throws MalformedPatternException {
+        List<PatternPair> pairs = new ArrayList<>();
+        for (int i = 1; i < count; i++)
+            pairs.add(createPattern(kind, "router-" + i + "(config)#", "router-" + i + "\\(config[^)]*\\)#"));
+        pairs.add(createPattern(kind, "switch-01#", "switch-\\d+#"));
+        return pairs;
+    }
+
+    static PatternPair createPattern(String kind, String literal, String regexp) throws MalformedPatternException {
+        if ("exact".equals(kind))
+            return new ExactMatch(literal, null);
+        if ("glob".equals(kind))
+            return new GlobMatch("*" + literal.replace("(", "[(]").replace(")", "[)]"), null);
+        return new RegExpMatch(regexp, null);
+    }
+
+    @Benchmark
+    public int findPrompt() {
+        return patterns.find(text, 0, text.length, 0);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.BlockingConsumer;
+import expect4j.Expect4j;
+import expect4j.ExpectConsumer;
+import expect4j.IOPair;
+import expect4j.LockFreeConsumer;
+import expect4j.PollingBackoff;
+import expect4j.PollingConsumer;
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the round trip of one step of a dialog: sending a command
+ * and expecting the prompt that a simulated device answers with from
+ * a thread of its own.  With the <code>polling-fixed</code> consumer,
+ * the 500 millisecond sleep {@link PollingConsumer} used to have, most
+ * of the round trip is spent sleeping; with the default {@link
+ * PollingBackoff} the polling consumer comes close to the blocking
+ * ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PromptLatencyBenchmark {
+
+    @Param({"lockfree", "blocking", "polling", "polling-fixed"})
+    String consumer;
+
+    LoopbackPair pair;
+    Expect4j expect;
+
+    @Setup
+    public void setUp() throws IOException {
+        pair = new LoopbackPair("ok\r\n$ ");
+        expect = new Expect4j(pair, createConsumer(consumer, pair), null);
+    }
+
+    static ExpectConsumer createConsumer(String kind, IOPair pair) {
+        if ("blocking".equals(kind))
+            return new BlockingConsumer(pair);
+        if ("polling".equals(kind))
+            return new PollingConsumer(pair, PollingBackoff.DEFAULT);
+        if ("polling-fixed".equals(kind))
+            return new PollingConsumer(pair, PollingBackoff.fixed(500));
+        return new LockFreeConsumer(pair);
+    }
+
+    @TearDown
+    public void tearDown() {
+        expect.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws Exception {
+        expect.send("show version\r");
+        return expect.expect("$ ");
+    }
+
+    /**
+     * A pair whose device answers every line it is sent with the same
+     * response, written from a thread of its own.
+     */
+    public static class LoopbackPair implements IOPair {
+        final PipedReader is;
+        final PipedWriter device;
+        final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+        final Thread deviceThread;
+        final Writer os;
+
+        public LoopbackPair(final String response) throws IOException {
+            is = new PipedReader(65536);
+            device = new PipedWriter(is);
+            deviceThread = new Thread("loopback-device") {
+                public void run() {
+                    try {
+                        while (true) {
+                            commands.take();
+                            device.write(response);
+                            device.flush();
+                        }
+                    } catch (Exception e) {
+                        // closed
+                    }
+                }
+            };
+            deviceThread.setDaemon(true);
+            deviceThread.start();
+
+            os = new Writer() {
+                final StringBuilder line = new StringBuilder();
+
+                public void write(char[] cbuf, int off, int len) {
+                    for (int i = off; i < off + len; i++) {
+                        if (cbuf[i] == '\r') {
+                            commands.add(line.toString());
+                            line.setLength(0);
+                        } else {
+                            line.append(cbuf[i]);
+                        }
+                    }
+                }
+
+                public void flush() {
+                }
+
+                public void close() {
+                }
+            };
+        }
+
+        public Reader getReader() { return is; }
+        public Writer getWriter() { return os; }
+
+        public void reset() {
+        }
+
+        public void close() {
+            deviceThread.interrupt();
+            try { device.close(); } catch(Exception e) { }
+        }
+    }
+}
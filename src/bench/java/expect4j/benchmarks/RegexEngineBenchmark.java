@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.matches.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the regular expression engines on a typical prompt search:
+ * a login dialog's worth of patterns run over a device transcript that
+ * ends with the prompt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegexEngineBenchmark {
+
+    @Param({"oro", "jdk", "linear"})
+    String engine;
+
+    @Param({"4096", "65536"})
+    int outputSize;
+
+    char[] text;
+
+    PatternSet patterns;
+
+    @Setup
+    public void setUp() throws Exception {
+        RegexEngine regexEngine = OroRegexEngine.INSTANCE;
+        if ("jdk".equals(engine))
+            regexEngine = JdkRegexEngine.INSTANCE;
+        else if ("linear".equals(engine))
+            regexEngine = LinearRegexEngine.INSTANCE;
+        text = ChunkedPair.transcript(outputSize, "\r\nswitch-01#").toCharArray();
+
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add(new RegExpMatch("[Ll]ogin: ", null));
+        pairs.add(new RegExpMatch("[Pp]assword: ", null));
+        pairs.add(new RegExpMatch("% (Invalid|Incomplete) (input|command)", null));
+        pairs.add(new GlobMatch("--More--", null));
+        pairs.add(new RegExpMatch("\\r\\n([\\w.-]+)(\\(config[^)]*\\))?[>#]$", null));
+        patterns = new PatternSet(pairs, regexEngine);
+    }
+
+    @Benchmark
+    public int findPrompt() {
+        return patterns.find(text, 0, text.length, 0);
+    }
+}
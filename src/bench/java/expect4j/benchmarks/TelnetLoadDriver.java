@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.benchmarks;
+
+import expect4j.DeviceSimulator;
+import expect4j.Expect4j;
+import expect4j.ExpectUtils;
+import expect4j.FanOutRunner;
+import expect4j.matches.EofMatch;
+import expect4j.matches.GlobMatch;
+import expect4j.matches.Match;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives thousands of telnet sessions through {@link
+ * ExpectUtils#telnet(String, int)} against a {@link DeviceSimulator}
+ * in the same JVM, and reports how many sessions complete per second,
+ * the CPU each takes and the heap each holds while open.  Unlike the
+ * JMH benchmarks this measures the whole path, sockets, telnet client,
+ * consumer threads and matching, under load.  Options are given as
+ * <code>name=value</code>:
+ *
+ * <pre>
+ * sessions=5000      sessions to run, each logs in, runs the commands
+ *                    and exits
+ * concurrency=500    sessions open at once
+ * commands=5         commands per session
+ * latency=5          milliseconds before the simulator answers
+ * output=4096        characters each command prints
+ * fragment=0         bytes per fragment, 0 to send answers whole
+ * fragmentDelay=0    milliseconds between fragments
+ * hold=1000          sessions held open to measure heap, 0 to skip
+ * </pre>
+ *
+ * CPU per session is the process's CPU time during the run, less the
+ * simulator thread's, divided by the sessions.  Heap per session is
+ * the growth in heap used after a full collection with
+ * <code>hold</code> sessions logged in, and includes the simulator's
+ * side of each session, which is a few hundred bytes.
+ */
+public class TelnetLoadDriver {
+    static final String PROMPT = "sim# ";
+
+    final Map<String, String> options = new LinkedHashMap<>();
+    final DeviceSimulator simulator = new DeviceSimulator();
+    final int commands;
+
+    TelnetLoadDriver(String[] args) {
+        options.put("sessions", "5000");
+        options.put("concurrency", "500");
+        options.put("commands", "5");
+        options.put("latency", "5");
+        options.put("output", "4096");
+        options.put("fragment", "0");
+        options.put("fragmentDelay", "0");
+        options.put("hold", "1000");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals == -1 || !options.containsKey(arg.substring(0, equals)))
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        commands = option("commands");
+        simulator.setLogin("admin", "secret");
+        simulator.setPrompt(PROMPT);
+        simulator.addCommand("show running-config", option("output"));
+        simulator.setLatency(option("latency"), TimeUnit.MILLISECONDS);
+        simulator.setFragmentation(option("fragment"), option("fragmentDelay"), TimeUnit.MILLISECONDS);
+    }
+
+    int option(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    Expect4j connect() throws Exception {
+        Expect4j expect = ExpectUtils.telnet("127.0.0.1", simulator.getPort());
+        expect.setDefaultTimeout(60 * 1000);
+        return expect;
+    }
+
+    static void expect(Expect4j expect, String pattern) throws Exception {
+        int index = expect.expect(Arrays.<Match>asList(new GlobMatch(pattern, null)));
+        if (index != 0)
+            throw new IllegalStateException("Expected \"" + pattern + "\", got " + index);
+    }
+
+    static void login(Expect4j expect) throws Exception {
+        expect(expect, "login: ");
+        expect.send("admin\n");
+        expect(expect, "Password: ");
+        expect.send("secret\n");
+        expect(expect, PROMPT);
+    }
+
+    void run() throws Exception {
+        simulator.start();
+        try {
+            System.out.println("options       " + options);
+            runSessions();
+            if (option("hold") > 0)
+                holdSessions(option("hold"));
+        } finally {
+            simulator.close();
+        }
+    }
+
+    void runSessions() throws Exception {
+        int count = option("sessions");
+        List<String> sessions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            sessions.add("session" + i);
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = processCpuTime(os);
+        long simulatorStart = simulator.getCpuTime();
+        long start = System.nanoTime();
+
+        List<FanOutRunner.HostResult<Void>> results = new FanOutRunner(option("concurrency")).run(sessions,
+                new FanOutRunner.Connector() {
+                    public Expect4j connect(String host) throws Exception {
+                        return TelnetLoadDriver.this.connect();
+                    }
+                },
+                new FanOutRunner.Dialog<Void>() {
+                    public Void run(String host, Expect4j expect) throws Exception {
+                        login(expect);
+                        for (int i = 0; i < commands; i++) {
+                            expect.send("show running-config\n");
+                            expect(expect, "uplink*" + PROMPT);
+                        }
+                        expect.send("exit\n");
+                        expect.expect(Arrays.<Match>asList(new EofMatch()));
+                        return null;
+                    }
+                });
+
+        long elapsed = System.nanoTime() - start;
+        long cpu = processCpuTime(os) - cpuStart;
+        long simulatorCpu = simulator.getCpuTime() - simulatorStart;
+
+        int failures = 0;
+        long[] times = new long[results.size()];
+        for (int i = 0; i < times.length; i++) {
+            FanOutRunner.HostResult<Void> result = results.get(i);
+            if (!result.isSuccess()) {
+                if (failures++ == 0)
+                    System.out.println("first failure " + result);
+            }
+            times[i] = result.getTotalTime(TimeUnit.MICROSECONDS);
+        }
+        Arrays.sort(times);
+
+        System.out.printf("sessions      %d (%d failed)%n", count, failures);
+        System.out.printf("elapsed       %.2f s%n", elapsed / 1e9);
+        System.out.printf("throughput    %.1f sessions/s%n", count / (elapsed / 1e9));
+        System.out.printf("session time  p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                percentile(times, 50) / 1e3, percentile(times, 99) / 1e3, times[times.length - 1] / 1e3);
+        if (cpu >= 0 && simulatorCpu >= 0) {
+            System.out.printf("client cpu    %.3f ms/session%n", (cpu - simulatorCpu) / 1e6 / count);
+            System.out.printf("simulator cpu %.3f ms/session%n", simulatorCpu / 1e6 / count);
+        } else {
+            System.out.println("cpu           not measured by this JVM");
+        }
+        System.out.printf("simulator     %d commands, %.1f MB sent%n",
+                simulator.getCommandCount(), simulator.getBytesSent() / 1e6);
+    }
+
+    void holdSessions(int count) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = heapUsed(memory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, option("concurrency")));
+        List<Expect4j> held = new ArrayList<>(count);
+        try {
+            List<Future<Expect4j>> opening = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                opening.add(executor.submit(new Callable<Expect4j>() {
+                    public Expect4j call() throws Exception {
+                        Expect4j expect = connect();
+                        login(expect);
+                        return expect;
+                    }
+                }));
+            }
+            for (Future<Expect4j> future : opening)
+                held.add(future.get());
+
+            long after = heapUsed(memory);
+            System.out.printf("heap          %.1f KB/session (%d sessions open)%n",
+                    (after - before) / 1024.0 / count, count);
+        } finally {
+            executor.shutdown();
+            for (Expect4j expect : held)
+                expect.close();
+        }
+    }
+
+    static long heapUsed(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    static long processCpuTime(OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    public static void main(String[] args) throws Exception {
+        new TelnetLoadDriver(args).run();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives an {@link Expect4j.ExpectCall} without a thread waiting for
+ * it.  The call is stepped whenever the consumer reports input, and
+ * when its timeout expires on the shared timer.  Signals that come in
+ * while a step is running are folded into one more step, so steps never
+ * overlap and none is lost.
+ */
+class AsyncExpect implements Runnable {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AsyncExpect.class);
+
+    /**
+     * The timer for the timeouts of every asynchronous expect, whose
+     * single daemon thread only ever steps a call once it expires.
+     */
+    static final ScheduledThreadPoolExecutor TIMER;
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "expect4j-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    final Expect4j expect;
+    final Expect4j.ExpectCall call;
+    final ExpectFuture future;
+
+    /**
+     * The number of signals not yet handled; whoever raises it from
+     * zero runs the steps.
+     */
+    final AtomicInteger signals = new AtomicInteger();
+
+    /**
+     * The pending timeout, and the end time it was scheduled for.
+     * <code>armed</code> is cleared when the timer fires, so that a
+     * step which finds the call not yet over schedules it again.
+     */
+    volatile ScheduledFuture<?> timeoutTask;
+    volatile long scheduledEnd;
+    volatile boolean armed;
+
+    final Runnable timeout = new Runnable() {
+        public void run() {
+            armed = false;
+            AsyncExpect.this.run();
+        }
+    };
+
+    volatile boolean finished;
+
+    AsyncExpect(Expect4j expect, Expect4j.ExpectCall call, ExpectFuture future) {
+        this.expect = expect;
+        this.call = call;
+        this.future = future;
+    }
+
+    /**
+     * Listens to the consumer and runs the first step on the calling
+     * thread.
+     */
+    void start() {
+        future.onCancel = new Runnable() {
+            public void run() {
+                finished = true;
+                release();
+                call.abandon();
+            }
+        };
+        expect.consumer.addInputListener(this);
+        run();
+    }
+
+    /**
+     * Signals that there might be more to match.
+     */
+    public void run() {
+        if (signals.getAndIncrement() != 0)
+            return; // the thread stepping will step once more
+
+        do {
+            if (!finished)
+                step();
+        } while (signals.decrementAndGet() != 0);
+    }
+
+    void step() {
+        try {
+            if (!call.step()) {
+                schedule();
+                return;
+            }
+            if (!future.end())
+                return; // cancelled while stepping, and abandoned
+            finished = true;
+            release();
+            int index = call.finish();
+            future.complete(index, expect.getLastState());
+        } catch (Exception e) {
+            logger.debug("Asynchronous expect failed: " + e);
+            finished = true;
+            release();
+            future.fail(e);
+        }
+    }
+
+    /**
+     * Schedules a step for when the call times out, unless one is
+     * already pending for then.
+     */
+    void schedule() {
+        if (call.timeout == Expect4j.TIMEOUT_FOREVER || (armed && call.endTime == scheduledEnd))
+            return;
+        if (timeoutTask != null)
+            timeoutTask.cancel(false);
+        scheduledEnd = call.endTime;
+        armed = true;
+        // the timer goes by the same clock as the end time
+        long delay = Math.max(0, call.remainingNanos());
+        timeoutTask = TIMER.schedule(timeout, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops listening to the consumer and cancels the timeout.
+     */
+    void release() {
+        ExpectConsumer consumer = expect.consumer;
+        consumer.removeInputListener(this);
+        ScheduledFuture<?> task = timeoutTask;
+        if (task != null)
+            task.cancel(false);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends on behalf of the caller from a writer thread of its own, so
+ * that <code>send</code> only queues the data and returns.  The writer
+ * thread writes everything queued since it last woke up and flushes
+ * once, so a burst of small sends goes out as one write to the stream,
+ * and usually as one TCP segment.
+ * <p>
+ * A failure to write is reported by the next call to {@link
+ * #send(String)} or {@link #flush()}; what was queued with the failed
+ * batch is lost.
+ *
+ * @see Expect4j#setSendExecutor(Executor)
+ */
+public class AsyncSender {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AsyncSender.class);
+
+    /**
+     * Queued by {@link #close()} to stop the writer thread, compared
+     * by identity.
+     */
+    static final String CLOSE = new String("close");
+
+    final ExpectConsumer consumer;
+    final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The number of strings queued, and the number written, guarded by
+     * <code>this</code>.
+     */
+    long queued;
+    long written;
+
+    volatile IOException failure;
+    volatile boolean closed;
+
+    /**
+     * Creates a sender writing to the consumer's writer stream, whose
+     * writer thread is run by the given executor.
+     *
+     * @param consumer the consumer to write with
+     * @param executor the executor that runs the writer thread, such
+     *                 as {@link ConsumerThreads#named(String)}
+     */
+    public AsyncSender(ExpectConsumer consumer, Executor executor) {
+        if (consumer == null || executor == null)
+            throw new IllegalArgumentException("Consumer and executor must not be null");
+        this.consumer = consumer;
+        executor.execute(new Runnable() {
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Queues data to be written and flushed by the writer thread.
+     *
+     * @param data the data to send
+     * @throws IOException if an earlier send failed, or the sender is
+     *                     closed
+     */
+    public void send(String data) throws IOException {
+        checkFailure();
+        synchronized(this) {
+            if (closed)
+                throw new IOException("Sender is closed");
+            queued++;
+            queue.add(data);
+        }
+    }
+
+    /**
+     * Waits until everything queued so far is written and flushed.
+     *
+     * @throws IOException if a send failed
+     */
+    public void flush() throws IOException {
+        synchronized(this) {
+            long target = queued;
+            while (written < target && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for sends to be written");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the writer thread once everything queued so far is
+     * written.  Later sends are refused.
+     */
+    public void close() {
+        synchronized(this) {
+            if (closed)
+                return;
+            closed = true;
+            queue.add(CLOSE);
+        }
+    }
+
+    void checkFailure() throws IOException {
+        IOException ioe = failure;
+        if (ioe != null)
+            throw new IOException("An earlier send failed: " + ioe.getMessage(), ioe);
+    }
+
+    void drain() {
+        List<String> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ie) {
+                logger.debug("AsyncSender " + this + " interrupted, stopping");
+                synchronized(this) {
+                    closed = true;
+                    failure = new InterruptedIOException("Sender was interrupted");
+                    notifyAll();
+                }
+                break;
+            }
+            queue.drainTo(batch);
+
+            int count = 0;
+            for (String data : batch) {
+                if (data == CLOSE)
+                    stopping = true;
+                else
+                    count++;
+            }
+
+            if (failure == null && count > 0) {
+                try {
+                    for (String data : batch) {
+                        if (data != CLOSE)
+                            consumer.write(data);
+                    }
+                    consumer.flush();
+                } catch (IOException ioe) {
+                    logger.warn("Caught an exception while sending: " + ioe);
+                    failure = ioe;
+                }
+            }
+            batch.clear();
+
+            synchronized(this) {
+                written += count;
+                notifyAll();
+            }
+        }
+    }
+}
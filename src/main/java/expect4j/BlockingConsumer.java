@@ -44,7 +44,8 @@ public class BlockingConsumer extends ConsumerImpl {
     Boolean callerProcessing = Boolean.FALSE;
 
     /**
-     * TODO
+     * Whether data was appended since the last snapshot, so that {@link
+     * #waitForBuffer(long)} doesn't wait for data that is already there.
      */
     boolean foundMore = false;
 
@@ -70,13 +71,14 @@ public class BlockingConsumer extends ConsumerImpl {
         logger.trace("BlockingConsumer " + this + " starting data processing");
 
         int length;
-        char cs[] = new char[256];
+        char cs[];
+        ReadChunk chunk = new ReadChunk();
         Reader reader = pair.getReader();
 
         while (!stopRequested && !foundEOF) {
             try {
                 logger.trace("BlockingConsumer " + this + " reading from reader");
-                length = reader.read(cs); // blocking
+                length = chunk.read(reader); // blocking
             } catch (IOException ioe) {
                 // The reader most likely closed on us.
                 logger.warn("Caught an exception while reading: " + ioe);
@@ -91,6 +93,7 @@ public class BlockingConsumer extends ConsumerImpl {
                 foundEOF = true;
                 break;
             }
+            cs = chunk.chars();
 
             // don't modify the buffer while processing is happening
             // written as while loop to prevent spurious interrupts
@@ -111,30 +114,29 @@ public class BlockingConsumer extends ConsumerImpl {
                     logger.trace("Codes: " + sb.toString());
                 }
                 buffer.append(cs, 0, length); // thread safe
+                foundMore = true;
 
-                /**
-                 * TODO Trim down buffer.  This current method won't work if a resume comes in, since it's offset
-                 * will be invalid once this delete method runs
-                 *
-                 * // since we only added one char, we should only have to remove one
-                 * if (buffer.length() > BUFFERMAX)
-                 *     buffer.delete(0, BUFFERMAX - buffer.length());
-                 */
+                // Nobody is matching while we hold the lock, and the
+                // next match looks at a new snapshot, so trimming can't
+                // invalidate an offset handed to resume()
+                trimBuffer();
 
                 logger.trace("BlockingConsumer " + this + " notifying listeners of buffer change");
                 notify(); // seeing that we read something, wake people up
-
-                // We explicitly call this after appending to the
-                // buffer, just in case one of the BufferChangeLoggers
-                // accidentally modifies the character buffer.
-                notifyBufferChange(cs, length);
             } // end synchronized(this)
+
+            // We explicitly call this after appending to the buffer, just
+            // in case one of the BufferChangeLoggers accidentally modifies
+            // the character buffer, and without the lock, so that a slow
+            // logger doesn't hold up expect()
+            notifyBufferChange(cs, length);
         } // end while loop
 
         logger.trace("BlockingConsumer " + this + " notifying listeners upon ceasing");
         synchronized(this) {
             notify();
         }
+        notifyInputListener();
 
         if (stopRequested) {
             logger.debug("BlockingConsumer " + this + " stop requested");
@@ -160,6 +162,10 @@ public class BlockingConsumer extends ConsumerImpl {
         logger.trace("BlockingConsumer " + this + " ynching on this to wait");
         logger.trace("BlockingConsumer " + this + " waiting for synchronized access before waiting");
         synchronized(this) {
+            if (foundMore) {
+                logger.trace("BlockingConsumer " + this + " found more data since the last snapshot");
+                return;
+            }
             try {
                 if (timeout > 0) {
                     logger.trace("BlockingConsumer " + this + " waiting for " + timeout + " msec for some additional event");
@@ -174,16 +180,11 @@ public class BlockingConsumer extends ConsumerImpl {
         }
     }
 
-    /**
-     * TODO
-     *
-     * @return TODO
-     */
-    public String pause() {
-        // TODO mark offset, so that it can be trimmed by resume coming in later
-        String currentBuffer;
-        currentBuffer = buffer.toString();
-        return currentBuffer;
+    public BufferSnapshot snapshot() {
+        synchronized(this) {
+            foundMore = false;
+            return buffer.snapshot();
+        }
     }
 
     /**
@@ -198,7 +199,7 @@ public class BlockingConsumer extends ConsumerImpl {
 
         synchronized(this) {
             logger.trace("BlockingConsumer " + this + " moving buffer up by " + offset);
-            StringBuffer smaller = buffer.delete(0, offset); // + 1
+            buffer.consume(Math.min(offset, buffer.length())); // + 1
         }
     }
 
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls a session's {@link BufferChangeLogger}s off the thread that
+ * reads, so that a slow logger, such as one writing a transcript to a
+ * slow disk, doesn't hold up reading or <code>expect</code>.  Each
+ * chunk read is copied into a bounded queue, and the queue is drained
+ * by one task at a time on an executor, which may be shared by many
+ * sessions, so every logger still sees the chunks in order.
+ * <p>
+ * When the loggers fall so far behind that the queue is full, the
+ * overflow policy decides what happens to the next chunk:
+ * <ul>
+ * <li>{@link #BLOCK} makes the reading thread wait for room, so no
+ *     chunk is lost, as with synchronous logging; for sessions served
+ *     by a {@link NioEventLoop}, this holds up the loop's other
+ *     sessions too</li>
+ * <li>{@link #DROP} drops it</li>
+ * <li>{@link #SAMPLE} keeps one chunk in every
+ *     {@link #setSampleInterval(int) sample interval}, in place of the
+ *     oldest one queued, and drops the others, so the loggers keep
+ *     seeing a thinned out view of recent output</li>
+ * </ul>
+ * A dispatcher serves one session:
+ *
+ * <pre>
+ * expect.setBufferChangeDispatcher(new BufferChangeDispatcher(1024, BufferChangeDispatcher.DROP));
+ * expect.registerBufferChangeLogger(transcript);
+ * </pre>
+ */
+public class BufferChangeDispatcher {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BufferChangeDispatcher.class);
+
+    /**
+     * Wait for room in the queue.
+     */
+    public static final int BLOCK = 0;
+
+    /**
+     * Drop chunks that don't fit in the queue.
+     */
+    public static final int DROP = 1;
+
+    /**
+     * Keep one in every sample interval of the chunks that don't fit,
+     * in place of the oldest chunk queued.
+     */
+    public static final int SAMPLE = 2;
+
+    /**
+     * The default number of chunks queued.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The default number of overflowing chunks per chunk kept by
+     * {@link #SAMPLE}.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    /**
+     * How many chunks a drain task delivers before giving the executor
+     * to other sessions.
+     */
+    static final int DRAIN_BATCH = 64;
+
+    final Executor executor;
+    final ArrayBlockingQueue<char[]> queue;
+    final int policy;
+    volatile int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    volatile List<BufferChangeLogger> loggers;
+
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+
+    // only touched by the reading thread
+    int overflowed = 0;
+
+    final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a dispatcher that drains on an executor shared by all
+     * sessions.
+     *
+     * @param capacity the number of chunks queued at most
+     * @param policy {@link #BLOCK}, {@link #DROP} or {@link #SAMPLE}
+     */
+    public BufferChangeDispatcher(int capacity, int policy) {
+        this(SharedExecutor.INSTANCE, capacity, policy);
+    }
+
+    /**
+     * Creates a dispatcher that drains on the given executor.
+     *
+     * @param executor the executor that runs the loggers
+     * @param capacity the number of chunks queued at most
+     * @param policy {@link #BLOCK}, {@link #DROP} or {@link #SAMPLE}
+     */
+    public BufferChangeDispatcher(Executor executor, int capacity, int policy) {
+        if (executor == null)
+            throw new IllegalArgumentException("Executor must not be null");
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        if (policy != BLOCK && policy != DROP && policy != SAMPLE)
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Sets how many overflowing chunks {@link #SAMPLE} goes through
+     * per chunk it keeps.
+     *
+     * @param interval the sample interval, at least 1
+     */
+    public void setSampleInterval(int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Sample interval must be at least 1: " + interval);
+        sampleInterval = interval;
+    }
+
+    /**
+     * Binds the dispatcher to the loggers of the session it serves.
+     */
+    synchronized void attach(List<BufferChangeLogger> sessionLoggers) {
+        if (loggers != null && loggers != sessionLoggers)
+            throw new IllegalStateException("Dispatcher already serves another session");
+        loggers = sessionLoggers;
+    }
+
+    /**
+     * Queues a copy of a chunk for the loggers.  Called by the reading
+     * thread.
+     */
+    void dispatch(char[] data, int count) {
+        char[] chunk = Arrays.copyOf(data, count);
+        if (!queue.offer(chunk)) {
+            if (policy == BLOCK) {
+                schedule();
+                try {
+                    queue.put(chunk);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    return;
+                }
+            } else if (policy == SAMPLE && ++overflowed % sampleInterval == 0) {
+                if (queue.poll() != null)
+                    dropped.incrementAndGet();
+                if (!queue.offer(chunk))
+                    dropped.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+        schedule();
+    }
+
+    void schedule() {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException ree) {
+            scheduled.set(false);
+            logger.warn("Unable to run the buffer change loggers: " + ree);
+        }
+    }
+
+    /**
+     * Delivers a batch of chunks, and goes back to the executor if
+     * there are more.
+     */
+    void drain() {
+        List<BufferChangeLogger> targets = loggers;
+        char[] chunk;
+        for (int n = 0; n < DRAIN_BATCH && (chunk = queue.poll()) != null; n++) {
+            for (BufferChangeLogger target : targets) {
+                try {
+                    target.bufferChanged(chunk, chunk.length);
+                } catch (RuntimeException e) {
+                    logger.warn("Buffer change logger " + target + " failed: " + e);
+                }
+            }
+            delivered.incrementAndGet();
+        }
+
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+            schedule();
+        } else {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until every chunk queued so far has been delivered, for
+     * example before closing a transcript.
+     *
+     * @param timeout the most milliseconds to wait
+     * @return <code>true</code> if the queue drained in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitDrained(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (!queue.isEmpty() || scheduled.get()) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the overflow policy.
+     *
+     * @return {@link #BLOCK}, {@link #DROP} or {@link #SAMPLE}
+     */
+    public int getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of chunks waiting for the loggers.
+     *
+     * @return the queue's length
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of chunks delivered to the loggers.
+     *
+     * @return the delivered count
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Returns the number of chunks dropped because the queue was full.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * The executor shared by dispatchers created without one, created
+     * when first used.
+     */
+    static final class SharedExecutor {
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                    final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "expect4j-logger-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -33,8 +33,8 @@ public interface BufferChangeLogger {
      * modified in any way.
      *
      * This method should also be optimized to run very fast as this is
-     * called in real time.  If it's possible to use an intermediate to
-     * turn this into an async handler, that would be ideal to use here.
+     * called in real time, on the thread that reads, unless the session
+     * has a {@link BufferChangeDispatcher}.
      *
      * @param newData the buffer that contains the new data being added
      * @param numChars the number of valid characters in the buffer
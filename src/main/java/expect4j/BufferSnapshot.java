@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+/**
+ * A read-only view of the contents of a {@link SessionBuffer} at the
+ * time it was taken.  The characters are those of
+ * <code>getArray()[getBegin(), getEnd())</code>, shared with the
+ * buffer rather than copied, so the array must never be modified.
+ * <p>
+ * Characters appended later are not part of the snapshot.  A snapshot
+ * stays valid until characters are consumed from the buffer or moved
+ * to reclaim space, which {@link #isCurrent()} reports; by then the
+ * array may have been rearranged under it.
+ */
+public final class BufferSnapshot implements CharSequence {
+    final SessionBuffer buffer;
+    final char[] array;
+    final int begin;
+    final int end;
+    final long generation;
+
+    BufferSnapshot(SessionBuffer buffer, char[] array, int begin, int end, long generation) {
+        this.buffer = buffer;
+        this.array = array;
+        this.begin = begin;
+        this.end = end;
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the array holding the characters.  It is shared with the
+     * buffer and must not be modified.
+     *
+     * @return the backing array
+     */
+    public char[] getArray() {
+        return array;
+    }
+
+    /**
+     * Returns the offset of the first character in the array.
+     *
+     * @return the begin offset
+     */
+    public int getBegin() {
+        return begin;
+    }
+
+    /**
+     * Returns the offset just after the last character in the array.
+     *
+     * @return the end offset
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the generation of the buffer when the snapshot was taken.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Determines whether the buffer is still in the generation the
+     * snapshot was taken in, so that its characters are still valid.
+     * Must be called under the lock guarding the buffer.
+     *
+     * @return <code>true</code> if nothing has been consumed or moved
+     *         since
+     */
+    public boolean isCurrent() {
+        return buffer.getGeneration() == generation;
+    }
+
+    public int length() {
+        return end - begin;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= end - begin)
+            throw new IndexOutOfBoundsException("Index " + index + " outside of snapshot of length " + (end - begin));
+        return array[begin + index];
+    }
+
+    public CharSequence subSequence(int start, int stop) {
+        if (start < 0 || stop > end - begin || start > stop)
+            throw new IndexOutOfBoundsException("Range " + start + "-" + stop + " outside of snapshot of length " + (end - begin));
+        return new BufferSnapshot(buffer, array, begin + start, begin + stop, generation);
+    }
+
+    /**
+     * Copies the characters into a new string.
+     */
+    public String toString() {
+        return new String(array, begin, end - begin);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Responsible for absorbing everything from stream and to maintain a
+ * buffer, like {@link LockFreeConsumer}, but reading the raw bytes of a
+ * {@link ByteIOPair} and decoding them itself with the session's
+ * character set.  The byte and character buffers and the decoder are
+ * reused for every read, the buffers only being replaced when the read
+ * chunk grows, see {@link ReadChunk}, and ASCII bytes are widened
+ * straight into characters, see {@link SessionDecoder}.
+ */
+public class ByteConsumer extends LockFreeConsumer {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ByteConsumer.class);
+
+    /**
+     * Room in the byte buffer beyond the read chunk, for the bytes of
+     * a character split across reads.
+     */
+    static final int LEFTOVER_ROOM = 16;
+
+    final SessionDecoder decoder;
+
+    /**
+     * Creates a <code>ByteConsumer</code> instance based on a {@link
+     * ByteIOPair} concrete instance, decoding with the pair's
+     * character set.
+     *
+     * @param pair the <code>ByteIOPair</code> concrete instance that
+     *             provides access to the input/output streams
+     */
+    public ByteConsumer(ByteIOPair pair) {
+        this(pair, pair.getCharset());
+    }
+
+    /**
+     * Creates a <code>ByteConsumer</code> for a pair whose bytes are
+     * read by someone else and handed to {@link #decode(ByteBuffer,
+     * CharBuffer, boolean)}.
+     *
+     * @param pair the pair the consumer sends to
+     * @param charset the character set the session uses
+     */
+    ByteConsumer(IOPair pair, Charset charset) {
+        super(pair);
+        if (charset == null)
+            throw new IllegalArgumentException("Charset must not be null");
+        this.decoder = new SessionDecoder(charset);
+        logger.trace("Created new ByteConsumer instance " + this + " using IOPair " + pair + " and Charset " + charset);
+    }
+
+    /**
+     * Returns the character set the session is decoded with.
+     *
+     * @return the character set
+     */
+    public Charset getCharset() {
+        return decoder.charset;
+    }
+
+    /**
+     * Starts the <code>ByteConsumer</code> in processing the input
+     * stream.
+     */
+    public void run() {
+        logger.trace("ByteConsumer " + this + " starting data processing");
+
+        ReadChunk chunk = new ReadChunk();
+        ByteBuffer bytes = ByteBuffer.allocate(chunk.size() + LEFTOVER_ROOM);
+        CharBuffer chars = CharBuffer.allocate(chunk.size());
+        InputStream is = ((ByteIOPair) pair).getInputStream();
+
+        while (!stopRequested && !foundEOF) {
+            int length;
+            try {
+                // blocking; what's left in the buffer is the start of
+                // a character split across reads
+                length = is.read(bytes.array(), bytes.position(), Math.min(chunk.size(), bytes.remaining()));
+            } catch (IOException ioe) {
+                // The stream most likely closed on us.
+                logger.warn("Caught an exception while reading: " + ioe);
+                logger.debug("Assuming EOF");
+                break;
+            }
+
+            if (length == -1) { //EOF
+                logger.debug("ByteConsumer " + this + " detected EOF");
+                break;
+            }
+            bytes.position(bytes.position() + length);
+            length += readAvailable(is, bytes, chunk.size() - length);
+            chunk.update(length);
+
+            bytes.flip();
+            decode(bytes, chars, false);
+            bytes.compact();
+
+            if (bytes.capacity() < chunk.size() + LEFTOVER_ROOM) {
+                bytes.flip();
+                bytes = ByteBuffer.allocate(chunk.size() + LEFTOVER_ROOM).put(bytes);
+                chars = CharBuffer.allocate(chunk.size());
+            }
+        }
+
+        if (!stopRequested) {
+            bytes.flip();
+            decode(bytes, chars, true);
+            foundEOF = true;
+        }
+        wakeWaiter();
+        notifyInputListener();
+
+        if (stopRequested) {
+            logger.debug("ByteConsumer " + this + " stop requested");
+            pair.close();
+        }
+    }
+
+    /**
+     * Reads what the stream has ready without blocking, so that one
+     * wakeup of the matcher covers everything that has arrived.
+     *
+     * @return the number of bytes read
+     */
+    int readAvailable(InputStream is, ByteBuffer bytes, int max) {
+        int total = 0;
+        try {
+            while (total < max && bytes.hasRemaining() && is.available() > 0) {
+                int count = is.read(bytes.array(), bytes.position(), Math.min(max - total, bytes.remaining()));
+                if (count <= 0)
+                    break; // EOF is seen by the next read
+                bytes.position(bytes.position() + count);
+                total += count;
+            }
+        } catch (IOException ioe) {
+            // keep what was read; the next read reports the failure
+        }
+        return total;
+    }
+
+    /**
+     * Decodes the bytes into the buffer, leaving the bytes of an
+     * incomplete character behind unless this is the end of the input.
+     *
+     * @param bytes the bytes to decode
+     * @param chars scratch space for the decoded characters
+     * @param endOfInput whether no more bytes will follow
+     */
+    void decode(ByteBuffer bytes, CharBuffer chars, boolean endOfInput) {
+        while (true) {
+            chars.clear();
+            boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+            chars.flip();
+
+            int length = chars.remaining();
+            if (length > 0) {
+                char[] cs = chars.array();
+                if (logger.isTraceEnabled()) {
+                    String print = new String(cs, 0, length);
+                    print = print.replaceAll("\n", "\\\\n");
+                    print = print.replaceAll("\r", "\\\\r");
+                    logger.trace("Adding to buffer: " + print);
+                }
+                concurrentBuffer.append(cs, 0, length);
+                trimBuffer();
+                wakeWaiter();
+                notifyBufferChange(cs, length);
+            }
+            if (!overflow)
+                return;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An {@link IOPair} that also gives access to the raw byte streams and
+ * the character set they are encoded with, so that a {@link
+ * ByteConsumer} can read and decode the bytes itself rather than going
+ * through the pair's reader.
+ */
+public interface ByteIOPair extends IOPair {
+    /**
+     * Returns the stream of bytes coming from the session.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream();
+
+    /**
+     * Returns the stream of bytes going to the session.
+     *
+     * @return the output stream
+     */
+    public OutputStream getOutputStream();
+
+    /**
+     * Returns the character set both streams are encoded with.
+     *
+     * @return the character set of the session
+     */
+    public Charset getCharset();
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IOPair} for a non-blocking {@link SocketChannel}, used with
+ * {@link NioConsumer}.  There is no reader, since the channel is read
+ * by a {@link NioEventLoop}; the writer keeps what is sent until it is
+ * flushed, then encodes it and writes it to the channel in one go,
+ * waiting while the socket's send buffer is full.
+ */
+public class ChannelPair implements IOPair {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ChannelPair.class);
+
+    final SocketChannel channel;
+    final Writer writer;
+
+    /**
+     * Creates a pair for a connected channel.
+     *
+     * @param channel the channel, which is switched to non-blocking
+     *                mode when it is registered with a {@link
+     *                NioEventLoop}
+     * @param charset the character set to encode what is sent with
+     */
+    public ChannelPair(final SocketChannel channel, final Charset charset) {
+        this.channel = channel;
+        this.writer = new Writer() {
+            final StringBuilder pending = new StringBuilder();
+
+            public synchronized void write(char[] cs, int offset, int length) {
+                pending.append(cs, offset, length);
+            }
+
+            public synchronized void flush() throws IOException {
+                if (pending.length() == 0)
+                    return;
+                ByteBuffer bytes = charset.encode(CharBuffer.wrap(pending));
+                pending.setLength(0);
+                while (bytes.hasRemaining()) {
+                    if (channel.write(bytes) == 0) {
+                        // the send buffer is full, give the peer a moment
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                }
+            }
+
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the channel.
+     *
+     * @return the channel
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns <code>null</code>, since the channel is read by a {@link
+     * NioEventLoop}.
+     *
+     * @return <code>null</code>
+     */
+    public Reader getReader() {
+        return null;
+    }
+
+    public Writer getWriter() {
+        return writer;
+    }
+
+    public void reset() {
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            logger.debug("Caught an exception while closing " + channel + ": " + ioe);
+        }
+    }
+}
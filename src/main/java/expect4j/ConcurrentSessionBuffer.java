@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+/**
+ * A {@link SessionBuffer} that one thread appends to while another
+ * matches against it and consumes from it, without either of them
+ * taking a lock.
+ * <p>
+ * Every character gets a position, the number of characters appended
+ * before it.  The appending thread copies new characters past the
+ * published end and then publishes the new end, a volatile write that
+ * makes the characters visible to the matching thread.  The matching
+ * thread publishes how far it has consumed, which tells the appending
+ * thread which characters it may drop.
+ * <p>
+ * Characters are never written at or below the published end of an
+ * array that a snapshot of the current generation may be looking at,
+ * so such a snapshot stays readable however long the match takes.
+ * When the array runs out of room, the characters still in use are
+ * copied into another one, at least twice as large as they need, which
+ * keeps the copying to a constant number of times per character on
+ * average.  The buffer alternates between two arrays, reusing the one
+ * it left last time once the matching thread has consumed something
+ * since, because only snapshots from an earlier generation can be
+ * looking at it by then.
+ * <p>
+ * The generation of the buffer is the position of its first
+ * character, which changes whenever characters are consumed or
+ * discarded, but not when they are copied into a new array, since
+ * offsets relative to the first character stay the same.
+ * <p>
+ * {@link #append(char[], int, int)}, {@link #append(String)} and
+ * {@link #discardOldest(int)} may only be called by the appending
+ * thread; {@link #consume(int)}, {@link #consumeFrom(long, int)} by
+ * the matching thread.  The other methods may be called by either.
+ */
+public class ConcurrentSessionBuffer extends SessionBuffer {
+    /**
+     * An array and the position of the character at index zero.
+     * Replaced, never modified, when characters are moved.
+     */
+    static final class Block {
+        final char[] chars;
+        final long base;
+
+        Block(char[] chars, long base) {
+            this.chars = chars;
+            this.base = base;
+        }
+    }
+
+    /**
+     * The array being appended to, published before any end that
+     * refers to it.
+     */
+    volatile Block block;
+
+    /**
+     * The position after the last character appended.
+     */
+    volatile long written;
+
+    /**
+     * The position up to which the matching thread consumed.
+     */
+    volatile long consumed;
+
+    /**
+     * The position up to which the appending thread discarded old
+     * characters to keep the buffer within its limit.
+     */
+    volatile long discarded;
+
+    /**
+     * The array that was replaced last, reused once {@link #consumed}
+     * moves past {@link #spareConsumedAt}.  Discarding doesn't count,
+     * since it happens on the appending thread while a snapshot of the
+     * array may still be in use.  Only used by the appending thread.
+     */
+    char[] spare;
+    long spareConsumedAt;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public ConcurrentSessionBuffer() {
+        super(0);
+        block = new Block(new char[INITIAL_CAPACITY], 0);
+    }
+
+    public void append(char[] cs, int offset, int count) {
+        long end = written;
+        Block target = makeRoom(end, count);
+        System.arraycopy(cs, offset, target.chars, (int) (end - target.base), count);
+        written = end + count; // publishes the characters
+    }
+
+    public void append(String str) {
+        long end = written;
+        Block target = makeRoom(end, str.length());
+        str.getChars(0, str.length(), target.chars, (int) (end - target.base));
+        written = end + str.length(); // publishes the characters
+    }
+
+    /**
+     * Returns an array with room for <code>count</code> characters
+     * after <code>end</code>, copying the characters still in use into
+     * another one if needed.
+     */
+    Block makeRoom(long end, int count) {
+        Block current = block;
+        if (end - current.base + count <= current.chars.length)
+            return current;
+
+        // The matching thread only ever consumes further, so whatever
+        // it still needs is at or after this start
+        long start = start();
+        int live = (int) (end - start);
+        int needed = 2 * (live + count);
+        char[] chars;
+        if (spare != null && spare.length >= needed && consumed > spareConsumedAt) {
+            chars = spare;
+        } else {
+            chars = new char[Math.max(current.chars.length, needed)];
+        }
+        System.arraycopy(current.chars, (int) (start - current.base), chars, 0, live);
+
+        Block next = new Block(chars, start);
+        block = next;
+        // read after publishing, so that any snapshot of the old array
+        // is finished with by the next time the matching thread
+        // consumes
+        spare = current.chars;
+        spareConsumedAt = consumed;
+        return next;
+    }
+
+    /**
+     * Discards the oldest characters so that at most <code>max</code>
+     * remain.  They are only dropped from the positions, so a snapshot
+     * the matching thread is working with stays intact.
+     *
+     * @param max the most characters to keep
+     */
+    public void discardOldest(int max) {
+        long limit = written - max;
+        if (limit > start())
+            discarded = limit;
+    }
+
+    /**
+     * Consumes characters counted from the first character of the
+     * buffer as it is now.
+     */
+    public void consume(int count) {
+        consumeFrom(start(), count);
+    }
+
+    /**
+     * Consumes characters counted from a given position, usually the
+     * generation of the snapshot they were matched in, so that
+     * characters discarded since then are not counted twice.
+     *
+     * @param position the position to count from
+     * @param count the number of characters to consume
+     */
+    public void consumeFrom(long position, int count) {
+        long end = written;
+        if (count < 0 || position + count > end)
+            throw new IndexOutOfBoundsException("Cannot consume " + count + " of " + (end - position) + " characters");
+        if (position + count > consumed)
+            consumed = position + count;
+    }
+
+    /**
+     * Returns the position of the first character in the buffer.
+     */
+    long start() {
+        return Math.max(consumed, discarded);
+    }
+
+    public int length() {
+        return (int) (written - start());
+    }
+
+    public int capacity() {
+        return block.chars.length;
+    }
+
+    public long getGeneration() {
+        return start();
+    }
+
+    public BufferSnapshot snapshot() {
+        while (true) {
+            // The end has to be read before the array, which was
+            // published before the end was
+            long end = written;
+            Block current = block;
+            long start = Math.min(start(), end);
+            // If the array was still current after reading the start,
+            // it can't be reused before the matching thread consumes
+            // again
+            if (block == current)
+                return new BufferSnapshot(this, current.chars, (int) (start - current.base), (int) (end - current.base), start);
+        }
+    }
+
+    public String toString() {
+        return snapshot().toString();
+    }
+}
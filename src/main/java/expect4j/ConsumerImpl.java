@@ -18,11 +18,8 @@
 package expect4j;
 
 import java.io.IOException;
-import java.io.Writer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,14 +27,16 @@ import org.slf4j.LoggerFactory;
  *
  * @author justin
  */
-public abstract class ConsumerImpl implements Consumer {
+public abstract class ConsumerImpl implements ExpectConsumer {
     /**
      * Interface to the Java 2 platform's core logging facilities.
      */
     private static final Logger logger = LoggerFactory.getLogger(ConsumerImpl.class);
 
     /**
-     * The maximum size of the buffer, currently set to 16 KB.
+     * A reasonable maximum size of the buffer, 16 KB, for sessions that
+     * should not hold on to more output than that.  The buffer is not
+     * bounded unless a limit is set with {@link #setMaxBufferSize(int)}.
      */
     public static final int BUFFERMAX = 16 * 1024;
 
@@ -45,7 +44,7 @@ public abstract class ConsumerImpl implements Consumer {
      * A buffer containing the unprocessed data received over the reader
      * stream.
      */
-    StringBuffer buffer;
+    SessionBuffer buffer;
 
     /**
      * The reader and writer streams being managed by this
@@ -56,30 +55,58 @@ public abstract class ConsumerImpl implements Consumer {
     /**
      * A flag to indicate whether processing should continue.
      */
-    boolean stopRequested = false;
+    volatile boolean stopRequested = false;
 
     /**
      * A flag to indicate whether the EOF marker was detected on the
      * reader stream.
      */
-    boolean foundEOF = false;
+    volatile boolean foundEOF = false;
 
     /**
      * A collection of BufferChangeLogger objects that are notified
-     * whenever an input change is recorded to this consumer.  When
-     * iterating over this collection, make sure to manually synchronize
-     * prior to using an Iterator:
-     *
-     * <pre>
-     * synchronized (bufferChangeLoggers) {
-     *     Iterator iterator = bufferChangeLoggers.iterator();
-     *     while (iterator.hasNext()) {
-     *         iterator.hasNext().bufferChanged(newData, numChars);
-     *     }
-     * }
-     * </pre>
+     * whenever an input change is recorded to this consumer.  Loggers
+     * are rarely registered, and notified for every read, so the
+     * collection is copied on write and iterated without a lock.
+     */
+    CopyOnWriteArrayList<BufferChangeLogger> bufferChangeLoggers;
+
+    /**
+     * Calls the loggers off the reading thread, or <code>null</code>
+     * to call them on it, see {@link
+     * #setBufferChangeDispatcher(BufferChangeDispatcher)}.
+     */
+    volatile BufferChangeDispatcher dispatcher;
+
+    /**
+     * The most characters the buffer may hold, or zero for no limit.
      */
-    List<BufferChangeLogger> bufferChangeLoggers;
+    volatile int maxBufferSize = 0;
+
+    /**
+     * Whether the oldest characters are discarded when the buffer grows
+     * beyond {@link #maxBufferSize}.
+     */
+    volatile boolean discardWhenFull = true;
+
+    /**
+     * Serializes writes to the writer stream, separately from the lock
+     * the reading side appends under, so that senders never wait for
+     * a read or a match in progress.
+     */
+    final Object sendLock = new Object();
+
+    /**
+     * Run whenever input arrives, see {@link
+     * #addInputListener(Runnable)}.
+     */
+    final CopyOnWriteArrayList<Runnable> inputListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Told about the characters read and sent, see {@link
+     * #setMetrics(SessionMetrics)}.
+     */
+    volatile SessionMetrics metrics;
 
     /**
      * Creates a <code>ConsumerImpl</code> instance based on an
@@ -90,8 +117,8 @@ public abstract class ConsumerImpl implements Consumer {
      */
     public ConsumerImpl(IOPair pair) {
         this.pair = pair;
-        buffer = new StringBuffer();
-        bufferChangeLoggers = Collections.synchronizedList(new ArrayList<BufferChangeLogger>());
+        buffer = new SessionBuffer();
+        bufferChangeLoggers = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -104,21 +131,130 @@ public abstract class ConsumerImpl implements Consumer {
      * @see Expect4j#send(String)
      */
     public void send(String data) throws IOException {
-        String printStr = null;
+        synchronized(sendLock) {
+            write(data);
+            flush();
+        }
+    }
+
+    /**
+     * Passes each string to the writer stream, and flushes it once
+     * after the last, so that a batch of sends goes out together.  No
+     * other send comes in between the strings of a batch.
+     *
+     * @param data the strings to pass to the writer, in order
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void sendAll(List<String> data) throws IOException {
+        synchronized(sendLock) {
+            for (String item : data)
+                write(item);
+            flush();
+        }
+    }
+
+    /**
+     * Passes data to the writer stream without flushing it, so that it
+     * may stay buffered until the next {@link #flush()}.
+     *
+     * @param data the data to pass to the writer
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void write(String data) throws IOException {
         if (logger.isDebugEnabled()) {
-            printStr = data;
+            String printStr = data;
             printStr = printStr.replaceAll("\\r", "\\\\r");
             printStr = printStr.replaceAll("\\n", "\\\\n");
+            logger.debug("Sending to writer: " + printStr);
+        }
+
+        synchronized(sendLock) {
+            pair.getWriter().write(data);
+        }
+        SessionMetrics m = metrics;
+        if (m != null)
+            m.outputSent(data.length());
+    }
+
+    /**
+     * Flushes what was written to the writer stream.
+     *
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void flush() throws IOException {
+        synchronized(sendLock) {
+            pair.getWriter().flush();
         }
+    }
 
+    /**
+     * Returns a copy of the buffer.
+     *
+     * @return the buffer contents
+     * @see #snapshot()
+     */
+    public String pause() {
+        return snapshot().toString();
+    }
+
+    /**
+     * Returns a read-only view of the buffer without copying it.
+     *
+     * @return a snapshot of the buffer
+     */
+    public BufferSnapshot snapshot() {
         synchronized(this) {
-            logger.debug("Sending to writer: " + printStr);
-            Writer writer = pair.getWriter();
-            writer.write(data);
-            writer.flush();
+            return buffer.snapshot();
         }
     }
 
+    /**
+     * Limits the number of characters the buffer holds.
+     *
+     * @param max the most characters to hold, or zero for no limit
+     */
+    public void setMaxBufferSize(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("Maximum buffer size must not be negative: " + max);
+        logger.debug("Setting maximum buffer size to " + max);
+        maxBufferSize = max;
+    }
+
+    /**
+     * Returns the number of characters the buffer holds at most.
+     *
+     * @return the limit, or zero if there is none
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Chooses whether the oldest characters are discarded once the
+     * buffer is full.
+     *
+     * @param discard <code>true</code> to discard, <code>false</code>
+     *                to let the buffer grow until the caller consumes it
+     */
+    public void setDiscardWhenFull(boolean discard) {
+        discardWhenFull = discard;
+    }
+
+    /**
+     * Discards the oldest characters if the buffer has grown past its
+     * limit.  Must be called while holding the lock that guards the
+     * buffer, right after appending to it.
+     */
+    protected void trimBuffer() {
+        int max = maxBufferSize;
+        if (max == 0 || !discardWhenFull || buffer.length() <= max)
+            return;
+
+        int excess = buffer.length() - max;
+        logger.debug("Buffer is full, discarding the oldest " + excess + " characters");
+        buffer.consume(excess);
+    }
+
     /**
      * Resume processing from the beginning of the buffer.
      */
@@ -147,7 +283,7 @@ public abstract class ConsumerImpl implements Consumer {
 
     @Override
     public void registerBufferChangeLogger(final BufferChangeLogger logger) {
-        boolean addedNewLogger = bufferChangeLoggers.add(logger);
+        boolean addedNewLogger = bufferChangeLoggers.addIfAbsent(logger);
         if (addedNewLogger == false) {
             this.logger.warn("Asked to register an already-registered logger, skipping duplicate request");
         } else {
@@ -173,11 +309,76 @@ public abstract class ConsumerImpl implements Consumer {
      * @param numChars the number of valid characters in the buffer
      */
     protected void notifyBufferChange(char[] newData, int numChars) {
-        synchronized(bufferChangeLoggers) {
-            Iterator<BufferChangeLogger> iterator = bufferChangeLoggers.iterator();
-            while (iterator.hasNext()) {
-                iterator.next().bufferChanged(newData, numChars);
-            }
+        BufferChangeDispatcher d = dispatcher;
+        if (d != null) {
+            if (!bufferChangeLoggers.isEmpty())
+                d.dispatch(newData, numChars);
+        } else {
+            for (BufferChangeLogger changeLogger : bufferChangeLoggers)
+                changeLogger.bufferChanged(newData, numChars);
         }
+        SessionMetrics m = metrics;
+        if (m != null)
+            m.inputRead(numChars, bufferLength());
+        notifyInputListener();
+    }
+
+    /**
+     * Returns the number of characters in the buffer.
+     *
+     * @return the buffer's length
+     */
+    int bufferLength() {
+        return buffer.length();
+    }
+
+    /**
+     * Sets the dispatcher that calls the buffer change loggers off the
+     * reading thread.
+     *
+     * @param dispatcher the dispatcher, or <code>null</code> to call
+     *                   the loggers on the reading thread
+     */
+    public void setBufferChangeDispatcher(BufferChangeDispatcher dispatcher) {
+        if (dispatcher != null)
+            dispatcher.attach(bufferChangeLoggers);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sets what is told about the characters read and sent.
+     *
+     * @param metrics the metrics, or <code>null</code> for none
+     */
+    public void setMetrics(SessionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a listener that is run whenever input was added to the
+     * buffer or EOF was found, on the thread that reads.
+     *
+     * @param listener the listener to add
+     */
+    public void addInputListener(Runnable listener) {
+        inputListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addInputListener(Runnable)}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeInputListener(Runnable listener) {
+        inputListeners.remove(listener);
+    }
+
+    /**
+     * Runs the input listeners.  Called after input was added to the
+     * buffer, and once EOF is found.
+     */
+    protected void notifyInputListener() {
+        for (Runnable listener : inputListeners)
+            listener.run();
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategies for running the consumer of each {@link Expect4j} session,
+ * to pass to {@link Expect4j#Expect4j(IOPair, Executor)}.  A consumer
+ * blocks reading for as long as its session lasts, so every strategy
+ * here starts a thread per consumer:
+ *
+ * <pre>
+ * Executor threads = ConsumerThreads.isVirtualThreadSupported()
+ *         ? ConsumerThreads.virtual("expect4j-consumer")
+ *         : ConsumerThreads.named("expect4j-consumer");
+ * Expect4j expect = new Expect4j(pair, threads);
+ * </pre>
+ *
+ * A caller supplied <code>ExecutorService</code> may be passed instead,
+ * as long as it doesn't limit the number of threads it runs at once.
+ */
+public final class ConsumerThreads {
+    private ConsumerThreads() {
+    }
+
+    /**
+     * Returns an executor that runs each consumer on a new thread from
+     * the given factory.
+     *
+     * @param factory the factory for consumer threads
+     * @return an executor starting a thread per consumer
+     */
+    public static Executor of(final ThreadFactory factory) {
+        if (factory == null)
+            throw new IllegalArgumentException("Thread factory must not be null");
+        return new Executor() {
+            public void execute(Runnable command) {
+                Thread thread = factory.newThread(command);
+                if (thread == null)
+                    throw new RejectedExecutionException("Thread factory " + factory + " refused " + command);
+                thread.start();
+            }
+
+            public String toString() {
+                return "ConsumerThreads[" + factory + "]";
+            }
+        };
+    }
+
+    /**
+     * Returns an executor that runs each consumer on a new daemon
+     * thread named after the given prefix and a counter, such as
+     * <code>expect4j-consumer-1</code>, so that sessions can be told
+     * apart in thread dumps.
+     *
+     * @param prefix the start of the thread names
+     * @return an executor starting a named daemon thread per consumer
+     */
+    public static Executor named(final String prefix) {
+        if (prefix == null)
+            throw new IllegalArgumentException("Thread name prefix must not be null");
+        final AtomicInteger counter = new AtomicInteger();
+        return of(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+            public String toString() {
+                return prefix;
+            }
+        });
+    }
+
+    /**
+     * Returns an executor that runs each consumer on a new virtual
+     * thread named after the given prefix and a counter.  A consumer
+     * blocked reading then costs a small heap object rather than a
+     * platform thread and its stack.  Virtual threads are looked up
+     * reflectively, so that this class still loads on older platforms.
+     *
+     * @param prefix the start of the thread names
+     * @return an executor starting a virtual thread per consumer
+     * @throws UnsupportedOperationException if the platform has no
+     *         virtual threads
+     * @see #isVirtualThreadSupported()
+     */
+    public static Executor virtual(String prefix) {
+        if (prefix == null)
+            throw new IllegalArgumentException("Thread name prefix must not be null");
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return of((ThreadFactory) factory.invoke(builder));
+        } catch (Exception e) {
+            // older platforms, or virtual threads still in preview
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * Determines whether {@link #virtual(String)} is supported.
+     *
+     * @return <code>true</code> if the platform has virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            virtual("probe");
+            return true;
+        } catch (UnsupportedOperationException uoe) {
+            return false;
+        }
+    }
+}
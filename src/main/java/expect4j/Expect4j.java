@@ -25,6 +25,9 @@ import java.util.*;
 import org.apache.oro.text.regex.*;
 
 import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,7 +101,7 @@ public class Expect4j {
     /**
      * TODO
      */
-    Consumer consumer;
+    ExpectConsumer consumer;
 
     /**
      * TODO
@@ -106,14 +109,15 @@ public class Expect4j {
     Thread consumerThread;
 
     /**
-     * TODO
+     * Told what the session does, see {@link
+     * #setMetrics(SessionMetrics)}.
      */
-    Perl5Matcher matcher;
+    volatile SessionMetrics metrics;
 
     /**
-     * TODO
+     * The view of the consumer's buffer that is being matched against.
      */
-    PatternMatcherInput input;
+    BufferSnapshot input;
 
     /**
      * Create an <code>Expect4j</code> instance based on an {@link
@@ -123,26 +127,92 @@ public class Expect4j {
      *             provides access to the reader/writer streams
      */
     public Expect4j(IOPair pair) {
-        logger.trace("Creating new Expect4J instance " + this + " using IOPair " + pair);
+        this(pair, (Executor) null);
+    }
 
-        // Matching
-        matcher = new Perl5Matcher();
-        matcher.setMultiline(true);
-        input = new PatternMatcherInput("");
+    /**
+     * Create an <code>Expect4j</code> instance based on an {@link
+     * IOPair} concrete instance, whose consumer is run by the given
+     * executor instead of a thread of its own.  The consumer blocks
+     * reading for as long as the session lasts, so the executor has to
+     * give each one a thread of its own, as a cached thread pool or
+     * {@link ConsumerThreads#virtual(String)} does; a fixed size pool
+     * would stall every session beyond its size.
+     *
+     * @param pair the <code>IOPair</code> concrete instance that
+     *             provides access to the reader/writer streams
+     * @param executor the executor that runs the consumer, or
+     *                 <code>null</code> to start a daemon thread for it
+     * @see ConsumerThreads
+     */
+    public Expect4j(IOPair pair, Executor executor) {
+        this(pair, createConsumer(pair), executor);
+    }
 
-        // IO
-        this.pair = pair;
-        if (true) {
-            consumer = new BlockingConsumer(pair);
+    /**
+     * Create an <code>Expect4j</code> instance based on an {@link
+     * IOPair} concrete instance and a consumer of the caller's choice,
+     * such as a {@link PollingConsumer} with its own {@link
+     * PollingBackoff}:
+     *
+     * <pre>
+     * ExpectConsumer consumer = new PollingConsumer(pair, PollingBackoff.DEFAULT);
+     * Expect4j expect = new Expect4j(pair, consumer, null);
+     * </pre>
+     *
+     * The consumer is started by the executor, as with {@link
+     * #Expect4j(IOPair, Executor)}.
+     *
+     * @param pair the <code>IOPair</code> concrete instance that
+     *             provides access to the reader/writer streams
+     * @param consumer the consumer to read the pair with
+     * @param executor the executor that runs the consumer, or
+     *                 <code>null</code> to start a daemon thread for it
+     */
+    public Expect4j(IOPair pair, ExpectConsumer consumer, Executor executor) {
+        this(pair, consumer);
+
+        if (executor == null) {
+            consumerThread = new Thread(consumer);
+            consumerThread.setDaemon(true);
+            logger.trace("Starting consumer thread " + consumerThread + " for Expect4J instance " + this);
+            consumerThread.start();
         } else {
-            // TODO: this section is never hit due to the "if (true)" above
-            consumer = new PollingConsumer(pair);
+            logger.trace("Handing consumer " + consumer + " for Expect4J instance " + this + " to executor " + executor);
+            executor.execute(consumer);
         }
+    }
 
-        consumerThread = new Thread(consumer);
-        consumerThread.setDaemon(true);
-        logger.trace("Starting consumer thread " + consumerThread + " for Expect4J instance " + this);
-        consumerThread.start();
+    /**
+     * Returns the consumer used unless another one is given.
+     */
+    static ExpectConsumer createConsumer(IOPair pair) {
+        if (pair instanceof ByteIOPair) {
+            // decodes the bytes itself, with the pair's charset
+            return new ByteConsumer((ByteIOPair) pair);
+        }
+        return new LockFreeConsumer(pair);
+    }
+
+    /**
+     * Creates an <code>Expect4j</code> instance around a {@link
+     * Consumer} that is already being fed, such as a {@link
+     * NioConsumer} serviced by a {@link NioEventLoop}, so no thread is
+     * started for it.
+     *
+     * @param pair the <code>IOPair</code> concrete instance that
+     *             provides access to the reader/writer streams
+     * @param consumer the consumer filling the buffer from the pair
+     */
+    public Expect4j(IOPair pair, ExpectConsumer consumer) {
+        logger.trace("Creating new Expect4J instance " + this + " using IOPair " + pair + " and Consumer " + consumer);
+
+        // Matching
+        input = new SessionBuffer().snapshot();
+
+        // IO
+        this.pair = pair;
+        this.consumer = consumer;
 
         mode = STATE_INITIALIZED;
     }
@@ -170,6 +240,20 @@ public class Expect4j {
         logger.trace("Created Expect4J instance " + this + " based on InputStream " + is + " and OutputStream " + os);
     }
 
+    /**
+     * Creates an <code>Expect4j</code> instance based on an {@link
+     * java.io.InputStream} and {@link java.io.OutputStream} encoded
+     * with the given character set, rather than the platform's default.
+     *
+     * @param is the <code>InputStream</code> to use for reading data
+     * @param os the <code>OutputStream</code> to use for writing data
+     * @param charset the character set of both streams
+     */
+    public Expect4j(InputStream is, OutputStream os, Charset charset) {
+        this( new StreamPair(is, os, charset) );
+        logger.trace("Created Expect4J instance " + this + " based on InputStream " + is + " and OutputStream " + os + " in " + charset);
+    }
+
     /**
      * Creates an <code>Expect4j</code> instance based on a spawned
      * {@link java.lang.Process}.
@@ -218,7 +302,119 @@ public class Expect4j {
      * @see <a href="http://wiki.tcl.tk/14317">http://wiki.tcl.tk/14317</a>
      */
     public void send(String data) throws IOException {
-        consumer.send(data);
+        AsyncSender sender = asyncSender;
+        if (sender != null)
+            sender.send(data);
+        else if (flushPolicy == FLUSH_ON_EXPECT)
+            consumer.write(data);
+        else
+            consumer.send(data);
+    }
+
+    /**
+     * Passes each string to the writer, and flushes once after the
+     * last, so that a batch of commands goes out together rather than
+     * as a write and a flush each.  Subject to the flush policy and the
+     * send executor like {@link #send(String)}.
+     *
+     * @param data the strings to pass to the writer, in order
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void sendAll(List<String> data) throws IOException {
+        AsyncSender sender = asyncSender;
+        if (sender != null) {
+            for (String item : data)
+                sender.send(item);
+        } else if (flushPolicy == FLUSH_ON_EXPECT) {
+            for (String item : data)
+                consumer.write(item);
+        } else {
+            consumer.sendAll(data);
+        }
+    }
+
+    /**
+     * Flushes what was sent and not yet flushed, or with a send
+     * executor, waits until everything sent so far is written.
+     *
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void flush() throws IOException {
+        AsyncSender sender = asyncSender;
+        if (sender != null)
+            sender.flush();
+        else
+            consumer.flush();
+    }
+
+    /**
+     * Flush the writer on every {@link #send(String)}.
+     */
+    public static final int FLUSH_ON_SEND = 0;
+
+    /**
+     * Keep what is sent in the writer until the next
+     * <code>expect</code> or {@link #flush()}, so the commands a script
+     * sends in a row before expecting the answer go out together.
+     */
+    public static final int FLUSH_ON_EXPECT = 1;
+
+    /**
+     * When what is sent is flushed, {@link #FLUSH_ON_SEND} or {@link
+     * #FLUSH_ON_EXPECT}.
+     */
+    volatile int flushPolicy = FLUSH_ON_SEND;
+
+    /**
+     * The sender that writes from a thread of its own, or
+     * <code>null</code> to write from the caller's thread.
+     */
+    volatile AsyncSender asyncSender;
+
+    /**
+     * Sets when what is sent is flushed to the writer.
+     *
+     * @param policy {@link #FLUSH_ON_SEND}, the default, or {@link
+     *               #FLUSH_ON_EXPECT}
+     * @throws IOException if flushing what is pending fails
+     */
+    public void setFlushPolicy(int policy) throws IOException {
+        if (policy != FLUSH_ON_SEND && policy != FLUSH_ON_EXPECT)
+            throw new IllegalArgumentException("Unknown flush policy: " + policy);
+        flushPolicy = policy;
+        if (policy == FLUSH_ON_SEND && asyncSender == null)
+            consumer.flush();
+    }
+
+    /**
+     * Returns when what is sent is flushed to the writer.
+     *
+     * @return {@link #FLUSH_ON_SEND} or {@link #FLUSH_ON_EXPECT}
+     */
+    public int getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Has what is sent queued and written by a writer thread run by the
+     * given executor, so that {@link #send(String)} doesn't wait for
+     * the stream.  The writer thread writes and flushes everything
+     * queued at once, whatever the flush policy.
+     *
+     * @param executor the executor that runs the writer thread, such
+     *                 as {@link ConsumerThreads#named(String)}, or
+     *                 <code>null</code> to send from the caller's
+     *                 thread again
+     * @throws IOException if sending what was queued fails
+     * @see AsyncSender
+     */
+    public void setSendExecutor(Executor executor) throws IOException {
+        AsyncSender previous = asyncSender;
+        asyncSender = (executor == null) ? null : new AsyncSender(consumer, executor);
+        if (previous != null) {
+            previous.close();
+            previous.flush();
+        }
     }
 
     /**
@@ -318,184 +514,404 @@ public class Expect4j {
     public int expect(final List<Match> pairs) throws Exception {
         logger.trace("Searching for " + pairs.size() + " patterns in the reader stream");
 
-        // Buckets
-        EofMatch eofMatch = null;
-        TimeoutMatch timeoutMatch = null;
-        List<Match> patternMatches = new ArrayList<>();
-
-        // Fill buckets in one swoop
-        Iterator<Match> iter = pairs.iterator();
-        while (iter.hasNext()) {
-            Match match = iter.next();
-            if (!(match instanceof Match)) {
-                logger.debug("Object " + match + " is not of type expect4j.matches.Match, cannot use as a pattern");
-                continue;
-            } else if (match instanceof PatternPair) {
-                logger.trace("Searching for PatternPair " + match + " in the reader stream");
-                patternMatches.add( match );
-            } else if (match instanceof TimeoutMatch) {
-                logger.trace("Registering custom TimeoutMatch handler " + match);
-                timeoutMatch = (TimeoutMatch) match;
-            } else if (match instanceof EofMatch) {
-                logger.trace("Registering custom EofMatch handler " + match);
-                eofMatch = (EofMatch) match;
+        flushForExpect();
+
+        ExpectCall call = new ExpectCall(pairs);
+        while (!call.step()) {
+            // Wait without holding the consumer's lock, so a caller on a
+            // virtual thread doesn't pin its carrier while it waits; the
+            // consumers remember whether data arrived since the snapshot
+            if (call.timeout == TIMEOUT_FOREVER) {
+                consumer.waitForBuffer(TIMEOUT_FOREVER);
             } else {
-                logger.debug("Unexpected match object " + match + " found in the pattern list, ignoring");
+                long remaining = call.remainingNanos();
+                logger.trace("remaining: " + remaining + "ns");
+                if (remaining <= 0) {
+                    // we might have gone over the timeout already
+                    // step again, that the typical logic takes hold
+                    continue;
+                }
+                logger.debug("Waiting for more input");
+                // rounded up, so the wait doesn't end just short of it
+                consumer.waitForBuffer((remaining + 999999) / 1000000);
             }
         }
+        return call.finish();
+    }
 
-        // if( eofMatch == null ) eofMatch = new EofMatch();
-        // if( timeoutMatch == null ) // that's ok
-        long timeout;
-        if (timeoutMatch != null && timeoutMatch.getTimeout() != TIMEOUT_NOTSET) {
-            timeout = timeoutMatch.getTimeout();
-        } else {
-            timeout = defaultTimeout;
+    /**
+     * Attempts to detect the patterns contained in the {@link
+     * java.util.List} list without a thread waiting for them.  The
+     * first pass over the buffer runs on the calling thread; after that
+     * the patterns are run again on the consumer's reading thread
+     * whenever input arrives, and the timeout is handled by a timer
+     * shared by all sessions, so thousands of dialogs can be waiting
+     * at once without a thread each.  The {@link Closure}s run on
+     * whichever of these threads completes the match, and should not
+     * block.
+     * <p>
+     * As with <code>expect</code>, there must be only one expect in
+     * progress per instance at a time.
+     *
+     * @param pairs the list of patterns and associated {@link Closure}s
+     *              to execute
+     * @return a future holding the index <code>expect</code> would have
+     *         returned, and the state of the last closure run
+     * @see ExpectFuture
+     */
+    public ExpectFuture expectAsync(final List<Match> pairs) {
+        logger.trace("Searching asynchronously for " + pairs.size() + " patterns in the reader stream");
+
+        ExpectFuture future = new ExpectFuture();
+        try {
+            flushForExpect();
+            new AsyncExpect(this, new ExpectCall(pairs), future).start();
+        } catch (Exception e) {
+            future.fail(e);
         }
+        return future;
+    }
+
+    /**
+     * Sends what {@link #FLUSH_ON_EXPECT} held back, before a call to
+     * <code>expect</code> starts waiting for the answer.
+     */
+    void flushForExpect() throws IOException {
+        if (flushPolicy == FLUSH_ON_EXPECT && asyncSender == null)
+            consumer.flush();
+    }
+
+    /**
+     * The state of one call to <code>expect</code>, which is advanced
+     * by {@link #step()} each time there might be more to match, either
+     * by the calling thread or, for {@link #expectAsync(List)}, by the
+     * thread that reads.
+     */
+    class ExpectCall {
+        final List<Match> pairs;
 
-        long startTime = System.currentTimeMillis();
-        long endTime = startTime + timeout;
+        // Buckets
+        EofMatch eofMatch = null;
+        TimeoutMatch timeoutMatch = null;
+        FullBufferMatch fullBufferMatch = null;
+        List<PatternPair> patternMatches = new ArrayList<>();
+
+        final long timeout;
 
-        logger.debug("Timeout set to " + timeout + " milliseconds, expires at " + endTime);
+        /**
+         * When the timeout expires, on the {@link System#nanoTime()}
+         * clock that the waits and the timer of {@link
+         * #expectAsync(List)} also go by.
+         */
+        long endTime;
 
         boolean foundTimeout = false;
         boolean foundEof = false;
         int index = RET_UNKNOWN;
 
-        // New states are based on g_state and they need to see a null
-        // g_state on the first match
-        g_state = null;
-
-        // Primary loop, which only really continues if
-        // State.exp_continue() is called or no match was found
-        String toMatch = null; // from last pause call
-        while (true) {
-            if (timeout != TIMEOUT_FOREVER && System.currentTimeMillis() >= endTime) {
-                logger.debug("Detection timeout expired");
-                foundTimeout = true;
-                break;
+        // Search for all of the patterns in one pass
+        final PatternSet patternSet;
+
+        // How far into the buffer the patterns have already been
+        // searched without success, see setMatchLookback(int), which
+        // only holds as long as the buffer's generation doesn't change
+        int scanned = 0;
+        long scannedGeneration = -1;
+
+        String toMatch = null; // the buffer when EOF was found
+
+        // The consumer has to keep a full buffer for the FullBufferMatch
+        // rather than discard the oldest of it
+        final int matchMax;
+        final boolean keepFullBuffer;
+
+        final long startNanos = System.nanoTime();
+
+        ExpectCall(List<Match> pairs) throws MalformedPatternException {
+            this.pairs = pairs;
+
+            // Fill buckets in one swoop
+            Iterator<Match> iter = pairs.iterator();
+            while (iter.hasNext()) {
+                Match match = iter.next();
+                if (!(match instanceof Match)) {
+                    logger.debug("Object " + match + " is not of type expect4j.matches.Match, cannot use as a pattern");
+                    continue;
+                } else if (match instanceof PatternPair) {
+                    logger.trace("Searching for PatternPair " + match + " in the reader stream");
+                    patternMatches.add( (PatternPair) match );
+                } else if (match instanceof TimeoutMatch) {
+                    logger.trace("Registering custom TimeoutMatch handler " + match);
+                    timeoutMatch = (TimeoutMatch) match;
+                } else if (match instanceof EofMatch) {
+                    logger.trace("Registering custom EofMatch handler " + match);
+                    eofMatch = (EofMatch) match;
+                } else if (match instanceof FullBufferMatch) {
+                    logger.trace("Registering custom FullBufferMatch handler " + match);
+                    fullBufferMatch = (FullBufferMatch) match;
+                } else {
+                    logger.debug("Unexpected match object " + match + " found in the pattern list, ignoring");
+                }
             }
 
-            synchronized(consumer) { // while matching
-                toMatch = consumer.pause();
-                logger.trace("Size of toMatch is " + toMatch.length());
-                // make sure to resume before any break/continue
-                foundEof = consumer.foundEOF(); // has to be called before resume
+            // if( eofMatch == null ) eofMatch = new EofMatch();
+            // if( timeoutMatch == null ) // that's ok
+            if (timeoutMatch != null && timeoutMatch.getTimeout() != TIMEOUT_NOTSET) {
+                timeout = timeoutMatch.getTimeout();
+            } else {
+                timeout = defaultTimeout;
+            }
 
-                input.setInput(toMatch);
+            resetTimer();
 
-                logger.debug("Finding first match using >>>" + printBuffer() + "<<< as the haystack");
+            logger.debug("Timeout set to " + timeout + " milliseconds");
 
-                boolean foundMatch = false;
-                try {
-                    foundMatch = runFirstMatch(patternMatches);
-                } catch (Exception e) {
-                    logger.warn("Forwarding an exception that occurred in a Closure: " + e);
-                    consumer.resume();
-                    throw e;
-                }
+            // New states are based on g_state and they need to see a null
+            // g_state on the first match
+            g_state = null;
 
-                // Both paths call resume.
-                if (foundMatch) {
-                    int matchedWhere = g_state.getMatchedWhere();
-                    int matchedLength = g_state.getMatch().length();
-                    logger.debug("Matched @ " + matchedWhere + " with a length of " + matchedLength);
+            patternSet = new PatternSet(patternMatches, regexEngine);
 
-                    // resume consumer, at a later offset
-                    consumer.resume(matchedWhere + matchedLength);
+            matchMax = consumer.getMaxBufferSize();
+            keepFullBuffer = (fullBufferMatch != null && matchMax != MATCH_MAX_UNBOUNDED);
+            if (keepFullBuffer)
+                consumer.setDiscardWhenFull(false);
+        }
 
-                    // find index to return
-                    PatternPair singlepair = (PatternPair) patternMatches.get( g_state.getPairIndex() );
-                    logger.trace("Pair found " + singlepair.getPattern().getPattern() );
-                    index = pairs.indexOf( singlepair );
-                    logger.trace("Index found " + index);
+        /**
+         * Starts the timeout over from now.
+         */
+        void resetTimer() {
+            // a timeout of centuries is as good as forever, and keeps
+            // the end from wrapping around
+            endTime = System.nanoTime() + Math.min(TimeUnit.MILLISECONDS.toNanos(timeout), Long.MAX_VALUE / 2);
+        }
 
-                    if (!g_state.shouldContinue()) {
-                        logger.trace("NOT Continuing");
-                        break;
-                    } else {
-                        logger.trace("Continuing");
+        /**
+         * Returns how long until the timeout expires.
+         *
+         * @return the nanoseconds left, or at most zero once it expired
+         */
+        long remainingNanos() {
+            return endTime - System.nanoTime();
+        }
+
+        /**
+         * Runs the patterns until one matches that doesn't continue,
+         * the timeout expires, EOF is found, or there is nothing more
+         * to match until more input arrives.
+         *
+         * @return <code>true</code> if the call is over, and {@link
+         *         #finish()} should be called
+         * @throws Exception if a {@link Closure} throws one
+         */
+        boolean step() throws Exception {
+            // Primary loop, which only really continues if
+            // State.exp_continue() is called or no match was found
+            while (true) {
+                if (timeout != TIMEOUT_FOREVER && remainingNanos() <= 0) {
+                    logger.debug("Detection timeout expired");
+                    foundTimeout = true;
+                    return true;
+                }
+
+                synchronized(consumer) { // while matching
+                    // make sure to resume before any break/continue
+                    // has to be called before resume, and before the snapshot
+                    // so that the snapshot holds everything read before EOF
+                    foundEof = consumer.foundEOF();
+                    // a view of the buffer rather than a copy
+                    input = consumer.snapshot();
+                    logger.trace("Size of toMatch is " + input.length());
+                    if (foundEof)
+                        toMatch = input.toString();
+
+                    if (input.getGeneration() != scannedGeneration) {
+                        // the buffer has shifted, so the patterns start over
+                        scanned = 0;
                     }
 
-                    if (g_state.shouldResetTimer()) {
-                        // keep start time where it is
-                        endTime = System.currentTimeMillis() + timeout;
+                    if (logger.isDebugEnabled()) {
+                        // printing the haystack is as expensive as searching it
+                        logger.debug("Finding first match using >>>" + printBuffer() + "<<< as the haystack");
                     }
-                    continue; // skips waitForBuffer since buffer might already have what we're looking for
 
-                } else {
-                    logger.trace("Nothing found, resuming consumer");
-                    consumer.resume();
-                    if (timeout == TIMEOUT_NEVER) {
-                        // The timeout variables tells us that we shouldn't try again
-                        // TODO Find out if this triggers the Timeout match
-                        index = RET_TRIED_ONCE;
-                        break;
+                    SessionMetrics m = metrics;
+                    if (m != null)
+                        m.matchAttempted();
+
+                    boolean foundMatch = false;
+                    try {
+                        foundMatch = runFirstMatch(patternSet, scanned);
+                    } catch (Exception e) {
+                        logger.warn("Forwarding an exception that occurred in a Closure: " + e);
+                        consumer.resume();
+                        if (keepFullBuffer)
+                            consumer.setDiscardWhenFull(true);
+                        throw e;
                     }
-                }
-                if (foundEof) {
-                    logger.debug("Found EOF");
-                    break;
-                }
 
-                if (timeout == TIMEOUT_FOREVER) {
-                    consumer.waitForBuffer(TIMEOUT_FOREVER);
-                } else {
-                    long singleTimeout = endTime - System.currentTimeMillis();
-                    logger.trace("singleTimeout: " + singleTimeout);
-                    if (timeout != TIMEOUT_FOREVER && singleTimeout <= 0) {
-                        // we might have gone over the timeout already
-                        // restart while loop, that the typical logic takes hold
+                    // Both paths call resume.
+                    if (foundMatch) {
+                        int matchedWhere = g_state.getMatchedWhere();
+                        int matchedLength = g_state.getMatch().length();
+                        logger.debug("Matched @ " + matchedWhere + " with a length of " + matchedLength);
+
+                        // resume consumer, at a later offset
+                        consumer.resume(matchedWhere + matchedLength);
+
+                        // find index to return
+                        PatternPair singlepair = patternMatches.get( g_state.getPairIndex() );
+                        logger.trace("Pair found " + singlepair.getPatternString() );
+                        index = pairs.indexOf( singlepair );
+                        logger.trace("Index found " + index);
+
+                        if (!g_state.shouldContinue()) {
+                            logger.trace("NOT Continuing");
+                            return true;
+                        } else {
+                            logger.trace("Continuing");
+                        }
+
+                        if (g_state.shouldResetTimer()) {
+                            // keep start time where it is
+                            resetTimer();
+                        }
+                        continue; // skips waitForBuffer since buffer might already have what we're looking for
+
+                    } else if (keepFullBuffer && input.length() >= matchMax) {
+                        logger.debug("Buffer is full with " + input.length() + " characters");
+
+                        // hand the whole buffer to the closure, and start
+                        // over; copied first, since once consumed the
+                        // reader may reuse the array the snapshot views
+                        String full = input.toString();
+                        consumer.resume(full.length());
+                        index = pairs.indexOf(fullBufferMatch);
+
+                        ExpectState state = prepareClosure(index, full);
+                        Closure closure = fullBufferMatch.getClosure();
+                        try {
+                            if (closure != null)
+                                closure.run(state);
+                        } catch (Exception e) {
+                            logger.warn("Forwarding an exception that occurred in a Closure: " + e);
+                            consumer.setDiscardWhenFull(true);
+                            throw e;
+                        } finally {
+                            g_state = state;
+                        }
+
+                        if (!state.shouldContinue())
+                            return true;
+                        if (state.shouldResetTimer())
+                            resetTimer();
                         continue;
+
+                    } else {
+                        logger.trace("Nothing found, resuming consumer");
+                        consumer.resume();
+
+                        // nothing matched up to here, remember that for the next pass
+                        scanned = input.length();
+                        scannedGeneration = input.getGeneration();
+                        if (timeout == TIMEOUT_NEVER) {
+                            // The timeout variables tells us that we shouldn't try again
+                            // TODO Find out if this triggers the Timeout match
+                            index = RET_TRIED_ONCE;
+                            return true;
+                        }
+                    }
+                    if (foundEof) {
+                        logger.debug("Found EOF");
+                        return true;
                     }
-                    logger.debug("Waiting for more input");
-                    consumer.waitForBuffer(singleTimeout);
                 }
-            }
-        } // end while
-        logger.trace("Leaving main while loop");
-
-        Match lastmile = null;
-        String lastmileBuffer = null;
-        if (foundTimeout) { //removed index == -1
-            logger.trace("Dealing with Timeout");
-            if (timeoutMatch == null)
-                index = RET_TIMEOUT; // Timeout with a Timeout match
-            else
-                lastmile = timeoutMatch;
+                return false;
+            } // end while
         }
 
-        if (foundEof)  {
-            logger.info("Dealing with EOF " + eofMatch);
-            if (eofMatch != null) {
-                lastmileBuffer = toMatch;
-                lastmile = eofMatch;
-            } else if (index == -1) {
-                index = RET_EOF;
+        /**
+         * Runs the closure of the timeout or EOF match, if that is how
+         * the call ended.
+         *
+         * @return the index <code>expect</code> returns
+         * @throws Exception if the {@link Closure} throws one
+         */
+        int finish() throws Exception {
+            logger.trace("Leaving main while loop");
+
+            if (keepFullBuffer)
+                consumer.setDiscardWhenFull(true);
+
+            SessionMetrics m = metrics;
+            if (m != null) {
+                int outcome = SessionMetrics.MATCHED;
+                if (foundTimeout)
+                    outcome = SessionMetrics.TIMED_OUT;
+                else if (index == RET_TRIED_ONCE)
+                    outcome = SessionMetrics.NOT_FOUND;
+                else if (foundEof && index == RET_UNKNOWN)
+                    outcome = SessionMetrics.EOF;
+                m.expectCompleted(outcome, System.nanoTime() - startNanos);
             }
-        }
 
-        // We're in the final stretch, but we might have one last closure to run.
-        if (lastmile != null) {
-            logger.trace("Running last mile");
-
-            //TODO provide buffer vars for EOF
-            Closure closure = lastmile.getClosure();
-            index = pairs.indexOf(lastmile);
-
-            ExpectState state = prepareClosure(index, lastmileBuffer);
-            try {
-                if (closure != null)
-                    closure.run(state);
-            } catch (Exception e) {
-                logger.warn("Forwarding an exception that occurred in a Closure: " + e);
-                logger.trace("Closure body: " + closure.toString());
-                throw e;
-            } finally {
-                g_state = state;
+            Match lastmile = null;
+            String lastmileBuffer = null;
+            if (foundTimeout) { //removed index == -1
+                logger.trace("Dealing with Timeout");
+                if (timeoutMatch == null)
+                    index = RET_TIMEOUT; // Timeout with a Timeout match
+                else
+                    lastmile = timeoutMatch;
             }
+
+            if (foundEof)  {
+                logger.info("Dealing with EOF " + eofMatch);
+                if (eofMatch != null) {
+                    lastmileBuffer = toMatch;
+                    lastmile = eofMatch;
+                } else if (index == -1) {
+                    index = RET_EOF;
+                }
+            }
+
+            // We're in the final stretch, but we might have one last closure to run.
+            if (lastmile != null) {
+                logger.trace("Running last mile");
+
+                //TODO provide buffer vars for EOF
+                Closure closure = lastmile.getClosure();
+                index = pairs.indexOf(lastmile);
+
+                ExpectState state = prepareClosure(index, lastmileBuffer);
+                try {
+                    if (closure != null)
+                        closure.run(state);
+                } catch (Exception e) {
+                    logger.warn("Forwarding an exception that occurred in a Closure: " + e);
+                    logger.trace("Closure body: " + closure.toString());
+                    throw e;
+                } finally {
+                    g_state = state;
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Gives up on the call without running any closure, for when
+         * another session ended a {@link MultiExpect} or the {@link
+         * ExpectFuture} was cancelled.
+         */
+        void abandon() {
+            if (keepFullBuffer)
+                consumer.setDiscardWhenFull(true);
+
+            SessionMetrics m = metrics;
+            if (m != null)
+                m.expectCompleted(SessionMetrics.ABANDONED, System.nanoTime() - startNanos);
         }
-        return index;
     }
 
     /**
@@ -505,7 +921,7 @@ public class Expect4j {
      * @return the input buffer as a printable <code>String</code>
      */
     protected String printBuffer() {
-        String javaStr = new String(input.getBuffer());
+        String javaStr = input.toString();
         javaStr = javaStr.replaceAll("\\r", "\\\\r");
         javaStr = javaStr.replaceAll("\\n", "\\\\n");
         return javaStr;
@@ -559,13 +975,13 @@ public class Expect4j {
             prevMap = g_state.getVars();
         }
 
-        int matchedWhere = result.beginOffset(0);
+        int matchedWhere = result.beginOffset(0) - input.getBegin();
         String matchedText = result.toString(); // expect_out(0,string)
 
         // Unmatched upto end of match
         // expect_out(buffer)
-        char[] chBuffer = input.getBuffer();
-        String copyBuffer = new String(chBuffer, 0, result.endOffset(0) );
+        char[] chBuffer = input.getArray();
+        String copyBuffer = new String(chBuffer, input.getBegin(), result.endOffset(0) - input.getBegin());
 
         List<String> groups = new ArrayList<>();
         for (int j = 1; j <= result.groups(); j++) {
@@ -583,36 +999,41 @@ public class Expect4j {
      * @param pairs TODO
      * @return found something, and ran it. Calling function should use g_state to figure out what to do next
      */
+    @SuppressWarnings("unchecked")
     protected boolean runFirstMatch(List /* <PatternPair> */ pairs) throws Exception {
-        MatchResult firstResult = null;
-        PatternPair firstPair = null;
-        int pairIndex = -1;
-
-        ListIterator iter = pairs.listIterator();
-        while (iter.hasNext()) {
-            PatternPair pair = (PatternPair) iter.next();
-            Pattern pattern = pair.getPattern();
-
-            // reset input to begining
-            input.setCurrentOffset(input.getBeginOffset());
-
-            if (matcher.contains(input, pattern)) {
-                MatchResult result = matcher.getMatch();
-                if (firstResult == null || result.beginOffset(0) < firstResult.beginOffset(0)) {
-                    firstResult = result;
-                    firstPair = pair;
-                    pairIndex = iter.previousIndex(); // TODO confirm this
-                }
-            }
+        return runFirstMatch(new PatternSet(pairs, regexEngine), 0);
+    }
+
+    /**
+     * Runs the first match like {@link #runFirstMatch(List)}, searching
+     * for all of the patterns in a single pass over the buffer and
+     * resuming near where the previous pass over the same buffer left
+     * off.
+     *
+     * @param patterns the patterns to search for
+     * @param scanned the number of characters at the beginning of the
+     *                buffer that were already searched without a match
+     * @return found something, and ran it. Calling function should use g_state to figure out what to do next
+     */
+    protected boolean runFirstMatch(PatternSet patterns, int scanned) throws Exception {
+        // start at the begining, or just before where the patterns
+        // stopped looking last time
+        int startOffset = input.getBegin();
+        if (matchLookback != LOOKBACK_UNBOUNDED) {
+            startOffset = Math.max(startOffset, input.getBegin() + scanned - matchLookback);
         }
 
+        int pairIndex = patterns.find(input.getArray(), input.getBegin(), input.getEnd(), startOffset);
+        MatchResult firstResult = patterns.getMatch();
+        PatternPair firstPair = (pairIndex == -1) ? null : patterns.get(pairIndex);
+
         if (firstResult == null)
             return false; // didn't find anything
 
         // Found something
         //input's offset are illegal at this phase
         //input.setCurrentOffset(input.getBeginOffset());
-        logger.trace("Using a result for " + firstPair.getPattern().getPattern());
+        logger.trace("Using a result for " + firstPair.getPatternString());
         ExpectState state = prepareClosure(pairIndex, firstResult);
         Closure closure = firstPair.getClosure();
 
@@ -683,6 +1104,127 @@ public class Expect4j {
         defaultTimeout = timeout;
     }
 
+    /**
+     * The engine patterns are compiled with and searched by, unless a
+     * pattern was given an engine of its own.
+     */
+    RegexEngine regexEngine = OroRegexEngine.INSTANCE;
+
+    /**
+     * Changes the regular expression engine used to search for the
+     * patterns passed to <code>expect</code>.  Patterns are compiled
+     * for the engine the first time they are searched with it; a {@link
+     * PatternPair} created with an explicit engine always uses that
+     * one.  The default is {@link OroRegexEngine}.
+     *
+     * @param engine the engine to use
+     */
+    public void setRegexEngine(RegexEngine engine) {
+        if (engine == null)
+            throw new IllegalArgumentException("Regex engine must not be null");
+        this.regexEngine = engine;
+    }
+
+    /**
+     * Returns the regular expression engine used to search for
+     * patterns.
+     *
+     * @return the regular expression engine
+     */
+    public RegexEngine getRegexEngine() {
+        return regexEngine;
+    }
+
+    /**
+     * Search the whole buffer again every time new data arrives.
+     */
+    public static final int LOOKBACK_UNBOUNDED = -1;
+
+    /**
+     * The number of characters behind the end of the previous search
+     * that are searched again when new data arrives, initialized to
+     * LOOKBACK_UNBOUNDED.
+     */
+    int matchLookback = LOOKBACK_UNBOUNDED;
+
+    /**
+     * Enables incremental matching.  By default every pattern is run
+     * over the whole buffer each time the consumer adds data to it,
+     * which makes the cost of an <code>expect</code> call grow with
+     * the square of the output received while waiting.  With a bounded
+     * lookback, a pattern that did not match the first <i>N</i>
+     * characters of the buffer only resumes its search at <i>N -
+     * lookback</i>, so each character is searched a bounded number of
+     * times.
+     * <p>
+     * Matches longer than <code>lookback</code> characters that
+     * straddle the end of a previous search are missed, as are matches
+     * that could have started earlier (e.g. a leading <code>*</code>
+     * glob), so the lookback should be at least as long as the longest
+     * text any of the patterns can match.
+     *
+     * @param lookback the number of characters to search again, or
+     *                 {@link #LOOKBACK_UNBOUNDED} to always search the
+     *                 whole buffer
+     */
+    public void setMatchLookback(int lookback) {
+        if (lookback < 0 && lookback != LOOKBACK_UNBOUNDED)
+            throw new IllegalArgumentException("Lookback must not be negative: " + lookback);
+
+        logger.debug("Setting match lookback to " + lookback);
+        matchLookback = lookback;
+    }
+
+    /**
+     * Returns the number of characters searched again when new data
+     * arrives.
+     *
+     * @return the lookback in characters, or {@link
+     *         #LOOKBACK_UNBOUNDED}
+     * @see #setMatchLookback(int)
+     */
+    public int getMatchLookback() {
+        return matchLookback;
+    }
+
+    /**
+     * Don't limit the size of the buffer.
+     */
+    public static final int MATCH_MAX_UNBOUNDED = 0;
+
+    /**
+     * Limits the number of characters kept in the buffer, like the
+     * <code>match_max</code> command of Expect, so that a session whose
+     * output never matches doesn't grow without bound.  Once the limit
+     * is reached, the oldest characters are discarded as new ones
+     * arrive, unless a {@link FullBufferMatch} is among the patterns
+     * passed to <code>expect</code>, in which case the whole buffer is
+     * handed to its closure.  Patterns can only match text that is
+     * still in the buffer, so the limit should be well above the
+     * longest text they have to match.
+     *
+     * @param max the most characters to keep, or {@link
+     *            #MATCH_MAX_UNBOUNDED} to keep everything
+     * @see ConsumerImpl#BUFFERMAX
+     */
+    public void setMatchMax(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("Match max must not be negative: " + max);
+
+        logger.debug("Setting match max to " + max);
+        consumer.setMaxBufferSize(max);
+    }
+
+    /**
+     * Returns the number of characters kept in the buffer at most.
+     *
+     * @return the limit, or {@link #MATCH_MAX_UNBOUNDED}
+     * @see #setMatchMax(int)
+     */
+    public int getMatchMax() {
+        return consumer.getMaxBufferSize();
+    }
+
     /**
      * TODO
      *
@@ -731,7 +1273,41 @@ public class Expect4j {
      */
     public void close() {
         logger.debug("Stopping processing of the reader/writer streams by the Expect4j instance" + this);
+        try {
+            setSendExecutor(null);
+            if (flushPolicy == FLUSH_ON_EXPECT)
+                consumer.flush();
+        } catch (IOException ioe) {
+            logger.debug("Caught an exception while flushing before closing: " + ioe);
+        }
         consumer.stop();
+
+        SessionMetrics m = metrics;
+        if (m != null)
+            m.sessionClosed();
+    }
+
+    /**
+     * Sets what is told about what the session does: what is read and
+     * sent, and how each call to <code>expect</code> ends.  There are
+     * no metrics by default.
+     *
+     * @param metrics the metrics, such as {@link SessionCounters}, or
+     *                <code>null</code> for none
+     * @see SessionRegistry
+     */
+    public void setMetrics(SessionMetrics metrics) {
+        this.metrics = metrics;
+        consumer.setMetrics(metrics);
+    }
+
+    /**
+     * Returns what is told about what the session does.
+     *
+     * @return the metrics, or <code>null</code> if there are none
+     */
+    public SessionMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -753,4 +1329,17 @@ public class Expect4j {
     public void unregisterBufferChangeLogger(final BufferChangeLogger logger) {
         consumer.unregisterBufferChangeLogger(logger);
     }
+
+    /**
+     * Calls the change loggers off the thread that reads, so that a
+     * slow logger doesn't hold up reading or <code>expect</code>.  By
+     * default they are called on the reading thread, as each chunk is
+     * read.
+     *
+     * @param dispatcher the dispatcher, or <code>null</code> to call
+     *                   the loggers on the reading thread
+     */
+    public void setBufferChangeDispatcher(BufferChangeDispatcher dispatcher) {
+        consumer.setBufferChangeDispatcher(dispatcher);
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A {@link Consumer} that {@link Expect4j} can drive: it hands out
+ * views of its buffer, bounds it, batches what is sent, and reports
+ * input as it arrives.  The consumers in this package all implement it;
+ * {@link Consumer} itself is left as it was, so that classes written
+ * against it keep compiling and linking.
+ */
+public interface ExpectConsumer extends Consumer {
+    /**
+     * Passes each string to the writer stream, and flushes it once
+     * after the last.
+     *
+     * @param data the strings to pass to the writer, in order
+     * @throws IOException if an error occurs with the writer stream
+     * @see Expect4j#sendAll(List)
+     */
+    public void sendAll(List<String> data) throws IOException;
+
+    /**
+     * Passes data to the writer stream without flushing it.
+     *
+     * @param data the data to pass to the writer
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void write(String data) throws IOException;
+
+    /**
+     * Flushes what was written to the writer stream.
+     *
+     * @throws IOException if an error occurs with the writer stream
+     */
+    public void flush() throws IOException;
+
+    /**
+     * Pauses like {@link #pause()}, but returns a read-only view of the
+     * live buffer instead of a copy of it.  The view stays valid until
+     * characters are consumed by {@link #resume(int)}.
+     *
+     * @return a snapshot of the buffer
+     */
+    public BufferSnapshot snapshot();
+
+    /**
+     * Limits the number of characters the buffer holds.  Once the limit
+     * is reached, the oldest characters are discarded as new ones come
+     * in, unless {@link #setDiscardWhenFull(boolean)} says otherwise.
+     *
+     * @param max the most characters to hold, or zero for no limit
+     */
+    public void setMaxBufferSize(int max);
+
+    /**
+     * Returns the number of characters the buffer holds at most.
+     *
+     * @return the limit, or zero if there is none
+     */
+    public int getMaxBufferSize();
+
+    /**
+     * Chooses whether the oldest characters are discarded once the
+     * buffer is full, or kept until they are consumed with {@link
+     * #resume(int)}.  {@link Expect4j} keeps them while it waits with a
+     * {@link expect4j.matches.FullBufferMatch}, to hand them over.
+     *
+     * @param discard <code>true</code> to discard, <code>false</code>
+     *                to let the buffer grow until the caller consumes it
+     */
+    public void setDiscardWhenFull(boolean discard);
+
+    /**
+     * Adds a listener that is run whenever input was added to the
+     * buffer or EOF was found, on the thread that reads, so that
+     * matching can continue without a thread waiting for the buffer.
+     * Several listeners may be added, for instance by an asynchronous
+     * expect and a {@link MultiExpect} on the same session.
+     *
+     * @param listener the listener to add
+     * @see Expect4j#expectAsync(List)
+     */
+    public void addInputListener(Runnable listener);
+
+    /**
+     * Removes a listener added by {@link #addInputListener(Runnable)}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeInputListener(Runnable listener);
+
+    /**
+     * Sets what is told about the characters read and sent.
+     *
+     * @param metrics the metrics, or <code>null</code> for none
+     * @see Expect4j#setMetrics(SessionMetrics)
+     */
+    public void setMetrics(SessionMetrics metrics);
+
+    /**
+     * Sets the dispatcher that calls the buffer change loggers off the
+     * reading thread.
+     *
+     * @param dispatcher the dispatcher, or <code>null</code> to call
+     *                   the loggers on the reading thread
+     * @see Expect4j#setBufferChangeDispatcher(BufferChangeDispatcher)
+     */
+    public void setBufferChangeDispatcher(BufferChangeDispatcher dispatcher);
+}
@@ -33,6 +33,7 @@ import tcl.lang.*;
  * exp_internal 0;
  * expect
  * log_user 0;
+ * match_max 4000
  * send " ";
  * send -- "$command\r";
  * sleep
@@ -60,6 +61,7 @@ public class ExpectEmulation extends Extension {
         interp.createCommand("exp_internal", new ExpInternalCommand());
         interp.createCommand("expect", new ExpectCommand());
         interp.createCommand("log_user", new LogUserCommand());
+        interp.createCommand("match_max", new MatchMaxCommand());
         interp.createCommand("send", new SendCommand());
         interp.createCommand("sleep", new SleepCommand());
         interp.createCommand("spawn", new SpawnCommand());
@@ -80,6 +82,13 @@ public class ExpectEmulation extends Extension {
     /**
      * expect [[-opts] pat1 body1] ... [-opts] patn [bodyn]
      *
+     * The patterns following <code>-i $id_list</code> are looked for in
+     * each of the listed spawn ids rather than in <code>spawn_id</code>,
+     * and all of the sessions are waited on at once with {@link
+     * MultiExpect}.  Variables in the list are substituted, as they are
+     * in patterns.  The id of the session that matched is stored in
+     * <code>expect_out(spawn_id)</code>.
+     *
      * TODO Fully integrate with Expect4j
      * TODO upvar the whole closure when running
      * TODO set expect_out array
@@ -102,6 +111,13 @@ public class ExpectEmulation extends Extension {
 
             List<Match> pairs = new ArrayList<>();
             int i = 0;
+
+            // The patterns for spawn_id, then those following each -i
+            List<TclObject> sectionIds = new ArrayList<>();
+            List<List<Match>> sectionPairs = new ArrayList<>();
+            sectionIds.add(null);
+            sectionPairs.add(pairs);
+            Match timeoutPair = null;
             String arg;
             logger.debug("Looking at expect args");
             Match pair;
@@ -117,6 +133,7 @@ public class ExpectEmulation extends Extension {
                     TclObject tclCode = argv[++i];
                     TclClosure closure = new TclClosure(interp, tclCode);
                     pair = new TimeoutMatch( closure );
+                    timeoutPair = pair;
 
                     logger.debug("Adding Timeout Match");
 
@@ -131,6 +148,24 @@ public class ExpectEmulation extends Extension {
                     logger.debug("Adding Eof Match");
 
                     pairs.add( pair );
+                } else if( arg.equals("full_buffer") ) {
+                    if( i + 1 >= argv.length )
+                        throw new TclNumArgsException(interp, i, argv, "expect [[-opts] pat1 body1] ... [-opts] patn [bodyn]");
+                    TclObject tclCode = argv[++i];
+                    TclClosure closure = new TclClosure(interp, tclCode);
+                    pair = new FullBufferMatch( closure );
+
+                    logger.debug("Adding Full Buffer Match");
+
+                    pairs.add( pair );
+                } else if( arg.equals("-i") ) {
+                    if( i + 1 >= argv.length )
+                        throw new TclNumArgsException(interp, i, argv, "expect [-i spawn_id_list] [[-opts] pat1 body1] ...");
+                    pairs = new ArrayList<>();
+                    sectionIds.add(subst(interp, argv[++i]));
+                    sectionPairs.add(pairs);
+
+                    logger.debug("Adding patterns for spawn ids " + argv[i]);
                 } else {
                     TclObject patternObj;
                     if( arg.startsWith("-") ) {
@@ -153,16 +188,7 @@ public class ExpectEmulation extends Extension {
                     javaStr = javaStr.replaceAll("\\n", "\\\\n");
                     //interp.eval("subst -nobackslashes -nocommands {" + patternObj.toString() + "}", 0);
 
-                    Command substCmd = interp.getCommand("substcr");
-                    TclObject substArgv[] = new TclObject[] {
-                        TclString.newInstance("substcr"),
-                        TclString.newInstance("-nocommands"),
-                        TclString.newInstance("-nobackslashes"),
-                        patternObj
-                    };
-                    substCmd.cmdProc(interp, substArgv);
-
-                    TclObject substPatternObj = interp.getResult();
+                    TclObject substPatternObj = subst(interp, patternObj);
                     String pattern = substPatternObj.toString();
 
                     TclClosure closure = null;
@@ -189,11 +215,14 @@ public class ExpectEmulation extends Extension {
                              * -re "(\[^\r]*)\r\n"
                              */
                             pair = new RegExpMatch(pattern, closure);
-                        } else if ( arg.startsWith("-ex") )
-                            throw new TclException(interp, "Exact matches not supported yet");
-                        else if( arg.startsWith("-gl") ) {
+                            validate(interp, (PatternPair) pair);
+                        } else if ( arg.startsWith("-ex") ) {
+                            pair = new ExactMatch(pattern, closure);
+                        } else if( arg.startsWith("-gl") ) {
                             pair = new GlobMatch(pattern, closure);
-                            logger.debug(i + " Glob at regexp " + ((GlobMatch) pair).getPattern().getPattern() );
+                            validate(interp, (PatternPair) pair);
+                            if (logger.isDebugEnabled())
+                                logger.debug(i + " Glob " + ((GlobMatch) pair).getPatternString());
                         } else {
                             throw new TclException(interp, "Unknown type of pattern");
                         }
@@ -210,17 +239,20 @@ public class ExpectEmulation extends Extension {
 
             } // end while
 
+            if( sectionIds.size() > 1 ) {
+                try {
+                    multiExpect(interp, sectionIds, sectionPairs, timeoutPair);
+                } finally {
+                    releaseClosures(interp, preserved);
+                }
+                return;
+            }
+
             // Lookup Expect
             Expect4j expect4j = expStateCurrent(interp);
 
             // Timeout
-            try {
-                TclObject timeoutObj = interp.getVar("timeout", null, 0);
-                int timeout = TclInteger.get(interp, timeoutObj);
-                expect4j.setDefaultTimeout(timeout * 1000);
-            }catch(Exception e) {
-                expect4j.setDefaultTimeout( Expect4j.TIMEOUT_DEFAULT );
-            }
+            setTimeout(interp, expect4j);
 
             boolean isDebug = isExpDebug(interp);
             boolean isEcho = isEcho(interp);
@@ -242,6 +274,115 @@ public class ExpectEmulation extends Extension {
 
             interp.setResult(ret);
         }
+
+        /**
+         * Compiles a pattern the way the session's expect will, so that
+         * a malformed one is reported when the script reaches
+         * <code>expect</code> rather than when it is searched.
+         */
+        void validate(Interp interp, PatternPair pair) throws MalformedPatternException {
+            RegexEngine engine = null;
+            try {
+                engine = expStateCurrent(interp).getRegexEngine();
+            } catch (TclException te) {
+                // no current session, as when only -i sessions are used
+            }
+            if (engine == null || pair.isEngineFixed() || pair.getPattern(engine) == null)
+                pair.getPattern(pair.getEngine());
+        }
+
+        /**
+         * Substitutes the variables in a pattern or spawn id list, which
+         * the braces around the arguments of <code>expect</code> left
+         * alone.
+         */
+        TclObject subst(Interp interp, TclObject obj) throws TclException {
+            Command substCmd = interp.getCommand("substcr");
+            TclObject substArgv[] = new TclObject[] {
+                TclString.newInstance("substcr"),
+                TclString.newInstance("-nocommands"),
+                TclString.newInstance("-nobackslashes"),
+                obj
+            };
+            substCmd.cmdProc(interp, substArgv);
+            return interp.getResult();
+        }
+
+        /**
+         * Waits on every spawn id named by the <code>-i</code> flags,
+         * and on <code>spawn_id</code> if patterns precede the first
+         * flag.  Patterns listed for the same id more than once are
+         * merged, and the timeout applies to every session.
+         */
+        void multiExpect(Interp interp, List<TclObject> sectionIds, List<List<Match>> sectionPairs, Match timeoutPair) throws TclException {
+            Map<String, List<Match>> bySpawnId = new LinkedHashMap<>();
+            for (int s = 0; s < sectionIds.size(); s++) {
+                List<Match> sectionMatches = sectionPairs.get(s);
+                String[] spawnIds;
+                if (sectionIds.get(s) == null) {
+                    // Only the timeout came before the first -i
+                    if (sectionMatches.isEmpty() || (sectionMatches.size() == 1 && sectionMatches.get(0) == timeoutPair))
+                        continue;
+                    spawnIds = new String[] { interp.getVar("spawn_id", 0).toString() };
+                } else {
+                    TclObject[] elements = TclList.getElements(interp, sectionIds.get(s));
+                    spawnIds = new String[elements.length];
+                    for (int j = 0; j < elements.length; j++)
+                        spawnIds[j] = elements[j].toString();
+                }
+
+                for (String spawnId : spawnIds) {
+                    List<Match> matches = bySpawnId.get(spawnId);
+                    if (matches == null) {
+                        matches = new ArrayList<>();
+                        bySpawnId.put(spawnId, matches);
+                    }
+                    for (Match match : sectionMatches) {
+                        if (match != timeoutPair)
+                            matches.add(match);
+                    }
+                }
+            }
+            if (bySpawnId.isEmpty())
+                throw new TclException(interp, "No spawn ids to expect from");
+
+            MultiExpect multi = new MultiExpect();
+            List<String> spawnIds = new ArrayList<>(bySpawnId.keySet());
+            for (String spawnId : spawnIds) {
+                Expect4j expect4j = expStateFor(interp, spawnId);
+                setTimeout(interp, expect4j);
+                List<Match> matches = bySpawnId.get(spawnId);
+                if (timeoutPair != null)
+                    matches.add(timeoutPair);
+                multi.add(expect4j, matches);
+            }
+
+            MultiExpect.Result result;
+            try {
+                result = multi.expect();
+            } catch(TclException te) {
+                throw te;
+            } catch(Exception e) {
+                throw new TclException(interp, e.getMessage() );
+            }
+
+            interp.setVar("expect_out", "spawn_id", spawnIds.get(result.getSessionIndex()), 0);
+            interp.setResult(result.getIndex());
+        }
+
+        /**
+         * Sets a session's default timeout from the <code>timeout</code>
+         * variable, in seconds.
+         */
+        void setTimeout(Interp interp, Expect4j expect4j) {
+            try {
+                TclObject timeoutObj = interp.getVar("timeout", null, 0);
+                int timeout = TclInteger.get(interp, timeoutObj);
+                expect4j.setDefaultTimeout(timeout * 1000);
+            }catch(Exception e) {
+                expect4j.setDefaultTimeout( Expect4j.TIMEOUT_DEFAULT );
+            }
+        }
     }
 
     /* Commands in alphabetical order*/
@@ -303,6 +444,29 @@ public class ExpectEmulation extends Extension {
         }
     }
 
+    /**
+     * match_max [size]
+     *
+     * Without a size, returns the current limit, where 0 means there is
+     * none.
+     */
+    public class MatchMaxCommand implements Command {
+        public void cmdProc(Interp interp, TclObject argv[]) throws TclException {
+            if (argv.length > 2)
+                throw new TclNumArgsException(interp, 1, argv, "[size]");
+
+            Expect4j expect4j = expStateCurrent(interp);
+            if (argv.length == 2) {
+                int size = TclInteger.get(interp, argv[1]);
+                if (size < 0)
+                    throw new TclException(interp, "Size must not be negative: " + size);
+                expect4j.setMatchMax(size);
+            }
+
+            interp.setResult(expect4j.getMatchMax());
+        }
+    }
+
     /**
      * Send
      */
@@ -586,11 +750,22 @@ public class ExpectEmulation extends Extension {
     public static Expect4j expStateCurrent(Interp interp) throws TclException {
         TclObject spawnObj = interp.getVar("spawn_id", 0); // confirm that this works and we don't need TCL.NAMESPACE_ONLY
 
+        return expStateFor(interp, spawnObj.toString());
+    }
+
+    /**
+     * Looks up the session of a spawn id.
+     *
+     * @param interp the interpreter the session was spawned in
+     * @param spawnId the id set by <code>spawn</code>
+     * @return the session
+     * @throws TclException if there is no such session
+     */
+    public static Expect4j expStateFor(Interp interp, String spawnId) throws TclException {
         Map spawnIds = (Map) interp.getAssocData("spawnIds");
         if( spawnIds == null )
             throw new TclException(interp, "spawn not called yet");
 
-        String spawnId = spawnObj.toString();
         if( !spawnIds.containsKey(spawnId) )
             throw new TclException(interp, "Unable to find spawn_id of " + spawnId);
 
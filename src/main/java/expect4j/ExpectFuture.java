@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of {@link Expect4j#expectAsync(List)}: the index
+ * <code>expect</code> would have returned, and the {@link ExpectState}
+ * of the last closure run.  Listeners added with {@link
+ * #addListener(Runnable)} run once the result is in, so that nothing
+ * has to wait for it.  On a platform with
+ * <code>CompletableFuture</code>, one can be completed from a listener:
+ *
+ * <pre>
+ * final ExpectFuture result = expect.expectAsync(matches);
+ * final CompletableFuture&lt;Integer&gt; future = new CompletableFuture&lt;&gt;();
+ * result.addListener(() -&gt; {
+ *     try {
+ *         future.complete(result.get());
+ *     } catch (ExecutionException e) {
+ *         future.completeExceptionally(e.getCause());
+ *     } catch (Exception e) {
+ *         future.completeExceptionally(e);
+ *     }
+ * });
+ * </pre>
+ *
+ * Cancelling stops matching, unless the call has already ended and
+ * only its last closure is left to run; the interrupt flag has no
+ * effect, since no thread is dedicated to the call.
+ */
+public class ExpectFuture implements Future<Integer> {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ExpectFuture.class);
+
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The call is still matching.
+     */
+    static final int PENDING = 0;
+
+    /**
+     * The call has ended and its last closure may be running, so it can
+     * no longer be cancelled.
+     */
+    static final int ENDING = 1;
+
+    static final int COMPLETED = 2;
+    static final int FAILED = 3;
+    static final int CANCELLED = 4;
+
+    /**
+     * Where the call is, only changed while holding the lock on this
+     * future, so that exactly one of completing, failing and cancelling
+     * wins.
+     */
+    volatile int status = PENDING;
+
+    volatile Integer index;
+    volatile ExpectState state;
+    volatile Throwable failure;
+
+    /**
+     * Run once when the future is cancelled, to stop matching.
+     */
+    volatile Runnable onCancel;
+
+    ExpectFuture() {
+    }
+
+    /**
+     * Runs the listener once the result is in, on the thread that
+     * completes the future, or right away on the calling thread if it
+     * already is.
+     *
+     * @param listener the listener to run
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+        if (isDone() && listeners.remove(listener))
+            run(listener);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized(this) {
+            if (status != PENDING)
+                return false;
+            status = CANCELLED;
+        }
+        Runnable cancel = onCancel;
+        if (cancel != null)
+            cancel.run();
+        done();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return status == CANCELLED;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public Integer get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException("Expect not done after " + timeout + " " + unit);
+        return result();
+    }
+
+    /**
+     * Returns the state of the last closure run, once the future is
+     * done, as {@link Expect4j#getLastState()} would after
+     * <code>expect</code>.
+     *
+     * @return the last state, or <code>null</code> if the future is not
+     *         done, failed or was cancelled
+     */
+    public ExpectState getState() {
+        return state;
+    }
+
+    Integer result() throws ExecutionException {
+        if (status == CANCELLED)
+            throw new CancellationException("Expect was cancelled");
+        if (failure != null)
+            throw new ExecutionException(failure);
+        return index;
+    }
+
+    /**
+     * Stops the future from being cancelled, before the last closure of
+     * the call runs.
+     *
+     * @return <code>false</code> if the future was already cancelled,
+     *         failed or completed
+     */
+    synchronized boolean end() {
+        if (status != PENDING)
+            return false;
+        status = ENDING;
+        return true;
+    }
+
+    boolean complete(int index, ExpectState state) {
+        synchronized(this) {
+            if (status != PENDING && status != ENDING)
+                return false;
+            this.index = index;
+            this.state = state;
+            status = COMPLETED;
+        }
+        done();
+        return true;
+    }
+
+    boolean fail(Throwable failure) {
+        synchronized(this) {
+            if (status != PENDING && status != ENDING)
+                return false;
+            this.failure = failure;
+            status = FAILED;
+        }
+        done();
+        return true;
+    }
+
+    void done() {
+        done.countDown();
+        for (Runnable listener : listeners) {
+            if (listeners.remove(listener))
+                run(listener);
+        }
+    }
+
+    void run(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException re) {
+            logger.warn("Caught an exception from listener " + listener + ": " + re);
+        }
+    }
+
+    public String toString() {
+        if (!isDone())
+            return "ExpectFuture[pending]";
+        if (status == CANCELLED)
+            return "ExpectFuture[cancelled]";
+        if (status == FAILED)
+            return "ExpectFuture[failed: " + failure + "]";
+        return "ExpectFuture[" + index + "]";
+    }
+}
@@ -178,13 +178,50 @@ public abstract class ExpectUtils {
      * @throws Exception on a variety of errors
      */
     public static Expect4j SSH(String hostname, String username, String password, int port) throws Exception {
+        final Session session = connectSSH(hostname, username, password, port);
+        ChannelShell channel = openShell(session);
+
+        Expect4j expect = new Expect4j(channel.getInputStream(), channel.getOutputStream()) {
+            public void close() {
+                super.close();
+                session.disconnect();
+            }
+        };
+
+        channel.connect(5 * 1000);
+
+        return expect;
+    }
+
+    /**
+     * Opens a shell on the given server like {@link #SSH(String,
+     * String, String, int)}, but over a connection kept open by the
+     * pool, and which closing the returned instance gives back to it.
+     *
+     * @param pool the pool of connections
+     * @param hostname the DNS or IP address of the remote server
+     * @param username the account name to use when authenticating
+     * @param password the account password to use when authenticating
+     * @param port the TCP port for the SSH service
+     * @return the controlling Expect4j instance
+     * @throws Exception on a variety of errors
+     * @see SshSessionPool
+     */
+    public static Expect4j SSH(SshSessionPool pool, String hostname, String username, String password, int port) throws Exception {
+        return pool.borrow(hostname, port, username, password);
+    }
+
+    /**
+     * Connects and authenticates to an SSH server.
+     */
+    static Session connectSSH(String hostname, String username, String password, int port) throws JSchException {
         logger.debug("Creating SSH session with " + hostname + ":" + port + " as " + username);
 
         JSch jsch = new JSch();
 
         //jsch.setKnownHosts("/home/foo/.ssh/known_hosts");
 
-        final Session session = jsch.getSession(username, hostname, port);
+        Session session = jsch.getSession(username, hostname, port);
         if (password != null) {
             logger.trace("Setting the Jsch password to the one provided (not shown)");
             session.setPassword(password);
@@ -195,7 +232,14 @@ public abstract class ExpectUtils {
         session.setConfig(config);
         session.setDaemonThread(true);
         session.connect(3 * 1000);   // making a connection with timeout.
+        return session;
+    }
 
+    /**
+     * Creates a shell channel, which has to be connected once its
+     * streams are taken.
+     */
+    static ChannelShell openShell(Session session) throws JSchException {
         ChannelShell channel = (ChannelShell) session.openChannel("shell");
 
         //channel.setInputStream(System.in);
@@ -204,17 +248,7 @@ public abstract class ExpectUtils {
         channel.setPtyType("vt102");
 
         //channel.setEnv("LANG", "ja_JP.eucJP");
-
-        Expect4j expect = new Expect4j(channel.getInputStream(), channel.getOutputStream()) {
-            public void close() {
-                super.close();
-                session.disconnect();
-            }
-        };
-
-        channel.connect(5 * 1000);
-
-        return expect;
+        return channel;
     }
 
     /**
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the same dialog against many hosts, a bounded number at a time,
+ * and hands back each host's result as soon as it is done:
+ *
+ * <pre>
+ * FanOutRunner runner = new FanOutRunner(64);
+ * FanOutRunner.Sweep&lt;String&gt; sweep = runner.start(hosts,
+ *     new FanOutRunner.Connector() {
+ *         public Expect4j connect(String host) throws Exception {
+ *             return ExpectUtils.SSH(host, user, password);
+ *         }
+ *     },
+ *     new FanOutRunner.Dialog&lt;String&gt;() {
+ *         public String run(String host, Expect4j expect) throws Exception {
+ *             expect.expect(prompt);
+ *             expect.send("show version\r");
+ *             ...
+ *         }
+ *     });
+ * FanOutRunner.HostResult&lt;String&gt; result;
+ * while ((result = sweep.take()) != null)
+ *     ...
+ * </pre>
+ *
+ * Each host is connected, run through the dialog and closed as one
+ * task on the executor, and the next host is only handed to the
+ * executor when a task finishes, so a shared executor never holds more
+ * than the concurrency limit of a sweep's tasks.  Since dialogs spend
+ * most of their time waiting on devices, the limit is typically well
+ * above the number of cores.  The default executor starts a virtual
+ * thread per task where the JVM supports them, and a daemon thread
+ * otherwise, see {@link ConsumerThreads}.
+ */
+public class FanOutRunner {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(FanOutRunner.class);
+
+    /**
+     * Opens the session with one host.
+     */
+    public interface Connector {
+        /**
+         * Connects to a host, for example with {@link
+         * ExpectUtils#SSH(String, String, String)}.
+         *
+         * @param host the host, as given to the runner
+         * @return the session, which the runner closes after the dialog
+         * @throws Exception if the host can't be reached
+         */
+        public Expect4j connect(String host) throws Exception;
+    }
+
+    /**
+     * The conversation held with every host.
+     *
+     * @param <T> the type of the result of a dialog
+     */
+    public interface Dialog<T> {
+        /**
+         * Runs the dialog with one host.  It runs on the runner's
+         * executor, at the same time as the dialogs with other hosts.
+         *
+         * @param host the host, as given to the runner
+         * @param expect the session with the host
+         * @return the result for the host
+         * @throws Exception if the dialog fails
+         */
+        public T run(String host, Expect4j expect) throws Exception;
+    }
+
+    final Executor executor;
+    final int maxConcurrency;
+
+    /**
+     * Creates a runner that runs up to the given number of hosts at
+     * once, each on a thread of its own.
+     *
+     * @param maxConcurrency the number of hosts run at once
+     */
+    public FanOutRunner(int maxConcurrency) {
+        this(ConsumerThreads.isVirtualThreadSupported()
+                ? ConsumerThreads.virtual("expect4j-fanout")
+                : ConsumerThreads.named("expect4j-fanout"), maxConcurrency);
+    }
+
+    /**
+     * Creates a runner that runs up to the given number of hosts at
+     * once on an executor, which may be shared with other work.
+     *
+     * @param executor the executor that runs the hosts
+     * @param maxConcurrency the number of hosts run at once
+     */
+    public FanOutRunner(Executor executor, int maxConcurrency) {
+        if (executor == null)
+            throw new IllegalArgumentException("Executor must not be null");
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + maxConcurrency);
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Returns the number of hosts run at once by each sweep.
+     *
+     * @return the concurrency limit
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Starts running the dialog against every host, and returns without
+     * waiting for any of them.
+     *
+     * @param <T> the type of the result of the dialog
+     * @param hosts the hosts to run, in the order they are started
+     * @param connector opens the session with each host
+     * @param dialog the conversation held with each host
+     * @return the sweep, which hands back the results as they complete
+     */
+    public <T> Sweep<T> start(List<String> hosts, Connector connector, Dialog<T> dialog) {
+        if (connector == null || dialog == null)
+            throw new IllegalArgumentException("Connector and dialog must not be null");
+        Sweep<T> sweep = new Sweep<>(new ArrayList<>(hosts), connector, dialog);
+        sweep.start();
+        return sweep;
+    }
+
+    /**
+     * Runs the dialog against every host and waits for all of them.
+     *
+     * @param <T> the type of the result of the dialog
+     * @param hosts the hosts to run
+     * @param connector opens the session with each host
+     * @param dialog the conversation held with each host
+     * @return the results, in the order they completed
+     * @throws InterruptedException if interrupted while waiting, in
+     *                              which case the sweep is cancelled
+     */
+    public <T> List<HostResult<T>> run(List<String> hosts, Connector connector, Dialog<T> dialog) throws InterruptedException {
+        Sweep<T> sweep = start(hosts, connector, dialog);
+        try {
+            return sweep.awaitAll();
+        } catch (InterruptedException ie) {
+            sweep.cancel();
+            throw ie;
+        }
+    }
+
+    /**
+     * The running of one dialog against a list of hosts.
+     *
+     * @param <T> the type of the result of the dialog
+     */
+    public class Sweep<T> {
+        final List<String> hosts;
+        final Connector connector;
+        final Dialog<T> dialog;
+
+        final AtomicInteger next = new AtomicInteger();
+        final LinkedBlockingQueue<HostResult<T>> completed = new LinkedBlockingQueue<>();
+        final List<HostResult<T>> results = Collections.synchronizedList(new ArrayList<HostResult<T>>());
+        final AtomicInteger taken = new AtomicInteger();
+        volatile boolean cancelled = false;
+
+        Sweep(List<String> hosts, Connector connector, Dialog<T> dialog) {
+            this.hosts = hosts;
+            this.connector = connector;
+            this.dialog = dialog;
+        }
+
+        void start() {
+            int workers = Math.min(maxConcurrency, hosts.size());
+            for (int i = 0; i < workers; i++)
+                startNext();
+        }
+
+        /**
+         * Hands the next host to the executor, or reports it, and every
+         * host after it, as cancelled if the sweep was cancelled.  An
+         * executor that runs the host on the calling thread leaves
+         * starting the next one to this loop, so that a long list
+         * doesn't recurse once per host.
+         */
+        void startNext() {
+            while (true) {
+                final int index = next.getAndIncrement();
+                if (index >= hosts.size())
+                    return;
+                final String host = hosts.get(index);
+                if (cancelled) {
+                    complete(cancelledResult(host, index));
+                    continue;
+                }
+                HostTask task = new HostTask(host, index);
+                task.caller = Thread.currentThread();
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ree) {
+                    complete(new HostResult<T>(host, index, null, ree, false, 0, 0));
+                    continue;
+                } finally {
+                    task.caller = null;
+                }
+                if (!task.ranInline)
+                    return;
+            }
+        }
+
+        /**
+         * Runs one host, then starts the next one unless it was run by
+         * the thread still handing it to the executor.
+         */
+        final class HostTask implements Runnable {
+            final String host;
+            final int index;
+            Thread caller;
+            boolean ranInline;
+
+            HostTask(String host, int index) {
+                this.host = host;
+                this.index = index;
+            }
+
+            public void run() {
+                complete(runHost(host, index));
+                if (Thread.currentThread() == caller) {
+                    ranInline = true;
+                    return;
+                }
+                startNext();
+            }
+        }
+
+        HostResult<T> cancelledResult(String host, int index) {
+            return new HostResult<T>(host, index, null, new CancellationException("Sweep cancelled"), false, 0, 0);
+        }
+
+        HostResult<T> runHost(String host, int index) {
+            long start = System.nanoTime();
+            Expect4j expect;
+            try {
+                expect = connector.connect(host);
+                if (expect == null)
+                    throw new IllegalStateException("Connector returned no session for " + host);
+            } catch (Throwable t) {
+                logger.debug("Failed to connect to " + host + ": " + t);
+                return new HostResult<T>(host, index, null, t, false, System.nanoTime() - start, 0);
+            }
+
+            long connected = System.nanoTime();
+            try {
+                T value = dialog.run(host, expect);
+                return new HostResult<T>(host, index, value, null, true, connected - start, System.nanoTime() - connected);
+            } catch (Throwable t) {
+                logger.debug("Dialog with " + host + " failed: " + t);
+                return new HostResult<T>(host, index, null, t, true, connected - start, System.nanoTime() - connected);
+            } finally {
+                try {
+                    expect.close();
+                } catch (Throwable t) {
+                    // the host has its result either way
+                    logger.debug("Failed to close the session with " + host + ": " + t);
+                }
+            }
+        }
+
+        void complete(HostResult<T> result) {
+            synchronized (results) {
+                results.add(result);
+                results.notifyAll();
+            }
+            completed.add(result);
+        }
+
+        /**
+         * Waits for the next host to complete.
+         *
+         * @return the host's result, or <code>null</code> once every
+         *         result has been taken
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public HostResult<T> take() throws InterruptedException {
+            if (taken.getAndIncrement() >= hosts.size()) {
+                taken.decrementAndGet();
+                return null;
+            }
+            return completed.take();
+        }
+
+        /**
+         * Waits up to the given time for the next host to complete.
+         *
+         * @param timeout the time to wait
+         * @param unit the unit of the timeout
+         * @return the host's result, or <code>null</code> if none
+         *         completed in time or every result has been taken
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public HostResult<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            if (taken.getAndIncrement() >= hosts.size()) {
+                taken.decrementAndGet();
+                return null;
+            }
+            HostResult<T> result = completed.poll(timeout, unit);
+            if (result == null)
+                taken.decrementAndGet();
+            return result;
+        }
+
+        /**
+         * Waits for every host to complete.  This doesn't take the
+         * results from {@link #take()}.
+         *
+         * @return the results, in the order they completed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public List<HostResult<T>> awaitAll() throws InterruptedException {
+            synchronized (results) {
+                while (results.size() < hosts.size())
+                    results.wait();
+                return new ArrayList<>(results);
+            }
+        }
+
+        /**
+         * Stops starting hosts.  Hosts already running finish their
+         * dialogs; the others complete right away with a
+         * <code>CancellationException</code>.
+         */
+        public void cancel() {
+            cancelled = true;
+            while (true) {
+                int index = next.getAndIncrement();
+                if (index >= hosts.size())
+                    return;
+                complete(cancelledResult(hosts.get(index), index));
+            }
+        }
+
+        /**
+         * Returns the number of hosts in the sweep.
+         *
+         * @return the number of hosts
+         */
+        public int getHostCount() {
+            return hosts.size();
+        }
+
+        /**
+         * Returns the number of hosts completed so far.
+         *
+         * @return the number of results
+         */
+        public int getCompletedCount() {
+            return results.size();
+        }
+
+        /**
+         * Returns the number of hosts completed so far that failed.
+         *
+         * @return the number of failures
+         */
+        public int getFailureCount() {
+            int count = 0;
+            synchronized (results) {
+                for (HostResult<T> result : results) {
+                    if (!result.isSuccess())
+                        count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Determines whether every host has completed.
+         *
+         * @return <code>true</code> once every result is in
+         */
+        public boolean isDone() {
+            return results.size() == hosts.size();
+        }
+    }
+
+    /**
+     * The outcome of the dialog with one host.
+     *
+     * @param <T> the type of the result of the dialog
+     */
+    public static class HostResult<T> {
+        final String host;
+        final int index;
+        final T value;
+        final Throwable failure;
+        final boolean connected;
+        final long connectNanos;
+        final long dialogNanos;
+
+        HostResult(String host, int index, T value, Throwable failure, boolean connected, long connectNanos, long dialogNanos) {
+            this.host = host;
+            this.index = index;
+            this.value = value;
+            this.failure = failure;
+            this.connected = connected;
+            this.connectNanos = connectNanos;
+            this.dialogNanos = dialogNanos;
+        }
+
+        /**
+         * Returns the host.
+         *
+         * @return the host, as given to the runner
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Returns the position of the host in the list given to the
+         * runner.
+         *
+         * @return the host's index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns what the dialog returned.
+         *
+         * @return the value, or <code>null</code> if the host failed
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Returns why the host failed.
+         *
+         * @return the exception, or <code>null</code> on success
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Determines whether the dialog completed without an exception.
+         *
+         * @return <code>true</code> on success
+         */
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /**
+         * Determines whether the host was connected to, that is whether
+         * a failure happened during the dialog rather than before it.
+         *
+         * @return <code>true</code> if the connector returned a session
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * Returns the time taken to connect, including a failed attempt.
+         *
+         * @param unit the unit of the result
+         * @return the connect latency
+         */
+        public long getConnectTime(TimeUnit unit) {
+            return unit.convert(connectNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the time taken by the dialog.
+         *
+         * @param unit the unit of the result
+         * @return the dialog latency
+         */
+        public long getDialogTime(TimeUnit unit) {
+            return unit.convert(dialogNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the time taken to connect and run the dialog.
+         *
+         * @param unit the unit of the result
+         * @return the total latency
+         */
+        public long getTotalTime(TimeUnit unit) {
+            return unit.convert(connectNanos + dialogNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public String toString() {
+            return "HostResult[host=" + host + ", " + (isSuccess() ? "value=" + value : "failure=" + failure)
+                    + ", totalMillis=" + getTotalTime(TimeUnit.MILLISECONDS) + "]";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Responsible for absorbing everything from stream and to maintain a
+ * buffer, like {@link BlockingConsumer}, but without ever taking a lock
+ * on the reading side.  The reader thread appends to a {@link
+ * ConcurrentSessionBuffer} and publishes the new end, and the thread
+ * calling <code>expect</code> parks with {@link LockSupport} until it
+ * does.  Since matching works on a snapshot that appending never
+ * touches, the reader keeps draining the stream while patterns and
+ * closures run, instead of leaving the data in the kernel's socket
+ * buffer.
+ * <p>
+ * There must be only one thread matching against the buffer at a
+ * time, which is what {@link Expect4j} does.
+ */
+public class LockFreeConsumer extends ConsumerImpl {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LockFreeConsumer.class);
+
+    /**
+     * The same buffer as {@link #buffer}, with its lock-free methods.
+     */
+    final ConcurrentSessionBuffer concurrentBuffer;
+
+    /**
+     * The thread parked in {@link #waitForBuffer(long)}, if any.
+     */
+    volatile Thread waiter;
+
+    /**
+     * The generation of the last snapshot, which {@link #resume(int)}
+     * counts its offset from.
+     */
+    volatile long snapshotStart;
+
+    /**
+     * The length of the buffer as of the last snapshot, so that {@link
+     * #waitForBuffer(long)} can tell that more arrived since.
+     */
+    volatile long snapshotEnd;
+
+    /**
+     * Creates a <code>LockFreeConsumer</code> instance based on an
+     * {@link IOPair} concrete instance.
+     *
+     * @param pair the <code>IOPair</code> concrete instance that
+     *             provides access to the reader/writer streams
+     */
+    public LockFreeConsumer(IOPair pair) {
+        super(pair);
+        concurrentBuffer = new ConcurrentSessionBuffer();
+        buffer = concurrentBuffer;
+        logger.trace("Created new LockFreeConsumer instance " + this + " using IOPair " + pair);
+    }
+
+    /**
+     * Starts the <code>LockFreeConsumer</code> in processing the reader
+     * stream.
+     */
+    public void run() {
+        logger.trace("LockFreeConsumer " + this + " starting data processing");
+
+        int length;
+        char cs[];
+        ReadChunk chunk = new ReadChunk();
+        Reader reader = pair.getReader();
+
+        while (!stopRequested && !foundEOF) {
+            try {
+                length = chunk.read(reader); // blocking
+            } catch (IOException ioe) {
+                // The reader most likely closed on us.
+                logger.warn("Caught an exception while reading: " + ioe);
+                logger.debug("Assuming EOF");
+                foundEOF = true;
+                break;
+            }
+
+            if (length == -1) { //EOF
+                logger.debug("LockFreeConsumer " + this + " detected EOF");
+                foundEOF = true;
+                break;
+            }
+            cs = chunk.chars();
+
+            if (logger.isTraceEnabled()) {
+                String print = new String(cs, 0, length);
+                print = print.replaceAll("\n", "\\\\n");
+                print = print.replaceAll("\r", "\\\\r");
+                logger.trace("Adding to buffer: " + print);
+            }
+            concurrentBuffer.append(cs, 0, length);
+            trimBuffer();
+
+            wakeWaiter();
+            notifyBufferChange(cs, length);
+        }
+
+        wakeWaiter();
+        notifyInputListener();
+
+        if (stopRequested) {
+            logger.debug("LockFreeConsumer " + this + " stop requested");
+            pair.close();
+        }
+    }
+
+    /**
+     * Discards the oldest characters without disturbing a match in
+     * progress.
+     */
+    protected void trimBuffer() {
+        int max = maxBufferSize;
+        if (max != 0 && discardWhenFull && concurrentBuffer.length() > max) {
+            logger.debug("Buffer is full, discarding the oldest characters");
+            concurrentBuffer.discardOldest(max);
+        }
+    }
+
+    int bufferLength() {
+        return concurrentBuffer.length();
+    }
+
+    void wakeWaiter() {
+        Thread thread = waiter;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Parks until characters arrive that weren't in the last snapshot,
+     * EOF is found or the timeout expires.
+     *
+     * @param timeout timeout in milliseconds, or zero or less to wait
+     *                forever
+     */
+    public void waitForBuffer(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            // Checked after publishing the waiter, so an append that
+            // comes in between either is seen here or unparks us
+            while (!foundEOF && !stopRequested && concurrentBuffer.written == snapshotEnd) {
+                if (timeout > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+                if (Thread.interrupted()) {
+                    logger.trace("LockFreeConsumer " + this + " woken up while waiting for buffer");
+                    break;
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    public BufferSnapshot snapshot() {
+        BufferSnapshot snapshot = concurrentBuffer.snapshot();
+        snapshotStart = snapshot.getGeneration();
+        snapshotEnd = snapshotStart + snapshot.length();
+        return snapshot;
+    }
+
+    /**
+     * Resume processing from the specified offset, counted from the
+     * beginning of the last snapshot.
+     *
+     * @param offset the offset into the buffer from which to start
+     */
+    public void resume(int offset) {
+        if (offset < 0)
+            return;
+
+        long start = snapshotStart;
+        int available = (int) (concurrentBuffer.written - start);
+        concurrentBuffer.consumeFrom(start, Math.min(offset, available));
+    }
+
+    public void stop() {
+        super.stop();
+        wakeWaiter();
+    }
+}
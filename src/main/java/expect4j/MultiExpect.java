@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.Match;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits on several sessions at once, each with its own list of
+ * patterns, like Tcl Expect's <code>expect -i $id_list</code>.  The
+ * calling thread is the only one waiting: every session's consumer
+ * wakes it up when input arrives, and only the sessions with new input
+ * are matched again.  The first session whose <code>expect</code>
+ * would have returned ends the call, with the same index, timeout and
+ * EOF handling as {@link Expect4j#expect(List)}; the other sessions
+ * keep their buffers as they are.
+ *
+ * <pre>
+ * MultiExpect multi = new MultiExpect();
+ * multi.add(router, Arrays.&lt;Match&gt;asList(new GlobMatch("# ", null)));
+ * multi.add(switch, Arrays.&lt;Match&gt;asList(new GlobMatch("&gt; ", null)));
+ * MultiExpect.Result result = multi.expect();
+ * </pre>
+ *
+ * As with <code>expect</code>, there must be only one expect in
+ * progress per session at a time.
+ */
+public class MultiExpect {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MultiExpect.class);
+
+    final List<Expect4j> sessions = new ArrayList<>();
+    final List<List<Match>> matches = new ArrayList<>();
+
+    /**
+     * Adds a session and the patterns to look for in it.
+     *
+     * @param session the session to wait on
+     * @param pairs the patterns and associated {@link Closure}s
+     * @return this instance
+     */
+    public MultiExpect add(Expect4j session, List<Match> pairs) {
+        if (session == null || pairs == null)
+            throw new IllegalArgumentException("Session and patterns must not be null");
+        sessions.add(session);
+        matches.add(pairs);
+        return this;
+    }
+
+    /**
+     * Returns the sessions waited on, in the order they were added.
+     *
+     * @return the sessions
+     */
+    public List<Expect4j> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Waits until one of the sessions matches one of its patterns,
+     * times out, or finds EOF.  Sessions are matched in the order they
+     * were added, so the first one wins when several are ready at once.
+     *
+     * @return which session ended the call, and how
+     * @throws Exception if a {@link Closure} throws one
+     */
+    public Result expect() throws Exception {
+        int count = sessions.size();
+        if (count == 0)
+            throw new IllegalStateException("No sessions to expect from");
+
+        final Thread waiter = Thread.currentThread();
+        final AtomicBoolean[] dirty = new AtomicBoolean[count];
+        Expect4j.ExpectCall[] calls = new Expect4j.ExpectCall[count];
+        Runnable[] listeners = new Runnable[count];
+        int started = 0;
+        try {
+            for (; started < count; started++) {
+                final AtomicBoolean flag = new AtomicBoolean(true);
+                dirty[started] = flag;
+                Expect4j session = sessions.get(started);
+                session.flushForExpect();
+                calls[started] = session.new ExpectCall(matches.get(started));
+                listeners[started] = new Runnable() {
+                    public void run() {
+                        flag.set(true);
+                        LockSupport.unpark(waiter);
+                    }
+                };
+                session.consumer.addInputListener(listeners[started]);
+            }
+
+            while (true) {
+                long nextWait = Long.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    Expect4j.ExpectCall call = calls[i];
+                    boolean due = call.timeout != Expect4j.TIMEOUT_FOREVER && call.remainingNanos() <= 0;
+                    if ((dirty[i].getAndSet(false) || due) && call.step()) {
+                        logger.debug("Session " + i + " ended the multi-session expect");
+                        release(calls, listeners, started, i);
+                        started = 0;
+                        int index = call.finish();
+                        Expect4j session = sessions.get(i);
+                        return new Result(session, i, index, session.getLastState());
+                    }
+                    if (call.timeout != Expect4j.TIMEOUT_FOREVER)
+                        nextWait = Math.min(nextWait, call.remainingNanos());
+                }
+
+                if (anySet(dirty))
+                    continue;
+                if (nextWait == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else if (nextWait > 0) {
+                    LockSupport.parkNanos(this, nextWait);
+                }
+                if (Thread.interrupted())
+                    throw new InterruptedException("Interrupted while waiting on " + count + " sessions");
+            }
+        } finally {
+            release(calls, listeners, started, -1);
+        }
+    }
+
+    static boolean anySet(AtomicBoolean[] flags) {
+        for (AtomicBoolean flag : flags) {
+            if (flag.get())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops listening to the sessions, and leaves the ones that didn't
+     * end the call as they were.
+     */
+    void release(Expect4j.ExpectCall[] calls, Runnable[] listeners, int started, int finished) {
+        for (int i = 0; i < started; i++) {
+            sessions.get(i).consumer.removeInputListener(listeners[i]);
+            if (i != finished && calls[i] != null)
+                calls[i].abandon();
+        }
+    }
+
+    /**
+     * The outcome of a {@link MultiExpect#expect()}.
+     */
+    public static class Result {
+        final Expect4j session;
+        final int sessionIndex;
+        final int index;
+        final ExpectState state;
+
+        Result(Expect4j session, int sessionIndex, int index, ExpectState state) {
+            this.session = session;
+            this.sessionIndex = sessionIndex;
+            this.index = index;
+            this.state = state;
+        }
+
+        /**
+         * Returns the session that ended the call.
+         *
+         * @return the session
+         */
+        public Expect4j getSession() {
+            return session;
+        }
+
+        /**
+         * Returns the position of the session among those added.
+         *
+         * @return the session's index
+         */
+        public int getSessionIndex() {
+            return sessionIndex;
+        }
+
+        /**
+         * Returns what <code>expect</code> on the session would have
+         * returned: the index of the pattern, or an error code such as
+         * {@link Expect4j#RET_TIMEOUT}.
+         *
+         * @return the pattern index or error code
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the state of the last closure run for the session.
+         *
+         * @return the state
+         */
+        public ExpectState getState() {
+            return state;
+        }
+
+        public String toString() {
+            return "MultiExpect.Result[session=" + sessionIndex + ", index=" + index + "]";
+        }
+    }
+}
@@ -18,133 +18,166 @@
 package expect4j;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.*;
-import java.nio.channels.*;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * TODO
+ * A consumer for a {@link SocketChannel} that is read by one of the
+ * selector threads of a {@link NioEventLoop} instead of a thread of its
+ * own, so that thousands of sessions can be serviced by a handful of
+ * threads.  Data is decoded into the session's buffer on the selector
+ * thread, the same way {@link ByteConsumer} decodes what it reads, and
+ * the caller of <code>expect</code> is woken up the same way {@link
+ * LockFreeConsumer} does.
+ * <p>
+ * Bytes of a character split across two reads are kept with the
+ * session until the rest arrives; nothing else is held per session
+ * between reads.
  *
  * @author Chris Verges
  * @author Justin Ryan
  */
-public abstract class NioConsumer extends ConsumerImpl {
-
-    /** Creates a new instance of NioConsumer */
-    public NioConsumer(IOPair pair) throws Exception {
-        super(pair);
-
-        socketChannel = SocketChannel.open();
-        socketChannel.configureBlocking(false);
-        InetSocketAddress isa = new InetSocketAddress(host, port);
-        socketChannel.connect(isa);
-        selector = Selector.open();
-        int interest = 0;
-
-        if(socketChannel.isConnected())interest = SelectionKey.OP_READ;
-        else if(socketChannel.isConnectionPending())interest = SelectionKey.OP_CONNECT;
-
-        socketChannel.register(selector, interest);
+public class NioConsumer extends ByteConsumer {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(NioConsumer.class);
+
+    /**
+     * The most reads for one session before the selector thread moves
+     * on to the next, so one busy session can't starve the others.
+     */
+    static final int MAX_READS_PER_SELECT = 16;
+
+    final SocketChannel channel;
+
+    /**
+     * The key of the channel with its selector, set by the selector
+     * thread when it registers the channel.
+     */
+    volatile SelectionKey key;
+
+    /**
+     * The session count of the selector thread, set when the channel
+     * is registered, and decremented once when the session ends.
+     */
+    volatile AtomicInteger sessions;
+    final AtomicBoolean ended = new AtomicBoolean();
+
+    /**
+     * The bytes of an incomplete character left over from the last
+     * read.
+     */
+    byte[] leftover = new byte[0];
+
+    /**
+     * Creates a <code>NioConsumer</code> for a connected channel.  It
+     * does not read anything until it is registered with a {@link
+     * NioEventLoop}.
+     *
+     * @param pair the pair writing to the channel
+     * @param charset the character set the session uses
+     */
+    public NioConsumer(ChannelPair pair, Charset charset) {
+        super(pair, charset);
+        this.channel = pair.getChannel();
     }
 
-    abstract public void run();
-    abstract public void waitForBuffer(long timeoutMilli);
-    abstract public String pause();
-    abstract public void resume(int offset);
-
-
-    private String host = "localhost";
-    private int port = 5001;
-    private SocketChannel socketChannel;
-    private Selector selector;
-/*
+    /**
+     * Does nothing, since the {@link NioEventLoop} the consumer is
+     * registered with reads for it.
+     */
     public void run() {
-        try {
-
-            while(true) {
-                int nn = selector.select();
-                System.out.println("nn="+nn);
-                Set keys = selector.selectedKeys();
-                for(Iterator i = keys.iterator(); i.hasNext();) {
-                    SelectionKey key = (SelectionKey) i.next();
-                    i.remove();
-                    if (key.isConnectable()) {
-                        SocketChannel keyChannel = (SocketChannel) key.channel();
-                        System.out.println("Connected "+keyChannel.finishConnect());
-                        key.interestOps(SelectionKey.OP_READ);
-                    }
-                    if (key.isReadable()) {
-                        SocketChannel keyChannel = (SocketChannel) key.channel();
-                        String m = read(keyChannel);
-                        display(m);
-                    }
-                }
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
+        logger.debug("NioConsumer " + this + " is read by its event loop, not by a thread of its own");
     }
 
-    public void send(final String m) {
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                try {
-                    write(m, socketChannel);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Reads what the channel has to offer and appends it to the buffer.
+     * Called by the selector thread when the channel is readable.
+     *
+     * @param bytes scratch space for the bytes read
+     * @param chars scratch space for the decoded characters
+     */
+    void read(ByteBuffer bytes, CharBuffer chars) {
+        bytes.clear();
+        bytes.put(leftover);
+
+        int reads = 0;
+        boolean eof = false;
+        while (reads++ < MAX_READS_PER_SELECT) {
+            int count;
+            try {
+                count = channel.read(bytes);
+            } catch (IOException ioe) {
+                // The channel most likely closed on us.
+                logger.warn("Caught an exception while reading: " + ioe);
+                logger.debug("Assuming EOF");
+                eof = true;
+                break;
+            }
+            if (count == -1) {
+                logger.debug("NioConsumer " + this + " detected EOF");
+                eof = true;
+                break;
             }
 
-        });
-        t.start();
-
-    }
-    public static String read(SocketChannel channel) throws IOException {
-
-        log("*** start READ");
-        int n;
-
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-
-        while((n = channel.read(buffer)) > 0) {
-            System.out.println("     adding "+n+" bytes");
+            bytes.flip();
+            decode(bytes, chars, false);
+            bytes.compact();
+            if (count == 0)
+                break;
         }
 
+        if (eof) {
+            bytes.flip();
+            decode(bytes, chars, true);
+            finish();
+            return;
+        }
 
-        log("  BUFFER REMPLI : "+buffer);
-
-        buffer.flip();
-
-        CharBuffer cb = dec.decode(buffer);
-        log("  CHARBUFFER : "+cb);
-
-
-        String m = cb.toString();
-        log("  MESSAGE : "+m);
-        log("*** end READ");
-        //buffer.clear();
-        return m;
+        // keep the start of a character split across reads
+        bytes.flip();
+        leftover = new byte[bytes.remaining()];
+        bytes.get(leftover);
     }
-    public static void write(String m, SocketChannel channel) throws IOException {
-
-        log("xxx start WRITE");
 
-        CharBuffer cb = CharBuffer.wrap(m);
-        log("  CHARBUFFER : "+cb);
+    /**
+     * Marks the session as ended, and wakes up whoever is waiting.
+     */
+    void finish() {
+        foundEOF = true;
+        release();
+        wakeWaiter();
+        notifyInputListener();
+    }
 
-        ByteBuffer  buffer = enc.encode(cb);
-        log("  BUFFER ALLOUE REMPLI : "+buffer);
+    /**
+     * Takes the channel off its selector, and the session off the
+     * count of its selector thread.
+     */
+    void release() {
+        SelectionKey selectionKey = key;
+        if (selectionKey != null)
+            selectionKey.cancel();
+        AtomicInteger count = sessions;
+        if (count != null && ended.compareAndSet(false, true))
+            count.decrementAndGet();
+    }
 
-        int n;
-        while(buffer.hasRemaining()) {
-            n = channel.write(buffer);
-        }
-        System.out.println("  REMAINING : "+buffer.hasRemaining());
-        log("xxx end WRITE");
+    /**
+     * Stops reading and closes the channel.
+     */
+    public void stop() {
+        stopRequested = true;
+        release();
+        pair.close();
+        wakeWaiter();
     }
- */
 }
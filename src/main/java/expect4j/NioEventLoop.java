@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of selector threads that read for many {@link
+ * SocketChannel} sessions at once, so that managing thousands of
+ * devices doesn't take thousands of parked threads and their stacks.
+ * Each session is assigned to one selector thread, round robin, which
+ * decodes what arrives into the session's buffer and wakes up the
+ * caller of <code>expect</code>.
+ * <p>
+ * Sessions are created with {@link #connect(String, int)} or {@link
+ * #open(SocketChannel)}, and are otherwise used like any other {@link
+ * Expect4j} instance:
+ *
+ * <pre>
+ * NioEventLoop loop = new NioEventLoop(2);
+ * Expect4j expect = loop.connect("switch-01", 23);
+ * expect.expect("login: ");
+ * ...
+ * loop.close();
+ * </pre>
+ */
+public class NioEventLoop {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    /**
+     * The size of the buffer each selector thread reads into.
+     */
+    static final int READ_BUFFER_SIZE = 8192;
+
+    final SelectorThread[] threads;
+    final AtomicInteger nextThread = new AtomicInteger();
+    final Charset charset;
+    volatile boolean closed = false;
+
+    /**
+     * Creates an event loop with one selector thread per processor,
+     * decoding with the platform's default character set.
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioEventLoop() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an event loop with the given number of selector threads,
+     * decoding with the platform's default character set.
+     *
+     * @param threadCount the number of selector threads
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioEventLoop(int threadCount) throws IOException {
+        this(threadCount, Charset.defaultCharset());
+    }
+
+    /**
+     * Creates an event loop with the given number of selector threads.
+     *
+     * @param threadCount the number of selector threads
+     * @param charset the character set sessions use
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioEventLoop(int threadCount, Charset charset) throws IOException {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        this.charset = charset;
+        threads = new SelectorThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new SelectorThread(Selector.open(), "expect4j-nio-" + i);
+        }
+        for (SelectorThread thread : threads)
+            thread.start();
+    }
+
+    /**
+     * Connects to a host and returns a session serviced by this loop.
+     *
+     * @param hostname the host to connect to
+     * @param port the port to connect to
+     * @return the session
+     * @throws IOException if the connection fails
+     */
+    public Expect4j connect(String hostname, int port) throws IOException {
+        return connect(new InetSocketAddress(hostname, port));
+    }
+
+    /**
+     * Connects to an address and returns a session serviced by this
+     * loop.  The connection is made on the calling thread.
+     *
+     * @param address the address to connect to
+     * @return the session
+     * @throws IOException if the connection fails
+     */
+    public Expect4j connect(SocketAddress address) throws IOException {
+        return open(SocketChannel.open(address));
+    }
+
+    /**
+     * Returns a session serviced by this loop for a connected channel.
+     *
+     * @param channel the channel
+     * @return the session
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    public Expect4j open(SocketChannel channel) throws IOException {
+        if (closed)
+            throw new IllegalStateException("Event loop is closed");
+
+        channel.configureBlocking(false);
+        ChannelPair pair = new ChannelPair(channel, charset);
+        NioConsumer consumer = new NioConsumer(pair, charset);
+
+        SelectorThread thread = threads[(nextThread.getAndIncrement() & Integer.MAX_VALUE) % threads.length];
+        thread.register(consumer);
+        return new Expect4j(pair, consumer);
+    }
+
+    /**
+     * Returns the number of sessions being serviced.
+     *
+     * @return the number of registered channels
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (SelectorThread thread : threads)
+            count += thread.sessions.get();
+        return count;
+    }
+
+    /**
+     * Stops the selector threads and closes every session's channel.
+     * Callers waiting in <code>expect</code> see EOF.
+     */
+    public void close() {
+        closed = true;
+        for (SelectorThread thread : threads)
+            thread.selector.wakeup();
+        for (SelectorThread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException ie) {
+                logger.trace("Interrupted while waiting for " + thread + " to stop");
+            }
+        }
+    }
+
+    /**
+     * A thread servicing the channels registered with one selector.
+     */
+    class SelectorThread extends Thread {
+        final Selector selector;
+        final Queue<NioConsumer> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger sessions = new AtomicInteger();
+
+        // scratch space shared by every session of this thread
+        final ByteBuffer bytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+
+        SelectorThread(Selector selector, String name) {
+            super(name);
+            this.selector = selector;
+            setDaemon(true);
+        }
+
+        /**
+         * Hands a consumer to this thread, which registers its channel
+         * before the next select, since registering blocks while the
+         * selector is selecting.
+         */
+        void register(NioConsumer consumer) {
+            pending.add(consumer);
+            selector.wakeup();
+        }
+
+        public void run() {
+            logger.debug(getName() + " starting");
+            while (!closed) {
+                try {
+                    selector.select();
+                } catch (IOException ioe) {
+                    logger.warn("Caught an exception while selecting: " + ioe);
+                    break;
+                }
+
+                NioConsumer consumer;
+                while ((consumer = pending.poll()) != null) {
+                    try {
+                        consumer.key = consumer.channel.register(selector, SelectionKey.OP_READ, consumer);
+                        consumer.sessions = sessions;
+                        sessions.incrementAndGet();
+                        if (consumer.stopRequested) // stopped meanwhile
+                            consumer.release();
+                    } catch (IOException ioe) {
+                        logger.warn("Unable to register " + consumer.channel + ": " + ioe);
+                        consumer.finish();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    consumer = (NioConsumer) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable())
+                            consumer.read(bytes, chars);
+                    } catch (CancelledKeyException cke) {
+                        // stopped by its session meanwhile
+                    }
+                }
+            }
+
+            // whatever is left ends with the loop
+            for (SelectionKey key : selector.keys()) {
+                NioConsumer consumer = (NioConsumer) key.attachment();
+                if (!consumer.foundEOF())
+                    consumer.finish();
+                consumer.pair.close();
+            }
+            for (NioConsumer consumer : pending) {
+                consumer.finish();
+                consumer.pair.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                logger.debug("Caught an exception while closing the selector: " + ioe);
+            }
+            logger.debug(getName() + " stopped");
+        }
+    }
+}
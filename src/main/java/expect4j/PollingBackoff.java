@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link PollingConsumer} waits while its reader has nothing
+ * ready.  The first idle polls spin, retrying at once; the next ones
+ * yield the processor; after that the consumer parks, starting with
+ * the minimum park time and doubling it on every idle poll up to the
+ * maximum.  The consumer starts over with spinning as soon as data
+ * arrives or something is sent, since that is when the device is about
+ * to answer, so a prompt is seen within microseconds of arriving while
+ * an idle session costs next to no CPU.
+ * <p>
+ * Instances are immutable, and can be shared by any number of
+ * consumers.
+ */
+public class PollingBackoff {
+    /**
+     * The backoff used unless another one is given: 100 spins, 10
+     * yields, then parking from 50 microseconds up to 10 milliseconds.
+     */
+    public static final PollingBackoff DEFAULT = new PollingBackoff(100, 10,
+            TimeUnit.MICROSECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(10));
+
+    final int spins;
+    final int yields;
+    final long minParkNanos;
+    final long maxParkNanos;
+
+    /**
+     * Creates a backoff with the given stages.
+     *
+     * @param spins the number of idle polls that retry at once
+     * @param yields the number of idle polls after the spins that
+     *               yield the processor
+     * @param minParkNanos the first park time, in nanoseconds
+     * @param maxParkNanos the longest park time, in nanoseconds
+     */
+    public PollingBackoff(int spins, int yields, long minParkNanos, long maxParkNanos) {
+        if (spins < 0 || yields < 0)
+            throw new IllegalArgumentException("Spins and yields must not be negative: " + spins + ", " + yields);
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos)
+            throw new IllegalArgumentException("Park times must be positive and ordered: " + minParkNanos + ", " + maxParkNanos);
+        this.spins = spins;
+        this.yields = yields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * Returns a backoff that always parks for the same time, as the
+     * consumer used to sleep for 500 milliseconds.
+     *
+     * @param millis the time to park on every idle poll
+     * @return a backoff without spinning, yielding or growth
+     */
+    public static PollingBackoff fixed(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return new PollingBackoff(0, 0, nanos, nanos);
+    }
+
+    /**
+     * Returns how long the given idle poll parks for.
+     *
+     * @param idleCount the number of idle polls since data last
+     *                  arrived, starting from zero
+     * @return the park time in nanoseconds, or zero for spins and
+     *         yields
+     */
+    public long parkNanos(int idleCount) {
+        int doublings = idleCount - spins - yields;
+        if (doublings < 0)
+            return 0;
+        long nanos = minParkNanos;
+        while (doublings-- > 0 && nanos < maxParkNanos)
+            nanos <<= 1;
+        return Math.min(nanos, maxParkNanos);
+    }
+
+    /**
+     * Waits as the given idle poll should.  A park returns early when
+     * the thread is unparked.
+     *
+     * @param blocker the object the thread parks on
+     * @param idleCount the number of idle polls since data last
+     *                  arrived, starting from zero
+     */
+    public void idle(Object blocker, int idleCount) {
+        if (idleCount < spins)
+            return;
+        if (idleCount < spins + yields) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(blocker, parkNanos(idleCount));
+    }
+
+    public String toString() {
+        return "PollingBackoff[spins=" + spins + ", yields=" + yields + ", minParkNanos=" + minParkNanos
+                + ", maxParkNanos=" + maxParkNanos + "]";
+    }
+}
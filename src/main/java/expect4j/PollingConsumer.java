@@ -20,11 +20,15 @@ package expect4j;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Responsible for absorbing everything from stream and to maintain a buffer.
+ * The reader is polled with <code>ready()</code> rather than blocked
+ * on, and while nothing is ready the consumer spins, yields and then
+ * parks for longer and longer, as set by its {@link PollingBackoff}.
  *
  * TODO Rewrite with NIO
  *
@@ -42,9 +46,59 @@ public class PollingConsumer extends ConsumerImpl {
 
     boolean foundMore = false;
 
+    /**
+     * How to wait while the reader has nothing ready.
+     */
+    volatile PollingBackoff backoff;
+
+    /**
+     * The thread polling the reader, unparked when something is sent.
+     */
+    volatile Thread pollingThread;
+
+    /**
+     * Whether something was sent, or a stop requested, since the
+     * polling thread last checked, so it should start over with
+     * spinning.
+     */
+    volatile boolean activity;
+
     public PollingConsumer(IOPair pair) {
+        this(pair, PollingBackoff.DEFAULT);
+    }
+
+    /**
+     * Creates a <code>PollingConsumer</code> that waits for the reader
+     * as the given backoff says.
+     *
+     * @param pair the <code>IOPair</code> concrete instance that
+     *             provides access to the reader/writer streams
+     * @param backoff how to wait while nothing is ready
+     */
+    public PollingConsumer(IOPair pair, PollingBackoff backoff) {
         super(pair);
         dirtyBuffer = false;
+        setBackoff(backoff);
+    }
+
+    /**
+     * Changes how the consumer waits while nothing is ready.
+     *
+     * @param backoff the new backoff
+     */
+    public void setBackoff(PollingBackoff backoff) {
+        if (backoff == null)
+            throw new IllegalArgumentException("Backoff must not be null");
+        this.backoff = backoff;
+    }
+
+    /**
+     * Returns how the consumer waits while nothing is ready.
+     *
+     * @return the backoff
+     */
+    public PollingBackoff getBackoff() {
+        return backoff;
     }
 
     /**
@@ -52,9 +106,12 @@ public class PollingConsumer extends ConsumerImpl {
      */
     public void run() {
         int length;
-        char cs[] = new char[256];
+        char cs[];
+        ReadChunk chunk = new ReadChunk();
         int ioErrorCount = 0;
         Reader reader = pair.getReader();
+        int idleCount = 0;
+        pollingThread = Thread.currentThread();
 
         logger.trace("Starting primary loop");
         while ( !stopRequested && !foundEOF && ioErrorCount < 4) {
@@ -75,6 +132,7 @@ public class PollingConsumer extends ConsumerImpl {
 
                 if ( ready ) {
                     logger.trace("Is Ready");
+                    idleCount = 0;
 
 
                     // don't modify the buffer while processing is happening
@@ -92,7 +150,8 @@ public class PollingConsumer extends ConsumerImpl {
 
                         logger.trace("About to wait for buffer lock");
                         synchronized(buffer) {
-                            length = reader.read(cs);
+                            length = chunk.read(reader);
+                            cs = chunk.chars();
 
                             if( length == -1 ) { //EOF
                                 logger.trace("Found the EOF");
@@ -107,33 +166,36 @@ public class PollingConsumer extends ConsumerImpl {
                             print = print.replaceAll("\r", "\\\\r");
                             logger.trace("Appending >>>" + print + "<<<");
                             buffer.append( cs, 0, length ); // thread safe
+                            // the caller isn't processing, so no offset
+                            // it holds can be invalidated
+                            trimBuffer();
 
                             logger.trace("Current Buffer: " + buffer.toString() );
                             dirtyBuffer = true;
 
-                            /**
-                             * TODO Trim down buffer.  This current method won't work if a resume comes in, since it's offset
-                             * will be invalid once this delete method runs
-                             *
-                             * // since we only added one char, we should only have to remove one
-                             * if( buffer.length() > BUFFERMAX )
-                             * buffer.delete(0, BUFFERMAX - buffer.length() );
-                             */
-
                             logger.trace("Waking up who ever if listening");
                             buffer.notify(); // seeing that we read something, wait people up
-
-                            // We explicitly call this after appending to the
-                            // buffer, just in case one of the BufferChangeLoggers
-                            // accidentally modifies the character buffer.
-                            notifyBufferChange(cs, length);
                         }
+
+                        // We explicitly call this after appending to the
+                        // buffer, just in case one of the BufferChangeLoggers
+                        // accidentally modifies the character buffer, and
+                        // without the lock, so that a slow logger doesn't
+                        // hold up expect()
+                        notifyBufferChange(cs, length);
                     }
 
                 } else {
-                    logger.trace("Not Ready, sleeping");
-                    try { Thread.sleep(500); } catch(InterruptedException ie) { }
-                    logger.trace("Done sleeping");
+                    if( activity ) {
+                        // an answer is likely on its way
+                        activity = false;
+                        idleCount = 0;
+                    }
+                    logger.trace("Not Ready, backing off");
+                    backoff.idle(this, idleCount);
+                    if (idleCount < Integer.MAX_VALUE)
+                        idleCount++;
+                    logger.trace("Done backing off");
                     //continue;
                 }
             }catch(IOException ioe) {
@@ -144,9 +206,11 @@ public class PollingConsumer extends ConsumerImpl {
         } // end while loop
 
 
+        pollingThread = null;
         synchronized(buffer) {
             buffer.notify();
         }
+        notifyInputListener();
         if( stopRequested ) {
             logger.debug("Stop Requested");
             pair.close();
@@ -183,11 +247,10 @@ public class PollingConsumer extends ConsumerImpl {
         }
     }
 
-    public String pause() {
-        // TODO mark offset, so that it can be trimmed by resume coming in later
-        String currentBuffer;
+    public BufferSnapshot snapshot() {
+        BufferSnapshot currentBuffer;
         synchronized(this) { // stop consumer from continuing
-            currentBuffer = buffer.toString();
+            currentBuffer = buffer.snapshot();
             dirtyBuffer = false;
             callerProcessing = Boolean.TRUE;
         }
@@ -201,8 +264,8 @@ public class PollingConsumer extends ConsumerImpl {
             // and the buffer is safe.
             if( offset >= 0 ) {
                 logger.trace("Moving buffer up by " + offset);
-                StringBuffer smaller = buffer.delete(0, offset + 1);
-                logger.trace("New size: " + buffer.length() + " vs " + smaller.length() );
+                buffer.consume(Math.min(offset, buffer.length()));
+                logger.trace("New size: " + buffer.length());
             }
 
             callerProcessing = Boolean.FALSE; // should allow consumer to continue
@@ -210,6 +273,27 @@ public class PollingConsumer extends ConsumerImpl {
         }
     }
 
+    /**
+     * Flushes what was sent and has the polling thread start over with
+     * spinning, since that is when the answer comes.
+     */
+    public void flush() throws IOException {
+        super.flush();
+        wakePoller();
+    }
+
+    public void stop() {
+        super.stop();
+        wakePoller();
+    }
+
+    void wakePoller() {
+        activity = true;
+        Thread thread = pollingThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
     /**
      * We have more input since wait started
      */
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Sizes the reads of a consumer to the traffic of its session.  An
+ * interactive session gets a prompt or an echo at a time, which fits in
+ * the smallest chunk; bulk output, such as a configuration dump, fills
+ * every read, so the chunk doubles each time a read fills it, up to the
+ * maximum.  After a few reads in a row that use less than a quarter of
+ * the chunk, it is halved again.  Larger chunks mean fewer appends,
+ * wakeups and rematches per megabyte.
+ * <p>
+ * {@link #read(Reader)} also takes whatever the reader has ready after
+ * the first read, so that one wakeup of the matcher covers everything
+ * that has already arrived.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class ReadChunk {
+    /**
+     * The smallest chunk, the size the consumers always used to read.
+     */
+    static final int MIN_SIZE = 256;
+
+    /**
+     * The largest chunk.
+     */
+    static final int MAX_SIZE = 16384;
+
+    /**
+     * The number of small reads in a row that halve the chunk.
+     */
+    static final int SHRINK_AFTER = 4;
+
+    final int minSize;
+    final int maxSize;
+
+    int size;
+    int smallReads;
+    char[] chars;
+
+    ReadChunk() {
+        this(MIN_SIZE, MAX_SIZE);
+    }
+
+    ReadChunk(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.size = minSize;
+        this.chars = new char[minSize];
+    }
+
+    /**
+     * Returns the number of characters or bytes to read next.
+     *
+     * @return the chunk size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the array to read characters into, at least as large as
+     * the chunk.  The array is grown as the chunk grows, and kept when
+     * it shrinks.
+     *
+     * @return the read buffer
+     */
+    char[] chars() {
+        if (chars.length < size)
+            chars = Arrays.copyOf(chars, size);
+        return chars;
+    }
+
+    /**
+     * Reads a chunk into {@link #chars()}, blocking until something is
+     * available, then goes on reading what the reader has ready without
+     * blocking, until the chunk is full.
+     *
+     * @param reader the reader to read from
+     * @return the number of characters read, or <code>-1</code> at the
+     *         end of the stream
+     * @throws IOException if the first read fails
+     */
+    int read(Reader reader) throws IOException {
+        char[] cs = chars();
+        int length = reader.read(cs, 0, size);
+        if (length <= 0)
+            return length;
+
+        try {
+            while (length < size && reader.ready()) {
+                int more = reader.read(cs, length, size - length);
+                if (more <= 0)
+                    break; // EOF is seen by the next read
+                length += more;
+            }
+        } catch (IOException ioe) {
+            // keep what was read; the next read reports the failure
+        }
+
+        update(length);
+        return length;
+    }
+
+    /**
+     * Adjusts the chunk to the size of the last read.
+     *
+     * @param length the number of characters or bytes the last read
+     *               returned
+     */
+    void update(int length) {
+        if (length >= size) {
+            smallReads = 0;
+            if (size < maxSize)
+                size = Math.min(size * 2, maxSize);
+        } else if (length < size / 4) {
+            if (++smallReads >= SHRINK_AFTER && size > minSize) {
+                size = Math.max(size / 2, minSize);
+                smallReads = 0;
+            }
+        } else {
+            smallReads = 0;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link SessionRecording} back as a session's input, with
+ * the chunks arriving as they did when recorded, faster, or as fast as
+ * they can be read.  What is sent to the session is counted and
+ * discarded; the replay doesn't wait for it, so a dialog played
+ * against a recording of itself sees the same output at the same
+ * times.  Many pairs can replay the same recording at once:
+ *
+ * <pre>
+ * SessionRecording recording = SessionRecording.open(new File("router-1.e4jr"));
+ * for (int i = 0; i &lt; 1000; i++)
+ *     sessions.add(new Expect4j(new ReplayPair(recording, 10)));
+ * </pre>
+ *
+ * The clock starts with the first read, and the reader waits for each
+ * chunk by parking rather than sleeping, so the timing holds at the
+ * microsecond level.  The reader returns EOF after the last chunk.
+ */
+public class ReplayPair implements IOPair {
+    /**
+     * The speed at which chunks are read without waiting.
+     */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    final SessionRecording recording;
+    final double speed;
+    final ReplayReader reader;
+    final CountingWriter writer = new CountingWriter();
+
+    /**
+     * Creates a pair that replays in real time.
+     *
+     * @param recording the recording to replay
+     */
+    public ReplayPair(SessionRecording recording) {
+        this(recording, 1.0);
+    }
+
+    /**
+     * Creates a pair that replays at the given speed.
+     *
+     * @param recording the recording to replay
+     * @param speed how many times faster than recorded, such as
+     *              <code>1.0</code> for real time, or {@link #MAX_SPEED}
+     */
+    public ReplayPair(SessionRecording recording, double speed) {
+        if (recording == null)
+            throw new IllegalArgumentException("Recording must not be null");
+        if (!(speed > 0))
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        this.recording = recording;
+        this.speed = speed;
+        this.reader = new ReplayReader();
+    }
+
+    public Reader getReader() {
+        return reader;
+    }
+
+    public Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * Returns the number of characters the session sent.
+     *
+     * @return the character count
+     */
+    public long getCharsSent() {
+        return writer.count;
+    }
+
+    /**
+     * Starts the replay over, from the first chunk.
+     */
+    public void reset() {
+        reader.rewind();
+    }
+
+    public void close() {
+        reader.close();
+    }
+
+    /**
+     * Decodes each record straight from the recording into a buffer of
+     * its own, once the record is due.
+     */
+    class ReplayReader extends Reader {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars;
+        ByteBuffer records;
+        long startNanos = -1;
+        long dueNanos = 0;
+        volatile boolean closed = false;
+        volatile Thread reading;
+
+        ReplayReader() {
+            int maxChars = (int) (recording.maxChunkBytes * decoder.maxCharsPerByte()) + 1;
+            chars = CharBuffer.allocate(maxChars);
+            chars.flip();
+            records = recording.records();
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            reading = Thread.currentThread();
+            try {
+                while (true) {
+                    long wait;
+                    synchronized (this) {
+                        if (chars.hasRemaining()) {
+                            int count = Math.min(len, chars.remaining());
+                            chars.get(cbuf, off, count);
+                            return count;
+                        }
+                        if (closed || !records.hasRemaining())
+                            return -1;
+                        wait = untilDue();
+                        if (wait <= 0) {
+                            nextChunk();
+                            continue;
+                        }
+                    }
+                    // parked without the lock, so that rewind() and
+                    // close() don't wait for the chunk to be due
+                    LockSupport.parkNanos(this, wait);
+                    if (Thread.interrupted())
+                        throw new InterruptedIOException("Interrupted while replaying");
+                }
+            } finally {
+                reading = null;
+            }
+        }
+
+        public synchronized boolean ready() {
+            return chars.hasRemaining();
+        }
+
+        /**
+         * Returns how long until the next record is due, starting the
+         * clock on the first call.
+         *
+         * @return the time to wait in nanoseconds, zero or less once due
+         */
+        long untilDue() throws IOException {
+            if (startNanos == -1)
+                startNanos = System.nanoTime();
+            if (speed == MAX_SPEED)
+                return 0;
+            long delta = SessionRecording.readVarLong(records.duplicate());
+            return startNanos + dueNanos + (long) (delta / speed) - System.nanoTime();
+        }
+
+        /**
+         * Decodes the next record, which is due.
+         */
+        void nextChunk() throws IOException {
+            long delta = SessionRecording.readVarLong(records);
+            int length = (int) SessionRecording.readVarLong(records);
+            if (speed != MAX_SPEED)
+                dueNanos += (long) (delta / speed);
+
+            ByteBuffer record = records.duplicate();
+            record.limit(record.position() + length);
+            records.position(record.limit());
+            chars.clear();
+            decoder.reset();
+            decoder.decode(record, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+        }
+
+        void rewind() {
+            synchronized (this) {
+                records = recording.records();
+                chars.clear();
+                chars.flip();
+                startNanos = -1;
+                dueNanos = 0;
+                closed = false;
+            }
+            wakeReader();
+        }
+
+        public void close() {
+            closed = true;
+            wakeReader();
+        }
+
+        /**
+         * Unparks the thread waiting for a chunk, if any, so that it
+         * sees the reader was closed or rewound.
+         */
+        void wakeReader() {
+            Thread thread = reading;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Counts and discards what is sent.
+     */
+    static class CountingWriter extends Writer {
+        volatile long count = 0;
+
+        public synchronized void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
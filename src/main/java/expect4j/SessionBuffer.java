@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+/**
+ * The characters a {@link Consumer} has read but the matcher has not
+ * consumed yet.  Unlike a <code>StringBuffer</code>, it hands out
+ * {@link BufferSnapshot}s that look straight at its storage, so a match
+ * attempt does not copy the buffer.
+ * <p>
+ * The characters live in <code>chars[head, head + length)</code>.
+ * Consuming characters from the front only advances the head, so an
+ * <code>exp_continue</code> loop working through many small matches
+ * doesn't shift the rest of the buffer each time.  The space in front
+ * of the head is reclaimed lazily, when an append runs out of room at
+ * the end: if at least half of the array is free, the characters are
+ * moved back to the front, otherwise they are copied into a larger
+ * array.  Either way a character is moved a constant number of times
+ * on average.
+ * <p>
+ * Growing leaves the old array as it was, so snapshots survive it.
+ * Consuming moves the start of the buffer, and compacting moves the
+ * characters, so each starts a new generation, and snapshots from an
+ * earlier generation must no longer be used.
+ * <p>
+ * This class is not thread safe; consumers guard it with their own
+ * lock.
+ */
+public class SessionBuffer {
+    /**
+     * The initial capacity, in characters.
+     */
+    static final int INITIAL_CAPACITY = 256;
+
+    char[] chars;
+    int head;
+    int length;
+    long generation;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public SessionBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    SessionBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    /**
+     * Appends characters to the end of the buffer.
+     *
+     * @param cs the characters to append
+     * @param offset the offset of the first character in the array
+     * @param count the number of characters to append
+     */
+    public void append(char[] cs, int offset, int count) {
+        makeRoom(count);
+        System.arraycopy(cs, offset, chars, head + length, count);
+        length += count;
+    }
+
+    /**
+     * Appends a string to the end of the buffer.
+     *
+     * @param str the string to append
+     */
+    public void append(String str) {
+        makeRoom(str.length());
+        str.getChars(0, str.length(), chars, head + length);
+        length += str.length();
+    }
+
+    /**
+     * Makes sure <code>count</code> more characters fit after the
+     * tail.
+     */
+    void makeRoom(int count) {
+        if (head + length + count <= chars.length)
+            return;
+
+        int needed = length + count;
+        if (needed <= chars.length / 2) {
+            // Half the array is free, which took at least as many
+            // consumed characters as are moved here
+            System.arraycopy(chars, head, chars, 0, length);
+            head = 0;
+            generation++;
+        } else {
+            // a new array, rather than growing in place, so that
+            // snapshots of the old one stay intact
+            char[] larger = new char[Math.max(needed, chars.length * 2)];
+            System.arraycopy(chars, head, larger, 0, length);
+            chars = larger;
+            head = 0;
+        }
+    }
+
+    /**
+     * Removes characters from the beginning of the buffer.
+     *
+     * @param count the number of characters to remove
+     */
+    public void consume(int count) {
+        if (count < 0 || count > length)
+            throw new IndexOutOfBoundsException("Cannot consume " + count + " of " + length + " characters");
+        if (count == 0)
+            return;
+        length -= count;
+        // an empty buffer starts over at the front for free
+        head = (length == 0) ? 0 : head + count;
+        generation++;
+    }
+
+    /**
+     * Returns the number of characters in the buffer.
+     *
+     * @return the length
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the number of characters the buffer can hold before its
+     * storage has to grow.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return chars.length;
+    }
+
+    /**
+     * Returns the current generation, which changes whenever characters
+     * are consumed or moved.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a read-only view of the characters currently in the
+     * buffer, without copying them.
+     *
+     * @return the snapshot
+     */
+    public BufferSnapshot snapshot() {
+        return new BufferSnapshot(this, chars, head, head + length, generation);
+    }
+
+    public String toString() {
+        return new String(chars, head, length);
+    }
+}
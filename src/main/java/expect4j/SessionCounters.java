@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what a session does.  Each count is updated with a single
+ * atomic operation by the thread doing the work, so the counters can
+ * stay on in production:
+ *
+ * <pre>
+ * SessionCounters counters = new SessionCounters();
+ * expect.setMetrics(counters);
+ * ...
+ * logger.info("Slowest expect took " + counters.getMaxExpectMillis() + " ms");
+ * </pre>
+ */
+public class SessionCounters implements SessionMetrics, SessionCountersMBean {
+    final AtomicLong charsRead = new AtomicLong();
+    final AtomicLong readCount = new AtomicLong();
+    final AtomicLong charsSent = new AtomicLong();
+    volatile int bufferHighWater = 0;
+
+    final AtomicLong matchAttempts = new AtomicLong();
+    final AtomicLong expectCount = new AtomicLong();
+    final AtomicLong matchCount = new AtomicLong();
+    final AtomicLong timeoutCount = new AtomicLong();
+    final AtomicLong eofCount = new AtomicLong();
+    final AtomicLong totalExpectNanos = new AtomicLong();
+    final AtomicLong maxExpectNanos = new AtomicLong();
+    volatile long lastExpectNanos = 0;
+
+    /**
+     * Run when the session closes, see {@link SessionRegistry}.
+     */
+    volatile Runnable closeListener;
+
+    public void inputRead(int count, int bufferLength) {
+        charsRead.addAndGet(count);
+        readCount.incrementAndGet();
+        // only the reading thread raises the mark
+        if (bufferLength > bufferHighWater)
+            bufferHighWater = bufferLength;
+    }
+
+    public void outputSent(int count) {
+        charsSent.addAndGet(count);
+    }
+
+    public void matchAttempted() {
+        matchAttempts.incrementAndGet();
+    }
+
+    public void expectCompleted(int outcome, long nanos) {
+        expectCount.incrementAndGet();
+        if (outcome == MATCHED)
+            matchCount.incrementAndGet();
+        else if (outcome == TIMED_OUT)
+            timeoutCount.incrementAndGet();
+        else if (outcome == EOF)
+            eofCount.incrementAndGet();
+
+        totalExpectNanos.addAndGet(nanos);
+        lastExpectNanos = nanos;
+        long max;
+        while (nanos > (max = maxExpectNanos.get()) && !maxExpectNanos.compareAndSet(max, nanos))
+            ;
+    }
+
+    public void sessionClosed() {
+        Runnable listener = closeListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    public long getCharsRead() {
+        return charsRead.get();
+    }
+
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    public long getCharsSent() {
+        return charsSent.get();
+    }
+
+    public int getBufferHighWater() {
+        return bufferHighWater;
+    }
+
+    public long getMatchAttempts() {
+        return matchAttempts.get();
+    }
+
+    public long getExpectCount() {
+        return expectCount.get();
+    }
+
+    public long getMatchCount() {
+        return matchCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getEofCount() {
+        return eofCount.get();
+    }
+
+    public double getAverageExpectMillis() {
+        long count = expectCount.get();
+        return (count == 0) ? 0 : toMillis(totalExpectNanos.get() / (double) count);
+    }
+
+    public double getMaxExpectMillis() {
+        return toMillis(maxExpectNanos.get());
+    }
+
+    public double getLastExpectMillis() {
+        return toMillis(lastExpectNanos);
+    }
+
+    static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public void reset() {
+        charsRead.set(0);
+        readCount.set(0);
+        charsSent.set(0);
+        bufferHighWater = 0;
+        matchAttempts.set(0);
+        expectCount.set(0);
+        matchCount.set(0);
+        timeoutCount.set(0);
+        eofCount.set(0);
+        totalExpectNanos.set(0);
+        maxExpectNanos.set(0);
+        lastExpectNanos = 0;
+    }
+
+    public String toString() {
+        return "SessionCounters[charsRead=" + charsRead.get() + ", charsSent=" + charsSent.get()
+                + ", expects=" + expectCount.get() + ", matches=" + matchCount.get()
+                + ", timeouts=" + timeoutCount.get() + ", eofs=" + eofCount.get() + "]";
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+/**
+ * The attributes and operations {@link SessionCounters} publishes over
+ * JMX.
+ */
+public interface SessionCountersMBean {
+    /**
+     * Returns the number of characters read.
+     *
+     * @return the character count
+     */
+    public long getCharsRead();
+
+    /**
+     * Returns the number of reads that added to the buffer.
+     *
+     * @return the read count
+     */
+    public long getReadCount();
+
+    /**
+     * Returns the number of characters sent.
+     *
+     * @return the character count
+     */
+    public long getCharsSent();
+
+    /**
+     * Returns the most characters the buffer has held.
+     *
+     * @return the high-water mark
+     */
+    public int getBufferHighWater();
+
+    /**
+     * Returns the number of times patterns were run over the buffer.
+     *
+     * @return the attempt count
+     */
+    public long getMatchAttempts();
+
+    /**
+     * Returns the number of calls to <code>expect</code> that ended.
+     *
+     * @return the call count
+     */
+    public long getExpectCount();
+
+    /**
+     * Returns the number of calls to <code>expect</code> that matched.
+     *
+     * @return the match count
+     */
+    public long getMatchCount();
+
+    /**
+     * Returns the number of calls to <code>expect</code> that timed
+     * out.
+     *
+     * @return the timeout count
+     */
+    public long getTimeoutCount();
+
+    /**
+     * Returns the number of calls to <code>expect</code> that found
+     * EOF.
+     *
+     * @return the EOF count
+     */
+    public long getEofCount();
+
+    /**
+     * Returns the average time a call to <code>expect</code> took.
+     *
+     * @return the average in milliseconds
+     */
+    public double getAverageExpectMillis();
+
+    /**
+     * Returns the longest time a call to <code>expect</code> took.
+     *
+     * @return the maximum in milliseconds
+     */
+    public double getMaxExpectMillis();
+
+    /**
+     * Returns the time the last call to <code>expect</code> took.
+     *
+     * @return the time in milliseconds
+     */
+    public double getLastExpectMillis();
+
+    /**
+     * Sets every count back to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the bytes of one session, reusing a single {@link
+ * CharsetDecoder} for its lifetime.  Most devices only ever send 7-bit
+ * ASCII, so for ISO-8859-1, and for the ASCII bytes of US-ASCII and
+ * UTF-8, the bytes are widened into characters directly instead of
+ * going through the decoder.  Malformed input is replaced, as an
+ * <code>InputStreamReader</code> does.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class SessionDecoder {
+    /**
+     * The replacement for bytes that aren't ASCII in a US-ASCII
+     * session, the same as the decoder's.
+     */
+    static final char REPLACEMENT = '\uFFFD';
+
+    final Charset charset;
+    final CharsetDecoder decoder;
+
+    /**
+     * Whether every byte is a character of its own.
+     */
+    final boolean latin1;
+
+    /**
+     * Whether bytes below 0x80 are always ASCII characters.
+     */
+    final boolean asciiCompatible;
+
+    /**
+     * Whether bytes from 0x80 up are never valid.
+     */
+    final boolean ascii;
+
+    SessionDecoder(Charset charset) {
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        String name = charset.name();
+        latin1 = name.equals("ISO-8859-1");
+        ascii = name.equals("US-ASCII");
+        asciiCompatible = latin1 || ascii || name.equals("UTF-8");
+    }
+
+    /**
+     * Decodes as many bytes as fit into <code>chars</code>, leaving
+     * the bytes of an incomplete character in <code>bytes</code>.
+     *
+     * @param bytes the bytes to decode
+     * @param chars where to put the characters
+     * @param endOfInput whether no more bytes will follow
+     * @return {@link CoderResult#OVERFLOW} if <code>chars</code> filled
+     *         up before the bytes ran out
+     */
+    CoderResult decode(ByteBuffer bytes, CharBuffer chars, boolean endOfInput) {
+        if (asciiCompatible && !endOfInput && bytes.hasArray() && chars.hasArray()) {
+            widen(bytes, chars);
+            if (!bytes.hasRemaining())
+                return CoderResult.UNDERFLOW;
+            if (!chars.hasRemaining())
+                return CoderResult.OVERFLOW;
+        }
+
+        CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        if (endOfInput && !result.isOverflow()) {
+            result = decoder.flush(chars);
+            if (!result.isOverflow())
+                decoder.reset();
+        }
+        return result;
+    }
+
+    /**
+     * Widens bytes into characters until one needs the decoder.
+     */
+    void widen(ByteBuffer bytes, CharBuffer chars) {
+        byte[] in = bytes.array();
+        int inPos = bytes.arrayOffset() + bytes.position();
+        char[] out = chars.array();
+        int outPos = chars.arrayOffset() + chars.position();
+        int count = Math.min(bytes.remaining(), chars.remaining());
+
+        int i = 0;
+        if (latin1) {
+            for (; i < count; i++)
+                out[outPos + i] = (char) (in[inPos + i] & 0xff);
+        } else if (ascii) {
+            for (; i < count; i++) {
+                byte b = in[inPos + i];
+                out[outPos + i] = (b >= 0) ? (char) b : REPLACEMENT;
+            }
+        } else {
+            for (; i < count; i++) {
+                byte b = in[inPos + i];
+                if (b < 0)
+                    break;
+                out[outPos + i] = (char) b;
+            }
+        }
+
+        bytes.position(bytes.position() + i);
+        chars.position(chars.position() + i);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+/**
+ * Receives what a session does, for monitoring: what it reads and
+ * sends, how often it searches its buffer, and how each call to
+ * <code>expect</code> ends and how long it took.  Set one with {@link
+ * Expect4j#setMetrics(SessionMetrics)}; {@link SessionCounters} keeps
+ * counts that can be read, or published over JMX with {@link
+ * SessionRegistry}.
+ * <p>
+ * The methods are called on the threads doing the work, the reading
+ * thread included, so they must be cheap and must not block.
+ */
+public interface SessionMetrics {
+    /**
+     * The outcome of an <code>expect</code> that found a pattern, or
+     * whose full buffer closure ended it.
+     */
+    public static final int MATCHED = 0;
+
+    /**
+     * The outcome of an <code>expect</code> that timed out.
+     */
+    public static final int TIMED_OUT = 1;
+
+    /**
+     * The outcome of an <code>expect</code> that found EOF.
+     */
+    public static final int EOF = 2;
+
+    /**
+     * The outcome of an <code>expect</code> with {@link
+     * Expect4j#TIMEOUT_NEVER} that found nothing.
+     */
+    public static final int NOT_FOUND = 3;
+
+    /**
+     * The outcome of an <code>expect</code> that was given up on: an
+     * {@link ExpectFuture} that was cancelled, or a session that lost a
+     * {@link MultiExpect}.
+     */
+    public static final int ABANDONED = 4;
+
+    /**
+     * Called by the reading thread after characters were added to the
+     * buffer.
+     *
+     * @param count the number of characters read
+     * @param bufferLength the number of characters in the buffer
+     */
+    public void inputRead(int count, int bufferLength);
+
+    /**
+     * Called after characters were written to the session.
+     *
+     * @param count the number of characters written
+     */
+    public void outputSent(int count);
+
+    /**
+     * Called each time the patterns of an <code>expect</code> are run
+     * over the buffer.
+     */
+    public void matchAttempted();
+
+    /**
+     * Called when a call to <code>expect</code> ends, before the
+     * closure of its timeout or EOF match runs.
+     *
+     * @param outcome how the call ended, such as {@link #MATCHED}
+     * @param nanos how long the call took, in nanoseconds
+     */
+    public void expectCompleted(int outcome, long nanos);
+
+    /**
+     * Called when the session is closed.
+     */
+    public void sessionClosed();
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records what a session reads, chunk by chunk with the time each chunk
+ * arrived, so that it can be replayed later with {@link ReplayPair},
+ * for example to load test dialogs without the devices:
+ *
+ * <pre>
+ * SessionRecorder recorder = new SessionRecorder(new File("router-1.e4jr"));
+ * expect.registerBufferChangeLogger(recorder);
+ * ...
+ * expect.close();
+ * recorder.close();
+ * </pre>
+ *
+ * Loggers are called just after a chunk is made available to match,
+ * so close the recorder once the session has seen EOF or been closed,
+ * not as soon as the last expect returns.
+ * <p>
+ * The times are taken when the logger is called, so the session should
+ * call its loggers on the reading thread, as it does unless it has a
+ * {@link BufferChangeDispatcher}.  See {@link SessionRecording} for
+ * the format.  Unpaired surrogates, which only a chunk boundary in the
+ * middle of a surrogate pair produces, are recorded as <code>?</code>.
+ * If writing fails, recording stops and the failure is logged, since
+ * it can't be passed on to the reading thread.
+ */
+public class SessionRecorder implements BufferChangeLogger {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SessionRecorder.class);
+
+    final OutputStream out;
+    final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    ByteBuffer record = ByteBuffer.allocate(1024);
+    ByteBuffer encoded = ByteBuffer.allocate(1024);
+
+    long lastNanos;
+    int chunkCount = 0;
+    boolean closed = false;
+
+    /**
+     * Starts recording to a stream, which is closed with the recorder.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the header can't be written
+     */
+    public SessionRecorder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out, 8192);
+        ByteBuffer header = ByteBuffer.allocate(SessionRecording.HEADER_SIZE);
+        header.putInt(SessionRecording.MAGIC);
+        header.putShort(SessionRecording.VERSION);
+        header.putShort((short) 0);
+        header.putLong(System.currentTimeMillis());
+        this.out.write(header.array());
+        lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts recording to a file.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file can't be created
+     */
+    public SessionRecorder(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public synchronized void bufferChanged(char[] newData, int numChars) {
+        if (closed)
+            return;
+        long now = System.nanoTime();
+        try {
+            encode(newData, numChars);
+            int needed = 20 + encoded.remaining();
+            if (record.capacity() < needed)
+                record = ByteBuffer.allocate(Math.max(needed, record.capacity() * 2));
+            record.clear();
+            SessionRecording.writeVarLong(record, now - lastNanos);
+            SessionRecording.writeVarLong(record, encoded.remaining());
+            record.put(encoded);
+            out.write(record.array(), 0, record.position());
+            lastNanos = now;
+            chunkCount++;
+        } catch (IOException ioe) {
+            logger.warn("Stopping the session recording after a failed write: " + ioe);
+            closed = true;
+            try { out.close(); } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Encodes the chunk into {@link #encoded}, ready to be read.
+     */
+    void encode(char[] data, int length) {
+        int maxBytes = (int) (length * encoder.maxBytesPerChar()) + 1;
+        if (encoded.capacity() < maxBytes)
+            encoded = ByteBuffer.allocate(Math.max(maxBytes, encoded.capacity() * 2));
+        encoded.clear();
+        encoder.reset();
+        CharBuffer chars = CharBuffer.wrap(data, 0, length);
+        CoderResult result = encoder.encode(chars, encoded, true);
+        if (!result.isOverflow())
+            encoder.flush(encoded);
+        encoded.flip();
+    }
+
+    /**
+     * Writes out what is buffered.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed)
+            out.flush();
+    }
+
+    /**
+     * Stops recording, and closes the stream.
+     *
+     * @throws IOException if writing what is buffered fails
+     */
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        out.close();
+    }
+
+    /**
+     * Returns the number of chunks recorded.
+     *
+     * @return the chunk count
+     */
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+}
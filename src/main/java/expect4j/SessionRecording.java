@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A session captured by {@link SessionRecorder}, ready to be replayed
+ * by any number of {@link ReplayPair}s at once.  Recordings read from
+ * files are memory-mapped, so replaying them costs no copies and no
+ * heap beyond what each session decodes.
+ * <p>
+ * The format is a header followed by one record per chunk read:
+ *
+ * <pre>
+ * header:  magic "E4JR", version (2 bytes), reserved (2 bytes),
+ *          start time in milliseconds since the epoch (8 bytes)
+ * record:  nanoseconds since the previous chunk (varint),
+ *          length in bytes (varint), the chunk in UTF-8
+ * </pre>
+ *
+ * Varints are unsigned, seven bits per byte, low bits first.  The
+ * first record's time is counted from when recording started.
+ */
+public class SessionRecording {
+    static final int MAGIC = 0x45344A52; // "E4JR"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    final ByteBuffer data;
+    final long startMillis;
+    final int chunkCount;
+    final long durationNanos;
+    final int maxChunkBytes;
+
+    SessionRecording(ByteBuffer data) throws IOException {
+        this.data = data.asReadOnlyBuffer();
+        ByteBuffer in = this.data.duplicate();
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC)
+            throw new IOException("Not a session recording");
+        short version = in.getShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported session recording version " + version);
+        in.getShort();
+        startMillis = in.getLong();
+
+        // one pass up front, so that replays can trust the records
+        int count = 0;
+        long duration = 0;
+        int maxBytes = 0;
+        while (in.hasRemaining()) {
+            duration += readVarLong(in);
+            int length = (int) readVarLong(in);
+            if (length < 0 || length > in.remaining())
+                throw new IOException("Truncated session recording at chunk " + count);
+            in.position(in.position() + length);
+            maxBytes = Math.max(maxBytes, length);
+            count++;
+        }
+        chunkCount = count;
+        durationNanos = duration;
+        maxChunkBytes = maxBytes;
+    }
+
+    /**
+     * Maps a recording file into memory.
+     *
+     * @param file the file written by a {@link SessionRecorder}
+     * @return the recording
+     * @throws IOException if the file can't be read or isn't a
+     *                     recording
+     */
+    public static SessionRecording open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            return new SessionRecording(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a recording held in memory.
+     *
+     * @param bytes the bytes written by a {@link SessionRecorder}
+     * @return the recording
+     * @throws IOException if the bytes aren't a recording
+     */
+    public static SessionRecording wrap(byte[] bytes) throws IOException {
+        return new SessionRecording(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Returns a buffer positioned at the first record, for one replay.
+     */
+    ByteBuffer records() {
+        ByteBuffer records = data.duplicate();
+        records.position(HEADER_SIZE);
+        return records;
+    }
+
+    /**
+     * Returns when the recording started.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Returns the number of chunks recorded.
+     *
+     * @return the chunk count
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the time from the start of the recording to its last
+     * chunk.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    static void writeVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining())
+                throw new IOException("Truncated session recording");
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed session recording");
+    }
+
+    public String toString() {
+        return "SessionRecording[chunks=" + chunkCount + ", durationMillis=" + (durationNanos / 1000000) + "]";
+    }
+}
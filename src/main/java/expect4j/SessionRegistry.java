@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the {@link SessionCounters} of live sessions as MBeans, so
+ * that slow devices and busy sessions can be found with any JMX
+ * console.  Each session is registered under
+ * <code>expect4j:type=Session,name=<i>name</i>,id=<i>n</i></code>, and
+ * unregistered when it is closed:
+ *
+ * <pre>
+ * Expect4j expect = ExpectUtils.SSH(host, user, password);
+ * SessionRegistry.getPlatform().register(expect, host);
+ * </pre>
+ */
+public class SessionRegistry {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SessionRegistry.class);
+
+    /**
+     * The domain of the MBean names.
+     */
+    public static final String DOMAIN = "expect4j";
+
+    private static volatile SessionRegistry platform;
+
+    final MBeanServer server;
+    final Map<Expect4j, ObjectName> names = new ConcurrentHashMap<>();
+    final AtomicLong ids = new AtomicLong();
+
+    /**
+     * Creates a registry that publishes to the given server.
+     *
+     * @param server the MBean server
+     */
+    public SessionRegistry(MBeanServer server) {
+        if (server == null)
+            throw new IllegalArgumentException("MBean server must not be null");
+        this.server = server;
+    }
+
+    /**
+     * Returns the registry that publishes to the platform MBean server.
+     *
+     * @return the shared registry
+     */
+    public static SessionRegistry getPlatform() {
+        if (platform == null) {
+            synchronized (SessionRegistry.class) {
+                if (platform == null)
+                    platform = new SessionRegistry(ManagementFactory.getPlatformMBeanServer());
+            }
+        }
+        return platform;
+    }
+
+    /**
+     * Publishes a session's counters, giving the session counters first
+     * if its metrics aren't {@link SessionCounters} already.
+     *
+     * @param session the session
+     * @param name a name to find the session by, such as its host
+     * @return the counters published
+     * @throws JMException if the MBean can't be registered
+     */
+    public SessionCounters register(final Expect4j session, String name) throws JMException {
+        SessionCounters counters;
+        SessionMetrics metrics = session.getMetrics();
+        if (metrics instanceof SessionCounters) {
+            counters = (SessionCounters) metrics;
+        } else {
+            counters = new SessionCounters();
+            session.setMetrics(counters);
+        }
+
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Session,name=" + ObjectName.quote(name)
+                + ",id=" + ids.incrementAndGet());
+        server.registerMBean(counters, objectName);
+        ObjectName previous = names.put(session, objectName);
+        if (previous != null)
+            unregister(previous);
+
+        counters.closeListener = new Runnable() {
+            public void run() {
+                unregister(session);
+            }
+        };
+        logger.debug("Registered " + objectName);
+        return counters;
+    }
+
+    /**
+     * Stops publishing a session's counters.  Closing the session does
+     * this too.
+     *
+     * @param session the session
+     */
+    public void unregister(Expect4j session) {
+        ObjectName objectName = names.remove(session);
+        if (objectName != null)
+            unregister(objectName);
+    }
+
+    void unregister(ObjectName objectName) {
+        try {
+            server.unregisterMBean(objectName);
+            logger.debug("Unregistered " + objectName);
+        } catch (InstanceNotFoundException e) {
+            // already gone
+        } catch (JMException e) {
+            logger.warn("Unable to unregister " + objectName + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the name a session is published under.
+     *
+     * @param session the session
+     * @return the name, or <code>null</code> if it isn't published
+     */
+    public ObjectName getObjectName(Expect4j session) {
+        return names.get(session);
+    }
+
+    /**
+     * Returns the number of sessions published.
+     *
+     * @return the number of sessions
+     */
+    public int size() {
+        return names.size();
+    }
+}
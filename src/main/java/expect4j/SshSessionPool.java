@@ -0,0 +1,671 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import com.jcraft.jsch.*;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps SSH connections open between sessions, so that scripts that
+ * log into the same devices over and over pay for the TCP connect, key
+ * exchange and authentication once, rather than on every
+ * {@link ExpectUtils#SSH(String, String, String, int)}.
+ * <p>
+ * There is one authenticated JSch {@link Session} per host, port and
+ * user, and each call to {@link #borrow(String, int, String, String)}
+ * opens a shell channel on it, or reuses one that was given back.  The
+ * {@link Expect4j} returned gives its channel back to the pool when it
+ * is closed, with whatever the remote shell is doing at the time, so
+ * it is up to the script to leave the shell at its prompt.  Each borrow
+ * gets an <code>Expect4j</code> of its own, so settings such as
+ * timeouts, loggers and metrics don't carry over to the next borrower,
+ * and once closed it can no longer send on the channel.  Channels
+ * that have found EOF, or whose connection has dropped, are discarded
+ * instead, and idle channels and connections are closed after
+ * {@link #setIdleTimeout(long)}.  A channel is only checked with a
+ * keep-alive when it is borrowed, and without holding the pool's lock,
+ * so that a slow or dead server doesn't hold up borrowers of others.
+ * <p>
+ * Servers limit the channels per connection (OpenSSH's
+ * <code>MaxSessions</code> is 10 by default), which bounds how many
+ * sessions with the same host and user can be borrowed at once.
+ */
+public class SshSessionPool {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SshSessionPool.class);
+
+    /**
+     * The default number of idle channels kept per host, port and user.
+     */
+    public static final int DEFAULT_MAX_IDLE = 4;
+
+    /**
+     * The default time, in milliseconds, that idle channels and
+     * connections are kept.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    final Map<Key, Entry> entries = new HashMap<>();
+
+    volatile int maxIdle = DEFAULT_MAX_IDLE;
+    volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    boolean closed = false;
+
+    final AtomicInteger connects = new AtomicInteger();
+    final AtomicInteger channelsOpened = new AtomicInteger();
+    final AtomicInteger channelsReused = new AtomicInteger();
+
+    /**
+     * Sets how many idle channels are kept per host, port and user.
+     * Channels given back beyond this are closed.
+     *
+     * @param maxIdle the maximum number of idle channels
+     */
+    public void setMaxIdle(int maxIdle) {
+        if (maxIdle < 0)
+            throw new IllegalArgumentException("Maximum idle channels must not be negative: " + maxIdle);
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns how many idle channels are kept per host, port and user.
+     *
+     * @return the maximum number of idle channels
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Sets how long idle channels, and connections without channels,
+     * are kept before they are closed.
+     *
+     * @param idleTimeout the time in milliseconds
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0)
+            throw new IllegalArgumentException("Idle timeout must not be negative: " + idleTimeout);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns how long idle channels and connections are kept.
+     *
+     * @return the time in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Opens a shell on the given server, over a connection from the
+     * pool if there is one.  This is equivalent to Expect's
+     * <code>spawn ssh $hostname</code>.
+     *
+     * @param hostname the DNS or IP address of the remote server
+     * @param port the TCP port for the SSH service
+     * @param username the account name to use when authenticating
+     * @param password the account password to use when authenticating,
+     *                 if a new connection is needed
+     * @return the controlling Expect4j instance, which goes back to the
+     *         pool when it is closed
+     * @throws Exception on a variety of errors
+     */
+    public Expect4j borrow(String hostname, int port, String username, String password) throws Exception {
+        Key key = new Key(hostname, port, username);
+        Entry entry;
+        while (true) {
+            PooledChannel candidate = null;
+            List<PooledChannel> discarded = new ArrayList<>();
+            List<Entry> disconnected = new ArrayList<>();
+            try {
+                synchronized (this) {
+                    if (closed)
+                        throw new IllegalStateException("SSH session pool is closed");
+                    evictIdle(System.currentTimeMillis(), discarded, disconnected);
+
+                    entry = entries.get(key);
+                    if (entry == null) {
+                        entry = new Entry(key);
+                        entries.put(key, entry);
+                    }
+                    PooledChannel pooled;
+                    while (candidate == null && (pooled = entry.idle.pollFirst()) != null) {
+                        if (pooled.isOpen())
+                            candidate = pooled;
+                        else
+                            discarded.add(pooled);
+                    }
+                    // keeps the connection from being evicted while the
+                    // channel is checked or opened
+                    entry.active++;
+                }
+            } finally {
+                discard(discarded, disconnected);
+            }
+            if (candidate == null)
+                break;
+
+            if (candidate.isHealthy()) {
+                channelsReused.incrementAndGet();
+                logger.debug("Reusing SSH channel with " + key);
+                return candidate.lease();
+            }
+            synchronized (this) {
+                entry.active--;
+                entry.lastUsed = System.currentTimeMillis();
+            }
+            candidate.discard();
+        }
+
+        try {
+            return entry.open(password).lease();
+        } catch (Exception e) {
+            synchronized (this) {
+                entry.active--;
+                entry.lastUsed = System.currentTimeMillis();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Takes back a channel from a closed {@link Expect4j}.
+     */
+    void release(PooledChannel pooled) {
+        List<PooledChannel> discarded = new ArrayList<>();
+        List<Entry> disconnected = new ArrayList<>();
+        synchronized (this) {
+            Entry entry = pooled.entry;
+            entry.active--;
+            long now = System.currentTimeMillis();
+            entry.lastUsed = now;
+            if (!closed && entry.idle.size() < maxIdle && pooled.isOpen()) {
+                pooled.idleSince = now;
+                entry.idle.addLast(pooled);
+            } else {
+                discarded.add(pooled);
+            }
+            if (closed && entry.active == 0 && entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+                disconnected.add(entry);
+            }
+            evictIdle(now, discarded, disconnected);
+        }
+        discard(discarded, disconnected);
+    }
+
+    /**
+     * Closes the channels and connections that have been idle for
+     * longer than the idle timeout.  This also happens whenever a
+     * channel is borrowed or given back.
+     */
+    public void evictIdle() {
+        List<PooledChannel> discarded = new ArrayList<>();
+        List<Entry> disconnected = new ArrayList<>();
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis(), discarded, disconnected);
+        }
+        discard(discarded, disconnected);
+    }
+
+    /**
+     * Takes out the channels and connections to close, using only what
+     * is known locally, so that it is cheap enough to do under the
+     * pool's lock.
+     */
+    void evictIdle(long now, List<PooledChannel> discarded, List<Entry> disconnected) {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry entry = iter.next();
+            Iterator<PooledChannel> idle = entry.idle.iterator();
+            while (idle.hasNext()) {
+                PooledChannel pooled = idle.next();
+                if (now - pooled.idleSince >= idleTimeout || !pooled.isOpen()) {
+                    idle.remove();
+                    discarded.add(pooled);
+                }
+            }
+            if (entry.active == 0 && entry.idle.isEmpty()
+                    && (now - entry.lastUsed >= idleTimeout || !entry.isConnected())) {
+                iter.remove();
+                disconnected.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Closes channels and connections, without holding the pool's
+     * lock.
+     */
+    void discard(List<PooledChannel> discarded, List<Entry> disconnected) {
+        for (PooledChannel pooled : discarded)
+            pooled.discard();
+        for (Entry entry : disconnected)
+            entry.disconnect();
+    }
+
+    /**
+     * Closes every idle channel and connection.  Channels still
+     * borrowed are closed when they are given back, along with their
+     * connections.
+     */
+    public void close() {
+        List<PooledChannel> discarded = new ArrayList<>();
+        List<Entry> disconnected = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            Iterator<Entry> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                Entry entry = iter.next();
+                discarded.addAll(entry.idle);
+                entry.idle.clear();
+                if (entry.active == 0) {
+                    iter.remove();
+                    disconnected.add(entry);
+                }
+            }
+        }
+        discard(discarded, disconnected);
+    }
+
+    /**
+     * Returns the number of connections in the pool.
+     *
+     * @return the number of connections
+     */
+    public synchronized int getConnectionCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of idle channels in the pool.
+     *
+     * @return the number of idle channels
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Entry entry : entries.values())
+            count += entry.idle.size();
+        return count;
+    }
+
+    /**
+     * Returns the number of channels borrowed and not yet given back.
+     *
+     * @return the number of active channels
+     */
+    public synchronized int getActiveCount() {
+        int count = 0;
+        for (Entry entry : entries.values())
+            count += entry.active;
+        return count;
+    }
+
+    public synchronized String toString() {
+        return "SshSessionPool[connections=" + entries.size() + ", connects=" + connects
+                + ", channelsOpened=" + channelsOpened + ", channelsReused=" + channelsReused + "]";
+    }
+
+    /**
+     * A host, port and user.
+     */
+    static final class Key {
+        final String hostname;
+        final int port;
+        final String username;
+
+        Key(String hostname, int port, String username) {
+            this.hostname = hostname;
+            this.port = port;
+            this.username = username;
+        }
+
+        public int hashCode() {
+            return (hostname.hashCode() * 31 + port) * 31 + ((username == null) ? 0 : username.hashCode());
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return port == other.port && hostname.equals(other.hostname)
+                    && ((username == null) ? other.username == null : username.equals(other.username));
+        }
+
+        public String toString() {
+            return username + "@" + hostname + ":" + port;
+        }
+    }
+
+    /**
+     * The connection to one host, port and user, and its idle channels.
+     * The counts are guarded by the pool's lock, and the connection by
+     * the entry's own, so that connecting to one host doesn't hold up
+     * the others.  The pool only takes the entry's lock while nothing
+     * is borrowed from it, so never while it is connecting.
+     */
+    final class Entry {
+        final Key key;
+        final ArrayDeque<PooledChannel> idle = new ArrayDeque<>();
+        int active = 0;
+        long lastUsed = System.currentTimeMillis();
+
+        Session session;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Opens a shell channel, connecting first if need be.
+         */
+        synchronized PooledChannel open(String password) throws Exception {
+            if (session == null || !session.isConnected()) {
+                session = ExpectUtils.connectSSH(key.hostname, key.username, password, key.port);
+                connects.incrementAndGet();
+            }
+
+            ChannelShell channel = ExpectUtils.openShell(session);
+            PooledChannel pooled = new PooledChannel(this, session, channel);
+            channel.connect(5 * 1000);
+            channelsOpened.incrementAndGet();
+            logger.debug("Opened SSH channel with " + key);
+            return pooled;
+        }
+
+        synchronized boolean isConnected() {
+            return session != null && session.isConnected();
+        }
+
+        synchronized void disconnect() {
+            if (session != null) {
+                logger.debug("Disconnecting SSH session with " + key);
+                session.disconnect();
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * A shell channel and the consumer reading it, which outlive the
+     * sessions that borrow them.
+     */
+    final class PooledChannel {
+        final Entry entry;
+        final Session session;
+        final ChannelShell channel;
+        final StreamPair pair;
+        final ExpectConsumer consumer;
+        final int maxBufferSize;
+        long idleSince;
+
+        PooledChannel(Entry entry, Session session, ChannelShell channel) throws IOException {
+            this.entry = entry;
+            this.session = session;
+            this.channel = channel;
+            this.pair = new StreamPair(channel.getInputStream(), channel.getOutputStream());
+            this.consumer = Expect4j.createConsumer(pair);
+            this.maxBufferSize = consumer.getMaxBufferSize();
+
+            Thread thread = new Thread(consumer, "expect4j-ssh-" + entry.key);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Determines whether the channel may still be usable, from what
+         * is known locally.
+         */
+        boolean isOpen() {
+            return session.isConnected() && channel.isConnected() && !channel.isClosed() && !consumer.foundEOF();
+        }
+
+        /**
+         * Determines whether the channel can be used again, sending a
+         * keep-alive to find out whether the connection still works.
+         * Not called with the pool's lock held.
+         */
+        boolean isHealthy() {
+            if (!isOpen())
+                return false;
+            try {
+                session.sendKeepAliveMsg();
+                return true;
+            } catch (Exception e) {
+                logger.debug("SSH connection with " + entry.key + " failed a keep-alive: " + e);
+                return false;
+            }
+        }
+
+        /**
+         * Hands the channel to a new borrower, without what the previous
+         * one left in the buffer.
+         */
+        PooledExpect4j lease() {
+            consumer.resume(consumer.snapshot().length());
+            return new PooledExpect4j(this, new Lease(consumer, maxBufferSize));
+        }
+
+        /**
+         * Closes the channel for good.
+         */
+        void discard() {
+            logger.debug("Closing SSH channel with " + entry.key);
+            consumer.stop();
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * A borrower's session, whose <code>close()</code> gives the channel
+     * back to the pool.
+     */
+    final class PooledExpect4j extends Expect4j {
+        final PooledChannel pooled;
+        final Lease lease;
+        boolean released = false;
+
+        PooledExpect4j(PooledChannel pooled, Lease lease) {
+            super(pooled.pair, lease);
+            this.pooled = pooled;
+            this.lease = lease;
+        }
+
+        public void close() {
+            synchronized (this) {
+                if (released)
+                    return;
+                released = true;
+            }
+            try {
+                // sends what is queued before the channel changes hands
+                setSendExecutor(null);
+                flush();
+            } catch (IOException ioe) {
+                logger.debug("Caught an exception while flushing before releasing: " + ioe);
+            }
+            super.close();
+            lease.end();
+            release(pooled);
+        }
+    }
+
+    /**
+     * One borrower's view of a pooled channel's consumer.  Whatever the
+     * borrower sets on the consumer is undone when the lease ends, and
+     * from then on the lease can't send and reads as EOF, so a session
+     * kept after it was closed can't reach the next borrower's shell.
+     * Stopping a lease leaves the consumer running for the next one.
+     */
+    static final class Lease implements ExpectConsumer {
+        final ExpectConsumer consumer;
+        final int maxBufferSize;
+        final List<BufferChangeLogger> loggers = new ArrayList<>();
+        final List<Runnable> listeners = new ArrayList<>();
+        volatile boolean ended = false;
+
+        Lease(ExpectConsumer consumer, int maxBufferSize) {
+            this.consumer = consumer;
+            this.maxBufferSize = maxBufferSize;
+        }
+
+        /**
+         * Does nothing, as the channel's consumer is already running.
+         */
+        public void run() {
+        }
+
+        void checkOpen() throws IOException {
+            if (ended)
+                throw new IOException("SSH channel was given back to the pool");
+        }
+
+        public void waitForBuffer(long timeout) {
+            if (!ended)
+                consumer.waitForBuffer(timeout);
+        }
+
+        public synchronized void send(String data) throws IOException {
+            checkOpen();
+            consumer.send(data);
+        }
+
+        public synchronized void sendAll(List<String> data) throws IOException {
+            checkOpen();
+            consumer.sendAll(data);
+        }
+
+        public synchronized void write(String data) throws IOException {
+            checkOpen();
+            consumer.write(data);
+        }
+
+        public synchronized void flush() throws IOException {
+            if (!ended)
+                consumer.flush();
+        }
+
+        public String pause() {
+            return ended ? "" : consumer.pause();
+        }
+
+        public BufferSnapshot snapshot() {
+            return ended ? new SessionBuffer().snapshot() : consumer.snapshot();
+        }
+
+        public void resume() {
+            if (!ended)
+                consumer.resume();
+        }
+
+        public void resume(int offset) {
+            if (!ended)
+                consumer.resume(offset);
+        }
+
+        public void setMaxBufferSize(int max) {
+            if (!ended)
+                consumer.setMaxBufferSize(max);
+        }
+
+        public int getMaxBufferSize() {
+            return consumer.getMaxBufferSize();
+        }
+
+        public void setDiscardWhenFull(boolean discard) {
+            if (!ended)
+                consumer.setDiscardWhenFull(discard);
+        }
+
+        /**
+         * Does nothing, as the channel outlives the lease.
+         */
+        public void stop() {
+        }
+
+        public boolean foundEOF() {
+            return ended || consumer.foundEOF();
+        }
+
+        public synchronized void registerBufferChangeLogger(BufferChangeLogger logger) {
+            if (ended || loggers.contains(logger))
+                return;
+            loggers.add(logger);
+            consumer.registerBufferChangeLogger(logger);
+        }
+
+        public synchronized void unregisterBufferChangeLogger(BufferChangeLogger logger) {
+            if (loggers.remove(logger))
+                consumer.unregisterBufferChangeLogger(logger);
+        }
+
+        public synchronized void addInputListener(Runnable listener) {
+            if (ended)
+                return;
+            listeners.add(listener);
+            consumer.addInputListener(listener);
+        }
+
+        public synchronized void removeInputListener(Runnable listener) {
+            if (listeners.remove(listener))
+                consumer.removeInputListener(listener);
+        }
+
+        public void setMetrics(SessionMetrics metrics) {
+            if (!ended)
+                consumer.setMetrics(metrics);
+        }
+
+        public void setBufferChangeDispatcher(BufferChangeDispatcher dispatcher) {
+            if (!ended)
+                consumer.setBufferChangeDispatcher(dispatcher);
+        }
+
+        /**
+         * Ends the lease, undoing what the borrower set on the
+         * consumer.
+         */
+        synchronized void end() {
+            if (ended)
+                return;
+            ended = true;
+            for (BufferChangeLogger logger : loggers)
+                consumer.unregisterBufferChangeLogger(logger);
+            loggers.clear();
+            for (Runnable listener : listeners)
+                consumer.removeInputListener(listener);
+            listeners.clear();
+            consumer.setMetrics(null);
+            consumer.setBufferChangeDispatcher(null);
+            consumer.setMaxBufferSize(maxBufferSize);
+            consumer.setDiscardWhenFull(true);
+        }
+    }
+}
@@ -24,24 +24,49 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
- * TODO
+ * A pair of byte streams, such as those of a socket or a process, in a
+ * given character set.  The reader is only created when asked for, so
+ * that a {@link ByteConsumer} reading the bytes directly doesn't pay
+ * for a second decoder.
  *
  * @author Chris Verges
  * @author Justin Ryan
  */
-public class StreamPair implements IOPair {
+public class StreamPair implements ByteIOPair {
+    final InputStream inputStream;
+    final OutputStream outputStream;
+    final Charset charset;
+
     Reader is;
     Writer os;
 
     /** Creates a new instance of ReaderConsumer */
     public StreamPair(InputStream is, OutputStream os ) {
-        this.is = new InputStreamReader(is );
-        this.os = new OutputStreamWriter( os );
+        this(is, os, Charset.defaultCharset());
+    }
+
+    /**
+     * Creates a pair of streams encoded with the given character set.
+     *
+     * @param is the stream to read from
+     * @param os the stream to write to
+     * @param charset the character set of both streams
+     */
+    public StreamPair(InputStream is, OutputStream os, Charset charset) {
+        if (charset == null)
+            throw new IllegalArgumentException("Charset must not be null");
+        this.inputStream = is;
+        this.outputStream = os;
+        this.charset = charset;
+        this.os = new OutputStreamWriter(os, charset);
     }
 
-    public Reader getReader() {
+    public synchronized Reader getReader() {
+        if (is == null)
+            is = new InputStreamReader(inputStream, charset);
         return is;
     }
 
@@ -49,18 +74,30 @@ public class StreamPair implements IOPair {
         return os;
     }
 
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
     /**
      * TODO evaluate if this is even needed
      */
     public void reset() {
         try {
-            is.reset();
+            getReader().reset();
         }catch(IOException ioe) {
         }
     }
 
     public void close() {
-        try { is.close(); } catch(Exception e) { }
+        try { inputStream.close(); } catch(Exception e) { }
         try { os.close(); } catch(Exception e) { }
     }
 }
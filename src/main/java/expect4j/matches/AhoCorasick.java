@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a set of non-empty literals, used to find
+ * the earliest occurrence of any of them in one pass.  Among literals
+ * that start at the same offset the one with the lowest index wins, the
+ * same tie-break the expect loop uses between patterns.
+ */
+final class AhoCorasick {
+
+    /** Outgoing edge labels of each node, parallel to {@link #targets}. */
+    char[][] labels;
+
+    /** Outgoing edge targets of each node. */
+    int[][] targets;
+
+    /** Failure link of each node. */
+    int[] fail;
+
+    /** Lowest literal index that ends at each node, or -1. */
+    int[] output;
+
+    /** Nearest node along the failure chain with an output, or -1. */
+    int[] outputLink;
+
+    /** Length of each literal. */
+    int[] lengths;
+
+    /** Length of the longest literal. */
+    int maxLength;
+
+    /** Start offset of the last match found by {@link #find}. */
+    int matchStart = -1;
+
+    AhoCorasick(String[] literals) {
+        List<StringBuilder> nodeLabels = new ArrayList<>();
+        List<List<Integer>> nodeTargets = new ArrayList<>();
+        List<Integer> nodeOutput = new ArrayList<>();
+        nodeLabels.add(new StringBuilder());
+        nodeTargets.add(new ArrayList<Integer>());
+        nodeOutput.add(-1);
+
+        lengths = new int[literals.length];
+        for (int p = 0; p < literals.length; p++) {
+            String literal = literals[p];
+            lengths[p] = literal.length();
+            maxLength = Math.max(maxLength, literal.length());
+
+            int node = 0;
+            for (int k = 0; k < literal.length(); k++) {
+                char ch = literal.charAt(k);
+                int edge = nodeLabels.get(node).indexOf(String.valueOf(ch));
+                if (edge == -1) {
+                    nodeLabels.get(node).append(ch);
+                    nodeTargets.get(node).add(nodeLabels.size());
+                    nodeLabels.add(new StringBuilder());
+                    nodeTargets.add(new ArrayList<Integer>());
+                    nodeOutput.add(-1);
+                    node = nodeLabels.size() - 1;
+                } else {
+                    node = nodeTargets.get(node).get(edge);
+                }
+            }
+            if (nodeOutput.get(node) == -1)
+                nodeOutput.set(node, p);
+        }
+
+        int count = nodeLabels.size();
+        labels = new char[count][];
+        targets = new int[count][];
+        output = new int[count];
+        for (int n = 0; n < count; n++) {
+            labels[n] = nodeLabels.get(n).toString().toCharArray();
+            List<Integer> t = nodeTargets.get(n);
+            targets[n] = new int[t.size()];
+            for (int e = 0; e < targets[n].length; e++)
+                targets[n][e] = t.get(e);
+            output[n] = nodeOutput.get(n);
+        }
+
+        // Breadth first, so a node's failure link is always ready
+        // before its children need it
+        fail = new int[count];
+        outputLink = new int[count];
+        Arrays.fill(outputLink, -1);
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int e = 0; e < targets[0].length; e++)
+            queue[tail++] = targets[0][e];
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = 0; e < labels[node].length; e++) {
+                int child = targets[node][e];
+                char ch = labels[node][e];
+                int f = fail[node];
+                while (f != 0 && step(f, ch) == -1)
+                    f = fail[f];
+                int next = step(f, ch);
+                fail[child] = (next == -1 || next == child) ? 0 : next;
+                outputLink[child] = (output[fail[child]] != -1) ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Follows the goto edge for a character, or returns -1.
+     */
+    int step(int node, char ch) {
+        char[] edges = labels[node];
+        for (int e = 0; e < edges.length; e++) {
+            if (edges[e] == ch)
+                return targets[node][e];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the literal with the earliest occurrence that lies entirely
+     * within <code>[from, to)</code>.  The start offset of the match is
+     * left in {@link #matchStart}.
+     *
+     * @return the index of the literal found, or -1
+     */
+    int find(char[] text, int from, int to) {
+        int bestStart = -1;
+        int bestIndex = -1;
+        int node = 0;
+        for (int i = from; i < to; i++) {
+            // nothing ending here or later can start before bestStart
+            if (bestStart != -1 && i - maxLength + 1 > bestStart)
+                break;
+
+            char ch = text[i];
+            int next;
+            while ((next = step(node, ch)) == -1 && node != 0)
+                node = fail[node];
+            node = (next == -1) ? 0 : next;
+
+            int n = (output[node] != -1) ? node : outputLink[node];
+            while (n != -1) {
+                int index = output[n];
+                int start = i - lengths[index] + 1;
+                if (bestStart == -1 || start < bestStart || (start == bestStart && index < bestIndex)) {
+                    bestStart = start;
+                    bestIndex = index;
+                }
+                n = outputLink[n];
+            }
+        }
+        matchStart = bestStart;
+        return bestIndex;
+    }
+}
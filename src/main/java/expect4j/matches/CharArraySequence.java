@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+/**
+ * A read-only {@link CharSequence} view of part of a
+ * <code>char[]</code>, so that engines built on
+ * <code>CharSequence</code> can search a buffer without copying it.
+ */
+final class CharArraySequence implements CharSequence {
+
+    char[] array;
+
+    int offset;
+
+    int length;
+
+    CharArraySequence(char[] array, int offset, int length) {
+        reset(array, offset, length);
+    }
+
+    /**
+     * Points this view at another range.
+     */
+    void reset(char[] array, int offset, int length) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+        return array[offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range: " + start + "-" + end + ", length: " + length);
+        return new CharArraySequence(array, offset + start, end - start);
+    }
+
+    public String toString() {
+        return new String(array, offset, length);
+    }
+}
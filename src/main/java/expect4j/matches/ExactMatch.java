@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import expect4j.*;
+import org.apache.oro.text.regex.*;
+
+/**
+ * Simulates "expect { -ex {...} { code } }
+ * <p>
+ * The pattern is taken literally, so characters like <code>*</code>
+ * and <code>[</code> have no special meaning.  Rather than going
+ * through the regular expression matcher, exact patterns are searched
+ * with a skip-table literal search, or with a single multi-literal
+ * automaton when an <code>expect</code> call has several of them.
+ */
+public class ExactMatch extends PatternPair {
+
+    /**
+     * The skip-table search for the literal, built on first use.
+     */
+    Horspool search;
+
+    /** Creates a new instance of ExactMatch */
+    public ExactMatch(String literal, Closure closure) throws MalformedPatternException {
+        super(literal, closure);
+    }
+
+    /**
+     * Compiles an equivalent regular expression, so that {@link
+     * #getPattern()} keeps working for callers that expect one.  It is
+     * not used when searching through {@link PatternSet}.
+     */
+    public Pattern compilePattern(String literal) throws MalformedPatternException {
+        return compilePattern(literal, getEngine());
+    }
+
+    public Pattern compilePattern(String literal, RegexEngine engine) throws MalformedPatternException {
+        return engine.compile(Perl5Compiler.quotemeta(literal));
+    }
+
+    /**
+     * Returns the literal text this pattern matches.
+     *
+     * @return the literal text
+     */
+    public String getLiteral() {
+        return patternStr;
+    }
+
+    /**
+     * Finds the first occurrence of the literal in a range of the
+     * buffer.
+     *
+     * @param text the buffer to search
+     * @param from the offset to start searching from
+     * @param to the offset to stop searching at (exclusive)
+     * @return the offset of the first occurrence, or <code>-1</code>
+     */
+    public int indexOf(char[] text, int from, int to) {
+        if (search == null)
+            search = new Horspool(patternStr);
+        return search.indexOf(text, from, to);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import expect4j.*;
+
+/**
+ * Matches when the buffer has reached the limit set with {@link
+ * Expect4j#setMatchMax(int)} without any of the other patterns
+ * matching, like the <code>full_buffer</code> keyword of Expect.  The
+ * closure receives everything in the buffer as
+ * <code>expect_out(buffer)</code>, and the buffer starts over empty.
+ * <p>
+ * Without a <code>FullBufferMatch</code>, the oldest characters are
+ * silently discarded instead.
+ */
+public class FullBufferMatch extends Match {
+    public FullBufferMatch(Closure closure) {
+        super(closure);
+    }
+
+    public FullBufferMatch() {
+        super();
+    }
+}
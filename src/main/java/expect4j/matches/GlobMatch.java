@@ -34,11 +34,29 @@ public class GlobMatch extends RegExpMatch {
         super(pattern, closure);
     }
 
-    public Pattern compilePattern(String patternStr) throws MalformedPatternException {
-        int globOptions = GlobCompiler.DEFAULT_MASK | GlobCompiler.QUESTION_MATCHES_ZERO_OR_ONE_MASK;
-        char [] patternCh = patternStr.toCharArray();
-        String perl5PatternStr = GlobCompiler.globToPerl5(patternCh, globOptions);
+    /**
+     * Creates a new instance of GlobMatch that is always compiled and
+     * searched with the given engine.
+     */
+    public GlobMatch(String pattern, Closure closure, RegexEngine engine) throws MalformedPatternException {
+        super(pattern, closure, engine);
+    }
+
+    /**
+     * Translates the glob and compiles it, or reuses the compiled
+     * pattern from the {@link PatternCache#getShared() shared cache}.
+     */
+    public Pattern compilePattern(String patternStr, RegexEngine engine) throws MalformedPatternException {
+        PatternCache cache = PatternCache.getShared();
+        Pattern pattern = cache.get(PatternCache.GLOB, patternStr, engine);
+        if (pattern == null) {
+            int globOptions = GlobCompiler.DEFAULT_MASK | GlobCompiler.QUESTION_MATCHES_ZERO_OR_ONE_MASK;
+            char [] patternCh = patternStr.toCharArray();
+            String perl5PatternStr = GlobCompiler.globToPerl5(patternCh, globOptions);
 
-        return super.compilePattern(perl5PatternStr);
+            pattern = engine.compile(perl5PatternStr);
+            cache.put(PatternCache.GLOB, patternStr, engine, pattern);
+        }
+        return pattern;
     }
 }
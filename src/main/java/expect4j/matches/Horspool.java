@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.Arrays;
+
+/**
+ * Boyer-Moore-Horspool search for a single literal.  The skip table is
+ * indexed by the low byte of each character; characters sharing a slot
+ * share the smallest shift, which keeps the search correct for the
+ * whole <code>char</code> range with a 256 entry table.
+ */
+final class Horspool {
+
+    final char[] needle;
+
+    final int[] shift = new int[256];
+
+    Horspool(String literal) {
+        needle = literal.toCharArray();
+        int m = needle.length;
+        Arrays.fill(shift, Math.max(m, 1));
+        for (int i = 0; i < m - 1; i++)
+            shift[needle[i] & 0xFF] = m - 1 - i;
+    }
+
+    /**
+     * Finds the first occurrence of the literal that lies entirely
+     * within <code>[from, to)</code>.
+     */
+    int indexOf(char[] text, int from, int to) {
+        int m = needle.length;
+        if (m == 0)
+            return (from <= to) ? from : -1;
+
+        char lastChar = needle[m - 1];
+        int i = from;
+        while (i <= to - m) {
+            char last = text[i + m - 1];
+            if (last == lastChar) {
+                int j = m - 2;
+                while (j >= 0 && text[i + j] == needle[j])
+                    j--;
+                if (j < 0)
+                    return i;
+            }
+            i += shift[last & 0xFF];
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.PatternSyntaxException;
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.apache.oro.text.regex.MatchResult;
+import org.apache.oro.text.regex.Pattern;
+
+/**
+ * An engine backed by <code>java.util.regex</code>.  Patterns are
+ * compiled with <code>DOTALL</code> and <code>UNIX_LINES</code>, which
+ * matches how ORO treats the Perl5 patterns Expect4j compiles.  The
+ * buffer is searched in place through a {@link CharSequence} view.
+ */
+public class JdkRegexEngine implements RegexEngine {
+    /**
+     * A shared instance.
+     */
+    public static final JdkRegexEngine INSTANCE = new JdkRegexEngine();
+
+    /**
+     * The flags patterns are compiled with.
+     */
+    static final int FLAGS = java.util.regex.Pattern.DOTALL | java.util.regex.Pattern.UNIX_LINES;
+
+    public Pattern compile(String regex) throws MalformedPatternException {
+        try {
+            return new JdkPattern(java.util.regex.Pattern.compile(regex, FLAGS));
+        } catch (PatternSyntaxException pse) {
+            throw new MalformedPatternException(pse.getMessage());
+        }
+    }
+
+    public int getOptions() {
+        return FLAGS;
+    }
+
+    public RegexSearcher newSearcher() {
+        return new JdkSearcher();
+    }
+
+    public String getName() {
+        return "jdk";
+    }
+
+    /**
+     * Adapts a compiled <code>java.util.regex.Pattern</code> to the ORO
+     * interface.
+     */
+    static class JdkPattern implements Pattern {
+        final java.util.regex.Pattern pattern;
+
+        JdkPattern(java.util.regex.Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        public String getPattern() {
+            return pattern.pattern();
+        }
+
+        public int getOptions() {
+            return pattern.flags();
+        }
+
+        public String toString() {
+            return pattern.pattern();
+        }
+    }
+
+    /**
+     * Searches with a <code>Matcher</code> over a view of the buffer.
+     * The region starts at the search offset, with transparent and
+     * non-anchoring bounds so that the characters before it are still
+     * visible to anchors and lookbehinds.
+     */
+    static class JdkSearcher implements RegexSearcher {
+        CharArraySequence sequence = new CharArraySequence(new char[0], 0, 0);
+
+        /**
+         * Matchers are reset rather than recreated for every search.
+         */
+        Map<Pattern, Matcher> matchers = new IdentityHashMap<>();
+
+        public MatchResult search(Pattern pattern, char[] text, int begin, int end, int from) {
+            sequence.reset(text, begin, end - begin);
+            Matcher matcher = matchers.get(pattern);
+            if (matcher == null) {
+                matcher = ((JdkPattern) pattern).pattern.matcher(sequence);
+                matchers.put(pattern, matcher);
+            } else {
+                matcher.reset(sequence);
+            }
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            matcher.region(from - begin, end - begin);
+
+            if (matcher.find())
+                return new JdkResult(matcher, begin);
+            return null;
+        }
+    }
+
+    /**
+     * A copy of the groups of a successful match, with offsets into the
+     * searched buffer.
+     */
+    static class JdkResult implements MatchResult {
+        final String[] groups;
+        final int[] begins;
+        final int[] ends;
+
+        JdkResult(Matcher matcher, int base) {
+            int count = matcher.groupCount() + 1;
+            groups = new String[count];
+            begins = new int[count];
+            ends = new int[count];
+            for (int i = 0; i < count; i++) {
+                groups[i] = matcher.group(i);
+                begins[i] = (matcher.start(i) == -1) ? -1 : base + matcher.start(i);
+                ends[i] = (matcher.end(i) == -1) ? -1 : base + matcher.end(i);
+            }
+        }
+
+        public int length() {
+            return ends[0] - begins[0];
+        }
+
+        public int groups() {
+            return groups.length;
+        }
+
+        public String group(int group) {
+            return (group < 0 || group >= groups.length) ? null : groups[group];
+        }
+
+        public int begin(int group) {
+            if (group < 0 || group >= groups.length || begins[group] == -1)
+                return -1;
+            return begins[group] - begins[0];
+        }
+
+        public int end(int group) {
+            if (group < 0 || group >= groups.length || ends[group] == -1)
+                return -1;
+            return ends[group] - begins[0];
+        }
+
+        public int beginOffset(int group) {
+            return (group < 0 || group >= groups.length) ? -1 : begins[group];
+        }
+
+        public int endOffset(int group) {
+            return (group < 0 || group >= groups.length) ? -1 : ends[group];
+        }
+
+        public String toString() {
+            return groups[0];
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DFA over a {@link RegexProgram} whose states are built the first
+ * time the search reaches them, and then reused.  It answers whether
+ * the input contains a match, and where the earliest match ends, in
+ * time proportional to the input: every character costs one table
+ * lookup once the states it passes through have been built.
+ * <p>
+ * A state is the set of NFA instructions that are waiting for the next
+ * character, plus whether the previous character was a word character
+ * so that <code>\b</code> can be decided.  Characters are grouped into
+ * classes that no instruction tells apart, which keeps the transition
+ * tables small.  Transitions are only cached away from the ends of the
+ * input, where the anchors cannot hold; the first and last two
+ * positions are computed directly.  If the number of states exceeds
+ * {@link #MAX_STATES} the cache is dropped, start states included, and
+ * rebuilt as needed.
+ * <p>
+ * Instances keep scratch state and are not thread safe; the pattern
+ * holding one lends it to a single search at a time.
+ */
+final class LazyDfa {
+    /**
+     * The most states kept before the cache is dropped.
+     */
+    static final int MAX_STATES = 4096;
+
+    /**
+     * The transition taken when the program reaches its match
+     * instruction, which ends the search.
+     */
+    static final State MATCHED = new State(new int[0], false);
+
+    final RegexProgram program;
+
+    /**
+     * The sorted boundaries between character classes.
+     */
+    final char[] boundaries;
+
+    /**
+     * The character class of each Latin-1 character.
+     */
+    final int[] latin1 = new int[256];
+
+    final Map<State, State> states = new HashMap<>();
+
+    /**
+     * Where searches start, replaced along with every other state when
+     * the cache is dropped.
+     */
+    State startWord;
+    State startNonWord;
+
+    // Scratch space for the closure
+    int[] marks;
+    int generation;
+    int[] stack;
+    int[] found;
+
+    LazyDfa(RegexProgram program) {
+        this.program = program;
+        this.marks = new int[program.size];
+        this.stack = new int[program.size * 2 + 1];
+        this.found = new int[program.size];
+
+        // Every instruction must see the same answer for all characters
+        // of a class, and so must \b
+        char[] bounds = new char[4 * program.size + RegexProgram.WORD.length + 2];
+        int count = 0;
+        for (int pc = 0; pc < program.size; pc++) {
+            if (program.op[pc] == RegexProgram.CHAR) {
+                count = addRange(bounds, count, (char) program.arg[pc], (char) program.arg[pc]);
+            } else if (program.op[pc] == RegexProgram.CLASS) {
+                char[] ranges = program.classes.get(program.arg[pc]);
+                if (bounds.length < count + ranges.length + 2)
+                    bounds = Arrays.copyOf(bounds, (count + ranges.length) * 2 + 2);
+                for (int i = 0; i < ranges.length; i += 2)
+                    count = addRange(bounds, count, ranges[i], ranges[i + 1]);
+            }
+        }
+        if (bounds.length < count + RegexProgram.WORD.length)
+            bounds = Arrays.copyOf(bounds, count + RegexProgram.WORD.length);
+        for (int i = 0; i < RegexProgram.WORD.length; i += 2)
+            count = addRange(bounds, count, RegexProgram.WORD[i], RegexProgram.WORD[i + 1]);
+
+        Arrays.sort(bounds, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || bounds[i] != bounds[unique - 1])
+                bounds[unique++] = bounds[i];
+        }
+        boundaries = Arrays.copyOf(bounds, unique);
+
+        for (int ch = 0; ch < latin1.length; ch++)
+            latin1[ch] = lookupClass((char) ch);
+
+        reset();
+    }
+
+    /**
+     * Adds the boundaries of a range, <code>low</code> and the
+     * character after <code>high</code>.
+     */
+    static int addRange(char[] bounds, int count, char low, char high) {
+        bounds[count++] = low;
+        if (high < Character.MAX_VALUE)
+            bounds[count++] = (char) (high + 1);
+        return count;
+    }
+
+    /**
+     * Returns the number of boundaries at or below the character.
+     */
+    int lookupClass(char ch) {
+        int index = Arrays.binarySearch(boundaries, ch);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+    int classOf(char ch) {
+        return (ch < 256) ? latin1[ch] : lookupClass(ch);
+    }
+
+    /**
+     * Finds where the earliest match in <code>text[begin, end)</code>
+     * that starts at or after <code>from</code> ends.
+     *
+     * @return the end of the earliest match, or <code>-1</code> if
+     *         there is no match
+     */
+    int find(char[] text, int begin, int end, int from) {
+        State state = (from > begin && RegexProgram.isWord(text[from - 1])) ? startWord : startNonWord;
+        int fast = end - 1;
+        for (int i = from; ; i++) {
+            State next;
+            if (i > begin && i < fast) {
+                int cls = classOf(text[i]);
+                next = state.next[cls];
+                if (next == null) {
+                    next = step(state, text, begin, end, i);
+                    state.next[cls] = next;
+                }
+            } else {
+                next = step(state, text, begin, end, i);
+            }
+
+            if (next == MATCHED)
+                return i;
+            if (i == end)
+                return -1;
+            state = next;
+        }
+    }
+
+    /**
+     * Computes the transition out of a state at a position, following
+     * the instructions that do not consume a character.
+     *
+     * @return {@link #MATCHED} if the program matches at the position,
+     *         <code>null</code> at the end of the input, or the next
+     *         state
+     */
+    State step(State state, char[] text, int begin, int end, int pos) {
+        RegexProgram program = this.program;
+        if (++generation == 0) {
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+
+        boolean previous = state.word;
+        boolean current = pos < end && RegexProgram.isWord(text[pos]);
+        int found = 0;
+        int top = 0;
+
+        // The search is unanchored, so a match may start anywhere
+        stack[top++] = 0;
+        for (int i = state.pcs.length - 1; i >= 0; i--)
+            stack[top++] = state.pcs[i];
+
+        while (top > 0) {
+            int pc = stack[--top];
+            if (marks[pc] == generation)
+                continue;
+            marks[pc] = generation;
+
+            switch (program.op[pc]) {
+                case RegexProgram.MATCH:
+                    return MATCHED;
+                case RegexProgram.JMP:
+                    top = push(top, program.x[pc]);
+                    break;
+                case RegexProgram.SPLIT:
+                    top = push(top, program.y[pc]);
+                    top = push(top, program.x[pc]);
+                    break;
+                case RegexProgram.SAVE:
+                    top = push(top, pc + 1);
+                    break;
+                case RegexProgram.ASSERT: {
+                    int assertion = program.arg[pc];
+                    boolean holds;
+                    if (assertion == RegexProgram.WORD_BOUNDARY)
+                        holds = previous != current;
+                    else if (assertion == RegexProgram.NOT_WORD_BOUNDARY)
+                        holds = previous == current;
+                    else
+                        holds = RegexProgram.holds(assertion, text, begin, end, pos);
+                    if (holds)
+                        top = push(top, pc + 1);
+                    break;
+                }
+                default:
+                    if (pos < end && program.consumes(pc, text[pos]))
+                        this.found[found++] = pc + 1;
+                    break;
+            }
+        }
+
+        if (pos == end)
+            return null;
+
+        int[] pcs = Arrays.copyOf(this.found, found);
+        Arrays.sort(pcs);
+        return intern(new State(pcs, current));
+    }
+
+    int push(int top, int pc) {
+        if (top == stack.length)
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[top] = pc;
+        return top + 1;
+    }
+
+    State intern(State state) {
+        State existing = states.get(state);
+        if (existing != null)
+            return existing;
+
+        if (states.size() >= MAX_STATES) {
+            reset();
+            // the state may be one of the new start states
+            existing = states.get(state);
+            if (existing != null)
+                return existing;
+        }
+        return add(state);
+    }
+
+    /**
+     * Drops every state, so that the transitions cached in them are
+     * no longer reachable, and starts over with the start states.  The
+     * search under way continues from the state it is interning, which
+     * is added after the reset.
+     */
+    void reset() {
+        states.clear();
+        startWord = add(new State(new int[0], true));
+        startNonWord = add(new State(new int[0], false));
+    }
+
+    State add(State state) {
+        state.next = new State[boundaries.length + 1];
+        states.put(state, state);
+        return state;
+    }
+
+    /**
+     * A set of NFA instructions waiting for the next character.
+     */
+    static final class State {
+        final int[] pcs;
+        final boolean word;
+        final int hash;
+        State[] next;
+
+        State(int[] pcs, boolean word) {
+            this.pcs = pcs;
+            this.word = word;
+            this.hash = Arrays.hashCode(pcs) * 2 + (word ? 1 : 0);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof State))
+                return false;
+            State other = (State) o;
+            return word == other.word && Arrays.equals(pcs, other.pcs);
+        }
+    }
+}
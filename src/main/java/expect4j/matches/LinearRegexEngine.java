@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.apache.oro.text.regex.MatchResult;
+import org.apache.oro.text.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An engine whose searches take time proportional to the size of the
+ * buffer, whatever the pattern and whatever the device sends.  A
+ * backtracking matcher can take exponential time on patterns such as
+ * <code>(.*\s*)*#</code> when the output doesn't match, pinning a CPU
+ * until the expect times out; this engine cannot.
+ * <p>
+ * Patterns are compiled into an NFA.  The buffer is first scanned with
+ * a lazily built {@link LazyDfa}, so that a buffer without a match,
+ * the common case while waiting for output, costs one table lookup
+ * per character.  The DFA is kept with the compiled pattern, so the
+ * states built while one <code>expect</code> waited are reused by the
+ * next, and by every session sharing the pattern through {@link
+ * PatternCache}.  Only when the DFA finds a match is the NFA simulated
+ * with {@link PikeVm} to find where the match starts and what the
+ * groups captured.
+ * <p>
+ * Patterns that need backtracking, such as backreferences, lookaround
+ * and inline modifiers, are compiled and searched with a fallback
+ * engine instead, ORO by default.  Use {@link #isLinear(Pattern)} to
+ * tell which engine a pattern ended up with.
+ */
+public class LinearRegexEngine implements RegexEngine {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LinearRegexEngine.class);
+
+    /**
+     * A shared instance that falls back to ORO.
+     */
+    public static final LinearRegexEngine INSTANCE = new LinearRegexEngine(OroRegexEngine.INSTANCE);
+
+    /**
+     * The engine for patterns that need backtracking.
+     */
+    final RegexEngine fallback;
+
+    /**
+     * Creates an engine that compiles the patterns it does not support
+     * with the given engine.
+     *
+     * @param fallback the engine for patterns that need backtracking
+     */
+    public LinearRegexEngine(RegexEngine fallback) {
+        if (fallback == null)
+            throw new IllegalArgumentException("Fallback engine must not be null");
+        this.fallback = fallback;
+    }
+
+    public Pattern compile(String regex) throws MalformedPatternException {
+        try {
+            return new LinearPattern(regex, RegexProgram.compile(regex));
+        } catch (MalformedPatternException mpe) {
+            // Also reports real syntax errors the way the fallback does
+            logger.debug("Using " + fallback.getName() + " for " + regex + ": " + mpe.getMessage());
+            return fallback.compile(regex);
+        }
+    }
+
+    /**
+     * Returns the options of the patterns searched in linear time,
+     * which have none; those compiled by the fallback engine keep its
+     * options, and are searched apart.
+     */
+    public int getOptions() {
+        return 0;
+    }
+
+    public RegexSearcher newSearcher() {
+        return new LinearSearcher();
+    }
+
+    public String getName() {
+        return "linear";
+    }
+
+    /**
+     * Returns the engine for patterns that need backtracking.
+     *
+     * @return the fallback engine
+     */
+    public RegexEngine getFallback() {
+        return fallback;
+    }
+
+    /**
+     * Determines whether a pattern compiled by this engine is searched
+     * in linear time, rather than by the fallback engine.
+     *
+     * @param pattern a pattern compiled by this engine
+     * @return <code>true</code> if the pattern is searched in linear
+     *         time
+     */
+    public boolean isLinear(Pattern pattern) {
+        return pattern instanceof LinearPattern;
+    }
+
+    /**
+     * A pattern compiled into a program, and the DFA built for it so
+     * far.
+     */
+    static class LinearPattern implements Pattern {
+        final String source;
+        final RegexProgram program;
+
+        /**
+         * The DFA, while no search holds it.  A search takes it for as
+         * long as it runs, since the DFA is not thread safe; a search
+         * on another thread meanwhile builds one of its own, and the
+         * one given back last is kept.
+         */
+        final AtomicReference<LazyDfa> dfa = new AtomicReference<>();
+
+        LinearPattern(String source, RegexProgram program) {
+            this.source = source;
+            this.program = program;
+        }
+
+        LazyDfa takeDfa() {
+            LazyDfa taken = dfa.getAndSet(null);
+            return (taken != null) ? taken : new LazyDfa(program);
+        }
+
+        void giveBack(LazyDfa taken) {
+            dfa.set(taken);
+        }
+
+        public String getPattern() {
+            return source;
+        }
+
+        public int getOptions() {
+            return 0;
+        }
+
+        public String toString() {
+            return source;
+        }
+    }
+
+    /**
+     * Keeps an NFA simulation for every pattern it searches, and
+     * borrows each pattern's DFA for the search.
+     */
+    class LinearSearcher implements RegexSearcher {
+        Map<Pattern, PikeVm> vms = new IdentityHashMap<>();
+        RegexSearcher fallbackSearcher;
+
+        public MatchResult search(Pattern pattern, char[] text, int begin, int end, int from) {
+            if (!(pattern instanceof LinearPattern)) {
+                if (fallbackSearcher == null)
+                    fallbackSearcher = fallback.newSearcher();
+                return fallbackSearcher.search(pattern, text, begin, end, from);
+            }
+
+            LinearPattern linear = (LinearPattern) pattern;
+            LazyDfa dfa = linear.takeDfa();
+            int matchEnd = dfa.find(text, begin, end, from);
+            linear.giveBack(dfa);
+            if (matchEnd == -1)
+                return null;
+
+            PikeVm vm = vms.get(pattern);
+            if (vm == null) {
+                vm = new PikeVm(linear.program);
+                vms.put(pattern, vm);
+            }
+            return vm.find(text, begin, end, from);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import org.apache.oro.text.regex.MatchResult;
+
+/**
+ * A {@link MatchResult} for a literal match, which has no groups
+ * beyond the match itself.
+ */
+final class LiteralResult implements MatchResult {
+
+    final String literal;
+
+    final int offset;
+
+    LiteralResult(String literal, int offset) {
+        this.literal = literal;
+        this.offset = offset;
+    }
+
+    public int length() {
+        return literal.length();
+    }
+
+    public int groups() {
+        return 1;
+    }
+
+    public String group(int group) {
+        return (group == 0) ? literal : null;
+    }
+
+    public int begin(int group) {
+        return (group == 0) ? 0 : -1;
+    }
+
+    public int end(int group) {
+        return (group == 0) ? literal.length() : -1;
+    }
+
+    public int beginOffset(int group) {
+        return (group == 0) ? offset : -1;
+    }
+
+    public int endOffset(int group) {
+        return (group == 0) ? offset + literal.length() : -1;
+    }
+
+    public String toString() {
+        return literal;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import org.apache.oro.text.regex.*;
+
+/**
+ * The Jakarta ORO Perl5 engine, which Expect4j has always used and
+ * which remains the default.
+ */
+public class OroRegexEngine implements RegexEngine {
+    /**
+     * A shared instance.
+     */
+    public static final OroRegexEngine INSTANCE = new OroRegexEngine();
+
+    /**
+     * The options patterns are compiled with.
+     */
+    static final int OPTIONS = Perl5Compiler.DEFAULT_MASK|Perl5Compiler.SINGLELINE_MASK; // |Perl5Compiler.MULTILINE_MASK
+
+    public Pattern compile(String regex) throws MalformedPatternException {
+        // Perl5Compiler is not threadsafe
+        Perl5Compiler compiler = new Perl5Compiler();
+        return compiler.compile(regex, OPTIONS);
+    }
+
+    public int getOptions() {
+        return OPTIONS;
+    }
+
+    public RegexSearcher newSearcher() {
+        return new OroSearcher();
+    }
+
+    public String getName() {
+        return "oro";
+    }
+
+    /**
+     * Wraps a <code>Perl5Matcher</code>, reusing its input as long as
+     * the buffer does not change.
+     */
+    static class OroSearcher implements RegexSearcher {
+        Perl5Matcher matcher;
+        PatternMatcherInput input;
+
+        OroSearcher() {
+            matcher = new Perl5Matcher();
+            matcher.setMultiline(true);
+            input = new PatternMatcherInput("");
+        }
+
+        public MatchResult search(Pattern pattern, char[] text, int begin, int end, int from) {
+            if (input.getBuffer() != text || input.getBeginOffset() != begin || input.getEndOffset() != end)
+                input.setInput(text, begin, end - begin);
+            input.setCurrentOffset(from);
+
+            if (matcher.contains(input, pattern))
+                return matcher.getMatch();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.apache.oro.text.regex.Pattern;
+
+/**
+ * A bounded cache of compiled patterns, shared by every {@link
+ * RegExpMatch} and {@link GlobMatch}, so that the prompts a script
+ * expects over and over are compiled, and translated from globs, only
+ * once.  Entries are keyed by the kind of pattern, its text and the
+ * {@link RegexEngine} that compiled it, since each engine compiles with
+ * its own flags.  Compiled patterns are immutable and safe to share.
+ * <p>
+ * The cache is split into segments, each a small LRU map with its own
+ * lock, so that sessions compiling patterns at the same time rarely
+ * wait on each other.  When a segment is full its least recently used
+ * entry is evicted.
+ */
+public class PatternCache {
+    /**
+     * The kind of key for regular expressions.
+     */
+    public static final String REGEXP = "regexp";
+
+    /**
+     * The kind of key for glob patterns.
+     */
+    public static final String GLOB = "glob";
+
+    /**
+     * The kind of key for the alternations built by {@link
+     * PatternSet}.
+     */
+    public static final String ALTERNATION = "alternation";
+
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The cache used by the pattern classes.
+     */
+    private static volatile PatternCache shared = new PatternCache(DEFAULT_MAXIMUM_SIZE);
+
+    final int maximumSize;
+    final Segment[] segments;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache that holds up to the given number of patterns.  A
+     * size of zero disables caching.
+     *
+     * @param maximumSize the maximum number of entries
+     */
+    public PatternCache(int maximumSize) {
+        if (maximumSize < 0)
+            throw new IllegalArgumentException("Maximum size must not be negative: " + maximumSize);
+        this.maximumSize = maximumSize;
+
+        // at least a few entries per segment, so eviction stays close
+        // to least recently used overall
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 8 <= maximumSize)
+            count *= 2;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder over the first segments
+            int capacity = maximumSize / count + ((i < maximumSize % count) ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Returns the cache used by {@link RegExpMatch} and {@link
+     * GlobMatch}.
+     *
+     * @return the shared cache
+     */
+    public static PatternCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the cache used by {@link RegExpMatch} and {@link
+     * GlobMatch}, for example with a larger one, or with one of size
+     * zero to disable caching.
+     *
+     * @param cache the new shared cache
+     */
+    public static void setShared(PatternCache cache) {
+        if (cache == null)
+            throw new IllegalArgumentException("Pattern cache must not be null");
+        shared = cache;
+    }
+
+    /**
+     * Looks up a compiled pattern.
+     *
+     * @param kind the kind of pattern, such as {@link #REGEXP}
+     * @param source the pattern text
+     * @param engine the engine that compiled the pattern
+     * @return the compiled pattern, or <code>null</code> if it is not
+     *         cached
+     */
+    public Pattern get(String kind, String source, RegexEngine engine) {
+        Key key = new Key(kind, source, engine);
+        Pattern pattern = segmentFor(key).get(key);
+        if (pattern == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return pattern;
+    }
+
+    /**
+     * Adds a compiled pattern, evicting the least recently used entry
+     * of its segment if the segment is full.
+     *
+     * @param kind the kind of pattern, such as {@link #REGEXP}
+     * @param source the pattern text
+     * @param engine the engine that compiled the pattern
+     * @param pattern the compiled pattern
+     */
+    public void put(String kind, String source, RegexEngine engine, Pattern pattern) {
+        Key key = new Key(kind, source, engine);
+        segmentFor(key).put(key, pattern);
+    }
+
+    /**
+     * Looks up a pattern that is compiled from its text as is, and
+     * compiles and adds it if it is not cached.
+     *
+     * @param kind the kind of pattern, such as {@link #REGEXP}
+     * @param source the regular expression
+     * @param engine the engine to compile it with
+     * @return the compiled pattern
+     * @throws MalformedPatternException if the expression is invalid
+     */
+    public Pattern compile(String kind, String source, RegexEngine engine) throws MalformedPatternException {
+        Pattern pattern = get(kind, source, engine);
+        if (pattern == null) {
+            pattern = engine.compile(source);
+            put(kind, source, engine, pattern);
+        }
+        return pattern;
+    }
+
+    Segment segmentFor(Key key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Removes every entry.  The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    /**
+     * Returns the number of cached patterns.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of cached patterns.
+     *
+     * @return the maximum number of entries
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a compiled pattern.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the pattern.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of patterns evicted to make room for others.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public String toString() {
+        return "PatternCache[size=" + size() + ", maximumSize=" + maximumSize + ", hits=" + hits.get()
+                + ", misses=" + misses.get() + ", evictions=" + evictions.get() + "]";
+    }
+
+    /**
+     * A pattern's kind, text and engine.  Engines are compared by
+     * identity.
+     */
+    static final class Key {
+        final String kind;
+        final String source;
+        final RegexEngine engine;
+        final int hash;
+
+        Key(String kind, String source, RegexEngine engine) {
+            this.kind = kind;
+            this.source = source;
+            this.engine = engine;
+            this.hash = (kind.hashCode() * 31 + source.hashCode()) * 31 + System.identityHashCode(engine);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return engine == other.engine && kind.equals(other.kind) && source.equals(other.source);
+        }
+    }
+
+    /**
+     * An LRU map guarded by its own lock.
+     */
+    final class Segment {
+        final int capacity;
+        final LinkedHashMap<Key, Pattern> map;
+
+        Segment(final int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<Key, Pattern>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+                    if (size() <= Segment.this.capacity)
+                        return false;
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+
+        synchronized Pattern get(Key key) {
+            return map.get(key);
+        }
+
+        synchronized void put(Key key, Pattern pattern) {
+            if (capacity > 0)
+                map.put(key, pattern);
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
@@ -18,6 +18,8 @@
 package expect4j.matches;
 
 import expect4j.*;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.oro.text.regex.*;
 
 /**
@@ -27,20 +29,140 @@ import org.apache.oro.text.regex.*;
 public abstract class PatternPair extends Match {
 
     String patternStr;
+
+    /**
+     * The pattern compiled by {@link #engine}, compiled on first use
+     * unless the engine was chosen for this match.
+     */
     Pattern pattern;
 
+    /**
+     * The engine that compiled {@link #pattern}.
+     */
+    RegexEngine engine;
+
+    /**
+     * Whether the engine was chosen for this match in particular, in
+     * which case it is used even if the {@link Expect4j} instance
+     * prefers another one.
+     */
+    boolean engineFixed;
+
+    /**
+     * Patterns compiled for engines other than {@link #engine}, keyed
+     * by engine instance.
+     */
+    Map<RegexEngine, Pattern> alternates;
+
     /**
      * Creates a new instance of PatternPair
      */
     public PatternPair(String patternStr, Closure closure) throws MalformedPatternException {
+        this(patternStr, closure, null);
+    }
+
+    /**
+     * Creates a new instance of PatternPair that is always compiled and
+     * searched with the given engine.
+     *
+     * @param patternStr the pattern
+     * @param closure the closure to run when the pattern matches
+     * @param engine the engine to use, or <code>null</code> to use the
+     *               default and let {@link Expect4j} choose
+     */
+    public PatternPair(String patternStr, Closure closure, RegexEngine engine) throws MalformedPatternException {
         super(closure);
         this.patternStr = patternStr;
-        pattern = compilePattern(patternStr);
+        this.engineFixed = (engine != null);
+        this.engine = (engine != null) ? engine : OroRegexEngine.INSTANCE;
+        // Otherwise the engine the session prefers compiles it, so
+        // syntax only that engine knows is not rejected by the default
+        if (engineFixed)
+            pattern = compilePattern(patternStr);
     }
 
     abstract public Pattern compilePattern(String patternStr) throws MalformedPatternException;
 
-    public Pattern getPattern() {
-        return pattern;
+    /**
+     * Compiles the pattern for a specific engine.  Subclasses that do
+     * not override this can only be searched with the engine returned
+     * by {@link #getEngine()}.
+     *
+     * @param patternStr the pattern
+     * @param engine the engine to compile it with
+     * @return the compiled pattern, or <code>null</code> if this
+     *         pattern cannot be compiled for other engines
+     * @throws MalformedPatternException if the pattern is invalid
+     */
+    public Pattern compilePattern(String patternStr, RegexEngine engine) throws MalformedPatternException {
+        return null;
+    }
+
+    /**
+     * Returns the pattern compiled by {@link #getEngine()}, compiling
+     * it on first use.
+     *
+     * @return the compiled pattern, or <code>null</code> if that
+     *         engine cannot compile it
+     */
+    public synchronized Pattern getPattern() {
+        try {
+            return getPattern(engine);
+        } catch (MalformedPatternException mpe) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the pattern as written.
+     *
+     * @return the pattern
+     */
+    public String getPatternString() {
+        return patternStr;
+    }
+
+    /**
+     * Returns the pattern compiled for the given engine, compiling it on
+     * first use.
+     *
+     * @param engine the engine
+     * @return the compiled pattern, or <code>null</code> if this
+     *         pattern cannot be compiled for that engine
+     * @throws MalformedPatternException if the pattern is invalid for
+     *                                   that engine
+     */
+    public synchronized Pattern getPattern(RegexEngine engine) throws MalformedPatternException {
+        if (engine == this.engine) {
+            if (pattern == null)
+                pattern = compilePattern(patternStr);
+            return pattern;
+        }
+
+        if (alternates == null)
+            alternates = new HashMap<>();
+        if (!alternates.containsKey(engine))
+            alternates.put(engine, compilePattern(patternStr, engine));
+        return alternates.get(engine);
+    }
+
+    /**
+     * Returns the engine that compiles {@link #getPattern()}.
+     *
+     * @return the engine
+     */
+    public RegexEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns whether the engine was chosen for this match in
+     * particular.
+     *
+     * @return <code>true</code> if this match always uses its own
+     *         engine
+     */
+    public boolean isEngineFixed() {
+        return engineFixed;
     }
 }
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.oro.text.regex.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PatternPair}s of a single <code>expect</code> call,
+ * compiled into one tagged alternation so the buffer is searched once
+ * instead of once per pattern.  Each pattern becomes its own capturing
+ * alternative, <code>(p0)|(p1)|...</code>, and the alternative that
+ * participated in the match tells which pattern was found.  Because the
+ * matcher tries every alternative at a position before moving on, and
+ * tries them in order, the result is the same as running the patterns
+ * one by one and keeping the earliest match, with ties going to the
+ * pattern that comes first.
+ * <p>
+ * Patterns that cannot be renumbered safely (backreferences, inline
+ * modifiers) or that were compiled with different options are searched
+ * on their own, as before.  {@link ExactMatch} literals skip the regular
+ * expression matcher entirely: a single literal uses its skip-table
+ * search, and several literals share one Aho-Corasick automaton.
+ * <p>
+ * Patterns are searched with the {@link RegexEngine} given to the set,
+ * except those fixed to an engine of their own, which are searched
+ * apart with that engine.
+ */
+public class PatternSet {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PatternSet.class);
+
+    /**
+     * The patterns, in the order they were given.
+     */
+    List<PatternPair> pairs;
+
+    /**
+     * The alternation of all combinable patterns, or <code>null</code>
+     * if fewer than two patterns could be combined.
+     */
+    Pattern combined;
+
+    /**
+     * For each alternative of {@link #combined}, the index of its
+     * pattern in {@link #pairs}.
+     */
+    int[] combinedPairs;
+
+    /**
+     * For each alternative of {@link #combined}, the number of its
+     * tagging group.
+     */
+    int[] combinedGroups;
+
+    /**
+     * The indexes in {@link #pairs} of the patterns that are searched
+     * on their own.
+     */
+    int[] separatePairs;
+
+    /**
+     * The indexes in {@link #pairs} of the {@link ExactMatch} literals.
+     */
+    int[] exactPairs;
+
+    /**
+     * The automaton over all {@link ExactMatch} literals, or
+     * <code>null</code> if there are fewer than two.
+     */
+    AhoCorasick literals;
+
+    /**
+     * The engine the set prefers, which compiles the alternation.
+     */
+    RegexEngine engine;
+
+    /**
+     * For each pattern, the engine it is searched with: the preferred
+     * engine, unless the pattern is fixed to its own or cannot be
+     * compiled for another.
+     */
+    RegexEngine[] engines;
+
+    /**
+     * For each pattern, its compiled form for {@link #engines}.
+     */
+    Pattern[] patterns;
+
+    /**
+     * A searcher for each engine in use, created on demand.
+     */
+    Map<RegexEngine, RegexSearcher> searchers = new IdentityHashMap<>();
+
+    /**
+     * The result of the last successful {@link #find}.
+     */
+    MatchResult match;
+
+    /**
+     * Creates a <code>PatternSet</code> from the {@link PatternPair}s
+     * in the list, searched with the default engine.
+     *
+     * @param pairs the patterns to search for, in priority order
+     * @throws MalformedPatternException if a pattern cannot be compiled
+     */
+    public PatternSet(List<? extends PatternPair> pairs) throws MalformedPatternException {
+        this(pairs, OroRegexEngine.INSTANCE);
+    }
+
+    /**
+     * Creates a <code>PatternSet</code> from the {@link PatternPair}s
+     * in the list, searched with the given engine wherever the patterns
+     * allow it.
+     *
+     * @param pairs the patterns to search for, in priority order
+     * @param engine the preferred engine
+     * @throws MalformedPatternException if a pattern cannot be compiled
+     *                                   for the preferred engine
+     */
+    public PatternSet(List<? extends PatternPair> pairs, RegexEngine engine) throws MalformedPatternException {
+        this.pairs = new ArrayList<PatternPair>(pairs);
+        this.engine = engine;
+        engines = new RegexEngine[this.pairs.size()];
+        patterns = new Pattern[this.pairs.size()];
+
+        List<Integer> together = new ArrayList<>();
+        List<Integer> apart = new ArrayList<>();
+        List<Integer> exact = new ArrayList<>();
+        int options = engine.getOptions();
+        for (int i = 0; i < this.pairs.size(); i++) {
+            PatternPair pair = this.pairs.get(i);
+            Pattern pattern = pair.isEngineFixed() ? null : pair.getPattern(engine);
+            if (pattern == null) {
+                engines[i] = pair.getEngine();
+                patterns[i] = pair.getPattern(pair.getEngine());
+            } else {
+                engines[i] = engine;
+                patterns[i] = pattern;
+            }
+
+            if (pair instanceof ExactMatch && ((ExactMatch) pair).getLiteral().length() > 0) {
+                exact.add(i);
+            } else if (engines[i] != engine) {
+                apart.add(i);
+            } else {
+                if (isCombinable(patterns[i].getPattern()) && options == patterns[i].getOptions())
+                    together.add(i);
+                else
+                    apart.add(i);
+            }
+        }
+
+        if (together.size() > 1) {
+            combinedPairs = new int[together.size()];
+            combinedGroups = new int[together.size()];
+            StringBuilder alternation = new StringBuilder();
+            int group = 1;
+            for (int i = 0; i < together.size(); i++) {
+                String source = patterns[together.get(i)].getPattern();
+                if (i > 0)
+                    alternation.append('|');
+                alternation.append('(').append(source).append(')');
+                combinedPairs[i] = together.get(i);
+                combinedGroups[i] = group;
+                group += 1 + countGroups(source);
+            }
+
+            try {
+                // the same patterns are usually expected again and again
+                combined = PatternCache.getShared().compile(PatternCache.ALTERNATION, alternation.toString(), engine);
+            } catch (MalformedPatternException mpe) {
+                logger.debug("Unable to combine patterns, searching them one at a time: " + mpe.getMessage());
+                combined = null;
+                apart.addAll(together);
+                Collections.sort(apart);
+            }
+        } else {
+            apart.addAll(together);
+            Collections.sort(apart);
+        }
+
+        if (combined == null)
+            combinedPairs = combinedGroups = new int[0];
+
+        separatePairs = new int[apart.size()];
+        for (int i = 0; i < separatePairs.length; i++)
+            separatePairs[i] = apart.get(i);
+
+        exactPairs = new int[exact.size()];
+        String[] literalStrs = new String[exact.size()];
+        for (int i = 0; i < exactPairs.length; i++) {
+            exactPairs[i] = exact.get(i);
+            literalStrs[i] = ((ExactMatch) this.pairs.get(exactPairs[i])).getLiteral();
+        }
+        if (exactPairs.length > 1)
+            literals = new AhoCorasick(literalStrs);
+
+        logger.trace("Combined " + combinedPairs.length + " of " + this.pairs.size() + " patterns into one " + engine.getName() + " alternation");
+    }
+
+    /**
+     * Returns the number of patterns in this set.
+     *
+     * @return the number of patterns
+     */
+    public int size() {
+        return pairs.size();
+    }
+
+    /**
+     * Returns the pattern at the given index.
+     *
+     * @param index the index of the pattern
+     * @return the pattern
+     */
+    public PatternPair get(int index) {
+        return pairs.get(index);
+    }
+
+    /**
+     * Returns the number of patterns that are searched as part of the
+     * single combined pass.
+     *
+     * @return the number of combined patterns
+     */
+    public int getCombinedCount() {
+        return combinedPairs.length;
+    }
+
+    /**
+     * Returns the engine the set prefers.
+     *
+     * @return the engine
+     */
+    public RegexEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Searches <code>text[begin, end)</code> for the earliest match of
+     * any pattern in the set, starting at the given offset.
+     *
+     * @param text the buffer to search
+     * @param begin the offset where the input begins
+     * @param end the offset where the input ends (exclusive)
+     * @param startOffset the offset to search from
+     * @return the index of the pattern that matched first, or
+     *         <code>-1</code> if none matched
+     */
+    public int find(char[] text, int begin, int end, int startOffset) {
+        MatchResult firstResult = null;
+        int firstIndex = -1;
+
+        if (literals != null) {
+            int literal = literals.find(text, startOffset, end);
+            if (literal != -1) {
+                firstIndex = exactPairs[literal];
+                firstResult = new LiteralResult(((ExactMatch) pairs.get(firstIndex)).getLiteral(), literals.matchStart);
+            }
+        } else if (exactPairs.length == 1) {
+            ExactMatch pair = (ExactMatch) pairs.get(exactPairs[0]);
+            int offset = pair.indexOf(text, startOffset, end);
+            if (offset != -1) {
+                firstIndex = exactPairs[0];
+                firstResult = new LiteralResult(pair.getLiteral(), offset);
+            }
+        }
+
+        if (combined != null) {
+            RegexSearcher searcher = getSearcher(engine);
+            MatchResult result = searcher.search(combined, text, begin, end, startOffset);
+            if (result != null) {
+                for (int i = 0; i < combinedGroups.length; i++) {
+                    if (result.group(combinedGroups[i]) == null)
+                        continue;
+
+                    // Search again with the pattern alone, from where the
+                    // alternation matched, so its groups are numbered as
+                    // the caller expects
+                    int index = combinedPairs[i];
+                    result = searcher.search(patterns[index], text, begin, end, result.beginOffset(0));
+                    if (result != null && isEarlier(result, index, firstResult, firstIndex)) {
+                        firstResult = result;
+                        firstIndex = index;
+                    }
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < separatePairs.length; i++) {
+            int index = separatePairs[i];
+            MatchResult result = getSearcher(engines[index]).search(patterns[index], text, begin, end, startOffset);
+            if (result != null && isEarlier(result, index, firstResult, firstIndex)) {
+                firstResult = result;
+                firstIndex = index;
+            }
+        }
+
+        match = firstResult;
+        return firstIndex;
+    }
+
+    /**
+     * Returns the searcher for an engine, creating it on first use.
+     */
+    RegexSearcher getSearcher(RegexEngine engine) {
+        RegexSearcher searcher = searchers.get(engine);
+        if (searcher == null) {
+            searcher = engine.newSearcher();
+            searchers.put(engine, searcher);
+        }
+        return searcher;
+    }
+
+    /**
+     * Determines whether a match should replace the best one so far:
+     * the earliest match wins, and ties go to the pattern listed first.
+     */
+    static boolean isEarlier(MatchResult result, int index, MatchResult best, int bestIndex) {
+        return best == null
+                || result.beginOffset(0) < best.beginOffset(0)
+                || (result.beginOffset(0) == best.beginOffset(0) && index < bestIndex);
+    }
+
+    /**
+     * Returns the result of the last successful {@link #find}, with the
+     * groups numbered as in the pattern that matched.
+     *
+     * @return the last match
+     */
+    public MatchResult getMatch() {
+        return match;
+    }
+
+    /**
+     * Determines whether a Perl5 pattern can be nested inside the
+     * alternation without changing its meaning.  Backreferences would
+     * point at the wrong groups once renumbered, and inline modifiers
+     * are not reliably scoped to a single alternative.
+     *
+     * @param source the Perl5 pattern
+     * @return <code>true</code> if the pattern can be combined
+     */
+    static boolean isCombinable(String source) {
+        boolean inClass = false;
+        for (int i = 0; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch == '\\') {
+                if (++i < source.length() && !inClass && source.charAt(i) >= '1' && source.charAt(i) <= '9')
+                    return false;
+            } else if (inClass) {
+                if (ch == ']')
+                    inClass = false;
+            } else if (ch == '[') {
+                inClass = true;
+                // a leading ']' (after an optional '^') is a literal
+                if (i + 1 < source.length() && source.charAt(i + 1) == '^')
+                    i++;
+                if (i + 1 < source.length() && source.charAt(i + 1) == ']')
+                    i++;
+            } else if (ch == '(' && i + 2 < source.length() && source.charAt(i + 1) == '?'
+                    && "imsx-".indexOf(source.charAt(i + 2)) != -1) {
+                return false;
+            }
+        }
+        return !inClass;
+    }
+
+    /**
+     * Counts the capturing groups in a pattern, including the named
+     * groups and <code>\\Q...\\E</code> quoting of the JDK and linear
+     * engines, which ORO rejects or doesn't have.
+     *
+     * @param source the pattern
+     * @return the number of capturing groups
+     */
+    static int countGroups(String source) {
+        int groups = 0;
+        boolean inClass = false;
+        for (int i = 0; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch == '\\') {
+                if (++i < source.length() && source.charAt(i) == 'Q') {
+                    int end = source.indexOf("\\E", i + 1);
+                    i = (end == -1) ? source.length() : end + 1;
+                }
+            } else if (inClass) {
+                if (ch == ']')
+                    inClass = false;
+            } else if (ch == '[') {
+                inClass = true;
+                if (i + 1 < source.length() && source.charAt(i + 1) == '^')
+                    i++;
+                if (i + 1 < source.length() && source.charAt(i + 1) == ']')
+                    i++;
+            } else if (ch == '(') {
+                if (i + 1 >= source.length() || source.charAt(i + 1) != '?')
+                    groups++;
+                else if (isNamedGroup(source, i))
+                    groups++;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Determines whether a <code>(?</code> at the given offset opens a
+     * named group, <code>(?&lt;name&gt;</code>, rather than a lookbehind.
+     */
+    static boolean isNamedGroup(String source, int offset) {
+        if (offset + 3 >= source.length() || source.charAt(offset + 2) != '<')
+            return false;
+        char next = source.charAt(offset + 3);
+        return next != '=' && next != '!';
+    }
+}
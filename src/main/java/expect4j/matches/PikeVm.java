@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.Arrays;
+
+/**
+ * Runs a {@link RegexProgram} as an NFA, advancing every thread in
+ * lockstep over the input so that no position is visited twice.
+ * Threads are kept in priority order, which gives the same leftmost,
+ * first-alternative-wins results as a backtracking matcher, including
+ * the capturing groups, in time proportional to the input times the
+ * size of the program.
+ * <p>
+ * Instances keep scratch state and are not thread safe.
+ */
+final class PikeVm {
+    final RegexProgram program;
+
+    ThreadList current;
+    ThreadList next;
+
+    // Scratch space for following the instructions that do not
+    // consume a character
+    int[] stackPcs;
+    int[][] stackCaps;
+
+    PikeVm(RegexProgram program) {
+        this.program = program;
+        this.current = new ThreadList(program.size);
+        this.next = new ThreadList(program.size);
+        this.stackPcs = new int[program.size + 1];
+        this.stackCaps = new int[program.size + 1][];
+    }
+
+    /**
+     * Finds the leftmost match in <code>text[begin, end)</code> that
+     * starts at or after <code>from</code>.
+     *
+     * @return the match, or <code>null</code> if there is none
+     */
+    SpanResult find(char[] text, int begin, int end, int from) {
+        int[] empty = new int[2 * program.groups];
+        Arrays.fill(empty, -1);
+        int[] matched = null;
+
+        current.clear();
+        for (int pos = from; ; pos++) {
+            // Until something matches, a new match may start here, with
+            // a lower priority than the ones already under way
+            if (matched == null)
+                add(current, 0, empty, text, begin, end, pos);
+            else if (current.size == 0)
+                break;
+
+            next.clear();
+            for (int i = 0; i < current.size; i++) {
+                int pc = current.pcs[i];
+                if (program.op[pc] == RegexProgram.MATCH) {
+                    // Threads after this one have a lower priority
+                    matched = current.caps[i];
+                    break;
+                }
+                if (pos < end && program.consumes(pc, text[pos]))
+                    add(next, pc + 1, current.caps[i], text, begin, end, pos + 1);
+            }
+            if (pos == end)
+                break;
+
+            ThreadList swap = current;
+            current = next;
+            next = swap;
+        }
+
+        return (matched == null) ? null : new SpanResult(text, matched);
+    }
+
+    /**
+     * Adds a thread to the list, following jumps, splits, group
+     * boundaries and assertions until it reaches an instruction that
+     * consumes a character or the match.
+     */
+    void add(ThreadList list, int pc, int[] caps, char[] text, int begin, int end, int pos) {
+        int top = 0;
+        stackPcs[top] = pc;
+        stackCaps[top++] = caps;
+        while (top > 0) {
+            pc = stackPcs[--top];
+            caps = stackCaps[top];
+            stackCaps[top] = null;
+            if (list.contains(pc))
+                continue;
+            list.mark(pc);
+
+            switch (program.op[pc]) {
+                case RegexProgram.JMP: {
+                    int target = program.x[pc];
+                    if (program.arg[pc] == RegexProgram.LOOP && list.contains(target)) {
+                        // An iteration that matched nothing ends the loop,
+                        // keeping what it captured, as in Perl
+                        target = (program.x[target] == target + 1) ? program.y[target] : program.x[target];
+                    }
+                    top = push(top, target, caps);
+                    break;
+                }
+                case RegexProgram.SPLIT:
+                    // the preferred branch is popped, and followed, first
+                    top = push(top, program.y[pc], caps);
+                    top = push(top, program.x[pc], caps);
+                    break;
+                case RegexProgram.SAVE: {
+                    int[] copy = caps.clone();
+                    copy[program.arg[pc]] = pos;
+                    top = push(top, pc + 1, copy);
+                    break;
+                }
+                case RegexProgram.ASSERT:
+                    if (RegexProgram.holds(program.arg[pc], text, begin, end, pos))
+                        top = push(top, pc + 1, caps);
+                    break;
+                default:
+                    list.add(pc, caps);
+                    break;
+            }
+        }
+    }
+
+    int push(int top, int pc, int[] caps) {
+        if (top == stackPcs.length) {
+            stackPcs = Arrays.copyOf(stackPcs, top * 2);
+            stackCaps = Arrays.copyOf(stackCaps, top * 2);
+        }
+        stackPcs[top] = pc;
+        stackCaps[top] = caps;
+        return top + 1;
+    }
+
+    /**
+     * The threads waiting at one position, in priority order, with a
+     * sparse set of the instructions already visited.
+     */
+    static final class ThreadList {
+        final int[] dense;
+        final int[] sparse;
+        int visited;
+
+        final int[] pcs;
+        final int[][] caps;
+        int size;
+
+        ThreadList(int programSize) {
+            dense = new int[programSize];
+            sparse = new int[programSize];
+            pcs = new int[programSize];
+            caps = new int[programSize][];
+        }
+
+        boolean contains(int pc) {
+            int index = sparse[pc];
+            return index < visited && dense[index] == pc;
+        }
+
+        void mark(int pc) {
+            sparse[pc] = visited;
+            dense[visited++] = pc;
+        }
+
+        void add(int pc, int[] threadCaps) {
+            pcs[size] = pc;
+            caps[size++] = threadCaps;
+        }
+
+        void clear() {
+            visited = 0;
+            Arrays.fill(caps, 0, size, null);
+            size = 0;
+        }
+    }
+}
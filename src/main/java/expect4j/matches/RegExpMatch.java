@@ -33,9 +33,23 @@ public class RegExpMatch extends PatternPair {
         super(patternStr, closure);
     }
 
+    /**
+     * Creates a new instance of RegExpMatch that is always compiled and
+     * searched with the given engine.
+     */
+    public RegExpMatch(String patternStr, Closure closure, RegexEngine engine) throws MalformedPatternException {
+        super(patternStr, closure, engine);
+    }
+
     //TODO: removed static keyword, since Perl5Compiler is not threadsafe
     //
     protected Perl5Compiler compiler;
+
+    /**
+     * @deprecated patterns are compiled by a {@link RegexEngine}, see
+     *             {@link #getEngine()}
+     */
+    @Deprecated
     public Perl5Compiler getCompiler() {
         if( compiler == null)
             compiler = new Perl5Compiler();
@@ -43,7 +57,14 @@ public class RegExpMatch extends PatternPair {
     }
 
     public Pattern compilePattern(String patternStr) throws MalformedPatternException  {
-        Perl5Compiler compiler = getCompiler();
-        return compiler.compile(patternStr, Perl5Compiler.DEFAULT_MASK|Perl5Compiler.SINGLELINE_MASK); // |Perl5Compiler.MULTILINE_MASK
+        return compilePattern(patternStr, getEngine());
+    }
+
+    /**
+     * Compiles the pattern, or reuses the compiled pattern from the
+     * {@link PatternCache#getShared() shared cache}.
+     */
+    public Pattern compilePattern(String patternStr, RegexEngine engine) throws MalformedPatternException  {
+        return PatternCache.getShared().compile(PatternCache.REGEXP, patternStr, engine);
     }
 }
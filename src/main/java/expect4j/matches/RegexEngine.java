@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.apache.oro.text.regex.Pattern;
+
+/**
+ * A regular expression implementation that {@link PatternPair}s can be
+ * compiled with and searched by.  Compiled patterns and match results
+ * reuse the ORO <code>Pattern</code> and <code>MatchResult</code>
+ * interfaces so that existing code written against them keeps working,
+ * but a pattern may only be searched by a {@link RegexSearcher} of the
+ * engine that compiled it.
+ * <p>
+ * Engines are stateless and should be shared; {@link PatternPair}s
+ * remember the patterns they compiled per engine instance.
+ *
+ * @see OroRegexEngine
+ * @see JdkRegexEngine
+ */
+public interface RegexEngine {
+    /**
+     * Compiles a Perl5 style regular expression with the semantics
+     * Expect4j has always used: <code>.</code> matches any character
+     * including newlines, and <code>^</code> and <code>$</code> match
+     * at the beginning and end of the buffer.
+     *
+     * @param regex the regular expression
+     * @return the compiled pattern
+     * @throws MalformedPatternException if the expression is invalid
+     */
+    public Pattern compile(String regex) throws MalformedPatternException;
+
+    /**
+     * Returns the options that {@link #compile(String)} gives its
+     * patterns, as their <code>getOptions()</code> reports them.
+     * Patterns compiled with other options are not combined with the
+     * engine's own.
+     *
+     * @return the options of the patterns the engine compiles
+     */
+    public int getOptions();
+
+    /**
+     * Creates a searcher for patterns compiled by this engine.
+     * Searchers keep per-search state and are not thread safe.
+     *
+     * @return a new searcher
+     */
+    public RegexSearcher newSearcher();
+
+    /**
+     * Returns a short name for the engine, used in log messages.
+     *
+     * @return the engine name
+     */
+    public String getName();
+}
@@ -0,0 +1,715 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.oro.text.regex.MalformedPatternException;
+
+/**
+ * A Perl5 regular expression compiled into a Thompson NFA, the shared
+ * representation behind {@link LazyDfa} and {@link PikeVm}.  Each
+ * instruction is an opcode with an argument and up to two successors;
+ * consuming instructions continue at the next instruction.
+ * <p>
+ * Only the constructs that can be matched without backtracking are
+ * compiled: literals and escapes, character classes, <code>.</code>,
+ * the <code>^ $ \A \Z \z \b \B</code> assertions, capturing and
+ * non-capturing groups, alternation, and greedy or lazy quantifiers.
+ * Anything else, backreferences and lookaround in particular, is
+ * rejected with a <code>MalformedPatternException</code> so that the
+ * caller can use a backtracking engine instead.  As in ORO's
+ * <code>SINGLELINE</code> mode, <code>.</code> matches newlines and
+ * <code>^</code> and <code>$</code> only match at the ends of the
+ * input.  <code>\w</code>, <code>\d</code> and <code>\s</code> are
+ * ASCII only.  When a repeated group can match nothing, the text it
+ * captured may differ from Perl's; whether and where the pattern
+ * matches does not.
+ */
+final class RegexProgram {
+    // Opcodes
+    static final int CHAR = 0;
+    static final int CLASS = 1;
+    static final int ANY = 2;
+    static final int SPLIT = 3;
+    static final int JMP = 4;
+    static final int SAVE = 5;
+    static final int ASSERT = 6;
+    static final int MATCH = 7;
+
+    // Marks the jump back to the split of an unbounded repetition
+    static final int LOOP = 1;
+
+    // Assertions
+    static final int BEGIN_TEXT = 0;
+    static final int END_TEXT = 1;
+    static final int END_TEXT_OR_NEWLINE = 2;
+    static final int WORD_BOUNDARY = 3;
+    static final int NOT_WORD_BOUNDARY = 4;
+
+    /**
+     * Upper bound on the number of instructions, which counted
+     * repetitions multiply.
+     */
+    static final int MAX_SIZE = 20000;
+
+    /**
+     * Upper bound on the count of a counted repetition.
+     */
+    static final int MAX_REPEAT = 1000;
+
+    static final char[] DIGIT = { '0', '9' };
+    static final char[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+    static final char[] SPACE = { '\t', '\n', '\f', '\r', ' ', ' ' };
+
+    int[] op = new int[16];
+    int[] arg = new int[16];
+    int[] x = new int[16];
+    int[] y = new int[16];
+    int size;
+
+    /**
+     * The character classes, as sorted inclusive ranges.
+     */
+    List<char[]> classes = new ArrayList<>();
+
+    /**
+     * The number of capturing groups, including the whole match.
+     */
+    int groups;
+
+    private RegexProgram() {
+    }
+
+    /**
+     * Compiles a Perl5 regular expression.
+     *
+     * @param regex the regular expression
+     * @return the program
+     * @throws MalformedPatternException if the expression is invalid or
+     *                                   uses a construct that needs
+     *                                   backtracking
+     */
+    static RegexProgram compile(String regex) throws MalformedPatternException {
+        Parser parser = new Parser(regex);
+        Node node = parser.parse();
+
+        RegexProgram program = new RegexProgram();
+        program.groups = parser.groupCount + 1;
+        program.emit(SAVE, 0, 0, 0);
+        program.emit(node);
+        program.emit(SAVE, 1, 0, 0);
+        program.emit(MATCH, 0, 0, 0);
+        return program;
+    }
+
+    /**
+     * Determines whether the instruction consumes the character.
+     */
+    boolean consumes(int pc, char ch) {
+        switch (op[pc]) {
+            case CHAR:
+                return arg[pc] == ch;
+            case ANY:
+                return true;
+            case CLASS:
+                return inRanges(classes.get(arg[pc]), ch);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines whether an assertion holds at a position of
+     * <code>text[begin, end)</code>.
+     */
+    static boolean holds(int assertion, char[] text, int begin, int end, int pos) {
+        switch (assertion) {
+            case BEGIN_TEXT:
+                return pos == begin;
+            case END_TEXT:
+                return pos == end;
+            case END_TEXT_OR_NEWLINE:
+                return pos == end || (pos == end - 1 && text[pos] == '\n');
+            case WORD_BOUNDARY:
+            case NOT_WORD_BOUNDARY:
+                boolean before = pos > begin && isWord(text[pos - 1]);
+                boolean after = pos < end && isWord(text[pos]);
+                return (before != after) == (assertion == WORD_BOUNDARY);
+            default:
+                return false;
+        }
+    }
+
+    static boolean isWord(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    static boolean inRanges(char[] ranges, char ch) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ch < ranges[i])
+                return false;
+            if (ch <= ranges[i + 1])
+                return true;
+        }
+        return false;
+    }
+
+    int emit(int opcode, int argument, int next, int alternate) throws MalformedPatternException {
+        if (size == MAX_SIZE)
+            throw new MalformedPatternException("Regular expression is too large");
+        if (size == op.length) {
+            op = Arrays.copyOf(op, size * 2);
+            arg = Arrays.copyOf(arg, size * 2);
+            x = Arrays.copyOf(x, size * 2);
+            y = Arrays.copyOf(y, size * 2);
+        }
+        op[size] = opcode;
+        arg[size] = argument;
+        x[size] = next;
+        y[size] = alternate;
+        return size++;
+    }
+
+    void emit(Node node) throws MalformedPatternException {
+        switch (node.kind) {
+            case Node.EMPTY:
+                break;
+            case Node.CHAR:
+                emit(CHAR, node.ch, 0, 0);
+                break;
+            case Node.CLASS:
+                classes.add(node.ranges);
+                emit(CLASS, classes.size() - 1, 0, 0);
+                break;
+            case Node.ANY:
+                emit(ANY, 0, 0, 0);
+                break;
+            case Node.ASSERT:
+                emit(ASSERT, node.ch, 0, 0);
+                break;
+            case Node.CONCAT:
+                for (Node child : node.children)
+                    emit(child);
+                break;
+            case Node.ALTERNATE: {
+                int[] jumps = new int[node.children.size() - 1];
+                for (int i = 0; i < jumps.length; i++) {
+                    int split = emit(SPLIT, 0, size + 1, 0);
+                    emit(node.children.get(i));
+                    jumps[i] = emit(JMP, 0, 0, 0);
+                    y[split] = size;
+                }
+                emit(node.children.get(jumps.length));
+                for (int jump : jumps)
+                    x[jump] = size;
+                break;
+            }
+            case Node.GROUP:
+                emit(SAVE, 2 * node.group, 0, 0);
+                emit(node.children.get(0));
+                emit(SAVE, 2 * node.group + 1, 0, 0);
+                break;
+            case Node.REPEAT: {
+                Node child = node.children.get(0);
+                for (int i = 0; i < node.min; i++)
+                    emit(child);
+                if (node.max == -1) {
+                    int split = emit(SPLIT, 0, 0, 0);
+                    emit(child);
+                    emit(JMP, LOOP, split, 0);
+                    setSplit(split, split + 1, size, node.greedy);
+                } else {
+                    int[] splits = new int[node.max - node.min];
+                    for (int i = 0; i < splits.length; i++) {
+                        splits[i] = emit(SPLIT, 0, 0, 0);
+                        emit(child);
+                    }
+                    for (int split : splits)
+                        setSplit(split, split + 1, size, node.greedy);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown node " + node.kind);
+        }
+    }
+
+    void setSplit(int split, int body, int out, boolean greedy) {
+        x[split] = greedy ? body : out;
+        y[split] = greedy ? out : body;
+    }
+
+    /**
+     * A node of the parsed expression.
+     */
+    static final class Node {
+        static final int EMPTY = 0;
+        static final int CHAR = 1;
+        static final int CLASS = 2;
+        static final int ANY = 3;
+        static final int ASSERT = 4;
+        static final int CONCAT = 5;
+        static final int ALTERNATE = 6;
+        static final int GROUP = 7;
+        static final int REPEAT = 8;
+
+        final int kind;
+        int ch;
+        char[] ranges;
+        int group;
+        int min;
+        int max;
+        boolean greedy;
+        List<Node> children = new ArrayList<>();
+
+        Node(int kind) {
+            this.kind = kind;
+        }
+
+        static Node of(int kind, int ch) {
+            Node node = new Node(kind);
+            node.ch = ch;
+            return node;
+        }
+
+        static Node of(char[] ranges) {
+            Node node = new Node(CLASS);
+            node.ranges = ranges;
+            return node;
+        }
+    }
+
+    /**
+     * A recursive descent parser for the supported Perl5 syntax.
+     */
+    static final class Parser {
+        final String regex;
+        int pos;
+        int groupCount;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() throws MalformedPatternException {
+            Node node = parseAlternation();
+            if (pos < regex.length())
+                throw error("Unmatched )");
+            return node;
+        }
+
+        MalformedPatternException error(String message) {
+            return new MalformedPatternException(message + " at offset " + pos + " of " + regex);
+        }
+
+        boolean more() {
+            return pos < regex.length();
+        }
+
+        char peek() {
+            return regex.charAt(pos);
+        }
+
+        Node parseAlternation() throws MalformedPatternException {
+            Node first = parseConcatenation();
+            if (!more() || peek() != '|')
+                return first;
+
+            Node node = new Node(Node.ALTERNATE);
+            node.children.add(first);
+            while (more() && peek() == '|') {
+                pos++;
+                node.children.add(parseConcatenation());
+            }
+            return node;
+        }
+
+        Node parseConcatenation() throws MalformedPatternException {
+            Node node = new Node(Node.CONCAT);
+            while (more() && peek() != '|' && peek() != ')')
+                node.children.add(parseQuantifier(parseAtom()));
+            return node;
+        }
+
+        Node parseAtom() throws MalformedPatternException {
+            char ch = regex.charAt(pos++);
+            switch (ch) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return Node.of(parseClass());
+                case '.':
+                    return new Node(Node.ANY);
+                case '^':
+                    return Node.of(Node.ASSERT, BEGIN_TEXT);
+                case '$':
+                    return Node.of(Node.ASSERT, END_TEXT_OR_NEWLINE);
+                case '\\':
+                    return parseEscape();
+                case '*':
+                case '+':
+                case '?':
+                    throw error("Quantifier follows nothing");
+                case '{':
+                    if (counted(pos - 1) != null)
+                        throw error("Quantifier follows nothing");
+                    return Node.of(Node.CHAR, ch);
+                default:
+                    return Node.of(Node.CHAR, ch);
+            }
+        }
+
+        Node parseGroup() throws MalformedPatternException {
+            Node node;
+            if (more() && peek() == '?') {
+                if (pos + 1 < regex.length() && regex.charAt(pos + 1) == '#') {
+                    int close = regex.indexOf(')', pos);
+                    if (close == -1)
+                        throw error("Unterminated comment");
+                    pos = close + 1;
+                    return new Node(Node.EMPTY);
+                }
+                if (pos + 1 >= regex.length() || regex.charAt(pos + 1) != ':')
+                    throw error("Unsupported group construct");
+                pos += 2;
+                node = parseAlternation();
+            } else {
+                node = new Node(Node.GROUP);
+                node.group = ++groupCount;
+                node.children.add(parseAlternation());
+            }
+            if (!more() || peek() != ')')
+                throw error("Unmatched (");
+            pos++;
+            return node;
+        }
+
+        Node parseQuantifier(Node atom) throws MalformedPatternException {
+            if (!more())
+                return atom;
+
+            int min;
+            int max;
+            char ch = peek();
+            if (ch == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (ch == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (ch == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (ch == '{' && counted(pos) != null) {
+                int[] bounds = counted(pos);
+                min = bounds[0];
+                max = bounds[1];
+                pos = bounds[2];
+            } else {
+                return atom;
+            }
+
+            if (min > MAX_REPEAT || max > MAX_REPEAT)
+                throw error("Repetition count is too large");
+            if (max != -1 && max < min)
+                throw error("Repetition bounds are reversed");
+
+            Node node = new Node(Node.REPEAT);
+            node.children.add(atom);
+            node.min = min;
+            node.max = max;
+            node.greedy = true;
+            if (more() && peek() == '?') {
+                node.greedy = false;
+                pos++;
+            }
+            if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || (peek() == '{' && counted(pos) != null)))
+                throw error("Nested quantifiers");
+            return node;
+        }
+
+        /**
+         * Parses <code>{n}</code>, <code>{n,}</code> or
+         * <code>{n,m}</code> at the given offset.
+         *
+         * @return the minimum, the maximum (<code>-1</code> if
+         *         unbounded) and the offset after the closing brace, or
+         *         <code>null</code> if there is no counted repetition
+         */
+        int[] counted(int at) {
+            int i = at + 1;
+            int start = i;
+            while (i < regex.length() && Character.isDigit(regex.charAt(i)))
+                i++;
+            if (i == start || i >= regex.length())
+                return null;
+            int min = parseCount(regex.substring(start, i));
+            int max = min;
+            if (regex.charAt(i) == ',') {
+                int maxStart = ++i;
+                while (i < regex.length() && Character.isDigit(regex.charAt(i)))
+                    i++;
+                max = (i == maxStart) ? -1 : parseCount(regex.substring(maxStart, i));
+            }
+            if (i >= regex.length() || regex.charAt(i) != '}')
+                return null;
+            return new int[] { min, max, i + 1 };
+        }
+
+        static int parseCount(String digits) {
+            // anything this long is rejected as too large anyway
+            return (digits.length() > 6) ? Integer.MAX_VALUE : Integer.parseInt(digits);
+        }
+
+        Node parseEscape() throws MalformedPatternException {
+            if (!more())
+                throw error("Trailing \\");
+            char ch = regex.charAt(pos++);
+            switch (ch) {
+                case 'b':
+                    return Node.of(Node.ASSERT, WORD_BOUNDARY);
+                case 'B':
+                    return Node.of(Node.ASSERT, NOT_WORD_BOUNDARY);
+                case 'A':
+                    return Node.of(Node.ASSERT, BEGIN_TEXT);
+                case 'Z':
+                    return Node.of(Node.ASSERT, END_TEXT_OR_NEWLINE);
+                case 'z':
+                    return Node.of(Node.ASSERT, END_TEXT);
+                default:
+                    char[] ranges = escapeClass(ch);
+                    if (ranges != null)
+                        return Node.of(ranges);
+                    if (ch >= '1' && ch <= '9')
+                        throw error("Backreferences are not supported");
+                    return Node.of(Node.CHAR, escapeChar(ch));
+            }
+        }
+
+        /**
+         * Returns the ranges of a <code>\d \w \s</code> style escape, or
+         * <code>null</code> if the escape is not a class.
+         */
+        static char[] escapeClass(char ch) {
+            switch (ch) {
+                case 'd':
+                    return DIGIT;
+                case 'D':
+                    return negate(DIGIT);
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return negate(WORD);
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return negate(SPACE);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Decodes a single character escape whose backslash and first
+         * character have been consumed.
+         */
+        char escapeChar(char ch) throws MalformedPatternException {
+            switch (ch) {
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'f':
+                    return '\f';
+                case 'e':
+                    return '\u001b';
+                case 'a':
+                    return '\u0007';
+                case 'c':
+                    if (!more())
+                        throw error("Missing control character");
+                    return (char) (Character.toUpperCase(regex.charAt(pos++)) ^ 64);
+                case 'x': {
+                    int value = 0;
+                    if (more() && peek() == '{') {
+                        int close = regex.indexOf('}', pos);
+                        if (close == -1)
+                            throw error("Unterminated \\x{");
+                        value = parseHex(regex.substring(pos + 1, close));
+                        pos = close + 1;
+                    } else {
+                        int start = pos;
+                        while (more() && pos - start < 2 && Character.digit(peek(), 16) != -1)
+                            pos++;
+                        if (pos > start)
+                            value = parseHex(regex.substring(start, pos));
+                    }
+                    return (char) value;
+                }
+                case '0': {
+                    int value = 0;
+                    for (int i = 0; i < 2 && more() && peek() >= '0' && peek() <= '7'; i++)
+                        value = value * 8 + (regex.charAt(pos++) - '0');
+                    return (char) value;
+                }
+                default:
+                    if (Character.isLetterOrDigit(ch))
+                        throw error("Unsupported escape \\" + ch);
+                    return ch;
+            }
+        }
+
+        int parseHex(String digits) throws MalformedPatternException {
+            try {
+                int value = Integer.parseInt(digits, 16);
+                if (value > Character.MAX_VALUE)
+                    throw error("Character out of range");
+                return value;
+            } catch (NumberFormatException nfe) {
+                throw error("Invalid hexadecimal escape");
+            }
+        }
+
+        char[] parseClass() throws MalformedPatternException {
+            boolean negated = false;
+            if (more() && peek() == '^') {
+                negated = true;
+                pos++;
+            }
+
+            List<Character> bounds = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (!more())
+                    throw error("Unmatched [");
+                char ch = regex.charAt(pos++);
+                if (ch == ']' && !first)
+                    break;
+                first = false;
+
+                if (ch == '[' && more() && (peek() == ':' || peek() == '=' || peek() == '.'))
+                    throw error("POSIX character classes are not supported");
+
+                char low = ch;
+                if (ch == '\\') {
+                    if (!more())
+                        throw error("Unmatched [");
+                    char escaped = regex.charAt(pos++);
+                    char[] ranges = escapeClass(escaped);
+                    if (ranges != null) {
+                        for (char bound : ranges)
+                            bounds.add(bound);
+                        continue;
+                    }
+                    low = classEscape(escaped);
+                }
+
+                char high = low;
+                if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    high = regex.charAt(pos++);
+                    if (high == '\\') {
+                        if (!more())
+                            throw error("Unmatched [");
+                        char escaped = regex.charAt(pos++);
+                        if (escapeClass(escaped) != null)
+                            throw error("Unsupported range end \\" + escaped);
+                        high = classEscape(escaped);
+                    }
+                    if (high < low)
+                        throw error("Invalid range");
+                }
+                bounds.add(low);
+                bounds.add(high);
+            }
+
+            char[] ranges = new char[bounds.size()];
+            for (int i = 0; i < ranges.length; i++)
+                ranges[i] = bounds.get(i);
+            ranges = normalize(ranges);
+            return negated ? negate(ranges) : ranges;
+        }
+
+        char classEscape(char ch) throws MalformedPatternException {
+            if (ch == 'b')
+                return '\b';
+            if (ch >= '1' && ch <= '7') {
+                // octal, as in Perl
+                int value = ch - '0';
+                for (int i = 0; i < 2 && more() && peek() >= '0' && peek() <= '7'; i++)
+                    value = value * 8 + (regex.charAt(pos++) - '0');
+                return (char) value;
+            }
+            return escapeChar(ch);
+        }
+    }
+
+    /**
+     * Sorts and merges inclusive ranges.
+     */
+    static char[] normalize(char[] ranges) {
+        int count = ranges.length / 2;
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++)
+            packed[i] = ((long) ranges[2 * i] << 16) | ranges[2 * i + 1];
+        Arrays.sort(packed);
+
+        char[] merged = new char[ranges.length];
+        int size = 0;
+        for (long range : packed) {
+            char low = (char) (range >>> 16);
+            char high = (char) range;
+            if (size > 0 && low <= merged[size - 1] + 1) {
+                if (high > merged[size - 1])
+                    merged[size - 1] = high;
+            } else {
+                merged[size++] = low;
+                merged[size++] = high;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Complements normalized ranges.
+     */
+    static char[] negate(char[] ranges) {
+        char[] negated = new char[ranges.length + 2];
+        int size = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                negated[size++] = (char) next;
+                negated[size++] = (char) (ranges[i] - 1);
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            negated[size++] = (char) next;
+            negated[size++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(negated, size);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import org.apache.oro.text.regex.MatchResult;
+import org.apache.oro.text.regex.Pattern;
+
+/**
+ * Searches a character buffer for patterns compiled by one {@link
+ * RegexEngine}.  Implementations may keep state between calls and are
+ * not thread safe.
+ */
+public interface RegexSearcher {
+    /**
+     * Finds the first match of the pattern that starts at or after
+     * <code>from</code>.  The input is <code>text[begin, end)</code>,
+     * so anchors and lookbehinds see the characters between
+     * <code>begin</code> and <code>from</code>.  Offsets in the result
+     * are indexes into <code>text</code>.
+     *
+     * @param pattern a pattern compiled by this searcher's engine
+     * @param text the buffer to search
+     * @param begin the offset where the input begins
+     * @param end the offset where the input ends (exclusive)
+     * @param from the offset to start searching from
+     * @return the match, or <code>null</code> if there is none
+     */
+    public MatchResult search(Pattern pattern, char[] text, int begin, int end, int from);
+}
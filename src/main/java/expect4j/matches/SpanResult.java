@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import org.apache.oro.text.regex.MatchResult;
+
+/**
+ * A match described by the begin and end offsets of each group, as
+ * pairs in one array with <code>-1</code> for groups that did not
+ * participate.  Group text is copied out of the buffer up front, since
+ * the buffer may change after the search.
+ */
+class SpanResult implements MatchResult {
+    final String[] groups;
+    final int[] spans;
+
+    SpanResult(char[] text, int[] spans) {
+        this.spans = spans;
+        this.groups = new String[spans.length / 2];
+        for (int i = 0; i < groups.length; i++) {
+            if (spans[2 * i] != -1 && spans[2 * i + 1] != -1)
+                groups[i] = new String(text, spans[2 * i], spans[2 * i + 1] - spans[2 * i]);
+        }
+    }
+
+    public int length() {
+        return spans[1] - spans[0];
+    }
+
+    public int groups() {
+        return groups.length;
+    }
+
+    public String group(int group) {
+        return (group < 0 || group >= groups.length) ? null : groups[group];
+    }
+
+    public int begin(int group) {
+        int offset = beginOffset(group);
+        return (offset == -1) ? -1 : offset - spans[0];
+    }
+
+    public int end(int group) {
+        int offset = endOffset(group);
+        return (offset == -1) ? -1 : offset - spans[0];
+    }
+
+    public int beginOffset(int group) {
+        return (group < 0 || group >= groups()) ? -1 : spans[2 * group];
+    }
+
+    public int endOffset(int group) {
+        return (group < 0 || group >= groups()) ? -1 : spans[2 * group + 1];
+    }
+
+    public String toString() {
+        return group(0);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.*;
+import junit.framework.*;
+
+/**
+ * Tests sending from a writer thread.
+ */
+public class AsyncSenderTest extends TestCase {
+    public AsyncSenderTest(String testName) {
+        super(testName);
+    }
+
+    public void testSend() throws Exception {
+        StringPair pair = new StringPair("");
+        AsyncSender sender = new AsyncSender(new LockFreeConsumer(pair), ConsumerThreads.named("expect4j-sender"));
+        sender.send("one ");
+        sender.send("two");
+        sender.flush();
+        assertEquals("one two", pair.getResult());
+        sender.close();
+
+        try {
+            sender.send("three");
+            fail("Sent after closing");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testFailure() throws Exception {
+        StringPair pair = new StringPair("") {
+            public Writer getWriter() {
+                return new Writer() {
+                    public void write(char[] cs, int offset, int length) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    public void flush() {
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        };
+        AsyncSender sender = new AsyncSender(new LockFreeConsumer(pair), ConsumerThreads.named("expect4j-sender"));
+        sender.send("lost");
+
+        try {
+            sender.flush();
+            fail("A failed send wasn't reported");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Broken pipe"));
+        }
+        try {
+            sender.send("refused");
+            fail("Sent after a failure");
+        } catch (IOException expected) {
+        }
+        sender.close();
+    }
+}
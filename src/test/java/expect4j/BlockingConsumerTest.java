@@ -41,7 +41,7 @@ public class BlockingConsumerTest extends TestCase {
     }
 
     StringPair pair;
-    Consumer consumer;
+    ExpectConsumer consumer;
     Thread consumerThread;
     protected void setUp() throws Exception {
         pair = new StringPair("The lazy fox");
@@ -114,6 +114,25 @@ public class BlockingConsumerTest extends TestCase {
         logger.info("Exiting " + getClass().getName() + ".testMatch");
     }
 
+    public void testMaxBufferSize() {
+        consumer.setMaxBufferSize(8);
+        assertEquals(8, consumer.getMaxBufferSize());
+
+        // reads until EOF on this thread
+        consumer.run();
+
+        assertEquals("lazy fox", consumer.pause());
+    }
+
+    public void testKeepFullBuffer() {
+        consumer.setMaxBufferSize(8);
+        consumer.setDiscardWhenFull(false);
+
+        consumer.run();
+
+        assertEquals("The lazy fox", consumer.pause());
+    }
+
     public void testWrite() throws IOException {
         consumerThread.start();
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import junit.framework.*;
+
+/**
+ * Tests calling buffer change loggers off the reading thread.
+ */
+public class BufferChangeDispatcherTest extends TestCase {
+    public BufferChangeDispatcherTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Collects what it is given.
+     */
+    static class Collector implements BufferChangeLogger {
+        final StringBuffer data = new StringBuffer();
+        final List<String> chunks = new ArrayList<>();
+        final long delayMillis;
+
+        Collector(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        public void bufferChanged(char[] newData, int numChars) {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            data.append(newData, 0, numChars);
+            synchronized (chunks) {
+                chunks.add(new String(newData, 0, numChars));
+            }
+        }
+    }
+
+    /**
+     * Holds tasks until told to run them.
+     */
+    static class HeldExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized void runAll() {
+            while (!tasks.isEmpty())
+                tasks.remove(0).run();
+        }
+    }
+
+    static char[] chunk(int i) {
+        return ("chunk" + i).toCharArray();
+    }
+
+    public void testSlowLogger() throws Exception {
+        String transcript = "line one\r\nline two\r\nline three\r\nrouter#";
+        Expect4j expect = new Expect4j(new DelayedPair(transcript, 5, 1));
+        BufferChangeDispatcher dispatcher = new BufferChangeDispatcher(1024, BufferChangeDispatcher.BLOCK);
+        expect.setBufferChangeDispatcher(dispatcher);
+        Collector collector = new Collector(50);
+        expect.registerBufferChangeLogger(collector);
+
+        // The logger takes 50 ms a chunk, and doesn't hold up expect
+        long start = System.currentTimeMillis();
+        assertEquals(0, expect.expect("router#"));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(dispatcher.awaitDrained(5000));
+        assertEquals(transcript, collector.data.toString());
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertTrue(elapsed < 50L * collector.chunks.size());
+        expect.close();
+    }
+
+    public void testDrop() throws Exception {
+        HeldExecutor executor = new HeldExecutor();
+        BufferChangeDispatcher dispatcher = new BufferChangeDispatcher(executor, 2, BufferChangeDispatcher.DROP);
+        Collector collector = new Collector(0);
+        LockFreeConsumer consumer = new LockFreeConsumer(new StringPair(""));
+        consumer.setBufferChangeDispatcher(dispatcher);
+        consumer.registerBufferChangeLogger(collector);
+
+        for (int i = 0; i < 5; i++)
+            dispatcher.dispatch(chunk(i), chunk(i).length);
+        assertEquals(2, dispatcher.getQueuedCount());
+        assertEquals(3, dispatcher.getDroppedCount());
+
+        executor.runAll();
+        assertEquals("chunk0chunk1", collector.data.toString());
+        assertEquals(2, dispatcher.getDeliveredCount());
+        assertTrue(dispatcher.awaitDrained(1000));
+    }
+
+    public void testSample() throws Exception {
+        HeldExecutor executor = new HeldExecutor();
+        BufferChangeDispatcher dispatcher = new BufferChangeDispatcher(executor, 2, BufferChangeDispatcher.SAMPLE);
+        dispatcher.setSampleInterval(2);
+        Collector collector = new Collector(0);
+        LockFreeConsumer consumer = new LockFreeConsumer(new StringPair(""));
+        consumer.setBufferChangeDispatcher(dispatcher);
+        consumer.registerBufferChangeLogger(collector);
+
+        // every second chunk that doesn't fit replaces the oldest
+        for (int i = 0; i < 6; i++)
+            dispatcher.dispatch(chunk(i), chunk(i).length);
+        assertEquals(4, dispatcher.getDroppedCount());
+
+        executor.runAll();
+        assertEquals("chunk3chunk5", collector.data.toString());
+    }
+
+    public void testBlock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BufferChangeDispatcher dispatcher = new BufferChangeDispatcher(executor, 1, BufferChangeDispatcher.BLOCK);
+            Collector collector = new Collector(2);
+            LockFreeConsumer consumer = new LockFreeConsumer(new StringPair(""));
+            consumer.setBufferChangeDispatcher(dispatcher);
+            consumer.registerBufferChangeLogger(collector);
+
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                dispatcher.dispatch(chunk(i), chunk(i).length);
+                expected.append(chunk(i));
+            }
+            assertTrue(dispatcher.awaitDrained(5000));
+            assertEquals(expected.toString(), collector.data.toString());
+            assertEquals(0, dispatcher.getDroppedCount());
+            assertEquals(20, dispatcher.getDeliveredCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testOneSessionPerDispatcher() {
+        BufferChangeDispatcher dispatcher = new BufferChangeDispatcher(16, BufferChangeDispatcher.DROP);
+        new LockFreeConsumer(new StringPair("")).setBufferChangeDispatcher(dispatcher);
+        try {
+            new LockFreeConsumer(new StringPair("")).setBufferChangeDispatcher(dispatcher);
+            fail("Shared a dispatcher between sessions");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
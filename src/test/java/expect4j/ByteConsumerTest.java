@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import junit.framework.*;
+
+/**
+ * Tests the consumer that decodes the bytes of a session itself.
+ */
+public class ByteConsumerTest extends TestCase {
+    static final Charset ASCII = Charset.forName("US-ASCII");
+    static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public ByteConsumerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Reads the bytes to the end and returns the buffer.
+     */
+    String consume(InputStream is, Charset charset) throws Exception {
+        ByteConsumer consumer = new ByteConsumer(new StreamPair(is, new ByteArrayOutputStream(), charset));
+        Thread consumerThread = new Thread(consumer);
+        consumerThread.start();
+        consumerThread.join(5000);
+        assertTrue(consumer.foundEOF());
+        return consumer.snapshot().toString();
+    }
+
+    String consume(byte[] bytes, Charset charset) throws Exception {
+        return consume(new ByteArrayInputStream(bytes), charset);
+    }
+
+    public void testAscii() throws Exception {
+        assertEquals("login: ", consume("login: ".getBytes(ASCII), ASCII));
+        assertEquals("login: ", consume("login: ".getBytes(ASCII), UTF8));
+        assertEquals("login: ", consume("login: ".getBytes(ASCII), LATIN1));
+    }
+
+    public void testLatin1() throws Exception {
+        byte[] bytes = new byte[] { 'c', 'a', 'f', (byte) 0xe9, (byte) 0xff };
+        assertEquals("caf\u00e9\u00ff", consume(bytes, LATIN1));
+    }
+
+    public void testAsciiReplacesHighBytes() throws Exception {
+        byte[] bytes = new byte[] { 'a', (byte) 0xe9, 'b' };
+        assertEquals("a\ufffdb", consume(bytes, ASCII));
+    }
+
+    public void testUtf8() throws Exception {
+        String text = "r\u00e9sum\u00e9 \u20ac5 \u4e2d\u6587";
+        assertEquals(text, consume(text.getBytes(UTF8), UTF8));
+    }
+
+    public void testCharacterSplitAcrossReads() throws Exception {
+        String text = "\u00e9t\u00e9 \u20ac \u4e2d";
+        InputStream is = new ByteArrayInputStream(text.getBytes(UTF8)) {
+            public synchronized int read(byte[] b, int off, int len) {
+                // a byte at a time
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        assertEquals(text, consume(is, UTF8));
+    }
+
+    public void testIncompleteCharacterAtEof() throws Exception {
+        byte[] euro = "\u20ac".getBytes(UTF8);
+        byte[] bytes = new byte[] { 'a', euro[0], euro[1] };
+        assertEquals("a\ufffd", consume(bytes, UTF8));
+    }
+
+    public void testLargeInput() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3 * ReadChunk.MAX_SIZE)
+            text.append("line ").append(text.length()).append(" \u00e9\r\n");
+        assertEquals(text.toString(), consume(text.toString().getBytes(UTF8), UTF8));
+        assertEquals(text.toString(), consume(text.toString().getBytes(LATIN1), LATIN1));
+    }
+
+    public void testExpect() throws Exception {
+        byte[] bytes = "caf\u00e9 $ ".getBytes(LATIN1);
+        Expect4j expect = new Expect4j(new ByteArrayInputStream(bytes), new ByteArrayOutputStream(), LATIN1);
+        assertEquals(0, expect.expect("caf\u00e9"));
+        assertEquals(0, expect.expect("$ "));
+        expect.close();
+    }
+}
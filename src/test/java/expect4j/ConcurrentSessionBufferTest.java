@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import junit.framework.*;
+
+/**
+ * Tests appending and consuming on different threads without locks.
+ */
+public class ConcurrentSessionBufferTest extends TestCase {
+    public ConcurrentSessionBufferTest(String testName) {
+        super(testName);
+    }
+
+    public void testSnapshotSurvivesGrowth() {
+        ConcurrentSessionBuffer buffer = new ConcurrentSessionBuffer();
+        buffer.append("prompt$ ");
+        BufferSnapshot snapshot = buffer.snapshot();
+
+        char[] more = new char[4 * SessionBuffer.INITIAL_CAPACITY];
+        java.util.Arrays.fill(more, 'x');
+        buffer.append(more, 0, more.length);
+
+        assertTrue(snapshot.isCurrent());
+        assertEquals("prompt$ ", snapshot.toString());
+        assertEquals(8 + more.length, buffer.length());
+    }
+
+    public void testSnapshotSurvivesDiscards() {
+        ConcurrentSessionBuffer buffer = new ConcurrentSessionBuffer();
+        char[] as = new char[1000];
+        java.util.Arrays.fill(as, 'a');
+        buffer.append(as, 0, as.length);
+        BufferSnapshot snapshot = buffer.snapshot();
+
+        // discarding moves the start on the appending thread, which
+        // must not let the arrays the snapshot reads be reused
+        char[] zs = new char[100];
+        java.util.Arrays.fill(zs, 'Z');
+        for (int i = 0; i < 100; i++) {
+            buffer.append(zs, 0, zs.length);
+            buffer.discardOldest(200);
+        }
+
+        assertEquals(1000, snapshot.length());
+        assertEquals(new String(as), snapshot.toString());
+        assertEquals(200, buffer.length());
+    }
+
+    public void testConsumeAndDiscard() {
+        ConcurrentSessionBuffer buffer = new ConcurrentSessionBuffer();
+        buffer.append("0123456789");
+        BufferSnapshot snapshot = buffer.snapshot();
+        assertEquals(0, snapshot.getGeneration());
+
+        // the appending thread drops the oldest characters meanwhile
+        buffer.discardOldest(6);
+        assertEquals("456789", buffer.toString());
+        assertFalse(snapshot.isCurrent());
+        assertEquals("0123456789", snapshot.toString());
+
+        // a match ending at 6 in the old snapshot only consumes 2 more
+        buffer.consumeFrom(snapshot.getGeneration(), 6);
+        assertEquals("6789", buffer.toString());
+        assertEquals(6, buffer.getGeneration());
+
+        buffer.consume(4);
+        assertEquals(0, buffer.length());
+        try {
+            buffer.consume(1);
+            fail("Consumed more than the buffer holds");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testProducerAndConsumer() throws Exception {
+        final ConcurrentSessionBuffer buffer = new ConcurrentSessionBuffer();
+        final int total = 1000000;
+
+        Thread producer = new Thread() {
+            public void run() {
+                char[] chunk = new char[97];
+                int next = 0;
+                while (next < total) {
+                    int count = Math.min(chunk.length, total - next);
+                    for (int i = 0; i < count; i++)
+                        chunk[i] = (char) ('a' + (next + i) % 26);
+                    buffer.append(chunk, 0, count);
+                    next += count;
+                }
+            }
+        };
+        producer.start();
+
+        // every character has to come out once, in order
+        int expected = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (expected < total && System.currentTimeMillis() < deadline) {
+            BufferSnapshot snapshot = buffer.snapshot();
+            char[] array = snapshot.getArray();
+            for (int i = snapshot.getBegin(); i < snapshot.getEnd(); i++) {
+                assertEquals((char) ('a' + expected % 26), array[i]);
+                expected++;
+            }
+            buffer.consumeFrom(snapshot.getGeneration(), snapshot.length());
+        }
+        producer.join();
+
+        assertEquals(total, expected);
+        assertEquals(0, buffer.length());
+    }
+}
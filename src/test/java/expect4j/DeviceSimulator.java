@@ -0,0 +1,640 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A scripted device on a loopback port, for testing sessions against
+ * something that behaves like a router without needing one.  It speaks
+ * raw TCP, skipping any telnet negotiation the client sends, so that
+ * {@link ExpectUtils#telnet(String, int)} and plain sockets can both
+ * talk to it:
+ *
+ * <pre>
+ * DeviceSimulator simulator = new DeviceSimulator();
+ * simulator.setLogin("admin", "secret");
+ * simulator.addCommand("show version", "Simulated OS, Version 1.0\r\n");
+ * simulator.setLatency(5, TimeUnit.MILLISECONDS);
+ * simulator.start();
+ * Expect4j expect = ExpectUtils.telnet("127.0.0.1", simulator.getPort());
+ * </pre>
+ *
+ * Each session gets the banner, then <code>login: </code> and
+ * <code>Password: </code> if a login is set, then the prompt.  Every
+ * line sent after that is echoed, and answered with the command's
+ * output, or an error for unknown commands, and the prompt again;
+ * <code>exit</code>, <code>logout</code> and <code>quit</code> end the
+ * session.  Answers are held back by the latency, and can be split into
+ * fragments sent some time apart, the way a slow device or a congested
+ * link delivers them.
+ * <p>
+ * One thread serves every session with a selector, so thousands of
+ * sessions cost little more than their sockets.  Configure the
+ * simulator before starting it.
+ */
+public class DeviceSimulator implements Closeable {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DeviceSimulator.class);
+
+    static final int IAC = 255;
+    static final int SB = 250;
+    static final int SE = 240;
+    static final int WILL = 251;
+    static final int DONT = 254;
+
+    // where the telnet command parser is
+    static final int DATA = 0;
+    static final int COMMAND = 1;
+    static final int OPTION = 2;
+    static final int SUBNEGOTIATION = 3;
+    static final int SUBNEGOTIATION_IAC = 4;
+
+    // where each session's dialog is
+    static final int USERNAME = 0;
+    static final int PASSWORD = 1;
+    static final int PROMPT = 2;
+
+    String banner = "\r\nSimulated device\r\n\r\n";
+    String username = null;
+    String password = null;
+    String prompt = "sim# ";
+    final Map<String, String> commands = new HashMap<>();
+    long latencyNanos = 0;
+    int fragmentSize = 0;
+    long fragmentDelayNanos = 0;
+    boolean echo = true;
+
+    // encoded by start()
+    byte[] bannerBytes;
+    byte[] promptBytes;
+    final Map<String, byte[]> replies = new HashMap<>();
+
+    Selector selector;
+    ServerSocketChannel server;
+    Thread thread;
+    volatile boolean running = false;
+
+    // only touched by the simulator thread
+    final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    final Set<Connection> pending = new LinkedHashSet<>();
+    final Set<Connection> connections = new LinkedHashSet<>();
+
+    final AtomicInteger accepted = new AtomicInteger();
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicLong commandCount = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Sets what each session is greeted with.
+     *
+     * @param banner the banner
+     */
+    public void setBanner(String banner) {
+        this.banner = (banner == null) ? "" : banner;
+    }
+
+    /**
+     * Asks each session to log in first.
+     *
+     * @param username the user to accept, or <code>null</code> to skip
+     *                 logging in
+     * @param password the password to accept
+     */
+    public void setLogin(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Sets the prompt sent after each command.
+     *
+     * @param prompt the prompt
+     */
+    public void setPrompt(String prompt) {
+        if (prompt == null)
+            throw new IllegalArgumentException("Prompt must not be null");
+        this.prompt = prompt;
+    }
+
+    /**
+     * Answers a command with the given output.
+     *
+     * @param command the command, without the line end
+     * @param output what the command prints, before the prompt
+     */
+    public void addCommand(String command, String output) {
+        commands.put(command, output);
+    }
+
+    /**
+     * Answers a command with numbered lines of filler, such as a large
+     * configuration or log.
+     *
+     * @param command the command, without the line end
+     * @param outputSize roughly how many characters to print
+     */
+    public void addCommand(String command, int outputSize) {
+        StringBuilder sb = new StringBuilder(outputSize + 80);
+        for (int line = 1; sb.length() < outputSize; line++) {
+            sb.append(String.format("%06d ", line));
+            sb.append("interface GigabitEthernet0/").append(line % 48).append(" description uplink\r\n");
+        }
+        commands.put(command, sb.toString());
+    }
+
+    /**
+     * Holds back each answer, like a device thinking.
+     *
+     * @param latency how long to wait before answering
+     * @param unit the unit of the latency
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Splits each answer into fragments sent some time apart.
+     *
+     * @param fragmentSize the most bytes sent at once, or
+     *                     <code>0</code> to send answers whole
+     * @param delay how long to wait between fragments
+     * @param unit the unit of the delay
+     */
+    public void setFragmentation(int fragmentSize, long delay, TimeUnit unit) {
+        if (fragmentSize < 0)
+            throw new IllegalArgumentException("Fragment size must not be negative: " + fragmentSize);
+        this.fragmentSize = fragmentSize;
+        this.fragmentDelayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Chooses whether commands are echoed, as most devices do.
+     *
+     * @param echo <code>true</code> to echo commands
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+
+    /**
+     * Starts listening on a free loopback port.
+     *
+     * @throws IOException if the port can't be opened
+     */
+    public synchronized void start() throws IOException {
+        if (running)
+            throw new IllegalStateException("Simulator already started");
+
+        bannerBytes = encode(banner);
+        promptBytes = encode(prompt);
+        for (Map.Entry<String, String> command : commands.entrySet())
+            replies.put(command.getKey(), encode(command.getValue()));
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "expect4j-simulator-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the port the simulator listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of sessions accepted so far.
+     *
+     * @return the session count
+     */
+    public int getSessionCount() {
+        return accepted.get();
+    }
+
+    /**
+     * Returns the number of sessions still open.
+     *
+     * @return the open session count
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of commands answered.
+     *
+     * @return the command count
+     */
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * Returns the number of bytes sent to sessions.
+     *
+     * @return the byte count
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the CPU time the simulator's thread has used, so load
+     * tests can tell it apart from the sessions'.
+     *
+     * @return the time in nanoseconds, or <code>-1</code> if the JVM
+     *         doesn't measure it
+     */
+    public long getCpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (thread == null || !threads.isThreadCpuTimeSupported())
+            return -1;
+        return threads.getThreadCpuTime(thread.getId());
+    }
+
+    /**
+     * Stops listening, and closes every session.
+     */
+    public void close() {
+        Thread serving;
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+            serving = thread;
+        }
+        selector.wakeup();
+        try {
+            serving.join(5000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void serve() {
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                long next = flushPending(now);
+                if (next == Long.MAX_VALUE) {
+                    selector.select();
+                } else {
+                    long waitMillis = TimeUnit.NANOSECONDS.toMillis(next - now + 999999);
+                    if (waitMillis <= 0)
+                        selector.selectNow();
+                    else
+                        selector.select(waitMillis);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable())
+                        connection.read();
+                    if (key.isValid() && key.isWritable())
+                        connection.writable();
+                }
+            }
+        } catch (IOException ioe) {
+            logger.error("Simulator stopped", ioe);
+        } finally {
+            for (Connection connection : connections.toArray(new Connection[0]))
+                connection.close();
+            try { server.close(); } catch (IOException e) { }
+            try { selector.close(); } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Sends what is due on every session with output queued.
+     *
+     * @return when the next output is due, or
+     *         <code>Long.MAX_VALUE</code> if none is waiting on time
+     */
+    long flushPending(long now) {
+        long next = Long.MAX_VALUE;
+        Iterator<Connection> iter = pending.iterator();
+        while (iter.hasNext()) {
+            Connection connection = iter.next();
+            if (connection.closed) {
+                iter.remove();
+                continue;
+            }
+            if (connection.blocked)
+                continue;
+            next = Math.min(next, connection.flush(now));
+            if (connection.output.isEmpty())
+                iter.remove();
+        }
+        return next;
+    }
+
+    void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+            accepted.incrementAndGet();
+            active.incrementAndGet();
+            connection.answer(bannerBytes, (username != null) ? encode("login: ") : promptBytes);
+        }
+    }
+
+    static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Output to send once it is due, or the end of the session if there
+     * is none.
+     */
+    static final class Chunk {
+        final ByteBuffer data;
+        final long due;
+
+        Chunk(ByteBuffer data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+
+    /**
+     * One session's dialog and queued output.
+     */
+    final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ArrayDeque<Chunk> output = new ArrayDeque<>();
+        long lastDue = 0;
+        boolean blocked = false;
+        boolean closed = false;
+
+        int telnetState = DATA;
+        int dialogState = (username != null) ? USERNAME : PROMPT;
+        final StringBuilder line = new StringBuilder();
+        boolean lastCr = false;
+        String user;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            readBuffer.clear();
+            int length;
+            try {
+                length = channel.read(readBuffer);
+            } catch (IOException ioe) {
+                logger.debug("Closing simulated session after a failed read: " + ioe);
+                close();
+                return;
+            }
+            if (length == -1) {
+                close();
+                return;
+            }
+            for (int i = 0; i < length && !closed; i++)
+                receive(readBuffer.get(i) & 0xFF);
+        }
+
+        /**
+         * Skips telnet commands and option negotiation, and passes the
+         * rest on as data.
+         */
+        void receive(int b) {
+            switch (telnetState) {
+                case DATA:
+                    if (b == IAC)
+                        telnetState = COMMAND;
+                    else
+                        data(b);
+                    break;
+                case COMMAND:
+                    if (b == IAC) {
+                        telnetState = DATA;
+                        data(b);
+                    } else if (b >= WILL && b <= DONT) {
+                        telnetState = OPTION;
+                    } else if (b == SB) {
+                        telnetState = SUBNEGOTIATION;
+                    } else {
+                        telnetState = DATA;
+                    }
+                    break;
+                case OPTION:
+                    telnetState = DATA;
+                    break;
+                case SUBNEGOTIATION:
+                    if (b == IAC)
+                        telnetState = SUBNEGOTIATION_IAC;
+                    break;
+                case SUBNEGOTIATION_IAC:
+                    telnetState = (b == SE) ? DATA : SUBNEGOTIATION;
+                    break;
+            }
+        }
+
+        /**
+         * Collects lines, ended by CR, LF, CR LF or CR NUL.
+         */
+        void data(int c) {
+            if (c == '\r' || c == '\n') {
+                boolean crlf = (c == '\n' && lastCr);
+                lastCr = (c == '\r');
+                if (!crlf) {
+                    String text = line.toString();
+                    line.setLength(0);
+                    command(text);
+                }
+                return;
+            }
+            lastCr = false;
+            if (c == 0)
+                return;
+            if (c == 8 || c == 127) {
+                if (line.length() > 0)
+                    line.setLength(line.length() - 1);
+                return;
+            }
+            line.append((char) c);
+        }
+
+        void command(String text) {
+            long now = System.nanoTime();
+            if (echo && dialogState != PASSWORD)
+                queue(ByteBuffer.wrap(encode(text + "\r\n")), now);
+
+            switch (dialogState) {
+                case USERNAME:
+                    user = text;
+                    dialogState = PASSWORD;
+                    answer(null, encode("Password: "));
+                    break;
+                case PASSWORD:
+                    if (username.equals(user) && password.equals(text)) {
+                        dialogState = PROMPT;
+                        answer(encode("\r\n"), promptBytes);
+                    } else {
+                        dialogState = USERNAME;
+                        answer(encode("\r\nLogin incorrect\r\n\r\n"), encode("login: "));
+                    }
+                    break;
+                default:
+                    String command = text.trim();
+                    if (command.equals("exit") || command.equals("logout") || command.equals("quit")) {
+                        answer(encode("Connection closed by foreign host.\r\n"), null);
+                        queue(null, lastDue);
+                        break;
+                    }
+                    byte[] reply = replies.get(command);
+                    if (reply == null && command.length() > 0)
+                        reply = encode("% Unknown command: " + command + "\r\n");
+                    if (command.length() > 0)
+                        commandCount.incrementAndGet();
+                    answer(reply, promptBytes);
+                    break;
+            }
+        }
+
+        /**
+         * Queues an answer after the latency, fragmented if asked to,
+         * and then the prompt.
+         */
+        void answer(byte[] reply, byte[] then) {
+            long due = System.nanoTime() + latencyNanos;
+            if (reply != null) {
+                int step = (fragmentSize > 0) ? fragmentSize : reply.length;
+                for (int offset = 0; offset < reply.length; offset += step) {
+                    queue(ByteBuffer.wrap(reply, offset, Math.min(step, reply.length - offset)), due);
+                    due += fragmentDelayNanos;
+                }
+            }
+            if (then != null)
+                queue(ByteBuffer.wrap(then), due);
+        }
+
+        /**
+         * Queues output, keeping it in order with what is already
+         * queued.
+         */
+        void queue(ByteBuffer data, long due) {
+            lastDue = Math.max(due, lastDue);
+            output.add(new Chunk(data, lastDue));
+            pending.add(this);
+        }
+
+        /**
+         * Writes what is due.
+         *
+         * @return when the next output is due, or
+         *         <code>Long.MAX_VALUE</code> if there is none or the
+         *         socket is full
+         */
+        long flush(long now) {
+            Chunk chunk;
+            while ((chunk = output.peek()) != null) {
+                if (chunk.due > now)
+                    return chunk.due;
+                if (chunk.data == null) {
+                    close();
+                    return Long.MAX_VALUE;
+                }
+                try {
+                    bytesSent.addAndGet(channel.write(chunk.data));
+                } catch (IOException ioe) {
+                    logger.debug("Closing simulated session after a failed write: " + ioe);
+                    close();
+                    return Long.MAX_VALUE;
+                }
+                if (chunk.data.hasRemaining()) {
+                    blocked = true;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return Long.MAX_VALUE;
+                }
+                output.poll();
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void writable() {
+            blocked = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            output.clear();
+            connections.remove(this);
+            if (key != null)
+                key.cancel();
+            try { channel.close(); } catch (IOException e) { }
+            active.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.*;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import junit.framework.*;
+
+/**
+ * Tests the scripted device simulator.
+ */
+public class DeviceSimulatorTest extends TestCase {
+    DeviceSimulator simulator;
+
+    public DeviceSimulatorTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        simulator = new DeviceSimulator();
+        simulator.setLogin("admin", "secret");
+        simulator.setPrompt("sim# ");
+        simulator.addCommand("show version", "Simulated OS, Version 1.0\r\n");
+        simulator.addCommand("show running-config", 64 * 1024);
+    }
+
+    protected void tearDown() throws Exception {
+        simulator.close();
+    }
+
+    static Expect4j connect(DeviceSimulator simulator) throws Exception {
+        Expect4j expect = new Expect4j(new Socket("127.0.0.1", simulator.getPort()));
+        expect.setDefaultTimeout(5000);
+        return expect;
+    }
+
+    static void login(Expect4j expect) throws Exception {
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("login: ", null) }));
+        expect.send("admin\r\n");
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("Password: ", null) }));
+        expect.send("secret\r\n");
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("sim# ", null) }));
+    }
+
+    public void testTelnet() throws Exception {
+        simulator.start();
+
+        Expect4j expect = ExpectUtils.telnet("127.0.0.1", simulator.getPort());
+        expect.setDefaultTimeout(5000);
+        login(expect);
+        expect.send("show version\n");
+        assertEquals(0, expect.expect(new Match[] { new RegExpMatch("Version (\\S+)\\s+sim# ", null) }));
+        assertEquals("1.0", expect.getLastState().getMatch(1));
+        expect.send("exit\n");
+        assertEquals(0, expect.expect(new Match[] { new EofMatch() }));
+        expect.close();
+
+        assertEquals(1, simulator.getSessionCount());
+        assertEquals(1, simulator.getCommandCount());
+    }
+
+    public void testLoginIncorrect() throws Exception {
+        simulator.start();
+
+        Expect4j expect = connect(simulator);
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("login: ", null) }));
+        expect.send("admin\r\n");
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("Password: ", null) }));
+        expect.send("wrong\r\n");
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("Login incorrect*login: ", null) }));
+        expect.close();
+    }
+
+    public void testNegotiationSkipped() throws Exception {
+        simulator.setLogin(null, null);
+        simulator.start();
+
+        Socket socket = new Socket("127.0.0.1", simulator.getPort());
+        Expect4j expect = new Expect4j(socket);
+        expect.setDefaultTimeout(5000);
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("sim# ", null) }));
+
+        // IAC WILL ECHO, a terminal type subnegotiation, and CR NUL
+        OutputStream os = socket.getOutputStream();
+        os.write(new byte[] { (byte) 255, (byte) 251, 1, (byte) 255, (byte) 250, 24, 0, 'V', 'T', (byte) 255, (byte) 240 });
+        os.write("show version\r\0".getBytes("US-ASCII"));
+        os.flush();
+        assertEquals(0, expect.expect(new Match[] { new GlobMatch("show version\r\nSimulated OS*sim# ", null) }));
+        expect.close();
+    }
+
+    public void testLatencyAndFragmentation() throws Exception {
+        simulator.setLatency(50, TimeUnit.MILLISECONDS);
+        simulator.setFragmentation(512, 1, TimeUnit.MILLISECONDS);
+        simulator.start();
+
+        Expect4j expect = connect(simulator);
+        login(expect);
+
+        long start = System.nanoTime();
+        expect.send("show running-config\r\n");
+        assertEquals(0, expect.expect(new Match[] { new RegExpMatch("description uplink\r\nsim# $", null) }));
+        long elapsed = System.nanoTime() - start;
+        assertTrue("Answered in " + elapsed + "ns", elapsed >= TimeUnit.MILLISECONDS.toNanos(50 + 100));
+        assertTrue(simulator.getBytesSent() > 64 * 1024);
+        expect.close();
+    }
+
+    public void testManySessions() throws Exception {
+        simulator.setLatency(1, TimeUnit.MILLISECONDS);
+        simulator.start();
+
+        List<String> sessions = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            sessions.add("session" + i);
+        List<FanOutRunner.HostResult<Boolean>> results = new FanOutRunner(50).run(sessions,
+                new FanOutRunner.Connector() {
+                    public Expect4j connect(String host) throws Exception {
+                        return DeviceSimulatorTest.connect(simulator);
+                    }
+                },
+                new FanOutRunner.Dialog<Boolean>() {
+                    public Boolean run(String host, Expect4j expect) throws Exception {
+                        login(expect);
+                        expect.send("show version\r\n");
+                        assertEquals(0, expect.expect(new Match[] { new GlobMatch("Version 1.0*sim# ", null) }));
+                        expect.send("exit\r\n");
+                        return expect.expect(new Match[] { new EofMatch() }) == 0;
+                    }
+                });
+
+        assertEquals(200, results.size());
+        for (FanOutRunner.HostResult<Boolean> result : results)
+            assertTrue(result.toString(), result.isSuccess() && result.getValue());
+        assertEquals(200, simulator.getSessionCount());
+        assertEquals(200, simulator.getCommandCount());
+    }
+}
@@ -20,6 +20,7 @@ package expect4j;
 import expect4j.matches.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import junit.framework.*;
 import org.apache.oro.text.regex.*;
 import org.slf4j.Logger;
@@ -355,9 +356,504 @@ public class Expect4jTest extends TestCase {
         assertEquals(0, index);
     }
 
+    /**
+     * Incremental matching across chunks that arrive one word at a time
+     */
+    public void testMatchLookback() throws Exception {
+        logger.info( "expect with bounded lookback");
+
+        pair = new DelayedPair(testStr, 50, 1);
+        Expect4j instance = new Expect4j(pair);
+        instance.setDefaultTimeout(2000);
+        instance.setMatchLookback(8);
+        assertEquals(8, instance.getMatchLookback());
+
+        // "lazy dog" straddles the last two chunks
+        int index = instance.expect("lazy dog");
+        assertEquals(0, index);
+        assertEquals("lazy dog", instance.getLastState().getMatch());
+        assertEquals("The quick brown fox jumps over the lazy dog", instance.getLastState().getBuffer());
+    }
+
+    /**
+     * Searching with java.util.regex, with one pattern fixed to ORO
+     */
+    public void testRegexEngine() throws Exception {
+        logger.info( "expect with another regex engine");
+
+        Expect4j instance = new Expect4j(pair);
+        assertSame(OroRegexEngine.INSTANCE, instance.getRegexEngine());
+        instance.setRegexEngine(JdkRegexEngine.INSTANCE);
+        assertSame(JdkRegexEngine.INSTANCE, instance.getRegexEngine());
+
+        List<Match> pairs = new ArrayList<>();
+        pairs.add( new RegExpMatch("(?<=lazy )(d)og", null) );
+        pairs.add( new RegExpMatch("f(o)x", null, OroRegexEngine.INSTANCE) );
+        pairs.add( new GlobMatch("j*s", null) );
+
+        int index = instance.expect(pairs);
+        assertEquals(1, index);
+        assertEquals("fox", instance.getLastState().getMatch());
+        assertEquals("o", instance.getLastState().getMatch(1));
+
+        index = instance.expect(pairs);
+        assertEquals(2, index);
+        assertEquals("jumps", instance.getLastState().getMatch());
+
+        index = instance.expect(pairs);
+        assertEquals(0, index);
+        assertEquals("d", instance.getLastState().getMatch(1));
+    }
+
     /**
      * Tests to write:
      * EOF (with and without)
      * exp_continue
      */
+
+    public void testMatchMax() throws Exception {
+        Expect4j instance = new Expect4j(pair);
+        assertEquals(Expect4j.MATCH_MAX_UNBOUNDED, instance.getMatchMax());
+
+        instance.setMatchMax(ConsumerImpl.BUFFERMAX);
+        assertEquals(ConsumerImpl.BUFFERMAX, instance.getMatchMax());
+
+        try {
+            instance.setMatchMax(-1);
+            fail("Accepted a negative match max");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testFullBufferMatch() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("lots of output without the prompt", 100, 1);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setMatchMax(10);
+
+        final List<String> buffers = new ArrayList<>();
+        Match[] matches = new Match[] {
+            new GlobMatch("$ ", null),
+            new FullBufferMatch(new Closure() {
+                public void run(ExpectState state) {
+                    buffers.add(state.getBuffer());
+                }
+            })
+        };
+
+        int index = instance.expect(matches);
+        assertEquals(1, index);
+        assertEquals(1, buffers.size());
+        assertTrue(buffers.get(0).startsWith("lots of ou"));
+        assertTrue(buffers.get(0).length() >= 10);
+
+        // the buffer started over
+        index = instance.expect(matches);
+        assertEquals(1, index);
+        assertFalse(buffers.get(1).startsWith("lots"));
+
+        delayedPair.close();
+    }
+
+    public void testFullBufferWhileReading() throws Exception {
+        final String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        final Reader endless = new Reader() {
+            int next = 0;
+            volatile boolean closed = false;
+
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (closed)
+                    return -1;
+                try {
+                    Thread.sleep(0, 50000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                int count = Math.min(len, 7);
+                for (int i = 0; i < count; i++)
+                    cbuf[off + i] = alphabet.charAt(next++ % alphabet.length());
+                return count;
+            }
+
+            public void close() {
+                closed = true;
+            }
+        };
+        IOPair endlessPair = new IOPair() {
+            public Reader getReader() {
+                return endless;
+            }
+
+            public Writer getWriter() {
+                return new StringWriter();
+            }
+
+            public void reset() {
+            }
+
+            public void close() {
+                try {
+                    endless.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+        Expect4j instance = new Expect4j(endlessPair);
+        instance.setMatchMax(64);
+
+        // the reader keeps appending, and moving to new arrays, while
+        // every full buffer is handed over
+        final List<String> corrupt = new ArrayList<>();
+        final int[] buffers = new int[1];
+        int index = instance.expect(new Match[] {
+            new GlobMatch("never", null),
+            new FullBufferMatch(new Closure() {
+                public void run(ExpectState state) throws Exception {
+                    String buffer = state.getBuffer();
+                    int start = alphabet.indexOf(buffer.charAt(0));
+                    for (int i = 0; i < buffer.length(); i++) {
+                        if (buffer.charAt(i) != alphabet.charAt((start + i) % alphabet.length())) {
+                            corrupt.add(buffer);
+                            break;
+                        }
+                    }
+                    Thread.sleep(0, 100000);
+                    if (++buffers[0] < 100)
+                        state.exp_continue();
+                }
+            })
+        });
+        assertEquals("after " + buffers[0], 1, index);
+        assertEquals(100, buffers[0]);
+        assertEquals(corrupt.toString(), 0, corrupt.size());
+        instance.close();
+    }
+
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Expect4j instance = new Expect4j(pair, executor);
+            assertEquals(0, instance.expect("fox"));
+            assertEquals(0, instance.expect("dog"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testNamedConsumerThreads() throws Exception {
+        Executor executor = ConsumerThreads.named("expect4j-test");
+        final BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        Runnable recorder = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        };
+        executor.execute(recorder);
+        executor.execute(recorder);
+
+        Thread first = threads.poll(5, TimeUnit.SECONDS);
+        Thread second = threads.poll(5, TimeUnit.SECONDS);
+        assertTrue(first.isDaemon());
+        Set<String> names = new HashSet<>(Arrays.asList(first.getName(), second.getName()));
+        assertEquals(new HashSet<>(Arrays.asList("expect4j-test-1", "expect4j-test-2")), names);
+
+        Expect4j instance = new Expect4j(pair, executor);
+        assertEquals(0, instance.expect("lazy"));
+    }
+
+    public void testVirtualConsumerThreads() throws Exception {
+        if (!ConsumerThreads.isVirtualThreadSupported()) {
+            try {
+                ConsumerThreads.virtual("expect4j-test");
+                fail("Created virtual threads on a platform without them");
+            } catch (UnsupportedOperationException expected) {
+            }
+            return;
+        }
+
+        Expect4j instance = new Expect4j(pair, ConsumerThreads.virtual("expect4j-test"));
+        assertEquals(0, instance.expect("fox"));
+    }
+
+    /**
+     * A pair whose writer counts flushes.
+     */
+    static class FlushCountingPair extends StringPair {
+        final StringBuilder flushed = new StringBuilder();
+        final StringBuilder pending = new StringBuilder();
+        int flushes;
+
+        final Writer writer = new Writer() {
+            public synchronized void write(char[] cs, int offset, int length) {
+                pending.append(cs, offset, length);
+            }
+
+            public synchronized void flush() {
+                flushes++;
+                flushed.append(pending);
+                pending.setLength(0);
+            }
+
+            public void close() {
+            }
+        };
+
+        FlushCountingPair(String input) {
+            super(input);
+        }
+
+        public Writer getWriter() {
+            return writer;
+        }
+    }
+
+    public void testSendAll() throws Exception {
+        FlushCountingPair countingPair = new FlushCountingPair(testStr);
+        Expect4j instance = new Expect4j(countingPair);
+
+        instance.sendAll(Arrays.asList("terminal length 0\r", "show version\r", "show clock\r"));
+        assertEquals(1, countingPair.flushes);
+        assertEquals("terminal length 0\rshow version\rshow clock\r", countingPair.flushed.toString());
+    }
+
+    public void testFlushOnExpect() throws Exception {
+        FlushCountingPair countingPair = new FlushCountingPair(testStr);
+        Expect4j instance = new Expect4j(countingPair);
+        instance.setFlushPolicy(Expect4j.FLUSH_ON_EXPECT);
+        assertEquals(Expect4j.FLUSH_ON_EXPECT, instance.getFlushPolicy());
+
+        instance.send("enable\r");
+        instance.send("secret\r");
+        assertEquals(0, countingPair.flushes);
+
+        assertEquals(0, instance.expect("fox"));
+        assertEquals(1, countingPair.flushes);
+        assertEquals("enable\rsecret\r", countingPair.flushed.toString());
+
+        instance.send("exit\r");
+        instance.setFlushPolicy(Expect4j.FLUSH_ON_SEND);
+        assertEquals("enable\rsecret\rexit\r", countingPair.flushed.toString());
+
+        try {
+            instance.setFlushPolicy(42);
+            fail("Accepted an unknown flush policy");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSendExecutor() throws Exception {
+        FlushCountingPair countingPair = new FlushCountingPair(testStr);
+        Expect4j instance = new Expect4j(countingPair);
+        instance.setSendExecutor(ConsumerThreads.named("expect4j-sender"));
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            instance.send("line " + i + "\r");
+            expected.append("line ").append(i).append("\r");
+        }
+        instance.flush();
+        assertEquals(expected.toString(), countingPair.flushed.toString());
+        assertTrue(countingPair.flushes <= 100);
+
+        instance.send("last\r");
+        instance.setSendExecutor(null);
+        assertTrue(countingPair.flushed.toString().endsWith("last\r"));
+    }
+
+    public void testExpectAsync() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("login: admin password: secret $", 20, 1);
+        Expect4j instance = new Expect4j(delayedPair);
+
+        final CountDownLatch listened = new CountDownLatch(1);
+        ExpectFuture future = instance.expectAsync(Arrays.<Match>asList(
+                new GlobMatch("password: ", null),
+                new GlobMatch("$ ", null)));
+        future.addListener(new Runnable() {
+            public void run() {
+                listened.countDown();
+            }
+        });
+
+        assertEquals(Integer.valueOf(0), future.get(5, TimeUnit.SECONDS));
+        assertTrue(listened.await(5, TimeUnit.SECONDS));
+        assertEquals("password: ", future.getState().getMatch());
+
+        future = instance.expectAsync(Arrays.<Match>asList(new GlobMatch("secret $", null)));
+        assertEquals(Integer.valueOf(0), future.get(5, TimeUnit.SECONDS));
+        delayedPair.close();
+    }
+
+    public void testExpectAsyncTimeout() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("no prompt here", 10, 5);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(200);
+
+        long start = System.currentTimeMillis();
+        ExpectFuture future = instance.expectAsync(Arrays.<Match>asList(new GlobMatch("$ ", null)));
+        assertEquals(Integer.valueOf(Expect4j.RET_TIMEOUT), future.get(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+
+        final List<String> timedOut = new ArrayList<>();
+        future = instance.expectAsync(Arrays.<Match>asList(
+                new GlobMatch("$ ", null),
+                new TimeoutMatch(100, new Closure() {
+                    public void run(ExpectState state) {
+                        timedOut.add("yes");
+                    }
+                })));
+        assertEquals(Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+        assertEquals(1, timedOut.size());
+        delayedPair.close();
+    }
+
+    public void testExpectAsyncEarlyTimer() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("no prompt here", 10, 5);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(300);
+
+        ExpectFuture future = new ExpectFuture();
+        AsyncExpect async = new AsyncExpect(instance,
+                instance.new ExpectCall(Arrays.<Match>asList(new GlobMatch("$ ", null))), future);
+        async.start();
+
+        // a timer firing just short of the end has to be scheduled again
+        async.timeout.run();
+        assertFalse(future.isDone());
+        assertEquals(Integer.valueOf(Expect4j.RET_TIMEOUT), future.get(5, TimeUnit.SECONDS));
+        delayedPair.close();
+    }
+
+    public void testExpectAsyncEof() throws Exception {
+        Expect4j instance = new Expect4j(pair);
+        ExpectFuture future = instance.expectAsync(Arrays.<Match>asList(new GlobMatch("cat", null)));
+        assertEquals(Integer.valueOf(Expect4j.RET_EOF), future.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testExpectAsyncCancel() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("no prompt here", 10, 5);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        instance.setMatchMax(1000);
+        SessionCounters counters = new SessionCounters();
+        instance.setMetrics(counters);
+
+        ExpectFuture future = instance.expectAsync(Arrays.<Match>asList(
+                new GlobMatch("$ ", null),
+                new FullBufferMatch(null)));
+        Thread.sleep(100);
+        assertFalse(future.isDone());
+        assertFalse(((ConsumerImpl) instance.consumer).discardWhenFull);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(false));
+        try {
+            future.get();
+            fail("Got a result from a cancelled expect");
+        } catch (CancellationException expected) {
+        }
+
+        // The call is over, and no longer holds on to the full buffer
+        assertTrue(((ConsumerImpl) instance.consumer).discardWhenFull);
+        assertEquals(1, counters.getExpectCount());
+        assertEquals(0, counters.getMatchCount());
+        delayedPair.close();
+    }
+
+    public void testExpectAsyncCancelTooLate() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("no prompt here", 20, 1);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        final ExpectFuture[] future = new ExpectFuture[1];
+        final List<Boolean> cancelled = new ArrayList<>();
+
+        // The EOF closure runs once the call has ended, too late to cancel
+        synchronized(future) {
+            future[0] = instance.expectAsync(Arrays.<Match>asList(
+                    new GlobMatch("cat", null),
+                    new EofMatch(new Closure() {
+                        public void run(ExpectState state) {
+                            synchronized(future) {
+                                cancelled.add(future[0].cancel(false));
+                            }
+                        }
+                    })));
+        }
+        assertEquals(Integer.valueOf(1), future[0].get(5, TimeUnit.SECONDS));
+        assertFalse(future[0].isCancelled());
+        assertEquals(Arrays.asList(Boolean.FALSE), cancelled);
+        delayedPair.close();
+    }
+
+    public void testMultiExpect() throws Exception {
+        DelayedPair slowPair = new DelayedPair("loading please wait router#", 150, 5);
+        DelayedPair fastPair = new DelayedPair("login ok switch>", 20, 5);
+        Expect4j slow = new Expect4j(slowPair);
+        Expect4j fast = new Expect4j(fastPair);
+
+        MultiExpect multi = new MultiExpect()
+                .add(slow, Arrays.<Match>asList(new GlobMatch("router#", null)))
+                .add(fast, Arrays.<Match>asList(new GlobMatch("login", null), new GlobMatch("switch>", null)));
+        long start = System.currentTimeMillis();
+        MultiExpect.Result result = multi.expect();
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertSame(fast, result.getSession());
+        assertEquals(1, result.getSessionIndex());
+        assertEquals(0, result.getIndex());
+        assertEquals("login", result.getState().getMatch());
+
+        // The session that lost keeps its buffer for the next expect
+        assertEquals(0, slow.expect(Arrays.<Match>asList(new GlobMatch("router#", null))));
+        assertEquals(0, fast.expect(Arrays.<Match>asList(new GlobMatch("switch>", null))));
+        slowPair.close();
+        fastPair.close();
+    }
+
+    public void testMultiExpectTimeout() throws Exception {
+        DelayedPair firstPair = new DelayedPair("no prompt here", 10, 5);
+        DelayedPair secondPair = new DelayedPair("nor here", 10, 5);
+        Expect4j first = new Expect4j(firstPair);
+        Expect4j second = new Expect4j(secondPair);
+        first.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+        second.setDefaultTimeout(200);
+
+        long start = System.currentTimeMillis();
+        MultiExpect.Result result = new MultiExpect()
+                .add(first, Arrays.<Match>asList(new GlobMatch("$ ", null)))
+                .add(second, Arrays.<Match>asList(new GlobMatch("$ ", null)))
+                .expect();
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertSame(second, result.getSession());
+        assertEquals(Expect4j.RET_TIMEOUT, result.getIndex());
+        firstPair.close();
+        secondPair.close();
+    }
+
+    public void testMultiExpectWithExpectAsync() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("login ok switch>", 20, 5);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+
+        // Both listen to the same consumer, neither takes the other's place
+        ExpectFuture future = instance.expectAsync(Arrays.<Match>asList(new GlobMatch("switch>", null)));
+        MultiExpect.Result result = new MultiExpect()
+                .add(instance, Arrays.<Match>asList(new GlobMatch("login", null)))
+                .expect();
+        assertEquals(0, result.getIndex());
+        assertEquals(Integer.valueOf(0), future.get(5, TimeUnit.SECONDS));
+        delayedPair.close();
+    }
+
+    public void testMultiExpectSameSessionTwice() throws Exception {
+        DelayedPair delayedPair = new DelayedPair("login ok switch>", 20, 5);
+        Expect4j instance = new Expect4j(delayedPair);
+        instance.setDefaultTimeout(Expect4j.TIMEOUT_FOREVER);
+
+        MultiExpect.Result result = new MultiExpect()
+                .add(instance, Arrays.<Match>asList(new GlobMatch("login", null)))
+                .add(instance, Arrays.<Match>asList(new GlobMatch("switch>", null)))
+                .expect();
+        assertEquals(0, result.getSessionIndex());
+        assertEquals("login", result.getState().getMatch());
+        assertEquals(0, instance.expect(Arrays.<Match>asList(new GlobMatch("switch>", null))));
+        delayedPair.close();
+    }
 }
@@ -17,36 +17,188 @@
 
 package expect4j;
 
-import java.io.*;
+import expect4j.matches.JdkRegexEngine;
+import java.util.*;
 import junit.framework.*;
-import tcl.lang.Interp;
+import tcl.lang.*;
 
 /**
- * TODO
+ * Runs the emulated Expect commands in an interpreter, against sessions
+ * registered as if <code>spawn</code> had started them.
  *
  * @author Chris Verges
  * @author Justin Ryan
  */
 public class ExpectEmulationTest extends TestCase {
+    Interp interp;
+    ExpectEmulation.MapAssocData spawnIds;
+    List<DelayedPair> pairs;
 
     public ExpectEmulationTest(String testName) {
         super(testName);
     }
 
     protected void setUp() throws Exception {
+        interp = new Interp();
+        ExpectEmulation emulation = new ExpectEmulation();
+        emulation.init(interp);
+        spawnIds = emulation.new MapAssocData();
+        interp.setAssocData("spawnIds", spawnIds);
+        pairs = new ArrayList<>();
     }
 
     protected void tearDown() throws Exception {
+        for (DelayedPair pair : pairs)
+            pair.close();
+        interp.dispose();
     }
 
     /**
-     * Load interpreter
-     *
-     * TODO Figure out a system for testing.
+     * Registers a session under a spawn id and makes it the current
+     * <code>spawn_id</code>.
      */
-    public void testInterp() throws IOException {
-        Interp interp = new Interp();
+    Expect4j spawn(String spawnId, String output, int delay) throws Exception {
+        DelayedPair pair = new DelayedPair(output, delay, 5);
+        pairs.add(pair);
+        Expect4j expect4j = new Expect4j(pair);
+        spawnIds.put(spawnId, expect4j);
+        interp.setVar("spawn_id", TclString.newInstance(spawnId), 0);
+        return expect4j;
+    }
+
+    String getVar(String name) throws TclException {
+        return interp.getVar(name, null, 0).toString();
+    }
+
+    public void testMultiExpect() throws Exception {
+        Expect4j slow = spawn("1", "loading please wait router#", 150);
+        Expect4j fast = spawn("2", "login ok switch>", 20);
+        interp.eval("set ids {1 2}");
+        interp.eval("set timeout 5");
+
+        long start = System.currentTimeMillis();
+        interp.eval("expect {\n"
+                + "    -i $ids\n"
+                + "    \"router#\" { set seen router }\n"
+                + "    \"switch>\" { set seen switch }\n"
+                + "}");
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertEquals("1", interp.getResult().toString());
+        assertEquals("switch", getVar("seen"));
+        assertEquals("2", getVar("expect_out(spawn_id)"));
+
+        // The timeout applies to every session
+        assertEquals(5000, slow.defaultTimeout);
+        assertEquals(5000, fast.defaultTimeout);
+    }
+
+    public void testMultiExpectMergesSections() throws Exception {
+        spawn("1", "boot switch>", 20);
+        spawn("2", "loading please wait router#", 150);
+        interp.eval("set timeout 5");
+
+        // Session 1 looks for both patterns, session 2 for the second
+        interp.eval("expect {\n"
+                + "    -i 1 \"router#\" { set seen router }\n"
+                + "    -i {1 2} \"switch>\" { set seen switch }\n"
+                + "}");
+        assertEquals("1", interp.getResult().toString());
+        assertEquals("switch", getVar("seen"));
+        assertEquals("1", getVar("expect_out(spawn_id)"));
+    }
+
+    public void testMultiExpectTimeout() throws Exception {
+        Expect4j first = spawn("1", "nothing to see", 10);
+        Expect4j second = spawn("2", "nor here", 10);
+        interp.eval("set timeout 1");
+
+        long start = System.currentTimeMillis();
+        interp.eval("expect {\n"
+                + "    timeout { set seen timeout }\n"
+                + "    -i {1 2} \"router#\" {}\n"
+                + "}");
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 1000);
+        assertTrue(elapsed < 1900);
+        assertEquals("1", interp.getResult().toString());
+        assertEquals("timeout", getVar("seen"));
+        assertEquals(1000, first.defaultTimeout);
+        assertEquals(1000, second.defaultTimeout);
+    }
+
+    public void testExact() throws Exception {
+        spawn("1", "abc a*b", 20);
+        interp.eval("set timeout 5");
+
+        // As a glob, a*b would have matched the "ab" of "abc"
+        interp.eval("expect {\n"
+                + "    -ex \"a*b\" { set seen $expect_out(0,string) }\n"
+                + "}");
+        assertEquals("0", interp.getResult().toString());
+        assertEquals("a*b", getVar("seen"));
+    }
+
+    public void testMalformedPattern() throws Exception {
+        Expect4j expect4j = spawn("1", "whatever", 10);
+        expect4j.setRegexEngine(JdkRegexEngine.INSTANCE);
+
+        // reported when the script reaches expect, before any waiting
+        long start = System.currentTimeMillis();
+        try {
+            interp.eval("expect {\n"
+                    + "    -re \"(unclosed\" {}\n"
+                    + "}");
+            fail("Accepted a malformed pattern");
+        } catch (TclException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Invalid pattern"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        // a named group is fine for the engine the session uses
+        interp.eval("set timeout 5");
+        interp.eval("expect {\n"
+                + "    -re \"(?<word>ever)\" { set seen $expect_out(1,string) }\n"
+                + "}");
+        assertEquals("ever", getVar("seen"));
+    }
+
+    public void testFullBuffer() throws Exception {
+        spawn("1", "0123456789 abcdefghij klmnop", 20);
+        interp.eval("set timeout 5");
+        interp.eval("match_max 10");
+
+        interp.eval("expect {\n"
+                + "    full_buffer { set seen $expect_out(buffer) }\n"
+                + "    \"never\" {}\n"
+                + "}");
+        assertEquals("0", interp.getResult().toString());
+        String seen = getVar("seen");
+        assertTrue(seen, seen.startsWith("0123456789"));
+    }
+
+    public void testMatchMax() throws Exception {
+        Expect4j expect4j = spawn("1", "whatever", 10);
+
+        interp.eval("match_max");
+        assertEquals(String.valueOf(expect4j.getMatchMax()), interp.getResult().toString());
+
+        interp.eval("match_max 2000");
+        assertEquals("2000", interp.getResult().toString());
+        assertEquals(2000, expect4j.getMatchMax());
+        interp.eval("match_max");
+        assertEquals("2000", interp.getResult().toString());
 
+        try {
+            interp.eval("match_max -1");
+            fail("Accepted a negative size");
+        } catch (TclException expected) {
+        }
+        try {
+            interp.eval("match_max 1 2");
+            fail("Accepted two sizes");
+        } catch (TclException expected) {
+        }
+        assertEquals(2000, expect4j.getMatchMax());
     }
 
 }
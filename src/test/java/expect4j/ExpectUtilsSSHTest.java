@@ -18,6 +18,7 @@
 package expect4j;
 
 import expect4j.matches.*;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -88,4 +89,45 @@ public class ExpectUtilsSSHTest extends TestCase {
 
         expect.close();
     }
+
+    /**
+     * Test of SSH method with a pool, of class expect4j.ExpectUtils.
+     * The second session should reuse the first one's channel.
+     */
+    public void testSSHPool() throws Exception {
+        String hostname = "hostname";
+        String username = "username";
+        String password = "password";
+
+        if( hostname.equals("hostname") ) return;
+
+        SshSessionPool pool = new SshSessionPool();
+        try {
+            Expect4j expect = ExpectUtils.SSH(pool, hostname, username, password, 2222);
+            expect.send("echo first\r");
+            assertEquals(0, expect.expect(new Match[] { new GlobMatch("first", null) }));
+            expect.close();
+            assertEquals(1, pool.getIdleCount());
+
+            Expect4j again = ExpectUtils.SSH(pool, hostname, username, password, 2222);
+            assertNotSame(expect, again);
+            assertEquals(1, pool.getActiveCount());
+            assertEquals(1, pool.getConnectionCount());
+            try {
+                expect.send("echo stale\r");
+                fail("A closed session sent on a reused channel");
+            } catch (IOException ioe) {
+                // expected
+            }
+            expect.close(); // does not give back the channel again
+            assertEquals(1, pool.getActiveCount());
+            again.send("echo second\r");
+            assertEquals(0, again.expect(new Match[] { new GlobMatch("second", null) }));
+            again.close();
+            assertEquals(1, pool.getConnectionCount());
+        } finally {
+            pool.close();
+        }
+        assertEquals(0, pool.getConnectionCount());
+    }
 }
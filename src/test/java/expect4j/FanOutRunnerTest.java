@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.*;
+
+/**
+ * Tests running a dialog against many hosts.
+ */
+public class FanOutRunnerTest extends TestCase {
+    public FanOutRunnerTest(String testName) {
+        super(testName);
+    }
+
+    static List<String> hosts(int count) {
+        List<String> hosts = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            hosts.add("host" + i);
+        return hosts;
+    }
+
+    static final FanOutRunner.Connector PROMPTS = new FanOutRunner.Connector() {
+        public Expect4j connect(String host) throws Exception {
+            if (host.equals("host3"))
+                throw new IOException("Connection refused");
+            return new Expect4j(new StringPair("Welcome to " + host + "\r\n" + host + "# "));
+        }
+    };
+
+    static final FanOutRunner.Dialog<String> HOSTNAME = new FanOutRunner.Dialog<String>() {
+        public String run(String host, Expect4j expect) throws Exception {
+            final String[] name = new String[1];
+            int index = expect.expect(Arrays.<Match>asList(new RegExpMatch("(\\w+)# ", new Closure() {
+                public void run(ExpectState state) {
+                    name[0] = state.getMatch(1);
+                }
+            })));
+            if (index != 0)
+                throw new IOException("No prompt: " + index);
+            return name[0];
+        }
+    };
+
+    public void testRun() throws Exception {
+        FanOutRunner runner = new FanOutRunner(4);
+        List<FanOutRunner.HostResult<String>> results = runner.run(hosts(10), PROMPTS, HOSTNAME);
+        assertEquals(10, results.size());
+
+        Set<String> seen = new HashSet<>();
+        for (FanOutRunner.HostResult<String> result : results) {
+            seen.add(result.getHost());
+            if (result.getHost().equals("host3")) {
+                assertFalse(result.isSuccess());
+                assertFalse(result.isConnected());
+                assertEquals("Connection refused", result.getFailure().getMessage());
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(result.getHost(), result.getValue());
+                assertEquals(result.getHost(), "host" + result.getIndex());
+                assertTrue(result.getTotalTime(TimeUnit.NANOSECONDS) > 0);
+            }
+        }
+        assertEquals(new HashSet<>(hosts(10)), seen);
+    }
+
+    public void testBoundedConcurrency() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        FanOutRunner.Dialog<Integer> slow = new FanOutRunner.Dialog<Integer>() {
+            public Integer run(String host, Expect4j expect) throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return now;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            FanOutRunner runner = new FanOutRunner(executor, 3);
+            FanOutRunner.Sweep<Integer> sweep = runner.start(hosts(12), new FanOutRunner.Connector() {
+                public Expect4j connect(String host) {
+                    return new Expect4j(new StringPair(""));
+                }
+            }, slow);
+
+            // Results stream back as they complete
+            int count = 0;
+            while (sweep.take() != null)
+                count++;
+            assertEquals(12, count);
+            assertTrue(sweep.isDone());
+            assertEquals(0, sweep.getFailureCount());
+            assertTrue(maxRunning.get() <= 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testDialogFailure() throws Exception {
+        FanOutRunner runner = new FanOutRunner(2);
+        List<FanOutRunner.HostResult<String>> results = runner.run(Arrays.asList("host1", "host2"),
+                new FanOutRunner.Connector() {
+                    public Expect4j connect(String host) {
+                        return new Expect4j(new StringPair("no prompt"));
+                    }
+                }, HOSTNAME);
+        assertEquals(2, results.size());
+        for (FanOutRunner.HostResult<String> result : results) {
+            assertFalse(result.isSuccess());
+            assertTrue(result.isConnected());
+            assertTrue(result.getFailure() instanceof IOException);
+        }
+    }
+
+    public void testConnectorAndCloseFailures() throws Exception {
+        FanOutRunner runner = new FanOutRunner(2);
+        List<FanOutRunner.HostResult<String>> results = runner.run(hosts(3),
+                new FanOutRunner.Connector() {
+                    public Expect4j connect(String host) {
+                        if (host.equals("host0"))
+                            return null;
+                        return new Expect4j(new StringPair("Welcome to " + host + "\r\n" + host + "# ")) {
+                            public void close() {
+                                super.close();
+                                throw new IllegalStateException("Close failed");
+                            }
+                        };
+                    }
+                }, HOSTNAME);
+
+        // every host completes, so the sweep doesn't hang
+        assertEquals(3, results.size());
+        for (FanOutRunner.HostResult<String> result : results) {
+            if (result.getHost().equals("host0")) {
+                assertFalse(result.isConnected());
+                assertTrue(result.getFailure() instanceof IllegalStateException);
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(result.getHost(), result.getValue());
+            }
+        }
+    }
+
+    public void testCancel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FanOutRunner runner = new FanOutRunner(1);
+        FanOutRunner.Sweep<String> sweep = runner.start(hosts(5), new FanOutRunner.Connector() {
+            public Expect4j connect(String host) {
+                return new Expect4j(new StringPair(""));
+            }
+        }, new FanOutRunner.Dialog<String>() {
+            public String run(String host, Expect4j expect) throws Exception {
+                started.countDown();
+                release.await();
+                return host;
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        sweep.cancel();
+
+        // The hosts not yet started don't wait for the running one
+        assertEquals(4, sweep.getCompletedCount());
+        assertEquals(4, sweep.getFailureCount());
+        for (int i = 0; i < 4; i++)
+            assertTrue(sweep.take().getFailure() instanceof CancellationException);
+
+        release.countDown();
+        List<FanOutRunner.HostResult<String>> results = sweep.awaitAll();
+        assertEquals(5, results.size());
+        assertEquals("host0", results.get(4).getValue());
+        assertEquals(4, sweep.getFailureCount());
+    }
+
+    public void testSynchronousExecutor() throws Exception {
+        Executor inline = new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        FanOutRunner runner = new FanOutRunner(inline, 2);
+        List<FanOutRunner.HostResult<String>> results = runner.run(hosts(100000), new FanOutRunner.Connector() {
+            public Expect4j connect(String host) {
+                return null;
+            }
+        }, HOSTNAME);
+        assertEquals(100000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertFalse(results.get(i).isConnected());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.*;
+import junit.framework.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the consumer that hands data to the matcher without locks.
+ */
+public class LockFreeConsumerTest extends TestCase {
+    /**
+     * Interface to the Java 2 platform's core logging facilities.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LockFreeConsumerTest.class);
+
+    public LockFreeConsumerTest(String testName) {
+        super(testName);
+    }
+
+    StringPair pair;
+    ExpectConsumer consumer;
+    Thread consumerThread;
+    protected void setUp() throws Exception {
+        pair = new StringPair("The lazy fox");
+        consumer = new LockFreeConsumer(pair);
+        consumerThread = new Thread(consumer);
+    }
+
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+	 * Test of run method, of class expect4j.LockFreeConsumer.
+	 */
+    public void testRun() {
+        System.out.println("run");
+
+        consumerThread.start();
+        consumer.stop();
+
+        boolean ableToJoin = false;
+        try {
+            consumerThread.join(1000l);
+            ableToJoin = true;
+        }catch(InterruptedException e) {
+        }
+
+        assertTrue(ableToJoin);
+    }
+
+    public void testRead() {
+        final StringBuffer changeBuffer = new StringBuffer();
+
+        BufferChangeLogger changeLogger = new BufferChangeLogger() {
+            public void bufferChanged(char[] newData, int numChars) {
+                changeBuffer.append(newData, 0, numChars);
+            }
+        };
+
+        consumer.registerBufferChangeLogger(changeLogger);
+
+        consumerThread.start();
+        try { Thread.sleep(500); }catch(Exception e) { }
+
+        // should be available by now
+        String result = consumer.pause();
+
+        consumer.stop();
+
+        assertEquals("The lazy fox", result);
+        assertEquals("The lazy fox", changeBuffer.toString());
+    }
+
+    public void testMatch() {
+        logger.info("Entering " + getClass().getName() + ".testMatch");
+
+        consumerThread.start();
+
+        consumer.waitForBuffer(500);
+
+        String result = consumer.pause();
+        assertEquals("The lazy fox", result);
+
+        consumer.resume(5);
+
+        result = consumer.pause();
+        assertEquals("azy fox", result);
+
+        consumer.stop();
+
+        logger.info("Exiting " + getClass().getName() + ".testMatch");
+    }
+
+    public void testMaxBufferSize() {
+        consumer.setMaxBufferSize(8);
+        assertEquals(8, consumer.getMaxBufferSize());
+
+        // reads until EOF on this thread
+        consumer.run();
+
+        assertEquals("lazy fox", consumer.pause());
+    }
+
+    public void testKeepFullBuffer() {
+        consumer.setMaxBufferSize(8);
+        consumer.setDiscardWhenFull(false);
+
+        consumer.run();
+
+        assertEquals("The lazy fox", consumer.pause());
+    }
+
+    public void testWrite() throws IOException {
+        consumerThread.start();
+
+        consumer.send("Writing");
+
+        consumer.stop();
+
+        String result = pair.getResult();
+
+        assertEquals("Writing", result);
+    }
+
+    public void testWait() throws IOException {
+        System.out.println("run");
+
+        consumerThread.start();
+
+        consumer.waitForBuffer(1000L);
+
+        consumer.stop();
+
+    }
+
+    public void testWaitForBuffer() throws Exception {
+        final PipedWriter writer = new PipedWriter();
+        final PipedReader reader = new PipedReader(writer);
+        consumer = new LockFreeConsumer(new IOPair() {
+            public Reader getReader() { return reader; }
+            public Writer getWriter() { return new StringWriter(); }
+            public void reset() { }
+            public void close() { }
+        });
+        consumerThread = new Thread(consumer);
+        consumerThread.start();
+
+        // nothing has arrived, so this has to time out
+        long start = System.currentTimeMillis();
+        consumer.snapshot();
+        consumer.waitForBuffer(200);
+        assertTrue(System.currentTimeMillis() - start >= 150);
+
+        Thread writerThread = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    writer.write("prompt$ ");
+                    writer.flush();
+                } catch (Exception e) {
+                }
+            }
+        };
+        writerThread.start();
+
+        // woken up by the append, well before the timeout
+        start = System.currentTimeMillis();
+        consumer.waitForBuffer(10000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals("prompt$ ", consumer.snapshot().toString());
+
+        consumer.stop();
+        writer.close();
+    }
+
+    public void testReadsWhileMatching() throws Exception {
+        final PipedWriter writer = new PipedWriter();
+        final PipedReader reader = new PipedReader(writer);
+        Expect4j expect = new Expect4j(new IOPair() {
+            public Reader getReader() { return reader; }
+            public Writer getWriter() { return new StringWriter(); }
+            public void reset() { }
+            public void close() { }
+        });
+        final LockFreeConsumer lockFree = (LockFreeConsumer) expect.consumer;
+
+        writer.write("login: ");
+        writer.flush();
+
+        final boolean[] readWhileMatching = new boolean[1];
+        int index = expect.expect("login: ", new Closure() {
+            public void run(ExpectState state) throws Exception {
+                // the closure runs in the middle of the match, and the
+                // reader has to keep going meanwhile
+                writer.write("more output");
+                writer.flush();
+                for (int i = 0; i < 200 && !readWhileMatching[0]; i++) {
+                    readWhileMatching[0] = lockFree.concurrentBuffer.length() >= "login: more output".length();
+                    Thread.sleep(10);
+                }
+            }
+        });
+        assertEquals(0, index);
+        assertTrue(readWhileMatching[0]);
+
+        expect.close();
+        writer.close();
+    }
+}
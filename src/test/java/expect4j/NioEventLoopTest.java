@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import junit.framework.*;
+
+/**
+ * Tests many sessions sharing the selector threads of one loop.
+ */
+public class NioEventLoopTest extends TestCase {
+    public NioEventLoopTest(String testName) {
+        super(testName);
+    }
+
+    ServerSocket server;
+    Thread acceptor;
+    NioEventLoop loop;
+
+    protected void setUp() throws Exception {
+        server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+
+        // a device that asks for a login and echoes it back
+        acceptor = new Thread() {
+            public void run() {
+                while (!server.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (IOException ioe) {
+                        return;
+                    }
+                    new Thread() {
+                        public void run() {
+                            try {
+                                Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                                out.write("login: ");
+                                out.flush();
+                                String user = in.readLine();
+                                out.write("welcome " + user + "\r\n");
+                                out.flush();
+                                in.readLine();
+                            } catch (IOException ioe) {
+                            } finally {
+                                try { socket.close(); } catch (IOException e) { }
+                            }
+                        }
+                    }.start();
+                }
+            }
+        };
+        acceptor.start();
+
+        loop = new NioEventLoop(2, java.nio.charset.Charset.forName("UTF-8"));
+    }
+
+    protected void tearDown() throws Exception {
+        loop.close();
+        server.close();
+    }
+
+    public void testManySessions() throws Exception {
+        List<Expect4j> sessions = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            sessions.add(loop.connect("127.0.0.1", server.getLocalPort()));
+
+        for (int i = 0; i < sessions.size(); i++) {
+            Expect4j expect = sessions.get(i);
+            assertEquals(0, expect.expect("login: "));
+            expect.send("user" + i + "\n");
+            assertEquals(0, expect.expect("welcome user" + i + "\r\n"));
+        }
+        assertEquals(50, loop.getSessionCount());
+
+        // no thread was started per session
+        for (Expect4j expect : sessions)
+            assertNull(expect.consumerThread);
+
+        for (Expect4j expect : sessions)
+            expect.close();
+        for (int i = 0; i < 100 && loop.getSessionCount() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, loop.getSessionCount());
+    }
+
+    public void testEof() throws Exception {
+        Expect4j expect = loop.connect("127.0.0.1", server.getLocalPort());
+        assertEquals(0, expect.expect("login: "));
+        expect.send("user\n\n");
+
+        // the server hangs up after the second line
+        assertEquals(Expect4j.RET_EOF, expect.expect("never sent"));
+    }
+
+    public void testMultibyteCharacters() throws Exception {
+        Expect4j expect = loop.connect("127.0.0.1", server.getLocalPort());
+        assertEquals(0, expect.expect("login: "));
+        expect.send("üser€\n");
+        assertEquals(0, expect.expect("welcome üser€"));
+        expect.close();
+    }
+
+    public void testAsyncDialogs() throws Exception {
+        final int count = 50;
+        final CountDownLatch finished = new CountDownLatch(count);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+        // each dialog chains its steps from listeners, no thread waits
+        for (int i = 0; i < count; i++) {
+            final int id = i;
+            final Expect4j expect = loop.connect("127.0.0.1", server.getLocalPort());
+            final ExpectFuture login = expect.expectAsync(Arrays.<Match>asList(new GlobMatch("login: ", null)));
+            login.addListener(new Runnable() {
+                public void run() {
+                    try {
+                        expect.send("user" + id + "\n");
+                        final ExpectFuture welcome = expect.expectAsync(
+                                Arrays.<Match>asList(new GlobMatch("welcome user" + id + "\r\n", null)));
+                        welcome.addListener(new Runnable() {
+                            public void run() {
+                                try {
+                                    if (welcome.get() != 0)
+                                        failures.add(id + ": " + welcome.get());
+                                } catch (Exception e) {
+                                    failures.add(id + ": " + e);
+                                }
+                                expect.close();
+                                finished.countDown();
+                            }
+                        });
+                    } catch (Exception e) {
+                        failures.add(id + ": " + e);
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.<String>emptyList(), failures);
+    }
+}
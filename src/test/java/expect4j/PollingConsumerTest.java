@@ -112,7 +112,7 @@ public class PollingConsumerTest extends TestCase {
         consumer.resume(4);
 
         result = consumer.pause();
-        assertEquals("azy fox", result);
+        assertEquals("lazy fox", result);
 
         consumer.stop();
 
@@ -141,4 +141,38 @@ public class PollingConsumerTest extends TestCase {
         consumer.stop();
 
     }
+
+    public void testBackoff() {
+        PollingBackoff backoff = new PollingBackoff(2, 1, 1000, 5000);
+        assertEquals(0, backoff.parkNanos(0));
+        assertEquals(0, backoff.parkNanos(2));
+        assertEquals(1000, backoff.parkNanos(3));
+        assertEquals(2000, backoff.parkNanos(4));
+        assertEquals(4000, backoff.parkNanos(5));
+        assertEquals(5000, backoff.parkNanos(6));
+        assertEquals(5000, backoff.parkNanos(Integer.MAX_VALUE));
+
+        PollingBackoff fixed = PollingBackoff.fixed(500);
+        assertEquals(500000000L, fixed.parkNanos(0));
+        assertEquals(500000000L, fixed.parkNanos(100));
+
+        try {
+            new PollingBackoff(0, 0, 1000, 10);
+            fail("Accepted a maximum park time below the minimum");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testExpect() throws Exception {
+        // with a fixed 500 ms sleep the first word alone takes longer
+        DelayedPair delayedPair = new DelayedPair("one two three four five", 20, 1);
+        Expect4j expect = new Expect4j(delayedPair, new PollingConsumer(delayedPair), null);
+
+        long start = System.currentTimeMillis();
+        for (String word : new String[] { "one", "two", "three", "four", "five" })
+            assertEquals(0, expect.expect(word));
+        assertTrue(System.currentTimeMillis() - start < 400);
+
+        expect.close();
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import java.io.*;
+import java.util.Arrays;
+import junit.framework.*;
+
+/**
+ * Tests the sizing of consumer reads.
+ */
+public class ReadChunkTest extends TestCase {
+    public ReadChunkTest(String testName) {
+        super(testName);
+    }
+
+    public void testGrowsWhenFull() {
+        ReadChunk chunk = new ReadChunk(256, 1024);
+        assertEquals(256, chunk.size());
+        chunk.update(256);
+        assertEquals(512, chunk.size());
+        chunk.update(512);
+        assertEquals(1024, chunk.size());
+        chunk.update(1024);
+        assertEquals(1024, chunk.size());
+        assertTrue(chunk.chars().length >= 1024);
+    }
+
+    public void testShrinksAfterSmallReads() {
+        ReadChunk chunk = new ReadChunk(256, 1024);
+        chunk.update(256);
+        chunk.update(512);
+        assertEquals(1024, chunk.size());
+
+        for (int i = 0; i < ReadChunk.SHRINK_AFTER - 1; i++)
+            chunk.update(10);
+        assertEquals(1024, chunk.size());
+
+        // a medium read starts the count over
+        chunk.update(600);
+        for (int i = 0; i < ReadChunk.SHRINK_AFTER - 1; i++)
+            chunk.update(10);
+        assertEquals(1024, chunk.size());
+
+        chunk.update(10);
+        assertEquals(512, chunk.size());
+        for (int i = 0; i < 10 * ReadChunk.SHRINK_AFTER; i++)
+            chunk.update(10);
+        assertEquals(256, chunk.size());
+    }
+
+    public void testReadTakesWhatIsReady() throws IOException {
+        final String text = "first part, second part";
+        // hands out five characters per read, but is always ready
+        Reader reader = new StringReader(text) {
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 5));
+            }
+        };
+
+        ReadChunk chunk = new ReadChunk();
+        int length = chunk.read(reader);
+        assertEquals(text, new String(chunk.chars(), 0, length));
+        assertEquals(-1, chunk.read(reader));
+    }
+
+    public void testReadStopsAtChunkSize() throws IOException {
+        char[] text = new char[1000];
+        Arrays.fill(text, 'x');
+        Reader reader = new CharArrayReader(text);
+
+        ReadChunk chunk = new ReadChunk(256, 1024);
+        assertEquals(256, chunk.read(reader));
+        assertEquals(512, chunk.read(reader));
+        assertEquals(232, chunk.read(reader));
+    }
+}
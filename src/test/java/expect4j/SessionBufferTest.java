@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import junit.framework.*;
+
+/**
+ * Tests the buffer behind the consumers and the snapshots it hands out.
+ */
+public class SessionBufferTest extends TestCase {
+    public SessionBufferTest(String testName) {
+        super(testName);
+    }
+
+    public void testAppendAndConsume() {
+        SessionBuffer buffer = new SessionBuffer();
+        buffer.append("login: ");
+        buffer.append("root\r\n".toCharArray(), 0, 4);
+        assertEquals("login: root", buffer.toString());
+        assertEquals(11, buffer.length());
+
+        buffer.consume(7);
+        assertEquals("root", buffer.toString());
+        buffer.consume(4);
+        assertEquals("", buffer.toString());
+
+        try {
+            buffer.consume(1);
+            fail("Consumed more than the buffer holds");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testSnapshotSharesStorage() {
+        SessionBuffer buffer = new SessionBuffer();
+        buffer.append("abc");
+        BufferSnapshot snapshot = buffer.snapshot();
+        assertSame(buffer.chars, snapshot.getArray());
+        assertEquals(0, snapshot.getBegin());
+        assertEquals(3, snapshot.getEnd());
+        assertEquals("abc", snapshot.toString());
+        assertEquals("bc", snapshot.subSequence(1, 3).toString());
+        assertEquals('c', snapshot.charAt(2));
+    }
+
+    public void testSnapshotSurvivesAppend() {
+        SessionBuffer buffer = new SessionBuffer();
+        buffer.append("prompt$ ");
+        BufferSnapshot snapshot = buffer.snapshot();
+
+        // enough to outgrow the initial storage
+        StringBuilder more = new StringBuilder();
+        for (int i = 0; i < SessionBuffer.INITIAL_CAPACITY; i++)
+            more.append('x');
+        buffer.append(more.toString());
+
+        assertTrue(snapshot.isCurrent());
+        assertEquals("prompt$ ", snapshot.toString());
+        assertEquals(8 + SessionBuffer.INITIAL_CAPACITY, buffer.snapshot().length());
+    }
+
+    public void testGeneration() {
+        SessionBuffer buffer = new SessionBuffer();
+        buffer.append("abc");
+        BufferSnapshot snapshot = buffer.snapshot();
+        buffer.append("def");
+        assertTrue(snapshot.isCurrent());
+
+        buffer.consume(0);
+        assertTrue(snapshot.isCurrent());
+
+        buffer.consume(2);
+        assertFalse(snapshot.isCurrent());
+        assertEquals(snapshot.getGeneration() + 1, buffer.getGeneration());
+        assertEquals("cdef", buffer.snapshot().toString());
+    }
+
+    public void testConsumeAdvancesHead() {
+        SessionBuffer buffer = new SessionBuffer();
+        buffer.append("abcdef");
+        char[] array = buffer.chars;
+
+        buffer.consume(2);
+        BufferSnapshot snapshot = buffer.snapshot();
+        assertSame(array, snapshot.getArray());
+        assertEquals(2, snapshot.getBegin());
+        assertEquals(6, snapshot.getEnd());
+        assertEquals("cdef", snapshot.toString());
+
+        // an empty buffer starts over at the front
+        buffer.consume(4);
+        assertEquals(0, buffer.snapshot().getBegin());
+    }
+
+    public void testCompaction() {
+        SessionBuffer buffer = new SessionBuffer();
+        int capacity = buffer.capacity();
+        char[] fill = new char[capacity];
+        java.util.Arrays.fill(fill, 'x');
+        buffer.append(fill, 0, capacity);
+        buffer.consume(capacity - 4);
+        long generation = buffer.getGeneration();
+
+        // room at the front is reused instead of growing
+        buffer.append("abcd");
+        assertEquals(capacity, buffer.capacity());
+        assertEquals("xxxxabcd", buffer.toString());
+        assertEquals(0, buffer.snapshot().getBegin());
+        assertEquals(generation + 1, buffer.getGeneration());
+
+        // but a buffer that is mostly full grows
+        buffer.append(fill, 0, capacity);
+        assertEquals(2 * capacity, buffer.capacity());
+        assertEquals(capacity + 8, buffer.length());
+    }
+
+    public void testAgainstStringBuilder() {
+        java.util.Random random = new java.util.Random(42);
+        SessionBuffer buffer = new SessionBuffer();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            if (random.nextBoolean()) {
+                StringBuilder chunk = new StringBuilder();
+                int count = random.nextInt(100);
+                for (int j = 0; j < count; j++)
+                    chunk.append((char) ('a' + random.nextInt(26)));
+                buffer.append(chunk.toString());
+                expected.append(chunk);
+            } else {
+                int count = random.nextInt(expected.length() + 1);
+                buffer.consume(count);
+                expected.delete(0, count);
+            }
+            assertEquals(expected.length(), buffer.length());
+            assertEquals(expected.toString(), buffer.snapshot().toString());
+        }
+    }
+}
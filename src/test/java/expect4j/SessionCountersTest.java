@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import junit.framework.*;
+
+/**
+ * Tests counting what sessions do, and publishing the counts over JMX.
+ */
+public class SessionCountersTest extends TestCase {
+    public SessionCountersTest(String testName) {
+        super(testName);
+    }
+
+    public void testCounters() throws Exception {
+        DelayedPair pair = new DelayedPair("login: admin password: secret $", 50, 1);
+        Expect4j expect = new Expect4j(pair);
+        SessionCounters counters = new SessionCounters();
+        expect.setMetrics(counters);
+        assertSame(counters, expect.getMetrics());
+
+        assertEquals(0, expect.expect("password: "));
+        expect.send("secret\r");
+        expect.setDefaultTimeout(100);
+        assertEquals(Expect4j.RET_TIMEOUT, expect.expect("never"));
+        expect.setDefaultTimeout(5000);
+        assertEquals(Expect4j.RET_EOF, expect.expect("never"));
+
+        assertEquals(3, counters.getExpectCount());
+        assertEquals(1, counters.getMatchCount());
+        assertEquals(1, counters.getTimeoutCount());
+        assertEquals(1, counters.getEofCount());
+        assertEquals("login: admin password: secret $".length(), counters.getCharsRead());
+        assertTrue(counters.getReadCount() > 0);
+        assertEquals("secret\r".length(), counters.getCharsSent());
+        assertTrue(counters.getBufferHighWater() > 0);
+        assertTrue(counters.getMatchAttempts() >= 3);
+        assertTrue(counters.getMaxExpectMillis() >= 100);
+        assertTrue(counters.getAverageExpectMillis() > 0);
+
+        counters.reset();
+        assertEquals(0, counters.getExpectCount());
+        assertEquals(0.0, counters.getMaxExpectMillis());
+        expect.close();
+    }
+
+    public void testRegistry() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        SessionRegistry registry = new SessionRegistry(server);
+        Expect4j expect = new Expect4j(new StringPair("router-1# "));
+
+        SessionCounters counters = registry.register(expect, "router-1");
+        assertSame(counters, expect.getMetrics());
+        assertEquals(1, registry.size());
+        ObjectName name = registry.getObjectName(expect);
+        assertTrue(server.isRegistered(name));
+        assertEquals("\"router-1\"", name.getKeyProperty("name"));
+
+        assertEquals(0, expect.expect(Arrays.<Match>asList(new GlobMatch("*# ", null))));
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "MatchCount"));
+
+        expect.close();
+        assertFalse(server.isRegistered(name));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.EofMatch;
+import expect4j.matches.Match;
+import expect4j.matches.RegExpMatch;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.*;
+
+/**
+ * Tests recording sessions and replaying them.
+ */
+public class SessionRecordingTest extends TestCase {
+    public SessionRecordingTest(String testName) {
+        super(testName);
+    }
+
+    static void record(SessionRecorder recorder, String chunk) {
+        recorder.bufferChanged(chunk.toCharArray(), chunk.length());
+    }
+
+    static String readAll(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[7];
+        int len;
+        while ((len = reader.read(cbuf, 0, cbuf.length)) != -1)
+            sb.append(cbuf, 0, len);
+        return sb.toString();
+    }
+
+    /**
+     * Records three chunks, 100ms apart.
+     */
+    static SessionRecording paced() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(bytes);
+        record(recorder, "login: ");
+        Thread.sleep(100);
+        record(recorder, "Password: été\r\n");
+        Thread.sleep(100);
+        record(recorder, "router#");
+        recorder.close();
+        assertEquals(3, recorder.getChunkCount());
+        return SessionRecording.wrap(bytes.toByteArray());
+    }
+
+    public void testRoundTrip() throws Exception {
+        SessionRecording recording = paced();
+        assertEquals(3, recording.getChunkCount());
+        assertTrue(recording.getDurationNanos() >= 200000000L);
+
+        ReplayPair pair = new ReplayPair(recording, ReplayPair.MAX_SPEED);
+        long start = System.nanoTime();
+        assertEquals("login: Password: été\r\nrouter#", readAll(pair.getReader()));
+        assertTrue(System.nanoTime() - start < 100000000L);
+
+        // and again, from the same recording
+        pair.reset();
+        assertEquals("login: Password: été\r\nrouter#", readAll(pair.getReader()));
+    }
+
+    public void testTimedReplay() throws Exception {
+        SessionRecording recording = paced();
+
+        ReplayPair pair = new ReplayPair(recording, 4.0);
+        long start = System.nanoTime();
+        assertEquals("login: Password: été\r\nrouter#", readAll(pair.getReader()));
+        long elapsed = System.nanoTime() - start;
+        assertTrue("Replayed in " + elapsed + "ns", elapsed >= 48000000L);
+        assertTrue("Replayed in " + elapsed + "ns", elapsed < 180000000L);
+    }
+
+    public void testRecordAndReplaySession() throws Exception {
+        File file = File.createTempFile("session", ".e4jr");
+        file.deleteOnExit();
+
+        SessionRecorder recorder = new SessionRecorder(file);
+        Expect4j expect = new Expect4j(new DelayedPair("Welcome to the router router#", 20, 1));
+        expect.registerBufferChangeLogger(recorder);
+        assertEquals(0, expect.expect(new Match[] { new RegExpMatch("router#", null) }));
+        // loggers are called after the match wakes up, so wait for EOF
+        // to be sure the recorder has seen every chunk
+        assertEquals(0, expect.expect(new Match[] { new EofMatch() }));
+        expect.close();
+        recorder.close();
+
+        SessionRecording recording = SessionRecording.open(file);
+        assertTrue(recording.getChunkCount() > 1);
+
+        ReplayPair pair = new ReplayPair(recording, 4.0);
+        Expect4j replay = new Expect4j(pair);
+        assertEquals(0, replay.expect(new Match[] { new RegExpMatch("Welcome.*router#", null) }));
+        replay.send("show version\r");
+        assertEquals(13, pair.getCharsSent());
+        replay.close();
+    }
+
+    public void testClose() throws Exception {
+        ReplayPair pair = new ReplayPair(paced(), 0.01);
+        char[] cbuf = new char[64];
+        assertEquals(7, pair.getReader().read(cbuf, 0, cbuf.length));
+        pair.close();
+        assertEquals(-1, pair.getReader().read(cbuf, 0, cbuf.length));
+    }
+
+    public void testCloseWhileWaiting() throws Exception {
+        final ReplayPair pair = new ReplayPair(paced(), 0.01);
+        final char[] cbuf = new char[64];
+        assertEquals(7, pair.getReader().read(cbuf, 0, cbuf.length));
+
+        // the next chunk is ten seconds off
+        final List<Integer> reads = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    reads.add(pair.getReader().read(cbuf, 0, cbuf.length));
+                    reads.add(pair.getReader().read(cbuf, 0, cbuf.length));
+                } catch (IOException ioe) {
+                    reads.add(-2);
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(50);
+
+        // a rewind neither waits for the parked reader nor leaves it
+        // waiting for the old chunk
+        long start = System.nanoTime();
+        pair.reset();
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList(7), reads);
+
+        pair.close();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertEquals(Arrays.asList(7, -1), reads);
+    }
+
+    public void testNotARecording() throws Exception {
+        try {
+            SessionRecording.wrap("Welcome to the router".getBytes("UTF-8"));
+            fail("Expected an IOException");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}
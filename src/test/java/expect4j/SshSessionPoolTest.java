@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j;
+
+import expect4j.matches.*;
+import java.io.IOException;
+import junit.framework.*;
+
+/**
+ * Tests handing a pooled channel from one borrower to the next, without
+ * an SSH server.
+ */
+public class SshSessionPoolTest extends TestCase {
+    public SshSessionPoolTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Collects what it is given.
+     */
+    static class Collector implements BufferChangeLogger {
+        final StringBuffer data = new StringBuffer();
+
+        public void bufferChanged(char[] newData, int numChars) {
+            data.append(newData, 0, numChars);
+        }
+    }
+
+    public void testLeaseEnds() throws Exception {
+        DelayedPair pair = new DelayedPair("first second third", 100, 1);
+        ExpectConsumer consumer = Expect4j.createConsumer(pair);
+        Thread thread = new Thread(consumer);
+        thread.setDaemon(true);
+        thread.start();
+        int maxBufferSize = consumer.getMaxBufferSize();
+
+        SshSessionPool.Lease lease = new SshSessionPool.Lease(consumer, maxBufferSize);
+        Expect4j first = new Expect4j(pair, lease);
+        Collector collector = new Collector();
+        first.registerBufferChangeLogger(collector);
+        first.setMatchMax(4096);
+        assertEquals(0, first.expect(new Match[] { new GlobMatch("first", null) }));
+        first.close();
+        lease.end();
+
+        // the consumer keeps running for the next borrower, as it was
+        assertFalse(consumer.foundEOF());
+        assertEquals(maxBufferSize, consumer.getMaxBufferSize());
+        Expect4j second = new Expect4j(pair, new SshSessionPool.Lease(consumer, maxBufferSize));
+        assertEquals(0, second.expect(new Match[] { new GlobMatch("third", null) }));
+        assertEquals(-1, collector.data.indexOf("third"));
+
+        // the first borrower can't reach the channel any more
+        try {
+            first.send("exit\r");
+            fail("Sent after the lease ended");
+        } catch (IOException ioe) {
+            // expected
+        }
+        assertEquals(Expect4j.RET_EOF, first.expect(new Match[] { new GlobMatch("third", null) }));
+        assertEquals("", pair.getResult());
+
+        second.close();
+        consumer.stop();
+    }
+}
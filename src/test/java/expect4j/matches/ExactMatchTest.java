@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import expect4j.*;
+import java.util.*;
+import junit.framework.*;
+import org.apache.oro.text.regex.*;
+
+public class ExactMatchTest extends TestCase {
+
+    final String buffer = "Username: admin\r\nPassword: [*] ok? $ ";
+
+    public ExactMatchTest(String testName) {
+        super(testName);
+    }
+
+    public void testIndexOf() throws Exception {
+        char[] text = buffer.toCharArray();
+
+        ExactMatch instance = new ExactMatch("Password:", null);
+        assertEquals("Password:", instance.getLiteral());
+        assertEquals(17, instance.indexOf(text, 0, text.length));
+        assertEquals(17, instance.indexOf(text, 17, text.length));
+        assertEquals(-1, instance.indexOf(text, 18, text.length));
+        assertEquals(-1, instance.indexOf(text, 0, 25)); // must fit before the end
+
+        // glob and regexp characters are plain text
+        instance = new ExactMatch("[*] ok?", null);
+        assertEquals(27, instance.indexOf(text, 0, text.length));
+
+        // characters that share a slot in the skip table
+        instance = new ExactMatch("\u0141A", null);
+        assertEquals(2, instance.indexOf("AA\u0141A".toCharArray(), 0, 4));
+    }
+
+    public void testPattern() throws Exception {
+        ExactMatch instance = new ExactMatch("[*] ok?", null);
+        Perl5Matcher matcher = new Perl5Matcher();
+        assertTrue(matcher.contains(buffer, instance.getPattern()));
+        assertEquals("[*] ok?", matcher.getMatch().group(0));
+    }
+
+    public void testSeveralLiterals() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new ExactMatch("$ ", null) );
+        pairs.add( new ExactMatch("Password: [", null) );
+        pairs.add( new RegExpMatch("P\\w+", null) );
+        pairs.add( new ExactMatch("Password:", null) );
+        pairs.add( new ExactMatch("name", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        char[] text = buffer.toCharArray();
+
+        assertEquals(4, set.find(text, 0, text.length, 0));
+        assertEquals(4, set.getMatch().beginOffset(0));
+
+        // "Password: [", the regexp and "Password:" all start at 17
+        assertEquals(1, set.find(text, 0, text.length, 10));
+        assertEquals("Password: [", set.getMatch().toString());
+        assertEquals(28, set.getMatch().endOffset(0));
+
+        assertEquals(0, set.find(text, 0, text.length, 18));
+        assertEquals(-1, set.find(text, 0, text.length, 36));
+    }
+
+    public void testOverlappingLiterals() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new ExactMatch("bcd", null) );
+        pairs.add( new ExactMatch("abcde", null) );
+        pairs.add( new ExactMatch("cx", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        char[] text = "xabcdx".toCharArray();
+        assertEquals(0, set.find(text, 0, text.length, 0));
+        assertEquals(2, set.getMatch().beginOffset(0));
+    }
+
+    public void testExpect() throws Exception {
+        Expect4j instance = new Expect4j(new StringPair(buffer));
+        instance.setDefaultTimeout(2000);
+
+        int index = instance.expect(new Match[] {
+            new ExactMatch("*", null),
+            new GlobMatch("Pass*:", null),
+        });
+        assertEquals(1, index);
+        assertEquals("Username: admin\r\nPassword:", instance.getLastState().getBuffer());
+
+        index = instance.expect(new Match[] {
+            new ExactMatch("*", null),
+        });
+        assertEquals(0, index);
+        assertEquals("*", instance.getLastState().getMatch());
+        assertEquals(" [*", instance.getLastState().getBuffer());
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.Random;
+import junit.framework.*;
+import org.apache.oro.text.regex.*;
+
+/**
+ * Checks the linear time engine against java.util.regex, and that it
+ * stays linear where a backtracking matcher would not.
+ */
+public class LinearRegexEngineTest extends TestCase {
+
+    final LinearRegexEngine engine = LinearRegexEngine.INSTANCE;
+
+    public LinearRegexEngineTest(String testName) {
+        super(testName);
+    }
+
+    MatchResult search(String regex, String buffer) throws Exception {
+        char[] text = buffer.toCharArray();
+        return engine.newSearcher().search(engine.compile(regex), text, 0, text.length, 0);
+    }
+
+    public void testLeftmostFirst() throws Exception {
+        assertEquals("a", search("a|ab", "xab").group(0));
+        assertEquals("ab", search("ab|a", "xab").group(0));
+        assertEquals(1, search("b+|a", "cab").beginOffset(0));
+        assertEquals("aaa", search("a*", "aaab").group(0));
+        assertEquals("", search("a*?", "aaab").group(0));
+        assertEquals("a", search("a+?", "aaab").group(0));
+        assertEquals("<b>", search("<.+?>", "<b>x</b>").group(0));
+        assertEquals("<b>x</b>", search("<.+>", "<b>x</b>").group(0));
+    }
+
+    public void testGroups() throws Exception {
+        MatchResult result = search("User=(.+) Date=(.+) Time=([^\r]+)\r", "User=justin Date=2007 Time=12:00\r\n");
+        assertEquals(4, result.groups());
+        assertEquals("justin", result.group(1));
+        assertEquals("2007", result.group(2));
+        assertEquals("12:00", result.group(3));
+
+        result = search("(a)|(b)", "b");
+        assertNull(result.group(1));
+        assertEquals(-1, result.beginOffset(1));
+        assertEquals("b", result.group(2));
+
+        result = search("(?:(\\d+)\\.)+", "10.0.0.1");
+        assertEquals("10.0.0.", result.group(0));
+        assertEquals("0", result.group(1));
+    }
+
+    public void testSyntax() throws Exception {
+        assertEquals("a{2}", search("a\\{2\\}", "a{2}").group(0));
+        assertEquals("aaa", search("a{2,3}", "aaaa").group(0));
+        assertEquals("aa", search("a{2,}?", "aaaa").group(0));
+        assertEquals("x{y", search("x{y", "x{y").group(0));
+        assertEquals("]-a", search("[]a-]+", "]-a").group(0));
+        assertEquals("Q", search("[^\\w\\s]|Q", "a Q").group(0));
+        assertEquals("\u001b[0m", search("\\e\\[\\d*m", "\u001b[0m").group(0));
+        assertEquals("\r\n", search("\\x0d\\012", "\r\n").group(0));
+        assertEquals("dog", search("\\bdog\\b", "hotdog dog").group(0));
+        assertEquals(3, search("\\Bdog", "hotdog dog").beginOffset(0));
+        assertEquals("#", search("#$", "# \n#\n").group(0));
+        assertEquals(3, search("#$", "# \n#\n").beginOffset(0));
+        assertNull(search("#\\z", "# \n#\n"));
+        assertNull(search("(?#comment)^b", "ab"));
+    }
+
+    public void testFallback() throws Exception {
+        assertTrue(engine.isLinear(engine.compile("switch-\\d+#")));
+        assertTrue(engine.isLinear(new GlobMatch("Password:*", null).getPattern(engine)));
+
+        Pattern backreference = engine.compile("(\\w)\\1");
+        assertFalse(engine.isLinear(backreference));
+        char[] text = "abccd".toCharArray();
+        MatchResult result = engine.newSearcher().search(backreference, text, 0, text.length, 0);
+        assertEquals("cc", result.group(0));
+
+        assertFalse(engine.isLinear(engine.compile("foo(?=bar)")));
+        try {
+            engine.compile("(unclosed");
+            fail();
+        } catch (MalformedPatternException mpe) {
+            // expected
+        }
+    }
+
+    /**
+     * Output that almost matches a nested quantifier takes exponential
+     * time to reject by backtracking
+     */
+    public void testPathological() throws Exception {
+        StringBuilder output = new StringBuilder();
+        while (output.length() < 100000)
+            output.append("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa \n");
+
+        long start = System.nanoTime();
+        assertNull(search("(.*\\s*)*#", output.toString()));
+        assertNull(search("(a|aa)+$x", output.toString()));
+        assertNull(search("^(\\w+\\s?)*$x", output.toString()));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue("Took " + elapsed + "ms", elapsed < 5000);
+    }
+
+    public void testAgainstJdk() throws Exception {
+        String[] patterns = {
+            "a", "ab|b", "a*b", "(a|b)*#", "[ab]+?#", "^a", "b$", "\\bab\\b", "\\Ba",
+            "(a+)(b*)", "(a|ab)(c|bcd)?", "a{2,3}", "(?:ab){1,2}?b", ".#", "#\\s*$",
+            "(\\w+)-(\\d)", "[^a#]+", "a??b", "\\n#", "\\A\\w",
+        };
+        String alphabet = "ab# \n-1_";
+        Random random = new Random(42);
+        RegexSearcher linear = engine.newSearcher();
+        RegexSearcher jdk = JdkRegexEngine.INSTANCE.newSearcher();
+
+        for (String regex : patterns) {
+            Pattern linearPattern = engine.compile(regex);
+            assertTrue(regex, engine.isLinear(linearPattern));
+            Pattern jdkPattern = JdkRegexEngine.INSTANCE.compile(regex);
+            for (int n = 0; n < 300; n++) {
+                char[] text = new char[random.nextInt(12)];
+                for (int i = 0; i < text.length; i++)
+                    text[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+                int from = (text.length == 0) ? 0 : random.nextInt(text.length + 1);
+
+                MatchResult expected = jdk.search(jdkPattern, text, 0, text.length, from);
+                MatchResult actual = linear.search(linearPattern, text, 0, text.length, from);
+                String where = regex + " on \"" + new String(text) + "\" from " + from;
+                if (expected == null) {
+                    assertNull(where, actual);
+                    continue;
+                }
+                assertNotNull(where, actual);
+                assertEquals(where, expected.groups(), actual.groups());
+                for (int g = 0; g < expected.groups(); g++) {
+                    assertEquals(where + " group " + g, expected.beginOffset(g), actual.beginOffset(g));
+                    assertEquals(where + " group " + g, expected.endOffset(g), actual.endOffset(g));
+                }
+            }
+        }
+    }
+
+    public void testDfaKeptWithPattern() throws Exception {
+        Pattern pattern = engine.compile("router\\d#");
+        char[] text = "loading router1#".toCharArray();
+
+        // Every expect has a searcher of its own, yet the states carry over
+        assertNotNull(engine.newSearcher().search(pattern, text, 0, text.length, 0));
+        LazyDfa dfa = ((LinearRegexEngine.LinearPattern) pattern).dfa.get();
+        assertNotNull(dfa);
+        int states = dfa.states.size();
+        assertNotNull(engine.newSearcher().search(pattern, text, 0, text.length, 0));
+        assertSame(dfa, ((LinearRegexEngine.LinearPattern) pattern).dfa.get());
+        assertEquals(states, dfa.states.size());
+    }
+
+    /**
+     * A DFA for "an a thirteen characters back" needs thousands of
+     * states, more than the cache keeps
+     */
+    public void testDfaStatesBounded() throws Exception {
+        Pattern pattern = engine.compile("a[ab]{12}#");
+        char[] text = new char[200000];
+        Random random = new Random(42);
+        for (int i = 0; i < text.length; i++)
+            text[i] = random.nextBoolean() ? 'a' : 'b';
+
+        RegexSearcher searcher = engine.newSearcher();
+        assertNull(searcher.search(pattern, text, 0, text.length, 0));
+        LazyDfa dfa = ((LinearRegexEngine.LinearPattern) pattern).dfa.get();
+        assertTrue(dfa.states.size() <= LazyDfa.MAX_STATES);
+
+        // the start states were dropped along with the rest
+        assertSame(dfa.startNonWord, dfa.states.get(dfa.startNonWord));
+        assertSame(dfa.startWord, dfa.states.get(dfa.startWord));
+
+        text[text.length - 1] = '#';
+        text[text.length - 14] = 'a';
+        MatchResult result = searcher.search(pattern, text, 0, text.length, 0);
+        assertNotNull(result);
+        assertEquals(text.length - 14, result.beginOffset(0));
+        assertTrue(dfa.states.size() <= LazyDfa.MAX_STATES);
+    }
+
+    public void testExpect() throws Exception {
+        expect4j.Expect4j instance = new expect4j.Expect4j(new expect4j.StringPair("login: admin\r\nswitch-01# "));
+        instance.setRegexEngine(engine);
+        assertEquals(0, instance.expect(new Match[] { new RegExpMatch("(\\w+)-(\\d+)# $", null) }));
+        assertEquals("switch", instance.getLastState().getMatch(1));
+    }
+}
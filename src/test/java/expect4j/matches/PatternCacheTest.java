@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.*;
+import org.apache.oro.text.regex.*;
+
+public class PatternCacheTest extends TestCase {
+
+    PatternCache previous;
+    PatternCache cache;
+
+    public PatternCacheTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        previous = PatternCache.getShared();
+        cache = new PatternCache(PatternCache.DEFAULT_MAXIMUM_SIZE);
+        PatternCache.setShared(cache);
+    }
+
+    protected void tearDown() throws Exception {
+        PatternCache.setShared(previous);
+    }
+
+    public void testSharedBetweenMatches() throws Exception {
+        // compiled on first use, by the engine in use
+        GlobMatch first = new GlobMatch("*Password:", null);
+        assertEquals(0, cache.getMissCount());
+        Pattern pattern = first.getPattern();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        GlobMatch second = new GlobMatch("*Password:", null);
+        assertSame(pattern, second.getPattern());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testKeyedByKindAndEngine() throws Exception {
+        Pattern glob = new GlobMatch("a*", null).getPattern();
+        Pattern regexp = new RegExpMatch("a*", null).getPattern();
+        Pattern jdk = new RegExpMatch("a*", null, JdkRegexEngine.INSTANCE).getPattern();
+        assertNotSame(glob, regexp);
+        assertNotSame(regexp, jdk);
+        assertEquals("a*", regexp.getPattern());
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    public void testAlternation() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add(new GlobMatch("login:", null));
+        pairs.add(new RegExpMatch("[Pp]assword:", null));
+
+        // only the two patterns and their alternation are looked up
+        PatternSet first = new PatternSet(pairs);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.size());
+        long hits = cache.getHitCount();
+        PatternSet second = new PatternSet(pairs);
+        assertSame(first.combined, second.combined);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    public void testEviction() throws Exception {
+        PatternCache small = new PatternCache(2);
+        RegexEngine engine = OroRegexEngine.INSTANCE;
+        Pattern a = small.compile(PatternCache.REGEXP, "a", engine);
+        small.compile(PatternCache.REGEXP, "b", engine);
+
+        // "a" becomes the most recently used, so "b" is evicted
+        assertSame(a, small.compile(PatternCache.REGEXP, "a", engine));
+        small.compile(PatternCache.REGEXP, "c", engine);
+        assertEquals(2, small.size());
+        assertEquals(1, small.getEvictionCount());
+        assertNotNull(small.get(PatternCache.REGEXP, "a", engine));
+        assertNull(small.get(PatternCache.REGEXP, "b", engine));
+    }
+
+    public void testDisabled() throws Exception {
+        PatternCache.setShared(new PatternCache(0));
+        Pattern first = new RegExpMatch("x+", null).getPattern();
+        Pattern second = new RegExpMatch("x+", null).getPattern();
+        assertNotSame(first, second);
+        assertEquals(0, PatternCache.getShared().size());
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final PatternCache shared = new PatternCache(64);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            String source = "prompt" + (i % 100) + "#";
+                            Pattern pattern = shared.compile(PatternCache.REGEXP, source, OroRegexEngine.INSTANCE);
+                            assertEquals(source, pattern.getPattern());
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure[0]);
+        assertTrue(shared.size() <= 64);
+        assertEquals(8 * 2000, shared.getHitCount() + shared.getMissCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.*;
+import junit.framework.*;
+import org.apache.oro.text.regex.*;
+
+public class PatternSetTest extends TestCase {
+
+    final String buffer = "The quick brown fox jumps over the lazy dog";
+
+    char[] text;
+
+    public PatternSetTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        text = buffer.toCharArray();
+    }
+
+    public void testEarliestWins() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new GlobMatch("lazy", null) );
+        pairs.add( new RegExpMatch("j.mps", null) );
+        pairs.add( new GlobMatch("brown", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        assertEquals(3, set.getCombinedCount());
+
+        assertEquals(2, set.find(text, 0, text.length, 0));
+        assertEquals("brown", set.getMatch().toString());
+        assertEquals(10, set.getMatch().beginOffset(0));
+    }
+
+    public void testTieGoesToFirstPattern() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new GlobMatch("excited", null) );
+        pairs.add( new RegExpMatch("quick brown", null) );
+        pairs.add( new GlobMatch("quick", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        assertEquals(1, set.find(text, 0, text.length, 0));
+        assertEquals("quick brown", set.getMatch().toString());
+    }
+
+    public void testGroupsOfLaterPattern() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new RegExpMatch("(l)(a)(z)(y) cat", null) );
+        pairs.add( new RegExpMatch("(\\w+) (f[aeiou]x)", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        assertEquals(2, set.getCombinedCount());
+        assertEquals(1, set.find(text, 0, text.length, 0));
+
+        MatchResult result = set.getMatch();
+        assertEquals("brown fox", result.group(0));
+        assertEquals("brown", result.group(1));
+        assertEquals("fox", result.group(2));
+    }
+
+    public void testStartOffset() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new GlobMatch("the", null) );
+        pairs.add( new GlobMatch("The", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        assertEquals(1, set.find(text, 0, text.length, 0));
+        assertEquals(0, set.find(text, 0, text.length, 1));
+        assertEquals(-1, set.find(text, 0, text.length, 33));
+        assertNull(set.getMatch());
+    }
+
+    public void testBackreferenceSearchedApart() throws Exception {
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new RegExpMatch("(o)\\w+ \\w+\\1", null) );
+        pairs.add( new GlobMatch("lazy", null) );
+        pairs.add( new GlobMatch("dog", null) );
+
+        PatternSet set = new PatternSet(pairs);
+        assertEquals(2, set.getCombinedCount());
+        assertEquals(0, set.find(text, 0, text.length, 0));
+        assertEquals("own fo", set.getMatch().toString());
+    }
+
+    public void testCountGroups() {
+        assertEquals(0, PatternSet.countGroups("abc"));
+        assertEquals(2, PatternSet.countGroups("(a)(?:b)(c)"));
+        assertEquals(0, PatternSet.countGroups("\\(a\\)[(]"));
+        assertEquals(1, PatternSet.countGroups("[]()](x)"));
+        assertFalse(PatternSet.isCombinable("(a)\\1"));
+        assertFalse(PatternSet.isCombinable("(?i)abc"));
+        assertTrue(PatternSet.isCombinable("(?=a)[\\1]"));
+        assertEquals(2, PatternSet.countGroups("(?<a>x)(?<=y)(?<!z)(b)"));
+        assertEquals(1, PatternSet.countGroups("\\Q(a)\\E(b)"));
+    }
+
+    public void testNamedGroupsCombined() throws Exception {
+        char[] text = "a fox qr".toCharArray();
+        List<PatternPair> pairs = new ArrayList<>();
+        pairs.add( new RegExpMatch("(?<a>q)r", null) );
+        pairs.add( new RegExpMatch("f(o)x", null) );
+
+        PatternSet set = new PatternSet(pairs, JdkRegexEngine.INSTANCE);
+        assertEquals(2, set.getCombinedCount());
+        assertEquals(1, set.find(text, 0, text.length, 0));
+        assertEquals("fox", set.getMatch().group(0));
+        assertEquals("o", set.getMatch().group(1));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2007 Justin Ryan
+ * Copyright (c) 2013 Chris Verges <chris.verges@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package expect4j.matches;
+
+import java.util.Arrays;
+import junit.framework.*;
+import org.apache.oro.text.regex.*;
+
+/**
+ * Runs the same searches through every engine, which must agree on
+ * offsets and groups.
+ */
+public class RegexEngineTest extends TestCase {
+
+    final String buffer = "login: admin\r\nPassword: \r\nswitch-01# show ver\r\nswitch-01# ";
+
+    final RegexEngine[] engines = { OroRegexEngine.INSTANCE, JdkRegexEngine.INSTANCE, LinearRegexEngine.INSTANCE };
+
+    public RegexEngineTest(String testName) {
+        super(testName);
+    }
+
+    MatchResult search(RegexEngine engine, String regex, int begin, int from) throws Exception {
+        char[] text = buffer.toCharArray();
+        return engine.newSearcher().search(engine.compile(regex), text, begin, text.length, from);
+    }
+
+    public void testGroups() throws Exception {
+        for (RegexEngine engine : engines) {
+            MatchResult result = search(engine, "(\\w+)-(\\d+)# (show)?", 0, 0);
+            assertNotNull(engine.getName(), result);
+            assertEquals(engine.getName(), "switch-01# show", result.group(0));
+            assertEquals(engine.getName(), 4, result.groups());
+            assertEquals(engine.getName(), "switch", result.group(1));
+            assertEquals(engine.getName(), "01", result.group(2));
+            assertEquals(engine.getName(), 26, result.beginOffset(0));
+            assertEquals(engine.getName(), 33, result.beginOffset(2));
+            assertEquals(engine.getName(), 7, result.begin(2));
+            assertEquals(engine.getName(), 9, result.end(2));
+        }
+    }
+
+    public void testFromOffset() throws Exception {
+        for (RegexEngine engine : engines) {
+            MatchResult result = search(engine, "switch-01# ", 0, 27);
+            assertNotNull(engine.getName(), result);
+            assertEquals(engine.getName(), buffer.lastIndexOf("switch"), result.beginOffset(0));
+            assertEquals(engine.getName(), buffer.length(), result.endOffset(0));
+
+            assertNull(engine.getName(), search(engine, "login", 0, 1));
+        }
+    }
+
+    public void testAnchors() throws Exception {
+        for (RegexEngine engine : engines) {
+            // ^ and $ are anchored to the input, not to lines
+            assertEquals(engine.getName(), 0, search(engine, "^login", 0, 0).beginOffset(0));
+            assertNull(engine.getName(), search(engine, "^Password", 0, 0));
+            assertNull(engine.getName(), search(engine, "^Password", 0, 14));
+            assertNotNull(engine.getName(), search(engine, "# $", 0, 0));
+        }
+    }
+
+    public void testDotMatchesNewline() throws Exception {
+        for (RegexEngine engine : engines) {
+            MatchResult result = search(engine, "admin.+?Password", 0, 0);
+            assertNotNull(engine.getName(), result);
+            assertEquals(engine.getName(), "admin\r\nPassword", result.group(0));
+        }
+    }
+
+    public void testOptions() throws Exception {
+        for (RegexEngine engine : engines)
+            assertEquals(engine.getName(), engine.getOptions(), engine.compile("a+#").getOptions());
+    }
+
+    public void testMalformed() throws Exception {
+        for (RegexEngine engine : engines) {
+            try {
+                engine.compile("(unclosed");
+                fail(engine.getName());
+            } catch (MalformedPatternException mpe) {
+                // expected
+            }
+        }
+    }
+
+    public void testCompiledByEngineInUse() throws Exception {
+        // named groups are JDK syntax that ORO rejects
+        RegExpMatch instance = new RegExpMatch("(?<digit>\\d)", null);
+        assertNotNull(instance.getPattern(JdkRegexEngine.INSTANCE));
+        assertNull(instance.getPattern());
+        try {
+            new PatternSet(Arrays.asList(instance), OroRegexEngine.INSTANCE);
+            fail("ORO compiled a named group");
+        } catch (MalformedPatternException mpe) {
+            // expected
+        }
+
+        try {
+            new RegExpMatch("(?<digit>\\d)", null, OroRegexEngine.INSTANCE);
+            fail("ORO compiled a named group");
+        } catch (MalformedPatternException mpe) {
+            // expected
+        }
+    }
+
+    public void testPatternPerEngine() throws Exception {
+        GlobMatch instance = new GlobMatch("switch-*# ", null);
+        assertSame(OroRegexEngine.INSTANCE, instance.getEngine());
+        assertFalse(instance.isEngineFixed());
+        assertSame(instance.getPattern(), instance.getPattern(OroRegexEngine.INSTANCE));
+
+        Pattern jdk = instance.getPattern(JdkRegexEngine.INSTANCE);
+        assertSame(jdk, instance.getPattern(JdkRegexEngine.INSTANCE));
+        assertEquals(instance.getPattern().getPattern(), jdk.getPattern());
+
+        char[] text = buffer.toCharArray();
+        MatchResult result = JdkRegexEngine.INSTANCE.newSearcher().search(jdk, text, 0, text.length, 0);
+        assertEquals("switch-01# show ver\r\nswitch-01# ", result.group(0));
+
+        instance = new GlobMatch("switch-*# ", null, JdkRegexEngine.INSTANCE);
+        assertSame(JdkRegexEngine.INSTANCE, instance.getEngine());
+        assertTrue(instance.isEngineFixed());
+    }
+}